@@ -0,0 +1,336 @@
+package xpertss.auth.tkt;
+
+import xpertss.lang.Numbers;
+import xpertss.lang.Objects;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+/**
+ * An asynchronous audit log of rejected authentication attempts.
+ * <p>
+ * Request threads {@link #publish(String, String, String, String) publish} records to a
+ * bounded lock free ring buffer and never block or perform I/O. A single daemon thread
+ * drains the buffer in batches, appending one line per record to a file that is rolled
+ * once it reaches a configured size:
+ * <pre>
+ *    2018-10-25T14:02:11.482Z INVALID 10.1.2.3 GET /app/page.do
+ * </pre>
+ * Fields are separated by a single space and any character outside of printable ASCII,
+ * including whitespace within a field, is replaced with {@code ?} so that a line can
+ * not be forged by the values it records. Absent values are written as {@code -}.
+ * <p>
+ * When the buffer is full records are dropped rather than slowing down the request. The
+ * number of dropped records is available from {@link #getDropped()} and whenever records
+ * were dropped the writer notes how many in the file:
+ * <pre>
+ *    2018-10-25T14:02:11.517Z DROPPED 1289
+ * </pre>
+ */
+public final class AuditLog implements Closeable {
+
+   private static final int BATCH_SIZE = 512;
+   private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+   private final AtomicLong dropped = new AtomicLong();
+   private final AtomicLong tail = new AtomicLong();
+   private final AtomicLongArray sequences;
+   private final Entry[] entries;
+   private final int mask;
+
+   private final Path file;
+   private final long maxFileBytes;
+   private final int maxFiles;
+   private final Thread thread;
+
+   private volatile boolean closed;
+
+   // owned by the writer thread
+   private long head;
+   private volatile long written;
+   private long reported;
+   private long fileBytes;
+   private Writer out;
+
+
+   /**
+    * Create an audit log appending to the given file with a buffer of 8192 records,
+    * rolling the file at 10MB and keeping 5 rolled files.
+    *
+    * @param file The audit file to append to
+    * @throws IOException if the file can not be opened
+    */
+   public AuditLog(Path file)
+      throws IOException
+   {
+      this(file, 8192, 10L * 1024 * 1024, 5);
+   }
+
+   /**
+    * Create an audit log appending to the given file.
+    * <p>
+    * When the file reaches the given size it is renamed with the suffix {@code .1},
+    * any previously rolled files are shifted up by one, and the file with the suffix
+    * {@code .maxFiles} is deleted.
+    *
+    * @param file The audit file to append to
+    * @param capacity The number of records buffered, rounded up to a power of two
+    * @param maxFileBytes The size at which the file is rolled
+    * @param maxFiles The number of rolled files kept
+    * @throws IOException if the file can not be opened
+    */
+   public AuditLog(Path file, int capacity, long maxFileBytes, int maxFiles)
+      throws IOException
+   {
+      this(file, capacity, maxFileBytes, maxFiles, true);
+   }
+
+   AuditLog(Path file, int capacity, long maxFileBytes, int maxFiles, boolean start)
+      throws IOException
+   {
+      Numbers.within(1, 1 << 24, capacity, "capacity must be between 1 and 16M");
+      this.file = Objects.notNull(file, "file").toAbsolutePath();
+      this.maxFileBytes = Numbers.gt(0L, maxFileBytes, "maxFileBytes must be positive");
+      this.maxFiles = Numbers.gte(0, maxFiles, "maxFiles must not be negative");
+
+      int size = 1;
+      while(size < capacity) size <<= 1;
+      this.entries = new Entry[size];
+      this.sequences = new AtomicLongArray(size);
+      this.mask = size - 1;
+      for(int i = 0; i < size; i++) sequences.set(i, i);
+
+      open();
+      this.thread = new Thread(this::run, "auth-tkt-audit");
+      this.thread.setDaemon(true);
+      if(start) this.thread.start();
+   }
+
+
+   /**
+    * Publish a record of a rejected authentication attempt. This never blocks. If the
+    * buffer is full the record is dropped and counted.
+    *
+    * @param outcome The reason the attempt was rejected
+    * @param remoteIp The remote IP of the client or {@code null}
+    * @param method The request method or {@code null}
+    * @param uri The request uri or {@code null}
+    * @return {@code true} if the record was buffered, {@code false} if it was dropped
+    */
+   public boolean publish(String outcome, String remoteIp, String method, String uri)
+   {
+      if(closed) return false;
+      long pos = tail.get();
+      for(;;) {
+         long diff = sequences.get((int) pos & mask) - pos;
+         if(diff == 0) {
+            if(tail.compareAndSet(pos, pos + 1)) break;
+            pos = tail.get();
+         } else if(diff < 0) {
+            dropped.incrementAndGet();
+            return false;
+         } else {
+            pos = tail.get();
+         }
+      }
+      int idx = (int) pos & mask;
+      entries[idx] = new Entry(System.currentTimeMillis(), outcome, remoteIp, method, uri);
+      sequences.lazySet(idx, pos + 1);
+      return true;
+   }
+
+   /**
+    * Returns the number of records dropped because the buffer was full.
+    */
+   public long getDropped()
+   {
+      return dropped.get();
+   }
+
+   /**
+    * Returns the number of records written to the file.
+    */
+   public long getWritten()
+   {
+      return written;
+   }
+
+   /**
+    * Stop accepting records, write those already buffered, and close the file.
+    */
+   @Override
+   public void close()
+      throws IOException
+   {
+      if(closed) return;
+      closed = true;
+      if(thread.getState() == Thread.State.NEW) {
+         try {
+            drain();
+         } finally {
+            out.close();
+         }
+      } else {
+         LockSupport.unpark(thread);
+         try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+         } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+
+
+
+   private void run()
+   {
+      try {
+         while(!closed) {
+            if(drain() == 0) LockSupport.parkNanos(this, IDLE_NANOS);
+         }
+         drain();
+      } catch(IOException e) {
+         // the file can no longer be written, records published from now on are dropped
+         closed = true;
+      } finally {
+         try {
+            out.close();
+         } catch(IOException e) {
+            // nothing to do
+         }
+      }
+   }
+
+   /**
+    * Write every buffered record in batches returning the number written.
+    */
+   int drain()
+      throws IOException
+   {
+      int total = 0;
+      for(int count = BATCH_SIZE; count == BATCH_SIZE; total += count) {
+         count = 0;
+         for(Entry entry; count < BATCH_SIZE && (entry = poll()) != null; count++) {
+            write(entry.render());
+         }
+         long drops = dropped.get();
+         if(drops != reported) {
+            write(Instant.now() + " DROPPED " + (drops - reported));
+            reported = drops;
+            out.flush();
+         } else if(count > 0) {
+            out.flush();
+         }
+         written += count;
+      }
+      return total;
+   }
+
+   private Entry poll()
+   {
+      int idx = (int) head & mask;
+      if(sequences.get(idx) != head + 1) return null;
+      Entry entry = entries[idx];
+      entries[idx] = null;
+      sequences.lazySet(idx, head + entries.length);
+      head++;
+      return entry;
+   }
+
+   private void write(String line)
+      throws IOException
+   {
+      if(fileBytes > 0 && fileBytes + line.length() + 1 > maxFileBytes) roll();
+      out.write(line);
+      out.write('\n');
+      fileBytes += line.length() + 1;
+   }
+
+   private void roll()
+      throws IOException
+   {
+      out.close();
+      if(maxFiles > 0) {
+         Files.deleteIfExists(rolled(maxFiles));
+         for(int i = maxFiles - 1; i > 0; i--) {
+            if(Files.exists(rolled(i))) Files.move(rolled(i), rolled(i + 1), REPLACE_EXISTING);
+         }
+         Files.move(file, rolled(1), REPLACE_EXISTING);
+      } else {
+         Files.delete(file);
+      }
+      open();
+   }
+
+   private Path rolled(int index)
+   {
+      return file.resolveSibling(file.getFileName() + "." + index);
+   }
+
+   private void open()
+      throws IOException
+   {
+      out = new BufferedWriter(Files.newBufferedWriter(file, UTF_8, CREATE, APPEND), 16 * 1024);
+      fileBytes = Files.size(file);
+   }
+
+
+
+   private static final class Entry {
+      private final long time;
+      private final String outcome;
+      private final String remoteIp;
+      private final String method;
+      private final String uri;
+
+      private Entry(long time, String outcome, String remoteIp, String method, String uri)
+      {
+         this.time = time;
+         this.outcome = outcome;
+         this.remoteIp = remoteIp;
+         this.method = method;
+         this.uri = uri;
+      }
+
+      private String render()
+      {
+         StringBuilder builder = new StringBuilder(96);
+         builder.append(Instant.ofEpochMilli(time));
+         append(builder, outcome);
+         append(builder, remoteIp);
+         append(builder, method);
+         append(builder, uri);
+         return builder.toString();
+      }
+
+      private static void append(StringBuilder builder, String value)
+      {
+         builder.append(' ');
+         if(value == null || value.isEmpty()) {
+            builder.append('-');
+         } else {
+            int len = Math.min(value.length(), 1024);
+            for(int i = 0; i < len; i++) {
+               char c = value.charAt(i);
+               builder.append((c > 0x20 && c < 0x7F) ? c : '?');
+            }
+         }
+      }
+   }
+
+}
@@ -6,7 +6,10 @@ import xpertss.lang.Strings;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
-import java.util.Arrays;
+import java.time.Clock;
+import java.util.Enumeration;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
 
 
 /**
@@ -22,6 +25,9 @@ import java.util.Arrays;
  * 2.4 If authentication cookie is present and not expired, the MD5 checksum is validated. If
  *     the MD5 checksum fails validation a InvalidTicketException is thrown.
  * <p>
+ * 2.4a If a revocation list is configured and the verified ticket, or every ticket of its
+ *     user issued before a given time, has been revoked a RevokedTicketException is thrown.
+ * <p>
  * 2.5 If a TKTAuthToken is also required for this url/area, the user data tokens are scanned
  *     for the specified token. If the required token is not found, a TokenMissingException is
  *     thrown.
@@ -36,12 +42,32 @@ import java.util.Arrays;
  *    <li>Base64 encoded - Fall through if can't find ! character</li>
  * </ol>
  * It can do this because at least one '!' character must be present
- *
+ * <p>
+ * While a Java Flight Recorder recording is running each authentication emits an
+ * {@code xpertss.auth.tkt.Authentication} event carrying its outcome, the digest
+ * algorithm, the ticket's format, length, and number of decode layers.
+ * <p>
+ * When the config accepts more than one digest algorithm the algorithm each ticket was
+ * signed with is identified from the ticket's structure and its checksum verified with
+ * that algorithm alone. The number of tickets accepted with each algorithm is available
+ * from {@link #getAcceptedCount(DigestAlgorithm)} so that a retired algorithm can be
+ * removed once it is no longer seen.
+ * <p>
+ * When the config has a {@link MappedTicketCache} a ticket whose checksum was already
+ * verified, by this or another JVM sharing the cache file, is not digested again. Such
+ * a ticket is still checked for expiration, revocation, and tokens.
  */
 public final class AuthTicketAuthenticator {
 
+   private static final Clock SYSTEM_CLOCK = Clock.systemUTC();
+   private static final long CACHE_TTL = 3600;
+
    private final AuthTicketConfig config;
    private final AuthTicketEncoder encoder;
+   private final Set<DigestAlgorithm> accepted;
+   private final boolean mixed;
+   private final LongAdder[] counts;
+   private final long[] cacheKey;
 
    public AuthTicketAuthenticator(String secret)
    {
@@ -50,8 +76,13 @@ public final class AuthTicketAuthenticator {
 
    public AuthTicketAuthenticator(AuthTicketConfig config)
    {
-      this.config = Objects.notNull(config);
-      this.encoder = new AuthTicketEncoder(config);
+      this.config = Objects.notNull(config).freeze();
+      this.encoder = new AuthTicketEncoder(this.config);
+      this.accepted = this.config.getAcceptedDigestAlgorithms();
+      this.mixed = accepted.size() > 1;
+      this.counts = new LongAdder[DigestAlgorithm.values().length];
+      for(int i = 0; i < counts.length; i++) counts[i] = new LongAdder();
+      this.cacheKey = (this.config.getTicketCache() != null) ? MappedTicketCache.key(this.config) : null;
    }
 
 
@@ -61,42 +92,99 @@ public final class AuthTicketAuthenticator {
     * This includes accessing the ticket from the cookies, parsing the ticket,
     * checking expiration, verifying the ticket against the caller's IP, if
     * configured, and finally checking tokens.
+    * <p>
+    * If a {@link AuthTicketConfig#getTicketHeader() ticket header} is configured
+    * and the request carries it the ticket is read from that header and the
+    * cookies are never looked at. Otherwise, when the container exposes the raw
+    * {@code Cookie} header the ticket is located by scanning it directly, or else
+    * this falls back to the parsed cookies returned by
+    * {@link HttpServletRequest#getCookies()}.
     *
     * @param request The Http request
     * @return A validated AuthTicket instance associated with the request
     * @throws TicketNotFoundException if the ticket is not found
     * @throws ExpiredTicketException if the ticket is expired
     * @throws InvalidTicketException if the ticket fails verification
+    * @throws RevokedTicketException if the ticket has been revoked
     * @throws TokenMissingException if the ticket is missing a required token
     * @throws MalformedTicketException if the ticket is improperly encoded
     */
    public AuthTicket authenticate(HttpServletRequest request)
          throws TicketNotFoundException, InvalidTicketException
    {
-      Cookie cookie = Cookies.getCookie(request.getCookies(), config.getCookieName());
-      if(cookie == null) throw new TicketNotFoundException();
-
-      DigestAlgorithm digest = config.getDigestAlgorithm();
-      AuthTicket ticket = digest.parse(cookie.getValue());
-
-      if(ticket.isExpired(config.getTimeout())) {
-         throw new ExpiredTicketException();
-      }
-
-      String remoteIp = Strings.ifEmpty(request.getHeader("X-Forward-For"),
-                                          request.getRemoteAddr());
-
-      if(!verify(remoteIp, ticket)) {
-         throw new InvalidTicketException();
-      }
+      return authenticate(ticketValue(request), remoteIp(request), SYSTEM_CLOCK);
+   }
 
-      if(!ticket.containsAny(config.getTokens())) {
-         throw new TokenMissingException();
-      }
+   /**
+    * Framework agnostic implementation of the authentication algorithm.
+    * <p>
+    * The supplied raw {@code Cookie} header is scanned for the configured cookie
+    * name only, none of the other cookies it carries are materialized. The
+    * ticket is then parsed, checked for expiration against the supplied clock,
+    * verified against the caller's IP, if configured, and finally checked for
+    * tokens.
+    *
+    * @param cookieHeader The raw value of the request's Cookie header
+    * @param remoteIp Optional remote IP of the calling client
+    * @param clock The clock used to evaluate ticket expiration
+    * @return A validated AuthTicket instance associated with the header
+    * @throws TicketNotFoundException if the ticket is not found
+    * @throws ExpiredTicketException if the ticket is expired
+    * @throws InvalidTicketException if the ticket fails verification
+    * @throws RevokedTicketException if the ticket has been revoked
+    * @throws TokenMissingException if the ticket is missing a required token
+    * @throws MalformedTicketException if the ticket is improperly encoded
+    */
+   public AuthTicket authenticate(CharSequence cookieHeader, String remoteIp, Clock clock)
+         throws TicketNotFoundException, InvalidTicketException
+   {
+      return authenticate(Cookies.getCookieValue(cookieHeader, config.getCookieName()),
+                           remoteIp, Objects.notNull(clock, "clock"));
+   }
 
-      return ticket;
+   /**
+    * Framework agnostic implementation of the authentication algorithm for clients
+    * that may send the ticket in the configured
+    * {@link AuthTicketConfig#getTicketHeader() ticket header}.
+    * <p>
+    * If a {@link AuthTicketConfig#getTicketHeaderScheme() scheme} is configured the
+    * ticket header's value must begin with it, otherwise its whole value is taken to
+    * be the ticket. Only when the ticket header carries no ticket is the raw
+    * {@code Cookie} header scanned for one. Either way the ticket is then
+    * authenticated exactly as {@link #authenticate(CharSequence, String, Clock)} does.
+    *
+    * @param ticketHeader The raw value of the request's ticket header or {@code null}
+    * @param cookieHeader The raw value of the request's Cookie header or {@code null}
+    * @param remoteIp Optional remote IP of the calling client
+    * @param clock The clock used to evaluate ticket expiration
+    * @return A validated AuthTicket instance associated with the headers
+    * @throws TicketNotFoundException if the ticket is not found
+    * @throws ExpiredTicketException if the ticket is expired
+    * @throws InvalidTicketException if the ticket fails verification
+    * @throws RevokedTicketException if the ticket has been revoked
+    * @throws TokenMissingException if the ticket is missing a required token
+    * @throws MalformedTicketException if the ticket is improperly encoded
+    */
+   public AuthTicket authenticate(CharSequence ticketHeader, CharSequence cookieHeader, String remoteIp, Clock clock)
+         throws TicketNotFoundException, InvalidTicketException
+   {
+      String value = headerValue(ticketHeader);
+      if(value == null) value = Cookies.getCookieValue(cookieHeader, config.getCookieName());
+      return authenticate(value, remoteIp, Objects.notNull(clock, "clock"));
    }
 
+   /**
+    * Returns {@code true} if the given raw value of the configured
+    * {@link AuthTicketConfig#getTicketHeader() ticket header} carries a ticket, which
+    * lets callers skip reading the {@code Cookie} headers altogether.
+    *
+    * @param ticketHeader The raw value of the request's ticket header or {@code null}
+    * @return {@code true} if the header carries a ticket
+    */
+   public boolean hasHeaderTicket(CharSequence ticketHeader)
+   {
+      return headerValue(ticketHeader) != null;
+   }
 
 
    /**
@@ -112,8 +200,150 @@ public final class AuthTicketAuthenticator {
     */
    public boolean verify(String remoteIp, AuthTicket ticket)
    {
-      AuthTicket encoded = encoder.encode(remoteIp, ticket);
-      return Arrays.equals(ticket.getChecksum(), encoded.getChecksum());
+      return encoder.verify(remoteIp, ticket, algorithm(ticket));
+   }
+
+   /**
+    * Returns the number of tickets this authenticator has accepted that were signed
+    * with the given digest algorithm.
+    *
+    * @param digest The digest algorithm
+    * @return the number of accepted tickets signed with the algorithm
+    */
+   public long getAcceptedCount(DigestAlgorithm digest)
+   {
+      return counts[Objects.notNull(digest, "digest").ordinal()].sum();
+   }
+
+
+
+   private AuthTicket authenticate(String value, String remoteIp, Clock clock)
+   {
+      Object event = TicketEvents.isRecording() ? AuthenticationEvent.start() : null;
+      if(event == null) return doAuthenticate(value, remoteIp, clock);
+      try {
+         AuthTicket ticket = doAuthenticate(value, remoteIp, clock);
+         AuthenticationEvent.finish(event, TicketEvents.VALID, algorithm(ticket), value);
+         return ticket;
+      } catch(RuntimeException e) {
+         AuthenticationEvent.finish(event, TicketEvents.outcome(e), config.getDigestAlgorithm(), value);
+         throw e;
+      }
+   }
+
+   private AuthTicket doAuthenticate(String value, String remoteIp, Clock clock)
+   {
+      if(value == null) throw new TicketNotFoundException();
+
+      AuthTicket ticket = mixed ? DigestAlgorithm.parse(value, accepted, config.getUserDataCodec())
+                                : config.getDigestAlgorithm().parse(value, config.getUserDataCodec());
+
+      if(isExpired(ticket, clock)) {
+         throw new ExpiredTicketException();
+      }
+
+      DigestAlgorithm digest = algorithm(ticket);
+      MappedTicketCache cache = config.getTicketCache();
+      if(cache == null) {
+         if(!encoder.verify(remoteIp, ticket, digest)) throw new InvalidTicketException();
+      } else {
+         String ip = config.ignoreIP() ? null : remoteIp;
+         long now = clock.millis() / 1000;
+         long[] fingerprint = MappedTicketCache.fingerprint(cacheKey, ip, value);
+         if(!cache.contains(fingerprint, now)) {
+            if(!encoder.verify(remoteIp, ticket, digest)) throw new InvalidTicketException();
+            cache.put(fingerprint, expires(ticket, now), now);
+         }
+      }
+
+      RevocationList revocations = config.getRevocationList();
+      if(revocations != null && revocations.isRevoked(ticket)) {
+         throw new RevokedTicketException();
+      }
+
+      RoleHierarchy hierarchy = config.getRoleHierarchy();
+      if(hierarchy != null && ticket instanceof EncodedAuthTicket) {
+         ((EncodedAuthTicket) ticket).expand(hierarchy);
+      }
+
+      if(!ticket.containsAny(config.getTokens())) {
+         throw new TokenMissingException();
+      }
+
+      TokenPolicy policy = config.getTokenPolicy();
+      if(policy != null && !policy.test(ticket)) {
+         throw new TokenMissingException();
+      }
+
+      counts[digest.ordinal()].increment();
+      return ticket;
+   }
+
+   private DigestAlgorithm algorithm(AuthTicket ticket)
+   {
+      if(!mixed) return config.getDigestAlgorithm();
+      DigestAlgorithm digest = DigestAlgorithm.of(ticket);
+      return (digest != null && accepted.contains(digest)) ? digest : config.getDigestAlgorithm();
+   }
+
+   private boolean isExpired(AuthTicket ticket, Clock clock)
+   {
+      long timeout = config.getTimeout();
+      if(timeout <= 0) return false;
+      return ticket.getTimestamp() + timeout <= clock.millis() / 1000;
+   }
+
+   private long expires(AuthTicket ticket, long now)
+   {
+      long timeout = config.getTimeout();
+      return (timeout > 0) ? ticket.getTimestamp() + timeout : now + CACHE_TTL;
+   }
+
+   static String remoteIp(HttpServletRequest request)
+   {
+      return Strings.ifEmpty(request.getHeader("X-Forward-For"), request.getRemoteAddr());
+   }
+
+   private String ticketValue(HttpServletRequest request)
+   {
+      if(config.getTicketHeader() != null) {
+         String value = headerValue(request.getHeader(config.getTicketHeader()));
+         if(value != null) return value;
+      }
+      Enumeration headers = request.getHeaders("Cookie");
+      if(headers != null && headers.hasMoreElements()) {
+         do {
+            String value = Cookies.getCookieValue((String) headers.nextElement(), config.getCookieName());
+            if(value != null) return value;
+         } while(headers.hasMoreElements());
+         return null;
+      }
+      Cookie cookie = Cookies.getCookie(request.getCookies(), config.getCookieName());
+      return (cookie == null) ? null : cookie.getValue();
+   }
+
+   private String headerValue(CharSequence header)
+   {
+      if(header == null) return null;
+      int len = header.length();
+      int start = 0;
+      String scheme = config.getTicketHeaderScheme();
+      if(scheme != null) {
+         int schemeLen = scheme.length();
+         if(len <= schemeLen || !isWhitespace(header.charAt(schemeLen))) return null;
+         for(int i = 0; i < schemeLen; i++) {
+            if(Character.toLowerCase(header.charAt(i)) != Character.toLowerCase(scheme.charAt(i))) return null;
+         }
+         start = schemeLen;
+      }
+      while(start < len && isWhitespace(header.charAt(start))) start++;
+      while(len > start && isWhitespace(header.charAt(len - 1))) len--;
+      return (start < len) ? header.subSequence(start, len).toString() : null;
+   }
+
+   private static boolean isWhitespace(char c)
+   {
+      return c == ' ' || c == '\t';
    }
 
 }
@@ -6,19 +6,42 @@ import xpertss.lang.Objects;
 import xpertss.lang.Strings;
 import xpertss.util.Sets;
 
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
 import java.util.Set;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 /**
  * Configuration object for parsing and encoding {@link xpertss.auth.tkt.AuthTicket}s
+ * <p>
+ * A config is mutable until it is {@link #freeze() frozen}. The authenticator and
+ * encoder each work from a frozen snapshot of the config they are given, so changes
+ * made to a config after it has been handed to them have no effect. To change the
+ * configuration of a running system build a new config and new authenticators from
+ * it and publish them together.
  */
 public class AuthTicketConfig {
 
    private DigestAlgorithm digestAlg = DigestAlgorithm.MD5;
+   private Set<DigestAlgorithm> accepted = EnumSet.noneOf(DigestAlgorithm.class);
    private Set<String> tokens = Sets.newHashSet();
+   private TokenPolicy tokenPolicy;
+   private RoleHierarchy roleHierarchy;
    private String cookieName = "auth_tkt";
+   private String ticketHeader;
+   private String ticketHeaderScheme;
    private boolean ignoreIP = true;
    private long timeout = 7200;
+   private boolean compact;
    private String secret;
+   private RevocationList revocations;
+   private UserDataCodec codec;
+   private MappedTicketCache ticketCache;
+
+   private boolean frozen;
+   private byte[] secretBytes;
 
 
    /**
@@ -60,10 +83,43 @@ public class AuthTicketConfig {
     */
    public void setDigestAlgorithm(DigestAlgorithm digestAlg)
    {
+      checkFrozen();
       this.digestAlg = Objects.notNull(digestAlg, "digestAlg");
    }
 
 
+   /**
+    * Returns the digest algorithms a ticket may be signed with to be accepted. This
+    * always includes the configured {@link #getDigestAlgorithm() digest algorithm}.
+    *
+    * @return the digest algorithms accepted during validation
+    */
+   public Set<DigestAlgorithm> getAcceptedDigestAlgorithms()
+   {
+      if(frozen) return accepted;
+      Set<DigestAlgorithm> result = EnumSet.of(digestAlg);
+      result.addAll(accepted);
+      return result;
+   }
+
+   /**
+    * Sets additional digest algorithms, beyond the one tickets are encoded with, that
+    * validation accepts. This allows a deployment to migrate from one digest algorithm
+    * to another without rejecting the tickets already issued.
+    * <p>
+    * The algorithm a ticket was signed with is identified from the ticket's structure
+    * and its checksum is verified with that algorithm only.
+    *
+    * @param accepted the additional digest algorithms to accept
+    */
+   public void setAcceptedDigestAlgorithms(Set<DigestAlgorithm> accepted)
+   {
+      checkFrozen();
+      this.accepted = EnumSet.noneOf(DigestAlgorithm.class);
+      this.accepted.addAll(Objects.notNull(accepted, "accepted"));
+   }
+
+
    /**
     * Returns the name of the cookie. It defaults to "auth_tkt" if not explicitly
     * specified.
@@ -82,10 +138,64 @@ public class AuthTicketConfig {
     */
    public void setCookieName(String cookieName)
    {
+      checkFrozen();
       this.cookieName = Strings.notEmpty(cookieName, "cookieName");
    }
 
 
+   /**
+    * Returns the name of the request header checked for a ticket before the cookies
+    * or {@code null} if tickets are only read from cookies.
+    *
+    * @return the name of the auth ticket header
+    */
+   public String getTicketHeader()
+   {
+      return ticketHeader;
+   }
+
+   /**
+    * Set the name of a request header, such as {@code Authorization}, that carries the
+    * ticket for clients that do not use cookies. When a request has the header the
+    * ticket is read from it and the cookies are never parsed. A {@code null} value,
+    * the default, reads tickets from cookies only.
+    *
+    * @param ticketHeader the name of the header that holds the auth ticket
+    */
+   public void setTicketHeader(String ticketHeader)
+   {
+      checkFrozen();
+      this.ticketHeader = Strings.isEmpty(ticketHeader) ? null : ticketHeader;
+   }
+
+
+   /**
+    * Returns the authentication scheme that must precede the ticket in the ticket
+    * header or {@code null} if the header's whole value is the ticket.
+    *
+    * @return the auth ticket header's scheme
+    */
+   public String getTicketHeaderScheme()
+   {
+      return ticketHeaderScheme;
+   }
+
+   /**
+    * Set the authentication scheme that precedes the ticket in the ticket header, as in
+    * {@code Authorization: AuthTkt <ticket>}. Schemes are compared ignoring case. A
+    * header whose value uses a different scheme is ignored and the ticket is read from
+    * the cookies. A {@code null} value, the default, takes the header's whole value as
+    * the ticket.
+    *
+    * @param scheme the scheme that precedes the ticket in the header
+    */
+   public void setTicketHeaderScheme(String scheme)
+   {
+      checkFrozen();
+      this.ticketHeaderScheme = Strings.isEmpty(scheme) ? null : scheme;
+   }
+
+
    /**
     * Returns {@code true} if IP verification has been disabled, {@code false}
     * otherwise.
@@ -108,6 +218,7 @@ public class AuthTicketConfig {
     */
    public void setIgnoreIP(boolean checkIp)
    {
+      checkFrozen();
       this.ignoreIP = checkIp;
    }
 
@@ -127,13 +238,15 @@ public class AuthTicketConfig {
     * 2 hours.
     */
    public void setTimeout(long timeout) {
+      checkFrozen();
       this.timeout = Numbers.gte(0L, timeout, "timeout must be positive");
    }
 
 
    /**
     * Returns the set of tokens (aka Roles) that are required to be present in the
-    * encoded ticket to be considered valid. The returned set is mutable.
+    * encoded ticket to be considered valid. The returned set is mutable unless
+    * this config is frozen.
     *
     * @return the required set of tokens
     */
@@ -152,10 +265,219 @@ public class AuthTicketConfig {
     */
    public void setTokens(Set<String> tokens)
    {
+      checkFrozen();
       this.tokens = Objects.notNull(tokens, "tokens");
    }
 
 
+   /**
+    * Returns the policy a ticket's tokens must satisfy to be considered valid or
+    * {@code null} if there is none.
+    *
+    * @return the required token policy
+    */
+   public TokenPolicy getTokenPolicy()
+   {
+      return tokenPolicy;
+   }
+
+   /**
+    * Set a policy, such as {@code finance AND (admin OR auditor)}, that the tokens of
+    * the encoded ticket must satisfy to be considered valid. It is checked in addition
+    * to the {@link #setTokens(Set) required tokens}. A {@code null} value, the default,
+    * imposes no policy.
+    *
+    * @param tokenPolicy the required token policy
+    */
+   public void setTokenPolicy(TokenPolicy tokenPolicy)
+   {
+      checkFrozen();
+      this.tokenPolicy = tokenPolicy;
+   }
+
+
+   /**
+    * Returns the hierarchy authenticated tickets' tokens are expanded with or
+    * {@code null} if tokens imply no other roles.
+    *
+    * @return the role hierarchy
+    */
+   public RoleHierarchy getRoleHierarchy()
+   {
+      return roleHierarchy;
+   }
+
+   /**
+    * Set a hierarchy of roles, such as {@code admin > finance > reader}, that the tokens
+    * of each verified ticket are expanded with once. The required tokens, the token
+    * policy, and the {@code contains} checks of the returned ticket then see every role
+    * the ticket's tokens imply, while its {@code getTokens} still returns the tokens it
+    * was signed with. A {@code null} value, the default, implies nothing.
+    *
+    * @param roleHierarchy the role hierarchy
+    */
+   public void setRoleHierarchy(RoleHierarchy roleHierarchy)
+   {
+      checkFrozen();
+      this.roleHierarchy = roleHierarchy;
+   }
+
+
+   /**
+    * Returns {@code true} if tickets are encoded using the compact v2 format.
+    *
+    * @return whether the compact ticket format is used for encoding
+    */
+   public boolean isCompactFormat()
+   {
+      return compact;
+   }
+
+   /**
+    * Enable or disable encoding tickets using the compact v2 format. Tickets in either
+    * format are always accepted when parsing. The compact format carries the checksum
+    * in binary and the whole ticket in URL safe Base64 which produces considerably
+    * smaller cookies. It is not understood by mod_auth_tkt so it should only be enabled
+    * once every consumer of the tickets understands it. The default is disabled.
+    *
+    * @param compact whether to encode tickets using the compact format
+    */
+   public void setCompactFormat(boolean compact)
+   {
+      checkFrozen();
+      this.compact = compact;
+   }
+
+   /**
+    * Returns the codec used to compress and decompress user data or {@code null} if
+    * user data is carried as is.
+    *
+    * @return the configured user data codec
+    */
+   public UserDataCodec getUserDataCodec()
+   {
+      return codec;
+   }
+
+   /**
+    * Set the codec used to compress the user data of encoded tickets and to decompress
+    * the user data of parsed tickets. User data that was not compressed is always
+    * accepted. A {@code null} value, the default, carries user data as is.
+    *
+    * @param codec the user data codec to use
+    */
+   public void setUserDataCodec(UserDataCodec codec)
+   {
+      checkFrozen();
+      this.codec = codec;
+   }
+
+   /**
+    * Returns the revocation list consulted for verified tickets or {@code null} if
+    * tickets are not checked for revocation.
+    *
+    * @return the configured revocation list
+    */
+   public RevocationList getRevocationList()
+   {
+      return revocations;
+   }
+
+   /**
+    * Set the revocation list consulted for verified tickets. A {@code null} value,
+    * the default, disables revocation checking.
+    *
+    * @param revocations the revocation list to consult
+    */
+   public void setRevocationList(RevocationList revocations)
+   {
+      checkFrozen();
+      this.revocations = revocations;
+   }
+
+
+   /**
+    * Returns the cache of verified tickets consulted before computing a ticket's
+    * checksum or {@code null} if none is configured.
+    *
+    * @return the configured verified ticket cache
+    */
+   public MappedTicketCache getTicketCache()
+   {
+      return ticketCache;
+   }
+
+   /**
+    * Set a cache of verified tickets, possibly shared with other JVMs, which lets a
+    * ticket whose checksum was already verified skip the digests. Expiration,
+    * revocation, and tokens are still checked on every request.
+    *
+    * @param ticketCache the verified ticket cache to use or {@code null}
+    */
+   public void setTicketCache(MappedTicketCache ticketCache)
+   {
+      checkFrozen();
+      this.ticketCache = ticketCache;
+   }
+
+
+   /**
+    * Returns {@code true} if this config has been frozen and can no longer be
+    * modified.
+    *
+    * @return whether this config is frozen
+    */
+   public boolean isFrozen()
+   {
+      return frozen;
+   }
+
+   /**
+    * Returns an immutable snapshot of this config. The snapshot's setters throw
+    * {@link IllegalStateException} and its token set is unmodifiable. Because none
+    * of its state changes after it is created a frozen config may be shared freely
+    * between threads once it has been safely published, for example through a
+    * volatile field.
+    * <p>
+    * Freezing a config that is already frozen returns the config itself.
+    *
+    * @return a frozen copy of this config
+    */
+   public AuthTicketConfig freeze()
+   {
+      if(frozen) return this;
+      AuthTicketConfig snapshot = new AuthTicketConfig(secret);
+      snapshot.digestAlg = digestAlg;
+      snapshot.accepted = Collections.unmodifiableSet(getAcceptedDigestAlgorithms());
+      snapshot.tokens = Collections.unmodifiableSet(new LinkedHashSet<>(tokens));
+      snapshot.tokenPolicy = tokenPolicy;
+      snapshot.roleHierarchy = roleHierarchy;
+      snapshot.cookieName = cookieName;
+      snapshot.ticketHeader = ticketHeader;
+      snapshot.ticketHeaderScheme = ticketHeaderScheme;
+      snapshot.ignoreIP = ignoreIP;
+      snapshot.timeout = timeout;
+      snapshot.compact = compact;
+      snapshot.revocations = revocations;
+      snapshot.codec = codec;
+      snapshot.ticketCache = ticketCache;
+      snapshot.secretBytes = secret.getBytes(UTF_8);
+      snapshot.frozen = true;
+      return snapshot;
+   }
+
+
+   byte[] getSecretBytes()
+   {
+      return (secretBytes != null) ? secretBytes : secret.getBytes(UTF_8);
+   }
+
+   private void checkFrozen()
+   {
+      if(frozen) throw new IllegalStateException("config is frozen");
+   }
+
+
    @Override
    public boolean equals(Object o)
    {
@@ -163,10 +485,19 @@ public class AuthTicketConfig {
          AuthTicketConfig other = (AuthTicketConfig) o;
          return ignoreIP == other.ignoreIP &&
                   timeout == other.timeout &&
+                  compact == other.compact &&
                   digestAlg == other.digestAlg &&
+                  Objects.equal(getAcceptedDigestAlgorithms(), other.getAcceptedDigestAlgorithms()) &&
                   Objects.equal(tokens, other.tokens) &&
+                  Objects.equal(tokenPolicy, other.tokenPolicy) &&
+                  Objects.equal(roleHierarchy, other.roleHierarchy) &&
                   Objects.equal(cookieName, other.cookieName) &&
-                  Objects.equal(secret, other.secret);
+                  Objects.equal(ticketHeader, other.ticketHeader) &&
+                  Objects.equal(ticketHeaderScheme, other.ticketHeaderScheme) &&
+                  Objects.equal(secret, other.secret) &&
+                  Objects.equal(revocations, other.revocations) &&
+                  Objects.equal(codec, other.codec) &&
+                  ticketCache == other.ticketCache;
 
       }
       return false;
@@ -175,7 +506,7 @@ public class AuthTicketConfig {
    @Override
    public int hashCode()
    {
-      return Objects.hash(digestAlg, tokens, cookieName, ignoreIP, timeout, secret);
+      return Objects.hash(digestAlg, getAcceptedDigestAlgorithms(), tokens, tokenPolicy, roleHierarchy, cookieName, ticketHeader, ticketHeaderScheme, ignoreIP, timeout, compact, secret, revocations, codec, ticketCache);
    }
    
 }
@@ -7,7 +7,6 @@
 package xpertss.auth.tkt;
 
 import xpertss.lang.Objects;
-import xpertss.lang.Strings;
 import xpertss.net.NetUtils;
 
 import java.net.Inet4Address;
@@ -15,7 +14,6 @@ import java.net.InetAddress;
 import java.security.MessageDigest;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
-import static xpertss.lang.Bytes.toHexString;
 
 /**
  * A class capable of applying the Message Authentication Code (MAC) to a given
@@ -52,8 +50,13 @@ import static xpertss.lang.Bytes.toHexString;
  */
 public final class AuthTicketEncoder {
 
+   private static final byte[] HEX = "0123456789abcdef".getBytes(UTF_8);
+   private static final byte[] SEPARATOR = new byte[1];
+   private static final byte COMMA = ',';
+
    private final AuthTicketConfig config;
    private final DigestAlgorithm digestAlg;
+   private final byte[] secret;
 
    /**
     * Create an instance of the Auth Ticket Encoder using the specified
@@ -63,14 +66,18 @@ public final class AuthTicketEncoder {
     */
    public AuthTicketEncoder(AuthTicketConfig config)
    {
-      this.config = Objects.notNull(config);
-      this.digestAlg = config.getDigestAlgorithm();
+      this.config = Objects.notNull(config).freeze();
+      this.digestAlg = this.config.getDigestAlgorithm();
+      this.secret = this.config.getSecretBytes();
    }
 
 
    /**
     * Encode the specified auth ticket with the optional remote IP.
     * <p>
+    * If a {@link UserDataCodec} is configured the ticket's user data is compressed
+    * and the checksum computed over its compressed form.
+    * <p>
     * This will return an AuthTicket instance with the encoded checksum
     * that can be used to verify authenticity.
     * <p>
@@ -83,25 +90,88 @@ public final class AuthTicketEncoder {
     */
    public AuthTicket encode(String remoteIp, AuthTicket ticket)
    {
-      MessageDigest digester = digestAlg.digest();
+      UserDataCodec codec = config.getUserDataCodec();
+      if(codec == null) {
+         return EncodedAuthTicket.create(ticket, sign(remoteIp, ticket, ticket.getUserData()), config.isCompactFormat());
+      }
+      String userData = codec.encode(ticket.getUserData());
+      return EncodedAuthTicket.create(ticket, userData, sign(remoteIp, ticket, userData), config.isCompactFormat(), codec);
+   }
+
+   /**
+    * Verify the checksum of the given ticket against the one computed for it using
+    * the optional remote IP.
+    * <p>
+    * Tickets produced by {@link DigestAlgorithm#parse(String)} are digested over
+    * their raw fields and compared against their hex encoded checksum in place so
+    * that verification does not materialize any of the ticket's fields.
+    *
+    * @param remoteIp - optional remote IP encoded into the auth ticket
+    * @param ticket - the ticket to verify
+    * @return {@code true} if the ticket's checksum is authentic
+    */
+   boolean verify(String remoteIp, AuthTicket ticket)
+   {
+      return verify(remoteIp, ticket, digestAlg);
+   }
+
+   /**
+    * Verify the checksum of the given ticket as {@link #verify(String, AuthTicket)} does
+    * computing it with the given digest algorithm rather than the configured one.
+    */
+   boolean verify(String remoteIp, AuthTicket ticket, DigestAlgorithm digest)
+   {
+      String userData = (ticket instanceof EncodedAuthTicket) ? null : ticket.getUserData();
+      byte[] computed = sign(remoteIp, ticket, userData, digest);
+      if(ticket instanceof EncodedAuthTicket) {
+         return ((EncodedAuthTicket) ticket).matches(computed);
+      }
+      return MessageDigest.isEqual(ticket.getChecksum(), computed);
+   }
+
+
+   /**
+    * Compute the checksum of the given ticket carrying the given user data. When the
+    * user data is {@code null} the user data of an {@link EncodedAuthTicket} is used as
+    * it was signed.
+    */
+   byte[] sign(String remoteIp, AuthTicket ticket, String userData)
+   {
+      return sign(remoteIp, ticket, userData, digestAlg);
+   }
+
+   private byte[] sign(String remoteIp, AuthTicket ticket, String userData, DigestAlgorithm digest)
+   {
+      MessageDigest digester = digest.digest();
       digester.reset();
 
       // This stuff makes sense other than they don't specify a character
       // encoding which means this will likely break when dealing with
       // characters outside the ASCII set.
       digester.update(computeIPStamp(remoteIp, ticket.getTimestamp()));
-      digester.update(toBytes(config.getSecret()));
-      digester.update(toBytes(ticket.getUsername()));
-      digester.update(new byte[1]);
-      digester.update(toBytes(Strings.join(",", ticket.getTokens())));
-      digester.update(new byte[1]);
-      digester.update(toBytes(ticket.getUserData()));
+      digester.update(secret);
+      EncodedAuthTicket encoded = (userData == null && ticket instanceof EncodedAuthTicket) ? (EncodedAuthTicket) ticket : null;
+      if(encoded != null && encoded.isRaw()) {
+         encoded.digestFields(digester);
+      } else {
+         if(encoded != null) userData = encoded.getSignedUserData();
+         digester.update(toBytes(ticket.getUsername()));
+         digester.update(SEPARATOR);
+         boolean first = true;
+         for(String token : ticket.getTokens()) {
+            if(!first) digester.update(COMMA);
+            digester.update(toBytes(token));
+            first = false;
+         }
+         digester.update(SEPARATOR);
+         digester.update(toBytes(userData));
+      }
 
       // These retards actually created a spec where they treat the digest bytes
       // as a STRING (hex encoded no less where case matters!!!)
       // I think string programmers should be run out of the industry on a rail..
-      digester.update(toBytes(toHexString(digester.digest()).toLowerCase()));
-      return EncodedAuthTicket.create(ticket, digester.digest(toBytes(config.getSecret())));
+      digester.update(toLowerHex(digester.digest()));
+      return digester.digest(secret);
    }
 
    private byte[] computeIPStamp(String remoteIp, long timestamp)
@@ -129,6 +199,16 @@ public final class AuthTicketEncoder {
 
 
 
+   private static byte[] toLowerHex(byte[] digest)
+   {
+      byte[] hex = new byte[digest.length * 2];
+      for(int i = 0; i < digest.length; i++) {
+         hex[i * 2] = HEX[(digest[i] >> 4) & 0x0F];
+         hex[i * 2 + 1] = HEX[digest[i] & 0x0F];
+      }
+      return hex;
+   }
+
    private static byte[] toBytes(String str)
    {
       // TODO What charset do they use to convert string data into byte data
@@ -1,7 +1,6 @@
 package xpertss.auth.tkt;
 
 import xpertss.lang.Booleans;
-import xpertss.lang.Objects;
 import xpertss.lang.Strings;
 import xpertss.net.NetUtils;
 import xpertss.net.QueryBuilder;
@@ -9,25 +8,33 @@ import xpertss.net.UrlBuilder;
 import xpertss.proximo.Answer;
 import xpertss.proximo.Proximo;
 import xpertss.time.Duration;
-import xpertss.util.Sets;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.Reader;
 import java.net.URI;
-import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
-import static xpertss.auth.tkt.DigestAlgorithm.*;
 import static xpertss.lang.Strings.ifEmpty;
 import static xpertss.proximo.Matchers.anyString;
 import static xpertss.proximo.Matchers.eq;
@@ -71,6 +78,16 @@ import static xpertss.proximo.Proximo.doReturn;
  *        <pre>TKTAuthDigestType MD5</pre>
  *    </dd>
  *
+ *    <dt>TKTAuthAcceptedDigestTypes &lt;list&gt;</dt>
+ *    <dd>A comma separated list of additional digest types whose tickets are accepted.
+ *        Tickets are always issued with TKTAuthDigestType. This allows moving to a new
+ *        digest type without logging out every user holding a ticket signed with the old
+ *        one. The digest type of each ticket is identified from its structure and the
+ *        ticket verified with that digest type only. e.g.
+ *        <p>
+ *        <pre>TKTAuthAcceptedDigestTypes MD5</pre>
+ *    </dd>
+ *
  *    <dt>TKTAuthLoginURL &lt;url&gt;</dt>
  *    <dd>Standard URL to which unauthenticated users are redirected. This is a required
  *        directive. e.g.
@@ -147,6 +164,15 @@ import static xpertss.proximo.Proximo.doReturn;
  *        <pre>TKTAuthCookieName MyCookieName</pre>
  *    </dd>
  *
+ *    <dt>TKTAuthHeader &lt;name&gt; [&lt;scheme&gt;]</dt>
+ *    <dd>A request header that API and mobile clients may send the ticket in instead of a
+ *        cookie. When a request carries the header the ticket is read from it and the cookies
+ *        are never parsed. If a scheme is given the header's value must begin with it, which
+ *        allows the ticket to share the Authorization header with other schemes. Default: none.
+ *        <p>
+ *        <pre>TKTAuthHeader Authorization AuthTkt</pre>
+ *    </dd>
+ *
  *    <dt>TKTAuthBackArgName  &lt;url&gt;</dt>
  *    <dd>The name used for the back GET parameter. If this is set, AuthTicketFilter will add
  *        a GET parameter to all redirect URLs containing a URI-escaped version of the current
@@ -172,6 +198,244 @@ import static xpertss.proximo.Proximo.doReturn;
  *        <pre>TKTAuthToken  finance,admin</pre>
  *    </dd>
  *
+ *    <dt>TKTAuthTokenPolicy &lt;expression&gt;</dt>
+ *    <dd>A boolean expression over the ticket's tokens using AND, OR, NOT and parentheses
+ *        which the ticket must satisfy, in addition to any TKTAuthToken, for the given
+ *        location. It is compiled once at init and a ticket failing it is treated exactly
+ *        like one missing a required token. See {@link TokenPolicy}. Default: none. e.g.
+ *        <p>
+ *        <pre>TKTAuthTokenPolicy  finance AND (admin OR auditor)</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthRoleHierarchy &lt;chains&gt;</dt>
+ *    <dd>Comma delimited chains of roles in which each role implies the ones after it. The
+ *        hierarchy is compiled into its transitive closure at init and each verified ticket's
+ *        tokens are expanded once into the roles they imply, so TKTAuthToken, TKTAuthTokenPolicy
+ *        and isUserInRole each see the implied roles through a single lookup. See
+ *        {@link RoleHierarchy}. Default: none. e.g.
+ *        <p>
+ *        <pre>TKTAuthRoleHierarchy  admin &gt; finance &gt; reader, auditor &gt; reader</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthTimeoutRefresh &lt;fraction&gt;</dt>
+ *    <dd>A number between 0 and 1 indicating whether and how often to refresh ticket
+ *        timestamps. 0 means never refresh (hard timeouts), 1 means always refresh, .33
+ *        means only refresh if 1/3 or less of the timeout period remains. When a ticket
+ *        is refreshed a new ticket carrying the same user, tokens, and user data is set
+ *        as a cookie on the response. The refreshed ticket is cached for a few seconds
+ *        so that a burst of parallel requests from one browser shares a single digest
+ *        and cookie value. Only makes sense with a TKTAuthTimeout set. Default: 0. e.g.
+ *        <p>
+ *        <pre>TKTAuthTimeoutRefresh 0.5</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthDomain &lt;domain&gt;</dt>
+ *    <dd>The domain of refreshed ticket cookies. This should match the domain used by
+ *        your login service when setting the original cookie. Default: the host of the
+ *        current request. e.g.
+ *        <p>
+ *        <pre>TKTAuthDomain .example.com</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthCookieSecure &lt;boolean&gt;</dt>
+ *    <dd>Flag to indicate that refreshed ticket cookies should only be sent over secure
+ *        connections. Default: off. e.g.
+ *        <p>
+ *        <pre>TKTAuthCookieSecure on</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthCompactFormat &lt;boolean&gt;</dt>
+ *    <dd>Flag to indicate that refreshed tickets should be encoded using the compact v2
+ *        format. Tickets in either format are always accepted. This is an extension not
+ *        found in mod_auth_tkt. Default: off. e.g.
+ *        <p>
+ *        <pre>TKTAuthCompactFormat on</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthUserDataCompression &lt;boolean&gt;</dt>
+ *    <dd>Flag to indicate that the user data of tickets is compressed. Compressed user data
+ *        is only inflated when the application reads it and refreshed tickets have their
+ *        user data compressed. Uncompressed user data is always accepted. This is an
+ *        extension not found in mod_auth_tkt. Default: off. e.g.
+ *        <p>
+ *        <pre>TKTAuthUserDataCompression on</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthUserDataDictionary &lt;string&gt;</dt>
+ *    <dd>A preset dictionary used to compress user data holding the strings that commonly
+ *        appear in it, for example the keys of a JSON document. It must match the dictionary
+ *        used by your login service. Only makes sense with TKTAuthUserDataCompression on.
+ *        e.g.
+ *        <p>
+ *        <pre>TKTAuthUserDataDictionary {"email":"","name":"","roles":[""]}</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthRevocationFile &lt;path&gt;</dt>
+ *    <dd>Path to a revocation list snapshot written by {@link MappedRevocationList.Builder}.
+ *        Verified tickets that have been revoked, or whose user was revoked after they were
+ *        issued, are treated as authentication failures. The file is memory mapped and is
+ *        reloaded whenever it is replaced. A replacement that can not be loaded is logged to
+ *        the servlet context and the previous snapshot kept. This is an extension not found
+ *        in mod_auth_tkt.
+ *        e.g.
+ *        <p>
+ *        <pre>TKTAuthRevocationFile /var/lib/auth_tkt/revoked.bin</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthAuditFile &lt;path&gt;</dt>
+ *    <dd>Path to a file that records every request rejected because its ticket was forged,
+ *        malformed, revoked, or missing a required token. Records are handed to a background
+ *        writer through a bounded buffer so request threads never wait on the file. Records
+ *        that do not fit in the buffer are dropped and counted. See {@link AuditLog}. This
+ *        is an extension not found in mod_auth_tkt. e.g.
+ *        <p>
+ *        <pre>TKTAuthAuditFile /var/log/auth_tkt/audit.log</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthTicketCacheFile &lt;path&gt;</dt>
+ *    <dd>Path to a memory mapped cache of verified tickets. A ticket whose checksum was
+ *        already verified, by this or any other JVM on the host using the same file, is
+ *        not digested again. Entries are keyed with the secret so tenants and applications
+ *        with different secrets may share the file. The file survives restarts and is
+ *        recreated if it is missing or corrupt. See {@link MappedTicketCache}. This is an
+ *        extension not found in mod_auth_tkt. e.g.
+ *        <p>
+ *        <pre>TKTAuthTicketCacheFile /var/cache/auth_tkt/verified.bin</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthFastStartup &lt;boolean&gt;</dt>
+ *    <dd>Favor a fast cold start. Authenticated and guest requests are passed down the chain
+ *        in a plain request wrapper rather than a dynamic proxy, so no proxy classes are
+ *        generated on the first request and the ticket's user data is only decoded when
+ *        the application asks for it. The request seen by the application behaves the
+ *        same either way. This is always on inside a GraalVM native image. Default: off. e.g.
+ *        <p>
+ *        <pre>TKTAuthFastStartup on</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthWarmup &lt;iterations&gt;</dt>
+ *    <dd>Run synthetic tickets through the encoder and authenticator during init so their
+ *        hot methods are compiled before traffic arrives. Every accepted digest type and
+ *        ticket format is exercised along with the valid, expired, forged, malformed,
+ *        and missing token outcomes. The tickets are signed with a random secret so they
+ *        are never accepted by the filter. Only the ticket paths are warmed; the filter's
+ *        request wrapping, refresh and redirect code compiles as real requests arrive. The
+ *        time warm-up took is written to the servlet context log. The JIT compiler typically
+ *        wants upward of 10000 iterations. e.g.
+ *        <p>
+ *        <pre>TKTAuthWarmup 20000</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthWarmupTime &lt;duration&gt;</dt>
+ *    <dd>The most time warm-up may take. Setting this without TKTAuthWarmup runs warm-up
+ *        for the whole duration. Default: 10s. e.g.
+ *        <p>
+ *        <pre>TKTAuthWarmupTime 30s</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthWarmupBackground &lt;boolean&gt;</dt>
+ *    <dd>Run warm-up on a background thread so init returns immediately. Requests that
+ *        arrive while it runs are served normally. Default: off. e.g.
+ *        <p>
+ *        <pre>TKTAuthWarmupBackground on</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthFailureLimit &lt;count&gt;</dt>
+ *    <dd>The number of forged, malformed, or revoked tickets a client may present within
+ *        TKTAuthFailureWindow before its requests are answered with a 429 Too Many Requests
+ *        response without their tickets being decoded. The client is let back in once the
+ *        window has passed. Clients are identified by their TKTAuthClientIPHeader. This is an
+ *        extension not found in mod_auth_tkt. Default: no limit. e.g.
+ *        <p>
+ *        <pre>TKTAuthFailureLimit 50</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthFailureWindow &lt;time&gt;</dt>
+ *    <dd>The sliding window over which failures are counted and for which a client that
+ *        reaches TKTAuthFailureLimit is blocked. Accepts the same units as TKTAuthTimeout.
+ *        Default: 60s. e.g.
+ *        <p>
+ *        <pre>TKTAuthFailureWindow 5m</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthClientIPHeader &lt;header&gt;</dt>
+ *    <dd>Name of a header, set by a reverse proxy in front of the filter, which carries the
+ *        address of the client. When the header holds a list of addresses the last one, the
+ *        one added by the nearest proxy, is used. Clients are throttled by this address, so
+ *        only name a header that the proxy overwrites or appends to; a header passed through
+ *        from the client lets it pick its own address. This is an extension not found in
+ *        mod_auth_tkt. Default: the address of the connection. e.g.
+ *        <p>
+ *        <pre>TKTAuthClientIPHeader X-Forwarded-For</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthSharingLimit &lt;count&gt;</dt>
+ *    <dd>The number of distinct client addresses a single ticket may be presented from before
+ *        it is considered shared or stolen. The addresses of each ticket are estimated with a
+ *        small HyperLogLog sketch held in a fixed size table, so the check costs a couple of
+ *        hashes per request and the estimate may be off by one or two. A shared ticket is
+ *        logged to the servlet context once and, if TKTAuthSharingReject is on, its requests
+ *        are treated as authentication failures. Clients are identified by their
+ *        TKTAuthClientIPHeader. This is an extension not found in mod_auth_tkt. Default: off. e.g.
+ *        <p>
+ *        <pre>TKTAuthSharingLimit 4</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthSharingWindow &lt;time&gt;</dt>
+ *    <dd>How long a ticket's addresses are remembered after it was last used. Accepts the same
+ *        units as TKTAuthTimeout. Default: 2h. e.g.
+ *        <p>
+ *        <pre>TKTAuthSharingWindow 30m</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthSharingTickets &lt;count&gt;</dt>
+ *    <dd>The number of tickets tracked at once, rounded up to a power of two. Each takes 32
+ *        bytes whether in use or not. When the table is full the ticket used least recently is
+ *        forgotten. Default: 262144 (8MB). e.g.
+ *        <p>
+ *        <pre>TKTAuthSharingTickets 4194304</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthSharingReject &lt;boolean&gt;</dt>
+ *    <dd>Whether requests presenting a shared ticket are treated as authentication failures
+ *        rather than only logged. Default: off. e.g.
+ *        <p>
+ *        <pre>TKTAuthSharingReject on</pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthConfigFile &lt;path&gt;</dt>
+ *    <dd>Path to a properties file holding any of the other parameters, which take precedence
+ *        over the filter's init-params. The file is watched and, once it has stopped
+ *        changing, a complete new set of settings is parsed and swapped in atomically so that
+ *        each request sees either the old or the new settings but never a mix. If the changed
+ *        file is invalid the previous settings remain in effect. Replace the file by renaming
+ *        a new one over it rather than editing it in place. This allows the secret, tokens,
+ *        timeouts and urls to be changed without a redeploy. TKTAuthRevocationFile,
+ *        TKTAuthAuditFile, TKTAuthClientIPHeader, the failure limits, and the sharing limits
+ *        are only read from the init-params. This is an extension not found in mod_auth_tkt.
+ *        e.g.
+ *        <p>
+ *        <pre>TKTAuthConfigFile /etc/auth_tkt/filter.properties</pre>
+ *        <p>
+ *        The file may also define tenants, each with their own settings, by qualifying
+ *        parameter names with the tenant's host. Tenants inherit any parameter they do not
+ *        define from the unqualified entries and the init-params. Tenants may be added or
+ *        removed at runtime by changing the file. e.g.
+ *        <p>
+ *        <pre>
+ *        TKTAuthLoginURL=https://login.example.com/
+ *        shop.example.com.TKTAuthSecret=m2z#b&amp;&amp;2hd5zFev
+ *        shop.example.com.TKTAuthCookieName=shop_tkt
+ *        </pre>
+ *    </dd>
+ *
+ *    <dt>TKTAuthTenantHeader &lt;header&gt;</dt>
+ *    <dd>The request header used to select a tenant defined in TKTAuthConfigFile. Requests
+ *        that do not match a tenant use the default settings. Default: Host. e.g.
+ *        <p>
+ *        <pre>TKTAuthTenantHeader X-Forwarded-Host</pre>
+ *    </dd>
+ *
  *    <dt>TKTAuthIgnoreIP  &lt;boolean&gt;</dt>
  *    <dd>Flag indicating that AuthTicketFilter should ignore the client IP address in
  *        authenticating tickets (your login script must support this as well, setting the
@@ -188,15 +452,12 @@ import static xpertss.proximo.Proximo.doReturn;
  *    </dd>
  * </dl>
  * <p>
- * This implementation does not support setting cookies on the user's browser. As a result a
- * number of init parameters are not supported:
+ * This implementation only sets cookies on the user's browser to refresh tickets. As a result
+ * a number of init parameters are not supported:
  * <ul>
- *    <li>TKTAuthTimeoutRefresh</li>
  *    <li>TKTAuthGuestCookie</li>
  *    <li>TKTAuthBackCookieName</li>
- *    <li>TKTAuthDomain</li>
  *    <li>TKTAuthCookieExpires</li>
- *    <li>TKTAuthCookieSecure</li>
  * </ul>
  * Additionally, this implementation does not support tracking guest user sessions via UUID
  * formatting. As a result the TKTAuthGuestUser init parameter is ignored.
@@ -208,6 +469,15 @@ import static xpertss.proximo.Proximo.doReturn;
  * <p>
  * Access to the UserData can be retrieved from the request attribute <tt>TKTAuthUserData</tt>.
  * <p>
+ * The verified {@link AuthTicket} itself can be retrieved from the request attribute
+ * <tt>TKTAuthTicket</tt>, giving access to its timestamp and full token list without decoding
+ * the cookie again. {@link HttpServletRequest#getUserPrincipal()} returns an
+ * {@link AuthTicketPrincipal} wrapping the same ticket.
+ * <p>
+ * While a Java Flight Recorder recording is running each request the filter authenticates
+ * emits an {@code xpertss.auth.tkt.Filter} event timing its authentication and ticket refresh
+ * along with its outcome and whether the refreshed ticket came from the refresh cache.
+ * <p>
  * {@link HttpServletRequest#getAuthType()} will return <B>AUTH_TKT</B>
  */
 public class AuthTicketFilter implements Filter {
@@ -219,60 +489,82 @@ public class AuthTicketFilter implements Filter {
  *    http://linux.die.net/man/3/mod_auth_tkt
  */
 
-   private AuthTicketAuthenticator authenticator;
+   /**
+    * The request attribute holding the user data of the verified ticket.
+    */
+   public static final String USER_DATA_ATTRIBUTE = "TKTAuthUserData";
 
-   private URI authUri;
-   private URI timeoutUri;
-   private URI unauthUri;
-   private URI postUri;
-   private String backArgName;
-   private boolean allowGuests;
-   private boolean guestFallback;
+   /**
+    * The request attribute holding the verified {@link AuthTicket}.
+    */
+   public static final String TICKET_ATTRIBUTE = "TKTAuthTicket";
 
-   private Pattern pattern;
+   private static final int SC_TOO_MANY_REQUESTS = 429;
 
-   @Override
-   public void init(FilterConfig conf)
-         throws ServletException
-   {
-      AuthTicketConfig config = new AuthTicketConfig(conf.getInitParameter("TKTAuthSecret"));
+   // set by GraalVM while building and running a native image
+   private static final boolean NATIVE_IMAGE = System.getProperty("org.graalvm.nativeimage.imagecode") != null;
 
 
-      if(!Strings.isEmpty(conf.getInitParameter("TKTAuthIgnoreIP"))) {
-         config.setIgnoreIP(Booleans.parse(conf.getInitParameter("TKTAuthIgnoreIP")));
-      }
+   private volatile TenantSettings settings;
 
-      if(!Strings.isEmpty(conf.getInitParameter("TKTAuthTimeout"))) {
-         config.setTimeout(Duration.parse(conf.getInitParameter("TKTAuthTimeout"), SECONDS));
-      }
+   private RevocationListMonitor revocations;
+   private FileWatcher watcher;
+   private AuditLog audit;
+   private FailureThrottle throttle;
+   private String clientHeader;
+   private TicketSharingDetector sharing;
+   private boolean sharingReject;
+   private MappedTicketCache ticketCache;
+   private boolean proxyFree;
+   private TicketWarmup warmup;
 
-      if(!Strings.isEmpty(conf.getInitParameter("TKTAuthCookieName"))) {
-         config.setCookieName(conf.getInitParameter("TKTAuthCookieName"));
-      }
-
-      if(!Strings.isEmpty(conf.getInitParameter("TKTAuthToken"))) {
-         config.setTokens(Sets.of(conf.getInitParameter("TKTAuthToken").split("\\s*,\\s*")));
+   @Override
+   public void init(FilterConfig conf)
+         throws ServletException
+   {
+      proxyFree = NATIVE_IMAGE || Booleans.parse(conf.getInitParameter("TKTAuthFastStartup"));
+      if(!Strings.isEmpty(conf.getInitParameter("TKTAuthRevocationFile"))) {
+         ServletContext context = conf.getServletContext();
+         try {
+            revocations = new RevocationListMonitor(Paths.get(conf.getInitParameter("TKTAuthRevocationFile")),
+                                                    (context != null) ? context::log : message -> { });
+         } catch(IOException e) {
+            throw new ServletException("unable to load revocation list", e);
+         }
       }
 
-      if(!Strings.isEmpty(conf.getInitParameter("TKTAuthDigestType"))) {
-         config.setDigestAlgorithm(valueOf(conf.getInitParameter("TKTAuthDigestType")));
+      try {
+         if(!Strings.isEmpty(conf.getInitParameter("TKTAuthAuditFile"))) {
+            audit = new AuditLog(Paths.get(conf.getInitParameter("TKTAuthAuditFile")));
+         }
+         if(!Strings.isEmpty(conf.getInitParameter("TKTAuthTicketCacheFile"))) {
+            ticketCache = MappedTicketCache.open(Paths.get(conf.getInitParameter("TKTAuthTicketCacheFile")));
+         }
+         clientHeader = Strings.nullIfEmpty(conf.getInitParameter("TKTAuthClientIPHeader"));
+         if(!Strings.isEmpty(conf.getInitParameter("TKTAuthFailureLimit"))) {
+            long window = Duration.parse(ifEmpty(conf.getInitParameter("TKTAuthFailureWindow"), "60s"), MILLISECONDS);
+            throttle = new FailureThrottle(Integer.parseInt(conf.getInitParameter("TKTAuthFailureLimit")), window);
+         }
+         if(!Strings.isEmpty(conf.getInitParameter("TKTAuthSharingLimit"))) {
+            sharing(conf);
+         }
+         if(!Strings.isEmpty(conf.getInitParameter("TKTAuthConfigFile"))) {
+            Path file = Paths.get(conf.getInitParameter("TKTAuthConfigFile"));
+            settings = load(conf, file);
+            watcher = new FileWatcher(file, () -> reload(conf, file), "auth-tkt-config");
+         } else {
+            settings = TenantSettings.parse(conf::getInitParameter, new Properties(), revocations, ticketCache);
+         }
+         if(!Strings.isEmpty(conf.getInitParameter("TKTAuthWarmup")) || !Strings.isEmpty(conf.getInitParameter("TKTAuthWarmupTime"))) {
+            warmup(conf);
+         }
+      } catch(IOException e) {
+         destroy();
+         throw new ServletException("unable to load config file or open audit or cache file", e);
+      } catch(RuntimeException e) {
+         destroy();
+         throw e;
       }
-
-
-      authenticator = new AuthTicketAuthenticator(config);
-
-      allowGuests = Booleans.parse(conf.getInitParameter("TKTAuthGuestLogin"));
-      guestFallback = Booleans.parse(conf.getInitParameter("TKTAuthGuestFallback"));
-
-      backArgName = ifEmpty(conf.getInitParameter("TKTAuthBackArgName"), "back");
-
-      pattern = Pattern.compile(ifEmpty(conf.getInitParameter("TKTUrlPattern"), "^/.*"));
-
-      authUri = parseUri(conf.getInitParameter("TKTAuthLoginURL"), true);
-      timeoutUri = parseUri(conf.getInitParameter("TKTAuthTimeoutURL"), false);
-      unauthUri = parseUri(conf.getInitParameter("TKTAuthUnauthURL"), false);
-      postUri = parseUri(conf.getInitParameter("TKTAuthPostTimeoutURL"), false);
-
    }
 
    @Override
@@ -282,33 +574,69 @@ public class AuthTicketFilter implements Filter {
       if(request instanceof HttpServletRequest && response instanceof HttpServletResponse) {
          HttpServletRequest httpRequest = (HttpServletRequest) request;
          HttpServletResponse httpResponse = (HttpServletResponse) response;
-         if(matches(httpRequest)) {
+         final FilterSettings settings = this.settings.select(httpRequest);
+         if(matches(settings, httpRequest)) {
+            if(throttle != null && throttle.isBlocked(clientAddress(httpRequest), System.currentTimeMillis())) {
+               httpResponse.setStatus(SC_TOO_MANY_REQUESTS);
+               httpResponse.setHeader("Retry-After", throttle.retryAfter());
+               httpResponse.setContentLength(0);
+               return;
+            }
+            Object event = TicketEvents.isRecording() ? FilterEvent.start() : null;
+            boolean authenticated = false;   // exceptions thrown down the chain are not auth outcomes
             try {
-               final AuthTicket ticket = authenticator.authenticate(httpRequest);
+               final AuthTicket ticket = settings.authenticator.authenticate(httpRequest);
+               if(sharing != null && sharing.observe(ticket, clientAddress(httpRequest), System.currentTimeMillis())
+                     && sharingReject) {
+                  throw new SharedTicketException();
+               }
+               if(event == null) {
+                  if(settings.refresher != null) refresh(settings, httpRequest, httpResponse, ticket);
+               } else {
+                  boolean cached = settings.refresher != null && settings.refresher.isCached(AuthTicketAuthenticator.remoteIp(httpRequest), ticket, System.currentTimeMillis());
+                  boolean refreshed = settings.refresher != null && refresh(settings, httpRequest, httpResponse, ticket);
+                  FilterEvent.finish(event, TicketEvents.VALID, settings, refreshed, refreshed && cached);
+               }
+               authenticated = true;
+               if(proxyFree) {
+                  chain.doFilter(new TicketRequest(httpRequest, ticket), response);
+                  return;
+               }
                HttpServletRequest proxy = Proximo.proxy(HttpServletRequest.class, httpRequest);
                doReturn("AUTH_TKT").when(proxy).getAuthType(); // Apache module returns Basic
                doReturn(ticket.getUsername()).when(proxy).getRemoteUser();
                doAnswer((Answer<Boolean>) invocation -> ticket.contains(invocation.getArgumentAt(0, String.class))).when(proxy).isUserInRole(anyString());
-               doReturn(ticket.getUserData()).when(proxy).getAttribute(eq("TKTAuthUserData"));
+               doAnswer((Answer<String>) invocation -> ticket.getUserData()).when(proxy).getAttribute(eq(USER_DATA_ATTRIBUTE));
+               doReturn(ticket).when(proxy).getAttribute(eq(TICKET_ATTRIBUTE));
+               doReturn(new AuthTicketPrincipal(ticket)).when(proxy).getUserPrincipal();
                chain.doFilter(proxy, response);
             } catch (ExpiredTicketException e) {
-               if (guestFallback && allowGuests) {
-                  processFailure(httpRequest, httpResponse, chain);
-               } else if (postUri != null && httpRequest.getMethod().equals("POST")) {
-                  redirect(httpRequest, httpResponse, postUri);
-               } else if (timeoutUri != null) {
-                  redirect(httpRequest, httpResponse, timeoutUri);
+               if(event != null && !authenticated) FilterEvent.finish(event, TicketEvents.outcome(e), settings, false, false);
+               if (settings.guestFallback && settings.allowGuests) {
+                  processFailure(settings, httpRequest, httpResponse, chain);
+               } else if (settings.postUri != null && httpRequest.getMethod().equals("POST")) {
+                  redirect(settings, httpRequest, httpResponse, settings.postUri);
+               } else if (settings.timeoutUri != null) {
+                  redirect(settings, httpRequest, httpResponse, settings.timeoutUri);
                } else {
-                  redirect(httpRequest, httpResponse, authUri);
+                  redirect(settings, httpRequest, httpResponse, settings.authUri);
                }
             } catch (TokenMissingException e) {
-               if (unauthUri != null) {
-                  redirect(httpRequest, httpResponse, unauthUri);
+               if(!authenticated) {
+                  if(event != null) FilterEvent.finish(event, TicketEvents.outcome(e), settings, false, false);
+                  failed(httpRequest, e);
+               }
+               if (settings.unauthUri != null) {
+                  redirect(settings, httpRequest, httpResponse, settings.unauthUri);
                } else {
-                  redirect(httpRequest, httpResponse, authUri);
+                  redirect(settings, httpRequest, httpResponse, settings.authUri);
                }
             } catch (Exception e) {
-               processFailure(httpRequest, httpResponse, chain);
+               if(!authenticated) {
+                  if(event != null) FilterEvent.finish(event, TicketEvents.outcome(e), settings, false, false);
+                  failed(httpRequest, e);
+               }
+               processFailure(settings, httpRequest, httpResponse, chain);
             }
          } else {
             chain.doFilter(request, response);
@@ -321,40 +649,173 @@ public class AuthTicketFilter implements Filter {
    @Override
    public void destroy()
    {
+      if(warmup != null) warmup.cancel();
+      close(watcher);
+      close(revocations);
+      close(audit);
+      close(ticketCache);
+   }
+
+
+
+   private void sharing(FilterConfig conf)
+   {
+      long window = Duration.parse(ifEmpty(conf.getInitParameter("TKTAuthSharingWindow"), "2h"), SECONDS);
+      String tickets = ifEmpty(conf.getInitParameter("TKTAuthSharingTickets"), "262144");
+      ServletContext context = conf.getServletContext();
+      sharingReject = Booleans.parse(conf.getInitParameter("TKTAuthSharingReject"));
+      sharing = new TicketSharingDetector(Integer.parseInt(conf.getInitParameter("TKTAuthSharingLimit")), window,
+                                          Integer.parseInt(tickets), (ticket, remoteIp, addresses) -> {
+         if(context != null) {
+            context.log(format("auth-tkt ticket of %s used from about %d addresses, most recently %s",
+                                 ticket.getUsername(), addresses, remoteIp));
+         }
+         if(audit != null && !sharingReject) audit.publish("SHARED", remoteIp, null, null);
+      });
+   }
+
+   private void warmup(FilterConfig conf)
+   {
+      List<AuthTicketConfig> configs = new ArrayList<>();
+      for(FilterSettings tenant : settings.all()) configs.add(tenant.config);
+      String iterations = conf.getInitParameter("TKTAuthWarmup");
+      long budget = Duration.parse(ifEmpty(conf.getInitParameter("TKTAuthWarmupTime"), "10s"), MILLISECONDS);
+      ServletContext context = conf.getServletContext();
+      warmup = new TicketWarmup(configs, Strings.isEmpty(iterations) ? Integer.MAX_VALUE : Integer.parseInt(iterations),
+                                 budget, (context != null) ? context::log : message -> { });
+      if(Booleans.parse(conf.getInitParameter("TKTAuthWarmupBackground"))) {
+         Thread thread = new Thread(warmup, "auth-tkt-warmup");
+         thread.setDaemon(true);
+         thread.start();
+      } else {
+         warmup.run();
+      }
+   }
+
+   private TenantSettings load(FilterConfig conf, Path file)
+      throws IOException
+   {
+      Properties props = new Properties();
+      try(Reader reader = Files.newBufferedReader(file, UTF_8)) {
+         props.load(reader);
+      }
+      return TenantSettings.parse(conf::getInitParameter, props, revocations, ticketCache);
+   }
+
+   private void reload(FilterConfig conf, Path file)
+   {
+      try {
+         settings = load(conf, file);
+      } catch(IOException | IllegalArgumentException e) {
+         // keep the previous settings
+         ServletContext context = conf.getServletContext();
+         if(context != null) context.log(format("auth-tkt rejected changes to %s, keeping the previous settings", file), e);
+      }
+   }
+
+   private static void close(Closeable closeable)
+   {
+      if(closeable != null) {
+         try {
+            closeable.close();
+         } catch(IOException e) {
+            // nothing to do
+         }
+      }
+   }
+
+
+   private void failed(HttpServletRequest request, Exception e)
+   {
+      if(throttle != null && FailureThrottle.counts(e)) {
+         throttle.failed(clientAddress(request), System.currentTimeMillis());
+      }
+      if(audit != null && (e instanceof InvalidTicketException || e instanceof MalformedTicketException)) {
+         audit.publish(TicketEvents.outcome(e), clientAddress(request),
+                        request.getMethod(), request.getRequestURI());
+      }
    }
 
+   /**
+    * Returns the address the throttle, sharing detector, and audit log identify the client
+    * by, which is the address of the connection unless a header set by a trusted proxy was
+    * configured.
+    */
+   private String clientAddress(HttpServletRequest request)
+   {
+      if(clientHeader != null) {
+         String value = request.getHeader(clientHeader);
+         if(!Strings.isEmpty(value)) {
+            int comma = value.lastIndexOf(',');
+            return (comma < 0) ? value.trim() : value.substring(comma + 1).trim();
+         }
+      }
+      return request.getRemoteAddr();
+   }
 
-   private boolean matches(HttpServletRequest request)
+   private static boolean matches(FilterSettings settings, HttpServletRequest request)
    {
       if(Strings.equal("OPTIONS", request.getMethod())) return false;
-      Matcher matcher = pattern.matcher(request.getRequestURI());
+      if(settings.anyPath) return isPath(request.getRequestURI());
+      Matcher matcher = settings.pattern.matcher(request.getRequestURI());
       return matcher.matches();
    }
 
-   private void processFailure(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+   /**
+    * Returns {@code true} if the given uri matches the default url pattern {@code ^/.*}
+    * without running the regex.
+    */
+   private static boolean isPath(String uri)
+   {
+      if(uri == null || uri.isEmpty() || uri.charAt(0) != '/') return false;
+      for(int i = 1; i < uri.length(); i++) {
+         char c = uri.charAt(i);
+         if(c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') return false;
+      }
+      return true;
+   }
+
+   private static boolean refresh(FilterSettings settings, HttpServletRequest request, HttpServletResponse response, AuthTicket ticket)
+   {
+      long now = System.currentTimeMillis();
+      if(settings.refresher.isDue(ticket, now)) {
+         String remoteIp = AuthTicketAuthenticator.remoteIp(request);
+         Cookie cookie = new Cookie(settings.cookieName, settings.refresher.refresh(remoteIp, ticket, now));
+         if(settings.cookieDomain != null) cookie.setDomain(settings.cookieDomain);
+         cookie.setPath("/");
+         cookie.setSecure(settings.cookieSecure);
+         response.addCookie(cookie);
+         return true;
+      }
+      return false;
+   }
+
+   private void processFailure(FilterSettings settings, HttpServletRequest request, HttpServletResponse response, FilterChain chain)
       throws IOException, ServletException
    {
-      if(allowGuests) {
+      if(settings.allowGuests && proxyFree) {
+         chain.doFilter(new TicketRequest(request, null), response);
+      } else if(settings.allowGuests) {
          HttpServletRequest proxy = Proximo.proxy(HttpServletRequest.class, request);
          doReturn("guest").when(proxy).getRemoteUser();
          doReturn("AUTH_TKT").when(proxy).getAuthType(); // Apache module returns Basic
          doReturn(false).when(proxy).isUserInRole(anyString());
          chain.doFilter(proxy, response);
       } else {
-         redirect(request, response, authUri);
+         redirect(settings, request, response, settings.authUri);
       }
    }
 
 
-   private void redirect(HttpServletRequest request, HttpServletResponse response, URI target)
+   private static void redirect(FilterSettings settings, HttpServletRequest request, HttpServletResponse response, URI target)
    {
       QueryBuilder query = QueryBuilder.create(target.getQuery());
       if(request.getHeader("X-Back-Url") != null) {
          response.setStatus(HttpServletResponse.SC_FORBIDDEN);
-         query.add(backArgName, NetUtils.urlEncode(request.getHeader("X-Back-Url")));
+         query.add(settings.backArgName, NetUtils.urlEncode(request.getHeader("X-Back-Url")));
       } else {
          response.setStatus(HttpServletResponse.SC_FOUND);
-         query.add(backArgName, NetUtils.urlEncode(currentRequestUri(request)));
+         query.add(settings.backArgName, NetUtils.urlEncode(currentRequestUri(request)));
       }
       response.setHeader("Location", UrlBuilder.create(target).setQuery(query.build()).build());
    }
@@ -382,25 +843,6 @@ public class AuthTicketFilter implements Filter {
       return builder.build();
    }
 
-   private static URI parseUri(String uri, boolean required)
-      throws IllegalArgumentException
-   {
-      if(!Strings.isEmpty(uri)) {
-         try {
-            URI result = new URI(uri);
-            if(Objects.isOneOf(Strings.toLower(result.getScheme()), "https", "http")) {
-               return result;
-            } else {
-               throw new IllegalArgumentException(format("did not expect %s url", result.getScheme()));
-            }
-         } catch(URISyntaxException e) {
-            throw new IllegalArgumentException("malformed url", e);
-         }
-      }
-      if(required) throw new IllegalArgumentException("missing required url");
-      return null;
-   }
-
 
 
 }
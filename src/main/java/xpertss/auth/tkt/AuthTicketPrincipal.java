@@ -0,0 +1,69 @@
+package xpertss.auth.tkt;
+
+import xpertss.lang.Objects;
+
+import java.security.Principal;
+
+/**
+ * A {@link Principal} representing the user identified by a verified {@link AuthTicket}.
+ * <p>
+ * The principal's name is the ticket's username. The ticket itself is available to code
+ * that needs its timestamp, tokens, or user data without decoding the cookie again.
+ */
+public final class AuthTicketPrincipal implements Principal {
+
+   private final AuthTicket ticket;
+
+   /**
+    * Create a principal for the given verified ticket.
+    *
+    * @param ticket The verified ticket identifying the user
+    */
+   public AuthTicketPrincipal(AuthTicket ticket)
+   {
+      this.ticket = Objects.notNull(ticket, "ticket");
+   }
+
+   /**
+    * Returns the username of the authenticated user.
+    */
+   @Override
+   public String getName()
+   {
+      return ticket.getUsername();
+   }
+
+   /**
+    * Returns the verified ticket this principal was created from.
+    *
+    * @return the verified ticket
+    */
+   public AuthTicket getTicket()
+   {
+      return ticket;
+   }
+
+
+   @Override
+   public boolean equals(Object o)
+   {
+      if(o instanceof AuthTicketPrincipal) {
+         AuthTicketPrincipal other = (AuthTicketPrincipal) o;
+         return Objects.equal(getName(), other.getName());
+      }
+      return false;
+   }
+
+   @Override
+   public int hashCode()
+   {
+      return Objects.hash(getName());
+   }
+
+   @Override
+   public String toString()
+   {
+      return getName();
+   }
+
+}
@@ -0,0 +1,78 @@
+package xpertss.auth.tkt;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event covering the authentication of a single ticket by the
+ * {@link AuthTicketAuthenticator}, from parsing the ticket through checking its tokens.
+ * <p>
+ * Instances are only handled as {@code Object} outside of this class so that code
+ * emitting events links on runtimes without the {@code jdk.jfr} API.
+ */
+@Name(AuthenticationEvent.NAME)
+@Label("Ticket Authentication")
+@Category({ "AuthTicket" })
+@Description("Authentication of an auth ticket")
+@StackTrace(false)
+final class AuthenticationEvent extends Event {
+
+   static final String NAME = "xpertss.auth.tkt.Authentication";
+
+   @Label("Outcome")
+   @Description("VALID or the reason the ticket was rejected")
+   String outcome;
+
+   @Label("Digest Algorithm")
+   String digest;
+
+   @Label("Format")
+   @Description("legacy or v2")
+   String format;
+
+   @Label("Decode Layers")
+   @Description("Number of url or base64 encodings removed from the cookie value")
+   int decodeLayers;
+
+   @Label("Ticket Length")
+   @DataAmount
+   int ticketLength;
+
+
+   /**
+    * Begin timing an authentication returning the event or {@code null} if the event
+    * is not enabled.
+    */
+   static Object start()
+   {
+      AuthenticationEvent event = new AuthenticationEvent();
+      if(!event.isEnabled()) return null;
+      event.begin();
+      return event;
+   }
+
+   /**
+    * Complete and commit the given event.
+    */
+   static void finish(Object started, String outcome, DigestAlgorithm digest, String value)
+   {
+      AuthenticationEvent event = (AuthenticationEvent) started;
+      event.end();
+      if(event.shouldCommit()) {
+         event.outcome = outcome;
+         event.digest = digest.name();
+         if(value != null) {
+            event.ticketLength = value.length();
+            event.format = DigestAlgorithm.isCompact(value) ? "v2" : "legacy";
+            event.decodeLayers = DigestAlgorithm.decodeLayers(value);
+         }
+         event.commit();
+      }
+   }
+
+}
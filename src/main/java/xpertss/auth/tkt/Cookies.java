@@ -27,4 +27,64 @@ public class Cookies {
       return null;
    }
 
+
+   /**
+    * This will return the value of the named cookie from a raw {@code Cookie}
+    * header or null if the cookie is not found.
+    * <p>
+    * Unlike {@link javax.servlet.http.HttpServletRequest#getCookies()} this does
+    * not materialize every cookie in the header. It walks the header one cookie
+    * pair at a time comparing names in place and only allocates a String for the
+    * value of the matching cookie. The returned value is exactly as it appeared
+    * on the wire and may still be quoted.
+    *
+    * @param header The raw value of a Cookie header
+    * @param cookieName The name of the cookie to locate
+    * @return The named cookie's value or null
+    */
+   public static String getCookieValue(CharSequence header, String cookieName)
+   {
+      if(header == null || cookieName == null) return null;
+      final int len = header.length();
+      final int nameLen = cookieName.length();
+      int pos = 0;
+      while(pos < len) {
+         pos = skipWhitespace(header, pos, len);
+         if(matches(header, pos, len, cookieName)) {
+            int idx = skipWhitespace(header, pos + nameLen, len);
+            if(idx < len && header.charAt(idx) == '=') {
+               int start = skipWhitespace(header, idx + 1, len);
+               int end = start;
+               while(end < len && header.charAt(end) != ';') end++;
+               while(end > start && isWhitespace(header.charAt(end - 1))) end--;
+               return header.subSequence(start, end).toString();
+            }
+         }
+         while(pos < len && header.charAt(pos) != ';') pos++;
+         pos++;
+      }
+      return null;
+   }
+
+
+   private static boolean matches(CharSequence header, int pos, int len, String name)
+   {
+      if(len - pos < name.length()) return false;
+      for(int i = 0; i < name.length(); i++) {
+         if(header.charAt(pos + i) != name.charAt(i)) return false;
+      }
+      return true;
+   }
+
+   private static int skipWhitespace(CharSequence header, int pos, int len)
+   {
+      while(pos < len && isWhitespace(header.charAt(pos))) pos++;
+      return pos;
+   }
+
+   private static boolean isWhitespace(char c)
+   {
+      return c == ' ' || c == '\t';
+   }
+
 }
@@ -6,16 +6,18 @@
  */
 package xpertss.auth.tkt;
 
+import xpertss.lang.Bytes;
 import xpertss.lang.Strings;
-import xpertss.net.NetUtils;
 
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Set;
 import java.util.regex.Pattern;
 
 import static java.lang.String.format;
-import static xpertss.lang.Bytes.fromHexString;
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * An enumeration of the digest algorithm's supported by the auth ticket specification.
@@ -25,6 +27,10 @@ public enum DigestAlgorithm {
 
    MD5(16, "MD5"), SHA256(32, "SHA-256"), SHA512(64, "SHA-512");
 
+   private static final byte[] SEPARATOR = { '!' };
+   private static final byte[] URL_SEPARATOR = { '%', '2', '1' };
+   private static final byte[] URL_PADDING = { '%', '3', 'D' };
+
    private static final Pattern BASE64 = Pattern.compile("^([A-Za-z0-9+/]{4})*([A-Za-z0-9+/]{4}|[A-Za-z0-9+/]{3}=|[A-Za-z0-9+/]{2}==)?$");
 
    private ThreadLocal<MessageDigest> digesters = new ThreadLocal<MessageDigest>() {
@@ -66,6 +72,13 @@ public enum DigestAlgorithm {
     * Each digest produces a slightly different encoded result. This will throw an
     * exception if the supplied encoded ticket was not encoded using the current
     * digest algorithm.
+    * <p>
+    * Only the ticket's structure is validated and its timestamp read. The remaining
+    * fields are materialized lazily as they are requested so that tickets which are
+    * expired or fail verification never pay for them.
+    * <p>
+    * Tickets in the compact v2 format are recognized by their {@code v2.} prefix and
+    * are decoded from URL safe Base64 without any hex decoding.
     *
     * @param ticket - the raw ticket value
     * @return a parsed immutable AuthTicket instance
@@ -73,47 +86,197 @@ public enum DigestAlgorithm {
     */
    public AuthTicket parse(String ticket)
    {
-      ticket = decode(ticket);
-      if(ticket.length() <= checksumSize + 8) throw new MalformedTicketException("invalid ticket length");
+      return parse(ticket, null);
+   }
+
+   /**
+    * Parse the ticket as {@link #parse(String)} does returning a ticket whose user data
+    * is decoded, when first requested, using the given codec.
+    *
+    * @param ticket - the raw ticket value
+    * @param codec - optional codec used to decode the ticket's user data
+    * @return a parsed immutable AuthTicket instance
+    * @throws MalformedTicketException if the supplied ticket is improperly encoded
+    */
+   public AuthTicket parse(String ticket, UserDataCodec codec)
+   {
+      String value = Strings.unquote(ticket);
+      if(value.startsWith(EncodedAuthTicket.V2_PREFIX)) {
+         return EncodedAuthTicket.parseCompact(decodeCompact(value), checksumSize / 2, codec);
+      }
+      return EncodedAuthTicket.parse(decode(value), checksumSize, codec);
+   }
+
+   /**
+    * Parse the ticket as {@link #parse(String, UserDataCodec)} does identifying the digest
+    * algorithm it was signed with from its structure alone.
+    * <p>
+    * A legacy ticket begins with a hex checksum followed by an eight digit hex timestamp
+    * and a username that ends at the first {@code !}. The longest checksum that fits
+    * within the leading run of hex digits, and leaves room for a username before the
+    * first {@code !}, identifies the algorithm. A v2 ticket is identified by the longest
+    * checksum with which its payload is structurally valid. Tickets identified as signed
+    * with an algorithm that is not accepted are rejected.
+    * <p>
+    * The algorithm of the returned ticket is available from {@link #of(AuthTicket)} and
+    * should be the only one its checksum is verified with. A username which itself
+    * begins with a long run of hex digits can make a ticket signed with a shorter digest
+    * look like one signed with a longer digest, in which case it is rejected.
+    *
+    * @param ticket - the raw ticket value
+    * @param accepted - the digest algorithms the ticket may be signed with
+    * @param codec - optional codec used to decode the ticket's user data
+    * @return a parsed immutable AuthTicket instance
+    * @throws MalformedTicketException if the supplied ticket is improperly encoded or
+    *          not signed with one of the accepted algorithms
+    */
+   static AuthTicket parse(String ticket, Set<DigestAlgorithm> accepted, UserDataCodec codec)
+   {
+      String value = Strings.unquote(ticket);
+      DigestAlgorithm[] candidates = values();
+      if(value.startsWith(EncodedAuthTicket.V2_PREFIX)) {
+         byte[] payload = decodeCompact(value);
+         for(int i = candidates.length - 1; i >= 0; i--) {
+            EncodedAuthTicket result;
+            try {
+               result = EncodedAuthTicket.parseCompact(payload, candidates[i].checksumSize / 2, codec);
+            } catch(MalformedTicketException e) {
+               continue;   // not structurally valid with this checksum size
+            }
+            return accept(result, candidates[i], accepted);
+         }
+         throw new MalformedTicketException("unrecognized digest");
+      }
+      byte[] raw = decode(value);
+      int bang = indexOf(raw, SEPARATOR);
+      int run = 0;
+      while(run < bang && Character.digit(raw[run], 16) >= 0) run++;
+      for(int i = candidates.length - 1; i >= 0; i--) {
+         int header = candidates[i].checksumSize + 8;
+         if(header <= run && header < bang) {
+            return accept(EncodedAuthTicket.parse(raw, candidates[i].checksumSize, codec), candidates[i], accepted);
+         }
+      }
+      throw new MalformedTicketException("unrecognized digest");
+   }
+
+   /**
+    * Returns the digest algorithm whose checksum the given ticket carries or {@code null}
+    * if its checksum does not match the size of any algorithm.
+    */
+   static DigestAlgorithm of(AuthTicket ticket)
+   {
+      int size = (ticket instanceof EncodedAuthTicket) ? ((EncodedAuthTicket) ticket).getChecksumSize()
+                                                        : ticket.getChecksum().length;
+      for(DigestAlgorithm digest : values()) {
+         if(digest.checksumSize == size * 2) return digest;
+      }
+      return null;
+   }
+
+   /**
+    * Returns {@code true} if the given raw ticket value is in the compact v2 format.
+    */
+   static boolean isCompact(String ticket)
+   {
+      return Strings.unquote(ticket).startsWith(EncodedAuthTicket.V2_PREFIX);
+   }
+
+   /**
+    * Returns the number of url or base64 encodings that are removed from the given raw
+    * ticket value when it is parsed or -1 if it can not be decoded.
+    */
+   static int decodeLayers(String ticket)
+   {
+      String value = Strings.unquote(ticket);
+      if(value.startsWith(EncodedAuthTicket.V2_PREFIX)) return 1;
       try {
-         byte[] checksum = fromHexString(ticket.substring(0, checksumSize));
-         long ts = Long.valueOf(ticket.substring(checksumSize, checksumSize + 8), 16);
-
-         String[] parts = ticket.substring(checksumSize + 8).split("!", -3);
-         if(parts.length == 3) {
-            return EncodedAuthTicket.create(checksum, ts, parts[0], parts[1], parts[2]);
-         } else if(parts.length == 2) {
-            return EncodedAuthTicket.create(checksum, ts, parts[0], null, parts[1]);
-         } else {
-            throw new MalformedTicketException("ticket missing user data");
+         byte[] data = value.getBytes(UTF_8);
+         int layers = 0;
+         for(; indexOf(data, SEPARATOR) < 0; layers++) {
+            if(indexOf(data, URL_SEPARATOR) >= 0 || indexOf(data, URL_PADDING) >= 0) {
+               data = urlDecode(data);
+            } else {
+               data = base64Decode(data);
+               if(Bytes.isEmpty(data)) return -1;
+            }
          }
-      } catch(NumberFormatException nfe) {
-         throw new MalformedTicketException(nfe);
+         return layers;
+      } catch(MalformedTicketException e) {
+         return -1;
       }
    }
 
-   private static String decode(String cookie)
+   private static AuthTicket accept(AuthTicket ticket, DigestAlgorithm digest, Set<DigestAlgorithm> accepted)
    {
-      String str = Strings.unquote(cookie);
-      while(!str.contains("!")) {
-         if(str.contains("%21") || str.contains("%3D")) {
-            str = NetUtils.urlDecode(str);
+      if(!accepted.contains(digest)) throw new MalformedTicketException(format("%s digest not accepted", digest));
+      return ticket;
+   }
+
+   private static byte[] decodeCompact(String value)
+   {
+      try {
+         return Base64.getUrlDecoder().decode(value.substring(EncodedAuthTicket.V2_PREFIX.length()));
+      } catch(IllegalArgumentException e) {
+         throw new MalformedTicketException("invalid v2 encoding", e);
+      }
+   }
+
+   private static byte[] decode(String value)
+   {
+      byte[] data = value.getBytes(UTF_8);
+      while(indexOf(data, SEPARATOR) < 0) {
+         if(indexOf(data, URL_SEPARATOR) >= 0 || indexOf(data, URL_PADDING) >= 0) {
+            data = urlDecode(data);
          } else {
-            str = base64Decode(str);
-            if(Strings.isEmpty(str)) throw new MalformedTicketException("unknown encoding");
+            data = base64Decode(data);
+            if(Bytes.isEmpty(data)) throw new MalformedTicketException("unknown encoding");
          }
       }
-      return str;
+      return data;
    }
 
 
-   private static String base64Decode(String str)
+   private static byte[] urlDecode(byte[] data)
+   {
+      byte[] result = new byte[data.length];
+      int len = 0;
+      for(int i = 0; i < data.length; i++) {
+         byte b = data[i];
+         if(b == '+') {
+            result[len++] = ' ';
+         } else if(b == '%') {
+            int hi = (i + 2 < data.length) ? Character.digit(data[i + 1], 16) : -1;
+            int lo = (hi >= 0) ? Character.digit(data[i + 2], 16) : -1;
+            if(lo < 0) throw new MalformedTicketException("invalid url encoding");
+            result[len++] = (byte) ((hi << 4) | lo);
+            i += 2;
+         } else {
+            result[len++] = b;
+         }
+      }
+      return (len == result.length) ? result : Arrays.copyOf(result, len);
+   }
+
+   private static byte[] base64Decode(byte[] data)
    {
       try {
-         return new String(Base64.getDecoder().decode(str));
+         return Base64.getDecoder().decode(data);
       } catch(Exception e) {
          return null;
       }
    }
 
+   private static int indexOf(byte[] data, byte[] target)
+   {
+      outer:
+      for(int i = 0; i <= data.length - target.length; i++) {
+         for(int j = 0; j < target.length; j++) {
+            if(data[i + j] != target[j]) continue outer;
+         }
+         return i;
+      }
+      return -1;
+   }
+
 }
@@ -7,10 +7,16 @@ import xpertss.lang.Strings;
 import xpertss.net.NetUtils;
 import xpertss.util.Sets;
 
+import java.io.ByteArrayOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Set;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 
 /**
  *
@@ -40,29 +46,101 @@ import java.util.Set;
  *
  *    user_data is optional
  *
+ * Tickets produced by {@link DigestAlgorithm#parse(String)} are materialized in stages.
+ * Only the timestamp is read up front. Verification digests the raw byte ranges of the
+ * decoded ticket and compares the result against the hex checksum in place. The user
+ * name, token set, and user data are only converted into Strings when first requested.
+ * <p>
+ * In addition to the format above tickets may use the compact v2 format which carries the
+ * same fields and the same checksum in binary form:
+ * <pre>
+ *    cookie   := "v2." + base64url(payload)      (no padding)
+ *
+ *    payload  := digest + varint(timestamp) + field(user_id) + field(token_list) + field(user_data)
+ *
+ *    field(x) := varint(length(x)) + x
+ * </pre>
+ * where digest holds the raw bytes of the checksum and varint is an unsigned LEB128
+ * integer. As the checksum is computed exactly as for the legacy format a ticket can be
+ * converted between the two formats without being signed again. Fields of a v2 ticket
+ * may not contain NUL characters as those separate the fields in the signed data.
+ * <p>
+ * When a {@link UserDataCodec} is in use the user data carried in the ticket, and signed,
+ * is its compressed form. It is inflated the first time {@link #getUserData()} is called.
  */
 final class EncodedAuthTicket implements AuthTicket {
 
-   private final long timestamp;
-   private final String username;
-   private final String userData;
-   private final byte[] checksum;
-   private final Set<String> tokens;
+   private static final byte[] HEX = "0123456789abcdef".getBytes(UTF_8);
+   private static final byte[] SEPARATOR = new byte[1];
 
+   static final String V2_PREFIX = "v2.";
 
-   private EncodedAuthTicket(byte[] checksum, long ts, String username, Set<String> tokens, String data)
+   private final long timestamp;
+   private final boolean compact;
+   private final UserDataCodec codec;
+
+   // raw decoded ticket and the offsets of its fields, null when created from fields
+   private final byte[] raw;
+   private final int checksumLen;
+   private final int userStart;
+   private final int userEnd;
+   private final int tokensStart;
+   private final int tokensEnd;
+   private final int dataStart;
+   private final int dataEnd;
+
+   private volatile String username;
+   private volatile String userData;
+   private volatile String decoded;
+   private volatile byte[] checksum;
+   private volatile Set<String> tokens;
+   private volatile Set<String> roles;
+
+   private volatile String string;
+   private volatile String encoded;
+   private volatile int hash;
+
+
+   private EncodedAuthTicket(byte[] checksum, long ts, String username, Set<String> tokens, String data,
+                              boolean compact, UserDataCodec codec)
    {
       this.userData = Objects.notNull(data, "data");
+      this.codec = codec;
       this.username = Strings.notEmpty(username, "username");
       this.tokens = tokens;
       this.timestamp = ts;
       this.checksum = Bytes.notEmpty(checksum, "checksum");
+      this.compact = compact;
+      this.raw = null;
+      this.checksumLen = this.userStart = this.userEnd = 0;
+      this.tokensStart = this.tokensEnd = this.dataStart = this.dataEnd = 0;
+   }
+
+   private EncodedAuthTicket(byte[] raw, int checksumLen, long ts, int userStart, int userEnd,
+                              int tokensStart, int tokensEnd, int dataStart, int dataEnd,
+                              boolean compact, UserDataCodec codec)
+   {
+      this.raw = raw;
+      this.codec = codec;
+      this.compact = compact;
+      this.checksumLen = checksumLen;
+      this.timestamp = ts;
+      this.userStart = userStart;
+      this.userEnd = userEnd;
+      this.tokensStart = tokensStart;
+      this.tokensEnd = tokensEnd;
+      this.dataStart = dataStart;
+      this.dataEnd = dataEnd;
    }
 
    @Override
    public String getUsername()
    {
-      return username;
+      String result = username;
+      if(result == null) {
+         username = result = new String(raw, userStart, userEnd - userStart, UTF_8);
+      }
+      return result;
    }
 
 
@@ -70,19 +148,44 @@ final class EncodedAuthTicket implements AuthTicket {
    @Override
    public Set<String> getTokens()
    {
-      return Collections.unmodifiableSet(tokens);
+      return Collections.unmodifiableSet(tokens());
    }
 
+   /**
+    * Returns {@code true} if this ticket contains the specified token or, once the
+    * ticket has been {@link #expand(RoleHierarchy) expanded}, a role implying it.
+    */
    @Override
    public boolean contains(String token)
    {
-      return tokens.contains(token);
+      return effective().contains(token);
    }
 
+   /**
+    * Returns {@code true} if this ticket contains any of the specified tokens or, once
+    * the ticket has been {@link #expand(RoleHierarchy) expanded}, a role implying one.
+    */
    @Override
    public boolean containsAny(Set<String> tokens)
    {
-      return tokens.size() <= 0 || !Sets.intersection(this.tokens, tokens).isEmpty();
+      return tokens.size() <= 0 || !Sets.intersection(effective(), tokens).isEmpty();
+   }
+
+   /**
+    * Expand this ticket's tokens into the effective roles they grant under the given
+    * hierarchy. Afterwards {@link #contains(String)} and {@link #containsAny(Set)}
+    * answer for the effective roles while {@link #getTokens()} still returns the tokens
+    * the ticket was signed with.
+    */
+   void expand(RoleHierarchy hierarchy)
+   {
+      roles = hierarchy.expand(tokens());
+   }
+
+   private Set<String> effective()
+   {
+      Set<String> result = roles;
+      return (result != null) ? result : tokens();
    }
 
 
@@ -106,7 +209,25 @@ final class EncodedAuthTicket implements AuthTicket {
    @Override
    public String getUserData()
    {
-      return userData;
+      if(codec == null) return getSignedUserData();
+      String result = decoded;
+      if(result == null) {
+         decoded = result = codec.decode(getSignedUserData());
+      }
+      return result;
+   }
+
+   /**
+    * Returns the user data as it is carried in the ticket and covered by its checksum,
+    * which is the compressed form when a {@link UserDataCodec} is in use.
+    */
+   String getSignedUserData()
+   {
+      String result = userData;
+      if(result == null) {
+         userData = result = new String(raw, dataStart, dataEnd - dataStart, UTF_8);
+      }
+      return result;
    }
 
 
@@ -114,7 +235,17 @@ final class EncodedAuthTicket implements AuthTicket {
    @Override
    public byte[] getChecksum()
    {
-      return (checksum == null) ? new byte[4] : checksum.clone();
+      byte[] result = checksum;
+      if(result == null && compact) {
+         checksum = result = Arrays.copyOf(raw, checksumLen);
+      } else if(result == null) {
+         try {
+            checksum = result = Bytes.fromHexString(new String(raw, 0, checksumLen, UTF_8));
+         } catch(NumberFormatException nfe) {
+            throw new MalformedTicketException(nfe);
+         }
+      }
+      return result.clone();
    }
 
 
@@ -133,50 +264,264 @@ final class EncodedAuthTicket implements AuthTicket {
    @Override
    public int hashCode()
    {
-      return Objects.hash(timestamp, username, tokens, userData);
+      int result = hash;
+      if(result == 0) {
+         hash = result = Objects.hash(timestamp, getUsername(), tokens(), getSignedUserData());
+      }
+      return result;
    }
 
 
    @Override
    public String toString()
    {
-      StringBuilder builder = new StringBuilder();
-      builder.append(Strings.toLower(Bytes.toHexString(getChecksum())));
-
-      byte[] ts = new byte[4];
-      ts[0] = (byte) ((timestamp >>> 24) & 0xFF);
-      ts[1] = (byte) ((timestamp >>> 16) & 0xFF);
-      ts[2] = (byte) ((timestamp >>>  8) & 0xFF);
-      ts[3] = (byte) ((timestamp) & 0xFF);
-      builder.append(Strings.toLower(Bytes.toHexString(ts)));
-
-      builder.append(username);
-      if(!tokens.isEmpty()) {
-         builder.append("!").append(Strings.join(",", tokens));
+      String result = string;
+      if(result == null) {
+         StringBuilder builder = new StringBuilder();
+         builder.append(Strings.toLower(Bytes.toHexString(getChecksum())));
+
+         byte[] ts = new byte[4];
+         ts[0] = (byte) ((timestamp >>> 24) & 0xFF);
+         ts[1] = (byte) ((timestamp >>> 16) & 0xFF);
+         ts[2] = (byte) ((timestamp >>>  8) & 0xFF);
+         ts[3] = (byte) ((timestamp) & 0xFF);
+         builder.append(Strings.toLower(Bytes.toHexString(ts)));
+
+         builder.append(getUsername());
+         Set<String> tokens = tokens();
+         if(!tokens.isEmpty()) {
+            builder.append("!").append(Strings.join(",", tokens));
+         }
+         builder.append("!").append(Strings.emptyIfNull(getSignedUserData()));
+         string = result = builder.toString();
       }
-      builder.append("!").append(Strings.emptyIfNull(userData));
-      return builder.toString();
+      return result;
    }
 
+   /**
+    * Returns the ticket in the format it was parsed from or, for tickets created by the
+    * encoder, the format the encoder was configured with.
+    */
    @Override
    public String getEncoded()
    {
-      return NetUtils.urlEncode(toString());
+      String result = encoded;
+      if(result == null) {
+         if(compact) {
+            byte[] payload = (raw != null) ? raw : payload();
+            result = V2_PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(payload);
+         } else {
+            result = NetUtils.urlEncode(toString());
+         }
+         encoded = result;
+      }
+      return result;
+   }
+
+
+
+   /**
+    * Returns the size in bytes of this ticket's binary checksum without decoding it.
+    */
+   int getChecksumSize()
+   {
+      if(raw == null) return checksum.length;
+      return compact ? checksumLen : checksumLen / 2;
+   }
+
+   /**
+    * Returns the byte at the given index of this ticket's binary checksum reading it in
+    * place, so unlike {@link #getChecksum()} neither copies nor decodes the checksum.
+    *
+    * @throws MalformedTicketException if the checksum is not valid hex
+    */
+   int getChecksumByte(int index)
+   {
+      if(raw == null) return checksum[index] & 0xFF;
+      if(compact) return raw[index] & 0xFF;
+      int hi = Character.digit(raw[index * 2], 16), lo = Character.digit(raw[index * 2 + 1], 16);
+      if(hi < 0 || lo < 0) throw new MalformedTicketException("invalid checksum");
+      return (hi << 4) | lo;
+   }
+
+   /**
+    * Returns a seeded 64 bit hash of the leading bytes of this ticket's checksum. The
+    * checksum is a keyed digest over every signed field so its first 16 bytes identify
+    * the ticket. The checksum is neither copied nor decoded.
+    */
+   long fingerprint(long seed)
+   {
+      byte[] bytes = (raw != null) ? raw : checksum;
+      int len = (raw != null) ? checksumLen : checksum.length;
+      if(len < 16) {
+         long h = seed;
+         for(int i = 0; i < len; i++) h = (h ^ bytes[i]) * 0x100000001B3L;
+         return h;
+      }
+      long h = Long.rotateLeft((seed ^ word(bytes, 0)) * 0x9E3779B97F4A7C15L, 31);
+      return Long.rotateLeft((h ^ word(bytes, 8)) * 0x9E3779B97F4A7C15L, 31);
+   }
+
+   private static long word(byte[] bytes, int i)
+   {
+      return ((long) bytes[i] << 56) | ((bytes[i + 1] & 0xFFL) << 48) | ((bytes[i + 2] & 0xFFL) << 40)
+               | ((bytes[i + 3] & 0xFFL) << 32) | ((bytes[i + 4] & 0xFFL) << 24) | ((bytes[i + 5] & 0xFFL) << 16)
+               | ((bytes[i + 6] & 0xFFL) << 8) | (bytes[i + 7] & 0xFFL);
+   }
+
+   /**
+    * Returns {@code true} if this ticket retains its raw decoded form.
+    */
+   boolean isRaw()
+   {
+      return raw != null;
+   }
+
+   /**
+    * Feed the signed fields of a raw ticket into the given digest exactly as they
+    * appeared on the wire: {@code user_id + '\0' + token_list + '\0' + user_data}
+    */
+   void digestFields(MessageDigest digester)
+   {
+      digester.update(raw, userStart, userEnd - userStart);
+      digester.update(SEPARATOR);
+      digester.update(raw, tokensStart, tokensEnd - tokensStart);
+      digester.update(SEPARATOR);
+      digester.update(raw, dataStart, dataEnd - dataStart);
+   }
+
+   /**
+    * Compares the given binary checksum against this ticket's checksum in time that
+    * does not depend on where the two differ. Raw tickets are compared against their
+    * hex encoded checksum in place without decoding it.
+    */
+   boolean matches(byte[] computed)
+   {
+      if(raw == null) return MessageDigest.isEqual(checksum, computed);
+      if(compact) {
+         if(computed.length != checksumLen) return false;
+         int diff = 0;
+         for(int i = 0; i < computed.length; i++) diff |= raw[i] ^ computed[i];
+         return diff == 0;
+      }
+      if(computed.length * 2 != checksumLen) return false;
+      int diff = 0;
+      for(int i = 0; i < computed.length; i++) {
+         diff |= lower(raw[i * 2]) ^ HEX[(computed[i] >> 4) & 0x0F];
+         diff |= lower(raw[i * 2 + 1]) ^ HEX[computed[i] & 0x0F];
+      }
+      return diff == 0;
    }
 
 
+
    
    static EncodedAuthTicket create(byte[] checksum, long ts, String uid, String tokenData, String data)
    {
-      return new EncodedAuthTicket(checksum, ts, uid, tokens(tokenData), data);
+      return new EncodedAuthTicket(checksum, ts, uid, tokens(tokenData), data, false, null);
    }
 
    static EncodedAuthTicket create(AuthTicket ticket, byte[] checksum)
    {
-      return new EncodedAuthTicket(checksum, ticket.getTimestamp(), ticket.getUsername(), ticket.getTokens(), ticket.getUserData());
+      return create(ticket, checksum, false);
+   }
+
+   static EncodedAuthTicket create(AuthTicket ticket, byte[] checksum, boolean compact)
+   {
+      return new EncodedAuthTicket(checksum, ticket.getTimestamp(), ticket.getUsername(), ticket.getTokens(),
+                                    ticket.getUserData(), compact, null);
+   }
+
+   /**
+    * Create a ticket carrying the given signed user data, which the given codec produced
+    * from the user data of the given ticket.
+    */
+   static EncodedAuthTicket create(AuthTicket ticket, String signedUserData, byte[] checksum,
+                                    boolean compact, UserDataCodec codec)
+   {
+      EncodedAuthTicket result = new EncodedAuthTicket(checksum, ticket.getTimestamp(), ticket.getUsername(),
+                                                         ticket.getTokens(), signedUserData, compact, codec);
+      result.decoded = ticket.getUserData();
+      return result;
+   }
+
+   /**
+    * Create a lazily materialized ticket over the given raw decoded ticket bytes. Only
+    * the structure of the ticket is validated and the timestamp read.
+    *
+    * @param raw The decoded ticket
+    * @param checksumLen The length of the hex encoded checksum
+    * @param codec Optional codec used to decode the ticket's user data
+    * @return a lazily materialized ticket
+    * @throws MalformedTicketException if the ticket is not structurally valid
+    */
+   static EncodedAuthTicket parse(byte[] raw, int checksumLen, UserDataCodec codec)
+   {
+      if(raw.length <= checksumLen + 8) throw new MalformedTicketException("invalid ticket length");
+      long ts = 0;
+      for(int i = checksumLen; i < checksumLen + 8; i++) {
+         int nibble = Character.digit(raw[i], 16);
+         if(nibble < 0) throw new MalformedTicketException("invalid timestamp");
+         ts = (ts << 4) | nibble;
+      }
+
+      int first = indexOf(raw, checksumLen + 8);
+      if(first < 0) throw new MalformedTicketException("ticket missing user data");
+      if(first == checksumLen + 8) throw new MalformedTicketException("ticket missing username");
+      int second = indexOf(raw, first + 1);
+      if(second < 0) {
+         return new EncodedAuthTicket(raw, checksumLen, ts, checksumLen + 8, first,
+                                       first + 1, first + 1, first + 1, raw.length, false, codec);
+      } else if(indexOf(raw, second + 1) < 0) {
+         return new EncodedAuthTicket(raw, checksumLen, ts, checksumLen + 8, first,
+                                       first + 1, second, second + 1, raw.length, false, codec);
+      }
+      throw new MalformedTicketException("ticket missing user data");
+   }
+
+   /**
+    * Create a lazily materialized ticket over the given decoded v2 payload. Only the
+    * structure of the payload is validated and the timestamp read.
+    *
+    * @param payload The decoded v2 payload
+    * @param checksumSize The length of the binary checksum
+    * @param codec Optional codec used to decode the ticket's user data
+    * @return a lazily materialized ticket
+    * @throws MalformedTicketException if the payload is not structurally valid
+    */
+   static EncodedAuthTicket parseCompact(byte[] payload, int checksumSize, UserDataCodec codec)
+   {
+      if(payload.length <= checksumSize) throw new MalformedTicketException("invalid ticket length");
+      long timestamp = varint(payload, checksumSize, "timestamp");
+      long user = field(payload, (int) timestamp);
+      long tokens = field(payload, (int) (user >>> 32));
+      long data = field(payload, (int) (tokens >>> 32));
+
+      int userStart = (int) user, userEnd = (int) (user >>> 32);
+      int tokensStart = (int) tokens, tokensEnd = (int) (tokens >>> 32);
+      int dataStart = (int) data, dataEnd = (int) (data >>> 32);
+      if(userEnd == userStart) throw new MalformedTicketException("ticket missing username");
+      if(dataEnd != payload.length) throw new MalformedTicketException("invalid ticket length");
+      if(containsNul(payload, userStart, userEnd) || containsNul(payload, tokensStart, tokensEnd)
+            || containsNul(payload, dataStart, dataEnd)) {
+         throw new MalformedTicketException("ticket contains NUL");
+      }
+      long ts = timestamp >>> 32;
+      return new EncodedAuthTicket(payload, checksumSize, ts, userStart, userEnd,
+                                    tokensStart, tokensEnd, dataStart, dataEnd, true, codec);
    }
 
 
+
+   private Set<String> tokens()
+   {
+      Set<String> result = tokens;
+      if(result == null) {
+         tokens = result = tokens(new String(raw, tokensStart, tokensEnd - tokensStart, UTF_8));
+      }
+      return result;
+   }
+
    private static Set<String> tokens(String string)
    {
       Set<String> tokens = new LinkedHashSet<>();
@@ -186,4 +531,87 @@ final class EncodedAuthTicket implements AuthTicket {
       return tokens;
    }
 
+   private byte[] payload()
+   {
+      byte[][] fields = {
+         toBytes(getUsername()), toBytes(Strings.join(",", tokens())), toBytes(getSignedUserData())
+      };
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      out.write(checksum, 0, checksum.length);
+      writeVarint(out, timestamp);
+      for(byte[] field : fields) {
+         for(byte b : field) {
+            if(b == 0) throw new IllegalArgumentException("compact tickets may not contain NUL");
+         }
+         writeVarint(out, field.length);
+         out.write(field, 0, field.length);
+      }
+      return out.toByteArray();
+   }
+
+   private static byte[] toBytes(String str)
+   {
+      return (str != null) ? str.getBytes(UTF_8) : new byte[0];
+   }
+
+   private static void writeVarint(ByteArrayOutputStream out, long value)
+   {
+      while((value & ~0x7FL) != 0) {
+         out.write((int) ((value & 0x7F) | 0x80));
+         value >>>= 7;
+      }
+      out.write((int) value);
+   }
+
+   /**
+    * Reads an unsigned varint of at most 32 bits at the given position and returns
+    * the value in the high 32 bits and the position following it in the low 32 bits.
+    */
+   private static long varint(byte[] payload, int pos, String name)
+   {
+      long value = 0;
+      for(int shift = 0; ; shift += 7) {
+         if(pos >= payload.length || shift > 28) throw new MalformedTicketException("invalid " + name);
+         byte b = payload[pos++];
+         value |= (long) (b & 0x7F) << shift;
+         if(b >= 0) break;
+      }
+      if(value > 0xFFFFFFFFL) throw new MalformedTicketException("invalid " + name);
+      return value << 32 | pos;
+   }
+
+   /**
+    * Reads the length prefixed field at the given position and returns the position
+    * following the field in the high 32 bits and its first byte in the low 32 bits.
+    */
+   private static long field(byte[] payload, int pos)
+   {
+      long prefix = varint(payload, pos, "field length");
+      long start = prefix & 0xFFFFFFFFL;
+      long end = start + (prefix >>> 32);
+      if(end > payload.length) throw new MalformedTicketException("invalid field length");
+      return end << 32 | start;
+   }
+
+   private static boolean containsNul(byte[] payload, int start, int end)
+   {
+      for(int i = start; i < end; i++) {
+         if(payload[i] == 0) return true;
+      }
+      return false;
+   }
+
+   private static int indexOf(byte[] raw, int from)
+   {
+      for(int i = from; i < raw.length; i++) {
+         if(raw[i] == '!') return i;
+      }
+      return -1;
+   }
+
+   private static int lower(byte b)
+   {
+      return (b >= 'A' && b <= 'F') ? b + ('a' - 'A') : b;
+   }
+
 }
@@ -0,0 +1,186 @@
+package xpertss.auth.tkt;
+
+import xpertss.lang.Numbers;
+
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts failed authentication attempts per client over a sliding window and blocks the
+ * clients that go over a limit until the window cools off.
+ * <p>
+ * Failures are counted in a ring of Count-Min sketches, one for each sixth of the window,
+ * so that memory is fixed no matter how many clients fail. A client's count is the sum of
+ * its estimates in the sketches that still fall within the window. Sketches are recycled
+ * as the window slides past them. All counters are updated without locking. Estimates
+ * never undercount but may overcount when many clients fail at once, so the limit should
+ * be comfortably above the failures a legitimate client produces.
+ * <p>
+ * Clients that reach the limit are placed in an exact table of heavy hitters with the
+ * time their block ends. Checking whether a client is blocked is a single lookup in that
+ * table, which lets the filter reject them before decoding their ticket or computing any
+ * digest. The table is bounded and blocks are not extended while a client is blocked, so
+ * a blocked client is let back in one window after it was blocked.
+ */
+final class FailureThrottle {
+
+   private static final int BUCKETS = 6;
+   private static final int DEPTH = 4;
+   private static final int WIDTH = 1024;
+   private static final int MAX_BLOCKED = 10000;
+
+   private final ConcurrentMap<String,Long> blocked = new ConcurrentHashMap<>();
+   private final AtomicIntegerArray counters = new AtomicIntegerArray(BUCKETS * DEPTH * WIDTH);
+   private final AtomicLongArray epochs = new AtomicLongArray(BUCKETS);
+   private final long seed = new SecureRandom().nextLong();
+
+   private final int limit;
+   private final long windowMillis;
+   private final long bucketMillis;
+   private final String retryAfter;
+
+
+   FailureThrottle(int limit, long windowMillis)
+   {
+      this.limit = Numbers.gt(0, limit, "limit must be positive");
+      this.windowMillis = Numbers.gte((long) BUCKETS, windowMillis, "window too small");
+      this.bucketMillis = windowMillis / BUCKETS;
+      this.retryAfter = Long.toString((windowMillis + 999) / 1000);
+      for(int i = 0; i < BUCKETS; i++) epochs.set(i, -1);
+   }
+
+
+   /**
+    * Returns {@code true} if the given client is currently blocked.
+    */
+   boolean isBlocked(String client, long nowMillis)
+   {
+      if(client == null || blocked.isEmpty()) return false;
+      Long until = blocked.get(client);
+      if(until == null) return false;
+      if(until > nowMillis) return true;
+      blocked.remove(client, until);
+      return false;
+   }
+
+   /**
+    * Record a failed attempt by the given client blocking it if it has reached the
+    * limit.
+    */
+   void failed(String client, long nowMillis)
+   {
+      if(client == null) return;
+      long slot = nowMillis / bucketMillis;
+      int base = bucket(slot) * DEPTH * WIDTH;
+      long hash = hash(client);
+      for(int row = 0; row < DEPTH; row++) {
+         counters.incrementAndGet(base + row * WIDTH + index(hash, row));
+      }
+      if(estimate(hash, slot) >= limit) block(client, nowMillis);
+   }
+
+   /**
+    * Returns the estimated number of failures of the given client within the window.
+    */
+   int estimate(String client, long nowMillis)
+   {
+      return estimate(hash(client), nowMillis / bucketMillis);
+   }
+
+   /**
+    * Returns the value of the Retry-After header sent to blocked clients.
+    */
+   String retryAfter()
+   {
+      return retryAfter;
+   }
+
+   /**
+    * Returns the number of blocked clients.
+    */
+   int blocked()
+   {
+      return blocked.size();
+   }
+
+
+   /**
+    * Returns {@code true} if the given authentication failure counts towards the limit.
+    * Only failures which required the ticket to be decoded or digested and which a
+    * legitimate client does not routinely produce are counted.
+    */
+   static boolean counts(Exception e)
+   {
+      return e instanceof MalformedTicketException ||
+               (e instanceof InvalidTicketException && !(e instanceof TokenMissingException)
+                  && !(e instanceof SharedTicketException));
+   }
+
+
+
+   private void block(String client, long nowMillis)
+   {
+      if(blocked.size() >= MAX_BLOCKED) {
+         for(Iterator<Long> it = blocked.values().iterator(); it.hasNext(); ) {
+            if(it.next() <= nowMillis) it.remove();
+         }
+         if(blocked.size() >= MAX_BLOCKED) return;
+      }
+      blocked.putIfAbsent(client, nowMillis + windowMillis);
+   }
+
+   private int estimate(long hash, long slot)
+   {
+      int total = 0;
+      for(int b = 0; b < BUCKETS; b++) {
+         long epoch = epochs.get(b);
+         if(epoch <= slot - BUCKETS || epoch > slot) continue;
+         int base = b * DEPTH * WIDTH;
+         int min = Integer.MAX_VALUE;
+         for(int row = 0; row < DEPTH; row++) {
+            min = Math.min(min, counters.get(base + row * WIDTH + index(hash, row)));
+         }
+         total += min;
+      }
+      return total;
+   }
+
+   /**
+    * Returns the bucket for the given slot clearing it first if it still holds the
+    * counts of an earlier slot. Increments that race with clearing may be lost.
+    */
+   private int bucket(long slot)
+   {
+      int b = (int) (slot % BUCKETS);
+      long epoch = epochs.get(b);
+      if(epoch < slot && epochs.compareAndSet(b, epoch, slot)) {
+         int base = b * DEPTH * WIDTH;
+         for(int i = 0; i < DEPTH * WIDTH; i++) counters.set(base + i, 0);
+      }
+      return b;
+   }
+
+   private long hash(String client)
+   {
+      long h = seed;
+      for(int i = 0; i < client.length(); i++) {
+         h = (h ^ client.charAt(i)) * 0x100000001B3L;
+      }
+      h ^= h >>> 33;
+      h *= 0xFF51AFD7ED558CCDL;
+      h ^= h >>> 33;
+      h *= 0xC4CEB9FE1A85EC53L;
+      return h ^ (h >>> 33);
+   }
+
+   private static int index(long hash, int row)
+   {
+      int h1 = (int) hash, h2 = (int) (hash >>> 32);
+      return ((h1 + row * h2) & Integer.MAX_VALUE) % WIDTH;
+   }
+
+}
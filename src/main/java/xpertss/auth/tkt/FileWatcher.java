@@ -0,0 +1,97 @@
+package xpertss.auth.tkt;
+
+import xpertss.lang.Objects;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Watches a single file using a {@link WatchService} on a daemon thread and invokes a
+ * callback on that thread whenever the file is created, modified, or replaced.
+ * <p>
+ * Editors and copies written in place report a change as soon as the first bytes are
+ * written, so the callback is only invoked once the directory has been quiet for a
+ * short while. Each further change restarts the wait. A writer that may pause for
+ * longer should write a temporary file and rename it over the watched one.
+ * <p>
+ * The callback is responsible for handling its own failures, any exception it throws
+ * is discarded so that the watch continues.
+ */
+final class FileWatcher implements Closeable {
+
+   private static final long SETTLE_MILLIS = 250;
+
+   private final WatchService watcher;
+   private final Runnable onChange;
+   private final Path file;
+
+   FileWatcher(Path file, Runnable onChange, String name)
+      throws IOException
+   {
+      this.file = Objects.notNull(file, "file").toAbsolutePath();
+      this.onChange = Objects.notNull(onChange, "onChange");
+      this.watcher = this.file.getFileSystem().newWatchService();
+      try {
+         this.file.getParent().register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+      } catch(IOException e) {
+         watcher.close();
+         throw e;
+      }
+      Thread thread = new Thread(this::watch, name);
+      thread.setDaemon(true);
+      thread.start();
+   }
+
+
+   @Override
+   public void close()
+      throws IOException
+   {
+      watcher.close();
+   }
+
+
+   private void watch()
+   {
+      try {
+         while(true) {
+            WatchKey key = watcher.take();
+            boolean changed = changed(key);
+            if(!key.reset()) return;
+            if(!changed) continue;
+            // let the writer finish before the file is read
+            while((key = watcher.poll(SETTLE_MILLIS, MILLISECONDS)) != null) {
+               changed(key);
+               if(!key.reset()) return;
+            }
+            try {
+               onChange.run();
+            } catch(RuntimeException e) {
+               // keep watching
+            }
+         }
+      } catch(InterruptedException | ClosedWatchServiceException e) {
+         // watcher closed
+      }
+   }
+
+   private boolean changed(WatchKey key)
+   {
+      boolean changed = false;
+      for(WatchEvent<?> event : key.pollEvents()) {
+         changed |= event.kind() == OVERFLOW || file.getFileName().equals(event.context());
+      }
+      return changed;
+   }
+
+}
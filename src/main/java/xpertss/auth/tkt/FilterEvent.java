@@ -0,0 +1,71 @@
+package xpertss.auth.tkt;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A flight recorder event covering the time the {@link AuthTicketFilter} spends on a
+ * request before handing it to the rest of the chain or redirecting it, that is
+ * authenticating it and refreshing its ticket.
+ * <p>
+ * Instances are only handled as {@code Object} outside of this class so that code
+ * emitting events links on runtimes without the {@code jdk.jfr} API.
+ */
+@Name(FilterEvent.NAME)
+@Label("Ticket Filter")
+@Category({ "AuthTicket" })
+@Description("Authentication of a request by the AuthTicketFilter")
+@StackTrace(false)
+final class FilterEvent extends Event {
+
+   static final String NAME = "xpertss.auth.tkt.Filter";
+
+   @Label("Outcome")
+   @Description("VALID or the reason the ticket was rejected")
+   String outcome;
+
+   @Label("Digest Algorithm")
+   String digest;
+
+   @Label("Refreshed")
+   @Description("Whether a refreshed ticket was set on the response")
+   boolean refreshed;
+
+   @Label("Cache Hit")
+   @Description("Whether the refreshed ticket was served from the refresh cache")
+   boolean cacheHit;
+
+
+   /**
+    * Begin timing a request returning the event or {@code null} if the event is not
+    * enabled.
+    */
+   static Object start()
+   {
+      FilterEvent event = new FilterEvent();
+      if(!event.isEnabled()) return null;
+      event.begin();
+      return event;
+   }
+
+   /**
+    * Complete and commit the given event.
+    */
+   static void finish(Object started, String outcome, FilterSettings settings, boolean refreshed, boolean cacheHit)
+   {
+      FilterEvent event = (FilterEvent) started;
+      event.end();
+      if(event.shouldCommit()) {
+         event.outcome = outcome;
+         event.digest = settings.config.getDigestAlgorithm().name();
+         event.refreshed = refreshed;
+         event.cacheHit = cacheHit;
+         event.commit();
+      }
+   }
+
+}
@@ -0,0 +1,230 @@
+package xpertss.auth.tkt;
+
+import xpertss.lang.Booleans;
+import xpertss.lang.Objects;
+import xpertss.lang.Strings;
+import xpertss.time.Duration;
+import xpertss.util.Sets;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+import static java.lang.String.format;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static xpertss.lang.Strings.ifEmpty;
+
+/**
+ * An immutable snapshot of the {@link AuthTicketFilter}'s settings along with the state
+ * derived from them, such as the frozen config, the authenticator built over it, and the
+ * compiled url pattern.
+ * <p>
+ * All of the parsing and validation happens when the snapshot is created so a snapshot
+ * that was created successfully is complete and may be published to request threads
+ * through a single volatile reference.
+ */
+final class FilterSettings {
+
+   private static final long REFRESH_WINDOW = 5000;
+   private static final String ANY_PATH = "^/.*";
+
+   final AuthTicketConfig config;
+   final AuthTicketAuthenticator authenticator;
+   final TicketRefresher refresher;
+
+   final URI authUri;
+   final URI timeoutUri;
+   final URI unauthUri;
+   final URI postUri;
+   final String backArgName;
+   final boolean allowGuests;
+   final boolean guestFallback;
+   final String cookieName;
+   final String cookieDomain;
+   final boolean cookieSecure;
+
+   final Pattern pattern;
+   final boolean anyPath;
+
+   private FilterSettings(Function<String,String> params, RevocationList revocations,
+                           MappedTicketCache ticketCache, Cache cache)
+   {
+      AuthTicketConfig config = new AuthTicketConfig(params.apply("TKTAuthSecret"));
+
+      if(!Strings.isEmpty(params.apply("TKTAuthIgnoreIP"))) {
+         config.setIgnoreIP(Booleans.parse(params.apply("TKTAuthIgnoreIP")));
+      }
+
+      if(!Strings.isEmpty(params.apply("TKTAuthTimeout"))) {
+         config.setTimeout(Duration.parse(params.apply("TKTAuthTimeout"), SECONDS));
+      }
+
+      if(!Strings.isEmpty(params.apply("TKTAuthCookieName"))) {
+         config.setCookieName(params.apply("TKTAuthCookieName"));
+      }
+
+      if(!Strings.isEmpty(params.apply("TKTAuthHeader"))) {
+         String[] header = params.apply("TKTAuthHeader").trim().split("\\s+", 2);
+         config.setTicketHeader(header[0]);
+         if(header.length > 1) config.setTicketHeaderScheme(header[1]);
+      }
+
+      if(!Strings.isEmpty(params.apply("TKTAuthToken"))) {
+         config.setTokens(Sets.of(params.apply("TKTAuthToken").split("\\s*,\\s*")));
+      }
+
+      if(!Strings.isEmpty(params.apply("TKTAuthRoleHierarchy"))) {
+         config.setRoleHierarchy(RoleHierarchy.parse(params.apply("TKTAuthRoleHierarchy")));
+      }
+
+      if(!Strings.isEmpty(params.apply("TKTAuthTokenPolicy"))) {
+         config.setTokenPolicy(TokenPolicy.compile(params.apply("TKTAuthTokenPolicy")));
+      }
+
+      if(!Strings.isEmpty(params.apply("TKTAuthDigestType"))) {
+         config.setDigestAlgorithm(DigestAlgorithm.valueOf(params.apply("TKTAuthDigestType")));
+      }
+
+      if(!Strings.isEmpty(params.apply("TKTAuthAcceptedDigestTypes"))) {
+         Set<DigestAlgorithm> accepted = EnumSet.noneOf(DigestAlgorithm.class);
+         for(String type : params.apply("TKTAuthAcceptedDigestTypes").trim().split("\\s*,\\s*")) {
+            accepted.add(DigestAlgorithm.valueOf(type));
+         }
+         config.setAcceptedDigestAlgorithms(accepted);
+      }
+
+      if(!Strings.isEmpty(params.apply("TKTAuthCompactFormat"))) {
+         config.setCompactFormat(Booleans.parse(params.apply("TKTAuthCompactFormat")));
+      }
+
+      if(Booleans.parse(params.apply("TKTAuthUserDataCompression"))) {
+         String dictionary = params.apply("TKTAuthUserDataDictionary");
+         config.setUserDataCodec(Strings.isEmpty(dictionary) ? new UserDataCodec() : new UserDataCodec(dictionary));
+      }
+
+      config.setRevocationList(revocations);
+      config.setTicketCache(ticketCache);
+
+      this.config = config.freeze();
+      this.authenticator = new AuthTicketAuthenticator(this.config);
+
+      double refresh = 0;
+      if(!Strings.isEmpty(params.apply("TKTAuthTimeoutRefresh"))) {
+         refresh = Double.parseDouble(params.apply("TKTAuthTimeoutRefresh"));
+      }
+      this.refresher = (refresh > 0) ? new TicketRefresher(this.config, refresh, REFRESH_WINDOW) : null;
+      this.cookieName = this.config.getCookieName();
+      this.cookieDomain = Strings.nullIfEmpty(params.apply("TKTAuthDomain"));
+      this.cookieSecure = Booleans.parse(params.apply("TKTAuthCookieSecure"));
+
+      this.allowGuests = Booleans.parse(params.apply("TKTAuthGuestLogin"));
+      this.guestFallback = Booleans.parse(params.apply("TKTAuthGuestFallback"));
+
+      this.backArgName = ifEmpty(params.apply("TKTAuthBackArgName"), "back");
+
+      String regex = ifEmpty(params.apply("TKTUrlPattern"), ANY_PATH);
+      this.pattern = cache.pattern(regex);
+      this.anyPath = ANY_PATH.equals(regex);
+
+      this.authUri = cache.uri(params.apply("TKTAuthLoginURL"), true);
+      this.timeoutUri = cache.uri(params.apply("TKTAuthTimeoutURL"), false);
+      this.unauthUri = cache.uri(params.apply("TKTAuthUnauthURL"), false);
+      this.postUri = cache.uri(params.apply("TKTAuthPostTimeoutURL"), false);
+   }
+
+
+   /**
+    * Parse a settings snapshot from the given named parameters.
+    *
+    * @param params Function returning the value of a named parameter or {@code null}
+    * @param revocations Optional revocation list to apply to verified tickets
+    * @return a complete settings snapshot
+    * @throws IllegalArgumentException if any of the parameters are invalid
+    */
+   static FilterSettings parse(Function<String,String> params, RevocationList revocations)
+   {
+      return parse(params, revocations, new Cache());
+   }
+
+   /**
+    * Parse a settings snapshot from the given named parameters sharing compiled url
+    * patterns and parsed urls with every other snapshot parsed using the same cache.
+    *
+    * @param params Function returning the value of a named parameter or {@code null}
+    * @param revocations Optional revocation list to apply to verified tickets
+    * @param cache The cache of compiled patterns and urls to share
+    * @return a complete settings snapshot
+    * @throws IllegalArgumentException if any of the parameters are invalid
+    */
+   static FilterSettings parse(Function<String,String> params, RevocationList revocations, Cache cache)
+   {
+      return parse(params, revocations, null, cache);
+   }
+
+   /**
+    * Parse a settings snapshot as {@link #parse(Function, RevocationList, Cache)} does
+    * whose authenticator consults the given verified ticket cache.
+    *
+    * @param params Function returning the value of a named parameter or {@code null}
+    * @param revocations Optional revocation list to apply to verified tickets
+    * @param ticketCache Optional cache of verified tickets
+    * @param cache The cache of compiled patterns and urls to share
+    * @return a complete settings snapshot
+    * @throws IllegalArgumentException if any of the parameters are invalid
+    */
+   static FilterSettings parse(Function<String,String> params, RevocationList revocations,
+                               MappedTicketCache ticketCache, Cache cache)
+   {
+      return new FilterSettings(Objects.notNull(params, "params"), revocations, ticketCache, Objects.notNull(cache, "cache"));
+   }
+
+
+   /**
+    * Compiled url patterns and parsed urls shared between the snapshots built from a single
+    * configuration. Many tenants typically share the same pattern and login urls. A cache is
+    * only used while building snapshots and is not thread safe.
+    */
+   static final class Cache {
+
+      private final Map<String,Pattern> patterns = new HashMap<>();
+      private final Map<String,URI> uris = new HashMap<>();
+
+      private Pattern pattern(String regex)
+      {
+         return patterns.computeIfAbsent(regex, Pattern::compile);
+      }
+
+      private URI uri(String uri, boolean required)
+         throws IllegalArgumentException
+      {
+         if(!Strings.isEmpty(uri)) {
+            URI result = uris.get(uri);
+            if(result == null) uris.put(uri, result = parseUri(uri));
+            return result;
+         }
+         if(required) throw new IllegalArgumentException("missing required url");
+         return null;
+      }
+
+      private static URI parseUri(String uri)
+         throws IllegalArgumentException
+      {
+         try {
+            URI result = new URI(uri);
+            if(Objects.isOneOf(Strings.toLower(result.getScheme()), "https", "http")) {
+               return result;
+            } else {
+               throw new IllegalArgumentException(format("did not expect %s url", result.getScheme()));
+            }
+         } catch(URISyntaxException e) {
+            throw new IllegalArgumentException("malformed url", e);
+         }
+      }
+   }
+
+}
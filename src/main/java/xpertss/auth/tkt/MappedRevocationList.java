@@ -0,0 +1,425 @@
+package xpertss.auth.tkt;
+
+import xpertss.lang.Numbers;
+import xpertss.lang.Objects;
+import xpertss.lang.Strings;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * A read-only {@link RevocationList} memory mapped from a snapshot file.
+ * <p>
+ * The snapshot holds two kinds of entries. User entries revoke every ticket issued
+ * to a username before a given time, which is how a logout or a disabled account
+ * is expressed. Ticket entries revoke a single ticket identified by its checksum.
+ * <p>
+ * The file consists of a Bloom filter followed by an open addressing hash table
+ * holding the exact entries. Lookups first probe the Bloom filter, so the common
+ * case of a ticket that has not been revoked costs a handful of reads from the
+ * mapping and never touches the table. The entries live entirely in the mapped
+ * file and so consume no heap regardless of how many there are.
+ * <p>
+ * Snapshots are produced with a {@link Builder} which writes them atomically. A
+ * snapshot file must never be modified in place while it is mapped; replace it
+ * instead, as the builder does.
+ * <pre>
+ *    header   magic, version, entries, hashes, bloomWords, slots (6 x int)
+ *    bloom    bloomWords x long
+ *    table    slots x (hash long, value long, keyOffset int, kind &lt;&lt; 24 | keyLength int)
+ *    keys     user names as UTF-16 chars, ticket checksums as raw bytes
+ * </pre>
+ */
+public final class MappedRevocationList implements RevocationList {
+
+   private static final int MAGIC = 0x41545256;    // ATRV
+   private static final int VERSION = 1;
+
+   private static final int HEADER_SIZE = 24;
+   private static final int SLOT_SIZE = 24;
+   private static final int HASHES = 7;
+   private static final int BITS_PER_ENTRY = 10;
+
+   private static final int USER = 1;
+   private static final int TICKET = 2;
+
+   private static final long PRIME = 0x100000001b3L;
+   private static final long OFFSET = 0xcbf29ce484222325L;
+
+
+   private final ByteBuffer buffer;
+   private final int entries;
+   private final int hashes;
+   private final long bloomMask;
+   private final int slotMask;
+   private final int tableStart;
+
+   private MappedRevocationList(ByteBuffer buffer)
+      throws IOException
+   {
+      if(buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+         throw new IOException("not a revocation list");
+      }
+      if(buffer.getInt(4) != VERSION) {
+         throw new IOException("unsupported revocation list version " + buffer.getInt(4));
+      }
+      this.entries = buffer.getInt(8);
+      this.hashes = buffer.getInt(12);
+      int bloomWords = buffer.getInt(16);
+      int slots = buffer.getInt(20);
+      if(entries < 0 || hashes < 1 || Integer.bitCount(bloomWords) != 1 || Integer.bitCount(slots) != 1
+            || entries >= slots) {
+         throw new IOException("corrupt revocation list header");
+      }
+      long keyStart = HEADER_SIZE + (long) bloomWords * 8 + (long) slots * SLOT_SIZE;
+      if(keyStart > buffer.capacity()) {
+         throw new IOException("truncated revocation list");
+      }
+      this.bloomMask = (long) bloomWords * 64 - 1;
+      this.slotMask = slots - 1;
+      this.tableStart = HEADER_SIZE + bloomWords * 8;
+      validate(buffer, entries, tableStart, slots, (int) keyStart);
+      this.buffer = buffer;
+   }
+
+   /**
+    * Checks that every occupied slot names a known kind of entry whose key lies within
+    * the keys section, so that a corrupt snapshot is rejected when it is loaded rather
+    * than failing lookups on the request path.
+    */
+   private static void validate(ByteBuffer buffer, int entries, int tableStart, int slots, int keyStart)
+      throws IOException
+   {
+      int used = 0;
+      for(int i = 0; i < slots; i++) {
+         int slot = tableStart + i * SLOT_SIZE;
+         int meta = buffer.getInt(slot + 20);
+         if(meta == 0) continue;
+         int kind = meta >>> 24, length = meta & 0xFFFFFF;
+         long offset = buffer.getInt(slot + 16);
+         if((kind != USER && kind != TICKET) || length == 0 || (kind == USER && length % 2 != 0)) {
+            throw new IOException("corrupt revocation list entry at slot " + i);
+         }
+         if(offset < keyStart || offset + length > buffer.capacity()) {
+            throw new IOException("truncated revocation list entry at slot " + i);
+         }
+         used++;
+      }
+      if(used != entries) throw new IOException("corrupt revocation list header");
+   }
+
+
+   /**
+    * Map the revocation list snapshot at the given path.
+    *
+    * @param path The snapshot file to map
+    * @return The mapped revocation list
+    * @throws IOException if the file cannot be read or is not a valid snapshot
+    */
+   public static MappedRevocationList load(Path path)
+      throws IOException
+   {
+      try(FileChannel channel = FileChannel.open(Objects.notNull(path, "path"), READ)) {
+         if(channel.size() > Integer.MAX_VALUE) throw new IOException("revocation list too large");
+         MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         return new MappedRevocationList(buffer);
+      }
+   }
+
+
+   /**
+    * Returns the number of entries in this revocation list.
+    */
+   public int size()
+   {
+      return entries;
+   }
+
+   /**
+    * Returns {@code true} if the ticket's user was revoked after the ticket was issued
+    * or if the ticket itself was revoked.
+    */
+   @Override
+   public boolean isRevoked(AuthTicket ticket)
+   {
+      if(entries == 0) return false;
+      String username = ticket.getUsername();
+      long hash = hash(USER, username);
+      if(mightContain(hash)) {
+         int slot = findUser(hash, username);
+         if(slot >= 0 && ticket.getTimestamp() < buffer.getLong(slot + 8)) return true;
+      }
+      if(ticket instanceof EncodedAuthTicket) {
+         // read the checksum in place rather than copying it on every request
+         EncodedAuthTicket encoded = (EncodedAuthTicket) ticket;
+         hash = hash(TICKET, encoded);
+         return mightContain(hash) && findTicket(hash, encoded) >= 0;
+      }
+      byte[] checksum = ticket.getChecksum();
+      hash = hash(TICKET, checksum);
+      return mightContain(hash) && findTicket(hash, checksum) >= 0;
+   }
+
+
+
+   private boolean mightContain(long hash)
+   {
+      long h1 = hash, h2 = (hash >>> 32) | 1;
+      for(int i = 0; i < hashes; i++) {
+         long bit = (h1 + i * h2) & bloomMask;
+         long word = buffer.getLong(HEADER_SIZE + (int) (bit >>> 6) * 8);
+         if((word & (1L << bit)) == 0) return false;
+      }
+      return true;
+   }
+
+   private int findUser(long hash, String username)
+   {
+      for(int n = 0, i = (int) hash & slotMask; n <= slotMask; n++, i = (i + 1) & slotMask) {
+         int slot = tableStart + i * SLOT_SIZE;
+         int meta = buffer.getInt(slot + 20);
+         if(meta == 0) return -1;
+         if(buffer.getLong(slot) == hash && (meta >>> 24) == USER
+               && (meta & 0xFFFFFF) == username.length() * 2) {
+            int offset = buffer.getInt(slot + 16);
+            if(equals(offset, username)) return slot;
+         }
+      }
+      return -1;
+   }
+
+   private int findTicket(long hash, byte[] checksum)
+   {
+      for(int n = 0, i = (int) hash & slotMask; n <= slotMask; n++, i = (i + 1) & slotMask) {
+         int slot = tableStart + i * SLOT_SIZE;
+         int meta = buffer.getInt(slot + 20);
+         if(meta == 0) return -1;
+         if(buffer.getLong(slot) == hash && (meta >>> 24) == TICKET
+               && (meta & 0xFFFFFF) == checksum.length) {
+            int offset = buffer.getInt(slot + 16);
+            if(equals(offset, checksum)) return slot;
+         }
+      }
+      return -1;
+   }
+
+   private int findTicket(long hash, EncodedAuthTicket ticket)
+   {
+      int length = ticket.getChecksumSize();
+      for(int n = 0, i = (int) hash & slotMask; n <= slotMask; n++, i = (i + 1) & slotMask) {
+         int slot = tableStart + i * SLOT_SIZE;
+         int meta = buffer.getInt(slot + 20);
+         if(meta == 0) return -1;
+         if(buffer.getLong(slot) == hash && (meta >>> 24) == TICKET && (meta & 0xFFFFFF) == length) {
+            int offset = buffer.getInt(slot + 16);
+            if(equals(offset, ticket, length)) return slot;
+         }
+      }
+      return -1;
+   }
+
+   private boolean equals(int offset, String username)
+   {
+      for(int i = 0; i < username.length(); i++) {
+         if(buffer.getChar(offset + i * 2) != username.charAt(i)) return false;
+      }
+      return true;
+   }
+
+   private boolean equals(int offset, byte[] checksum)
+   {
+      for(int i = 0; i < checksum.length; i++) {
+         if(buffer.get(offset + i) != checksum[i]) return false;
+      }
+      return true;
+   }
+
+   private boolean equals(int offset, EncodedAuthTicket ticket, int length)
+   {
+      for(int i = 0; i < length; i++) {
+         if((buffer.get(offset + i) & 0xFF) != ticket.getChecksumByte(i)) return false;
+      }
+      return true;
+   }
+
+
+   private static long hash(int kind, String value)
+   {
+      long h = (OFFSET ^ kind) * PRIME;
+      for(int i = 0; i < value.length(); i++) h = (h ^ value.charAt(i)) * PRIME;
+      return mix(h);
+   }
+
+   private static long hash(int kind, byte[] value)
+   {
+      long h = (OFFSET ^ kind) * PRIME;
+      for(byte b : value) h = (h ^ (b & 0xFF)) * PRIME;
+      return mix(h);
+   }
+
+   private static long hash(int kind, EncodedAuthTicket ticket)
+   {
+      long h = (OFFSET ^ kind) * PRIME;
+      for(int i = 0, length = ticket.getChecksumSize(); i < length; i++) h = (h ^ ticket.getChecksumByte(i)) * PRIME;
+      return mix(h);
+   }
+
+   private static long mix(long h)
+   {
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return h;
+   }
+
+
+
+
+   /**
+    * Collects revocation entries and writes them as a snapshot that can be mapped
+    * by {@link MappedRevocationList#load(Path)}.
+    */
+   public static final class Builder {
+
+      private final Map<String,Long> users = new HashMap<>();
+      private final Map<String,byte[]> tickets = new HashMap<>();
+
+      /**
+       * Revoke every ticket issued to the given user before the given time. If the
+       * user was already revoked the later of the two times is kept.
+       *
+       * @param username The user whose tickets should be revoked
+       * @param revokedBefore Time measured in seconds since EPOCH before which the
+       *                      user's tickets are considered revoked
+       * @return this builder
+       */
+      public Builder revokeUser(String username, long revokedBefore)
+      {
+         Strings.notEmpty(username, "username");
+         Numbers.gte(0L, revokedBefore, "revokedBefore must be positive");
+         users.merge(username, revokedBefore, Math::max);
+         return this;
+      }
+
+      /**
+       * Revoke the given ticket.
+       *
+       * @param ticket The ticket to revoke
+       * @return this builder
+       */
+      public Builder revokeTicket(AuthTicket ticket)
+      {
+         return revokeTicket(Objects.notNull(ticket, "ticket").getChecksum());
+      }
+
+      /**
+       * Revoke the ticket with the given checksum.
+       *
+       * @param checksum The checksum of the ticket to revoke
+       * @return this builder
+       */
+      public Builder revokeTicket(byte[] checksum)
+      {
+         if(Objects.notNull(checksum, "checksum").length == 0) {
+            throw new IllegalArgumentException("checksum must not be empty");
+         }
+         tickets.put(Arrays.toString(checksum), checksum.clone());
+         return this;
+      }
+
+
+      /**
+       * Write the snapshot to the given path. The snapshot is written to a temporary
+       * file in the same directory which then atomically replaces the target so that
+       * readers never observe a partially written snapshot.
+       *
+       * @param path The snapshot file to write
+       * @throws IOException if an I/O error occurs
+       */
+      public void write(Path path)
+         throws IOException
+      {
+         Path target = Objects.notNull(path, "path").toAbsolutePath();
+         Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+         try {
+            Files.write(temp, build().array());
+            Files.move(temp, target, ATOMIC_MOVE, REPLACE_EXISTING);
+         } finally {
+            Files.deleteIfExists(temp);
+         }
+      }
+
+
+      private ByteBuffer build()
+      {
+         int entries = users.size() + tickets.size();
+         int bloomWords = Math.max(1, ceilPowerOfTwo((long) entries * BITS_PER_ENTRY) / 64);
+         int slots = Math.max(2, ceilPowerOfTwo((long) entries * 2));
+
+         int keyBytes = 0;
+         for(String username : users.keySet()) keyBytes += username.length() * 2;
+         for(byte[] checksum : tickets.values()) keyBytes += checksum.length;
+
+         int tableStart = HEADER_SIZE + bloomWords * 8;
+         int keyStart = tableStart + slots * SLOT_SIZE;
+         ByteBuffer buffer = ByteBuffer.allocate(keyStart + keyBytes);
+         buffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, entries)
+               .putInt(12, HASHES).putInt(16, bloomWords).putInt(20, slots);
+
+         int offset = keyStart;
+         for(Map.Entry<String,Long> entry : users.entrySet()) {
+            String username = entry.getKey();
+            long hash = hash(USER, username);
+            insert(buffer, bloomWords, slots, hash, entry.getValue(), offset, USER, username.length() * 2);
+            for(int i = 0; i < username.length(); i++) buffer.putChar(offset + i * 2, username.charAt(i));
+            offset += username.length() * 2;
+         }
+         for(byte[] checksum : tickets.values()) {
+            long hash = hash(TICKET, checksum);
+            insert(buffer, bloomWords, slots, hash, 0, offset, TICKET, checksum.length);
+            for(int i = 0; i < checksum.length; i++) buffer.put(offset + i, checksum[i]);
+            offset += checksum.length;
+         }
+         return buffer;
+      }
+
+      private static void insert(ByteBuffer buffer, int bloomWords, int slots, long hash,
+                                  long value, int offset, int kind, int length)
+      {
+         long bloomMask = (long) bloomWords * 64 - 1;
+         long h1 = hash, h2 = (hash >>> 32) | 1;
+         for(int i = 0; i < HASHES; i++) {
+            long bit = (h1 + i * h2) & bloomMask;
+            int index = HEADER_SIZE + (int) (bit >>> 6) * 8;
+            buffer.putLong(index, buffer.getLong(index) | (1L << bit));
+         }
+
+         int tableStart = HEADER_SIZE + bloomWords * 8;
+         int i = (int) hash & (slots - 1);
+         while(buffer.getInt(tableStart + i * SLOT_SIZE + 20) != 0) i = (i + 1) & (slots - 1);
+         int slot = tableStart + i * SLOT_SIZE;
+         buffer.putLong(slot, hash).putLong(slot + 8, value)
+               .putInt(slot + 16, offset).putInt(slot + 20, kind << 24 | length);
+      }
+
+      private static int ceilPowerOfTwo(long value)
+      {
+         if(value > (1 << 30)) throw new IllegalStateException("too many revocation entries");
+         return (value <= 1) ? 1 : Integer.highestOneBit((int) value - 1) << 1;
+      }
+   }
+
+}
@@ -0,0 +1,334 @@
+package xpertss.auth.tkt;
+
+import xpertss.lang.Numbers;
+import xpertss.lang.Objects;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * A cache of verified tickets memory mapped from a file so that it can be shared by
+ * every JVM on a host and survives restarts.
+ * <p>
+ * The cache records the fact that a ticket's checksum was verified so that the next
+ * time the same ticket is presented the digests need not be computed again. Parsing,
+ * expiration, revocation, and token checks are still performed on every request.
+ * <p>
+ * Each entry holds a 128-bit fingerprint of the raw ticket value, the client's IP, and
+ * the configuration that verified it, along with the time the entry expires and a check
+ * word. The fingerprint is a SipHash-2-4 of the ticket and IP keyed with a SHA-256
+ * digest of the configured secret, so entries written by a configuration with a
+ * different secret, or by anyone who does not know the secret, are never matched. The
+ * fingerprint is computed once per request, costs a fraction of the digests it saves,
+ * and allocates nothing. The check word binds the expiry to the fingerprint with a
+ * word also derived from the secret, which means a slot that was torn by concurrent
+ * writers, or corrupted on disk, reads as a miss rather than an accept.
+ * <p>
+ * Entries are kept in a table of fixed size slots with open addressing over a short
+ * probe sequence. Writers never lock, the last write to a slot wins, and an entry that
+ * can not find a free or expired slot evicts the one that expires soonest.
+ * <pre>
+ *    header   magic, version, slots (3 x int) padded to 64 bytes
+ *    table    slots x (fingerprint 2 x long, expires long, check long)
+ * </pre>
+ * A file that is missing, truncated, or not a ticket cache is replaced with an empty
+ * cache when it is opened.
+ */
+public final class MappedTicketCache implements Closeable {
+
+   private static final int MAGIC = 0x41544b43;    // ATKC
+   private static final int VERSION = 2;
+
+   private static final int HEADER_SIZE = 64;
+   private static final int SLOT_SIZE = 32;
+   private static final int PROBES = 8;
+   private static final int MIN_SLOTS = 16;
+   private static final int MAX_SLOTS = 1 << 24;
+
+   private static final ThreadLocal<long[]> FINGERPRINTS = ThreadLocal.withInitial(() -> new long[4]);
+
+
+   private final ByteBuffer buffer;
+   private final int slotMask;
+
+   private volatile boolean closed;
+
+   private MappedTicketCache(ByteBuffer buffer)
+      throws IOException
+   {
+      int slots = slots(buffer, buffer.capacity());
+      if(slots < 0) throw new IOException("not a ticket cache");
+      this.buffer = buffer;
+      this.slotMask = slots - 1;
+   }
+
+
+   /**
+    * Map the ticket cache at the given path creating it with 65536 slots if it does
+    * not exist or is not a valid ticket cache.
+    *
+    * @param path The cache file to map
+    * @return The mapped ticket cache
+    * @throws IOException if the file cannot be created or mapped
+    */
+   public static MappedTicketCache open(Path path)
+      throws IOException
+   {
+      return open(path, 65536);
+   }
+
+   /**
+    * Map the ticket cache at the given path creating it with the given number of slots
+    * if it does not exist or is not a valid ticket cache. A valid existing cache is used
+    * with the number of slots it was created with.
+    *
+    * @param path The cache file to map
+    * @param slots The number of slots, rounded up to a power of two
+    * @return The mapped ticket cache
+    * @throws IOException if the file cannot be created or mapped
+    */
+   public static MappedTicketCache open(Path path, int slots)
+      throws IOException
+   {
+      Numbers.within(MIN_SLOTS, MAX_SLOTS, slots, "slots must be between 16 and 16M");
+      Path file = Objects.notNull(path, "path").toAbsolutePath();
+      if(!isValid(file)) create(file, Integer.highestOneBit(slots - 1) << 1);
+      try(FileChannel channel = FileChannel.open(file, READ, WRITE)) {
+         if(channel.size() > Integer.MAX_VALUE) throw new IOException("not a ticket cache");
+         return new MappedTicketCache(channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+      }
+   }
+
+
+   /**
+    * Returns the number of slots in this cache.
+    */
+   public int getSlots()
+   {
+      return slotMask + 1;
+   }
+
+   /**
+    * Stop consulting the cache. The mapping itself is released when this instance is
+    * garbage collected.
+    */
+   @Override
+   public void close()
+   {
+      closed = true;
+   }
+
+
+   /**
+    * Returns the key that separates the entries of the given config from those of any
+    * other config sharing the cache file: two words of SipHash key followed by the word
+    * that check words are derived from.
+    */
+   static long[] key(AuthTicketConfig config)
+   {
+      StringBuilder builder = new StringBuilder(config.getSecret()).append('\0');
+      for(DigestAlgorithm digest : config.getAcceptedDigestAlgorithms()) builder.append(digest).append(',');
+      builder.append('\0').append(config.ignoreIP());
+      MessageDigest digester = DigestAlgorithm.SHA256.digest();
+      digester.reset();
+      byte[] digest = digester.digest(builder.toString().getBytes(UTF_8));
+      return new long[] { getLong(digest, 0), getLong(digest, 8), getLong(digest, 16) };
+   }
+
+   /**
+    * Returns the fingerprint of the given ticket value as presented by the given client
+    * under a config with the given key. The returned array is reused by the calling
+    * thread and is only valid until its next call.
+    *
+    * @param key The key of the verifying config
+    * @param remoteIp The client's IP or {@code null} if the ticket is not bound to it
+    * @param ticket The raw ticket value
+    */
+   static long[] fingerprint(long[] key, String remoteIp, String ticket)
+   {
+      long[] v = FINGERPRINTS.get();
+      v[0] = key[0] ^ 0x736f6d6570736575L;
+      v[1] = key[1] ^ 0x646f72616e646f6dL ^ 0xee;
+      v[2] = key[0] ^ 0x6c7967656e657261L;
+      v[3] = key[1] ^ 0x7465646279746573L;
+      // the lengths make the sequence of words unambiguous
+      compress(v, (remoteIp == null) ? -1 : remoteIp.length());
+      if(remoteIp != null) absorb(v, remoteIp);
+      absorb(v, ticket);
+      compress(v, ticket.length());
+
+      v[2] ^= 0xee;
+      for(int i = 0; i < 4; i++) round(v);
+      long hi = v[0] ^ v[1] ^ v[2] ^ v[3];
+      v[1] ^= 0xdd;
+      for(int i = 0; i < 4; i++) round(v);
+      long lo = v[0] ^ v[1] ^ v[2] ^ v[3];
+
+      v[0] = hi;
+      v[1] = lo;
+      v[2] = key[2];
+      return v;
+   }
+
+   /**
+    * Returns {@code true} if the ticket with the given fingerprint was verified and the
+    * entry has not expired.
+    *
+    * @param fingerprint The ticket's {@link #fingerprint fingerprint}
+    * @param now The current time in seconds since EPOCH
+    */
+   boolean contains(long[] fingerprint, long now)
+   {
+      if(closed) return false;
+      long hi = fingerprint[0], lo = fingerprint[1], mask = fingerprint[2];
+      try {
+         for(int n = 0, i = (int) hi & slotMask; n < PROBES; n++, i = (i + 1) & slotMask) {
+            int slot = HEADER_SIZE + i * SLOT_SIZE;
+            if(buffer.getLong(slot) != hi || buffer.getLong(slot + 8) != lo) continue;
+            long expires = buffer.getLong(slot + 16);
+            return buffer.getLong(slot + 24) == check(mask, hi, expires) && expires > now;
+         }
+      } catch(InternalError e) {
+         // the file was truncated underneath the mapping
+      }
+      return false;
+   }
+
+   /**
+    * Record that the ticket with the given fingerprint was verified.
+    *
+    * @param fingerprint The ticket's {@link #fingerprint fingerprint}
+    * @param expires The time in seconds since EPOCH after which the entry is ignored
+    * @param now The current time in seconds since EPOCH
+    */
+   void put(long[] fingerprint, long expires, long now)
+   {
+      if(closed || expires <= now) return;
+      long hi = fingerprint[0], lo = fingerprint[1], mask = fingerprint[2];
+      try {
+         int target = HEADER_SIZE + ((int) hi & slotMask) * SLOT_SIZE;
+         long earliest = Long.MAX_VALUE;
+         for(int n = 0, i = (int) hi & slotMask; n < PROBES; n++, i = (i + 1) & slotMask) {
+            int slot = HEADER_SIZE + i * SLOT_SIZE;
+            if(buffer.getLong(slot) == hi && buffer.getLong(slot + 8) == lo) {
+               target = slot;
+               break;
+            }
+            long existing = buffer.getLong(slot + 16);
+            if(existing < earliest) {
+               earliest = existing;
+               target = slot;
+            }
+         }
+         buffer.putLong(target, hi).putLong(target + 8, lo)
+               .putLong(target + 16, expires).putLong(target + 24, check(mask, hi, expires));
+      } catch(InternalError e) {
+         // the file was truncated underneath the mapping
+      }
+   }
+
+
+
+   private static void absorb(long[] v, String value)
+   {
+      int length = value.length(), i = 0;
+      for(; i + 4 <= length; i += 4) {
+         compress(v, ((long) value.charAt(i) << 48) | ((long) value.charAt(i + 1) << 32)
+                        | ((long) value.charAt(i + 2) << 16) | value.charAt(i + 3));
+      }
+      if(i < length) {
+         long word = 0;
+         for(int shift = 48; i < length; i++, shift -= 16) word |= (long) value.charAt(i) << shift;
+         compress(v, word);
+      }
+   }
+
+   private static void compress(long[] v, long word)
+   {
+      v[3] ^= word;
+      round(v);
+      round(v);
+      v[0] ^= word;
+   }
+
+   private static void round(long[] v)
+   {
+      long v0 = v[0], v1 = v[1], v2 = v[2], v3 = v[3];
+      v0 += v1; v1 = Long.rotateLeft(v1, 13); v1 ^= v0; v0 = Long.rotateLeft(v0, 32);
+      v2 += v3; v3 = Long.rotateLeft(v3, 16); v3 ^= v2;
+      v0 += v3; v3 = Long.rotateLeft(v3, 21); v3 ^= v0;
+      v2 += v1; v1 = Long.rotateLeft(v1, 17); v1 ^= v2; v2 = Long.rotateLeft(v2, 32);
+      v[0] = v0; v[1] = v1; v[2] = v2; v[3] = v3;
+   }
+
+   private static long check(long mask, long hi, long expires)
+   {
+      long h = mask ^ hi ^ expires;
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return h | 1;     // never zero so an empty slot can not pass
+   }
+
+   private static long getLong(byte[] data, int offset)
+   {
+      long result = 0;
+      for(int i = 0; i < 8; i++) result = (result << 8) | (data[offset + i] & 0xFF);
+      return result;
+   }
+
+
+   private static int slots(ByteBuffer header, long size)
+   {
+      if(size < HEADER_SIZE || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) return -1;
+      int slots = header.getInt(8);
+      if(slots < MIN_SLOTS || slots > MAX_SLOTS || Integer.bitCount(slots) != 1) return -1;
+      return (size == HEADER_SIZE + (long) slots * SLOT_SIZE) ? slots : -1;
+   }
+
+   private static boolean isValid(Path file)
+      throws IOException
+   {
+      if(!Files.isRegularFile(file)) return false;
+      try(FileChannel channel = FileChannel.open(file, READ)) {
+         ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+         while(header.hasRemaining() && channel.read(header) >= 0);
+         return slots(header, channel.size()) > 0;
+      }
+   }
+
+   /**
+    * Write an empty cache to a temporary file in the same directory which then atomically
+    * replaces the target so that other JVMs never map a partially written cache.
+    */
+   private static void create(Path file, int slots)
+      throws IOException
+   {
+      Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+      try {
+         try(FileChannel channel = FileChannel.open(temp, WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, slots);
+            channel.write(header, 0);
+            channel.write(ByteBuffer.allocate(1), HEADER_SIZE + (long) slots * SLOT_SIZE - 1);
+         }
+         Files.move(temp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+      } finally {
+         Files.deleteIfExists(temp);
+      }
+   }
+
+}
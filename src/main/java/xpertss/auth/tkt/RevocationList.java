@@ -0,0 +1,20 @@
+package xpertss.auth.tkt;
+
+/**
+ * A set of tickets that have been revoked before their natural timeout, either
+ * individually or by revoking every ticket issued to a user before a given time.
+ * <p>
+ * Implementations are consulted on every authenticated request and must be safe
+ * for concurrent use.
+ */
+public interface RevocationList {
+
+   /**
+    * Returns {@code true} if the given, otherwise valid, ticket has been revoked.
+    *
+    * @param ticket The verified ticket to check
+    * @return whether the ticket has been revoked
+    */
+   public boolean isRevoked(AuthTicket ticket);
+
+}
@@ -0,0 +1,96 @@
+package xpertss.auth.tkt;
+
+import xpertss.lang.Objects;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.WatchService;
+import java.util.function.Consumer;
+
+import static java.lang.String.format;
+
+/**
+ * A {@link RevocationList} backed by a {@link MappedRevocationList} snapshot file which is
+ * reloaded whenever the file is replaced.
+ * <p>
+ * The snapshot's directory is watched using a {@link WatchService} on a daemon thread. When
+ * the file changes the new snapshot is mapped and atomically swapped in, after which the
+ * previous mapping is released by the garbage collector. Requests in flight continue to use
+ * whichever snapshot they started with. If a new snapshot cannot be loaded the previous one
+ * remains in effect and the reason is passed to the reporter, if one was given.
+ */
+public final class RevocationListMonitor implements RevocationList, Closeable {
+
+   private final FileWatcher watcher;
+   private final Path file;
+   private final Consumer<String> reporter;
+
+   private volatile MappedRevocationList current;
+
+   /**
+    * Map the snapshot at the given path and begin watching it for changes.
+    *
+    * @param file The revocation list snapshot to monitor
+    * @throws IOException if the initial snapshot cannot be loaded or watched
+    */
+   public RevocationListMonitor(Path file)
+      throws IOException
+   {
+      this(file, message -> { });
+   }
+
+   /**
+    * Map the snapshot at the given path and begin watching it for changes, reporting
+    * any replacement snapshot that is rejected to the given reporter.
+    *
+    * @param file The revocation list snapshot to monitor
+    * @param reporter Receives a one line message for each rejected snapshot
+    * @throws IOException if the initial snapshot cannot be loaded or watched
+    */
+   public RevocationListMonitor(Path file, Consumer<String> reporter)
+      throws IOException
+   {
+      this.file = Objects.notNull(file, "file").toAbsolutePath();
+      this.reporter = Objects.notNull(reporter, "reporter");
+      this.current = MappedRevocationList.load(this.file);
+      this.watcher = new FileWatcher(this.file, this::reload, "auth-tkt-revocations");
+   }
+
+
+   @Override
+   public boolean isRevoked(AuthTicket ticket)
+   {
+      return current.isRevoked(ticket);
+   }
+
+   /**
+    * Returns the number of entries in the current snapshot.
+    */
+   public int size()
+   {
+      return current.size();
+   }
+
+   /**
+    * Stop watching the snapshot file. The current snapshot remains in effect.
+    */
+   @Override
+   public void close()
+      throws IOException
+   {
+      watcher.close();
+   }
+
+
+   void reload()
+   {
+      try {
+         current = MappedRevocationList.load(file);
+      } catch(IOException e) {
+         // keep the previous snapshot
+         reporter.accept(format("auth-tkt rejected revocation list %s, keeping the previous snapshot: %s", file, e.getMessage()));
+      }
+   }
+
+}
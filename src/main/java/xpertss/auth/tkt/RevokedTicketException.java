@@ -0,0 +1,22 @@
+package xpertss.auth.tkt;
+
+/**
+ * Thrown to indicate that an otherwise valid ticket has been revoked. This
+ * exception should be treated as an authentication failure.
+ */
+public class RevokedTicketException extends InvalidTicketException {
+   public RevokedTicketException() {
+   }
+
+   public RevokedTicketException(String message) {
+      super(message);
+   }
+
+   public RevokedTicketException(String message, Throwable cause) {
+      super(message, cause);
+   }
+
+   public RevokedTicketException(Throwable cause) {
+      super(cause);
+   }
+}
@@ -0,0 +1,142 @@
+package xpertss.auth.tkt;
+
+import xpertss.lang.Objects;
+import xpertss.lang.Strings;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A graph of roles in which holding one role implies holding others, such as an
+ * {@code admin} who is also {@code finance} and so also a {@code reader}.
+ * <p>
+ * The graph is compiled into its transitive closure when it is created. A ticket's
+ * tokens can then be expanded into the full set of roles they grant in a single pass,
+ * after which checking any role is one set lookup whatever the depth of the hierarchy.
+ * Cycles are allowed and simply make the roles on them equivalent.
+ * <p>
+ * Instances are immutable and thread safe.
+ */
+public final class RoleHierarchy {
+
+   private final Map<String, Set<String>> closure;
+
+   private RoleHierarchy(Map<String, Set<String>> closure)
+   {
+      this.closure = closure;
+   }
+
+
+   /**
+    * Create a hierarchy from a map of each role to the roles it directly implies.
+    *
+    * @param implies The roles each role directly implies
+    * @return the compiled hierarchy
+    */
+   public static RoleHierarchy of(Map<String, ? extends Collection<String>> implies)
+   {
+      Map<String, Set<String>> closure = new HashMap<>();
+      for(String role : Objects.notNull(implies, "implies").keySet()) {
+         Set<String> reached = new LinkedHashSet<>();
+         Deque<String> pending = new ArrayDeque<>();
+         pending.push(role);
+         while(!pending.isEmpty()) {
+            Collection<String> direct = implies.get(pending.pop());
+            if(direct == null) continue;
+            for(String implied : direct) {
+               if(reached.add(Strings.notEmpty(implied, "role"))) pending.push(implied);
+            }
+         }
+         reached.remove(role);
+         if(!reached.isEmpty()) closure.put(role, Collections.unmodifiableSet(reached));
+      }
+      return new RoleHierarchy(closure);
+   }
+
+   /**
+    * Parse a hierarchy written as comma separated chains of roles, each implying the
+    * ones that follow it:
+    * <pre>
+    *    admin &gt; finance &gt; reader, auditor &gt; reader
+    * </pre>
+    *
+    * @param spec The hierarchy specification
+    * @return the compiled hierarchy
+    * @throws IllegalArgumentException if the specification names an empty role
+    */
+   public static RoleHierarchy parse(String spec)
+   {
+      Map<String, Set<String>> implies = new LinkedHashMap<>();
+      for(String chain : Strings.notEmpty(spec, "spec").split(",")) {
+         String[] roles = chain.trim().split("\\s*>\\s*");
+         for(int i = 0; i < roles.length; i++) {
+            if(Strings.isEmpty(roles[i])) throw new IllegalArgumentException("empty role in hierarchy: " + spec);
+            if(i > 0) implies.computeIfAbsent(roles[i - 1], role -> new LinkedHashSet<>()).add(roles[i]);
+         }
+      }
+      return of(implies);
+   }
+
+
+   /**
+    * Returns every role the given role implies, directly or indirectly, not including
+    * the role itself.
+    *
+    * @param role The role
+    * @return the roles implied by the given role
+    */
+   public Set<String> getImpliedRoles(String role)
+   {
+      Set<String> implied = closure.get(role);
+      return (implied == null) ? Collections.emptySet() : implied;
+   }
+
+   /**
+    * Returns the given tokens along with every role they imply. If none of the tokens
+    * imply another role the given set itself is returned, otherwise a new unmodifiable
+    * set.
+    *
+    * @param tokens The tokens to expand
+    * @return the effective roles
+    */
+   public Set<String> expand(Set<String> tokens)
+   {
+      Set<String> result = null;
+      for(String token : tokens) {
+         Set<String> implied = closure.get(token);
+         if(implied != null) {
+            if(result == null) result = new HashSet<>(tokens);
+            result.addAll(implied);
+         }
+      }
+      return (result == null) ? tokens : Collections.unmodifiableSet(result);
+   }
+
+
+   @Override
+   public boolean equals(Object o)
+   {
+      return o instanceof RoleHierarchy && closure.equals(((RoleHierarchy) o).closure);
+   }
+
+   @Override
+   public int hashCode()
+   {
+      return closure.hashCode();
+   }
+
+   @Override
+   public String toString()
+   {
+      return closure.toString();
+   }
+
+}
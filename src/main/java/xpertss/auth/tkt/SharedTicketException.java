@@ -0,0 +1,23 @@
+package xpertss.auth.tkt;
+
+/**
+ * Thrown to indicate that an otherwise valid ticket has been presented from more
+ * distinct client addresses than allowed and is presumed to have been shared or
+ * stolen. This exception should be treated as an authentication failure.
+ */
+public class SharedTicketException extends InvalidTicketException {
+   public SharedTicketException() {
+   }
+
+   public SharedTicketException(String message) {
+      super(message);
+   }
+
+   public SharedTicketException(String message, Throwable cause) {
+      super(message, cause);
+   }
+
+   public SharedTicketException(Throwable cause) {
+      super(cause);
+   }
+}
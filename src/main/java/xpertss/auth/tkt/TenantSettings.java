@@ -0,0 +1,175 @@
+package xpertss.auth.tkt;
+
+import xpertss.lang.Objects;
+import xpertss.lang.Strings;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.function.Function;
+
+/**
+ * An immutable table of {@link FilterSettings} keyed by tenant host along with the default
+ * settings used for requests that do not match a tenant.
+ * <p>
+ * Tenants are defined in the filter's config file by qualifying a parameter name with the
+ * tenant's host, for example {@code shop.example.com.TKTAuthSecret}. Everything up to the
+ * last '.' is the host. A tenant inherits every parameter it does not define from the
+ * unqualified entries in the file and then from the filter's init-params.
+ * <p>
+ * Each request is matched to a tenant using the value of the TKTAuthTenantHeader header,
+ * which defaults to Host. The value is first looked up exactly as received and, failing
+ * that, with its port removed and converted to lower case. Compiled url patterns and urls
+ * are shared between tenants, as are the per thread message digests of each algorithm.
+ */
+final class TenantSettings {
+
+   private final Map<String,FilterSettings> tenants;
+   private final FilterSettings defaults;
+   private final String header;
+
+   private TenantSettings(FilterSettings defaults, Map<String,FilterSettings> tenants, String header)
+   {
+      this.defaults = defaults;
+      this.tenants = tenants;
+      this.header = header;
+   }
+
+
+   /**
+    * Parse settings with no tenants from the given init-params.
+    */
+   static TenantSettings parse(Function<String,String> initParams, RevocationList revocations)
+   {
+      return parse(initParams, new Properties(), revocations);
+   }
+
+   /**
+    * Parse the default and tenant settings from the given init-params and config file
+    * properties.
+    *
+    * @param initParams Function returning the value of a named init-param or {@code null}
+    * @param props The contents of the config file
+    * @param revocations Optional revocation list to apply to verified tickets of all tenants
+    * @return complete settings for every tenant
+    * @throws IllegalArgumentException if the settings of any tenant are invalid
+    */
+   static TenantSettings parse(Function<String,String> initParams, Properties props, RevocationList revocations)
+   {
+      return parse(initParams, props, revocations, null);
+   }
+
+   /**
+    * Parse the default and tenant settings as {@link #parse(Function, Properties, RevocationList)}
+    * does with authenticators that consult the given verified ticket cache. Tenants with
+    * different secrets never match each other's entries.
+    *
+    * @param initParams Function returning the value of a named init-param or {@code null}
+    * @param props The contents of the config file
+    * @param revocations Optional revocation list to apply to verified tickets of all tenants
+    * @param ticketCache Optional cache of verified tickets shared by all tenants
+    * @return complete settings for every tenant
+    * @throws IllegalArgumentException if the settings of any tenant are invalid
+    */
+   static TenantSettings parse(Function<String,String> initParams, Properties props,
+                               RevocationList revocations, MappedTicketCache ticketCache)
+   {
+      Objects.notNull(initParams, "initParams");
+      Map<String,Map<String,String>> qualified = new HashMap<>();
+      Map<String,String> unqualified = new HashMap<>();
+      for(String key : props.stringPropertyNames()) {
+         int idx = key.lastIndexOf('.');
+         if(idx < 0) {
+            unqualified.put(key, props.getProperty(key));
+         } else {
+            String host = normalize(key.substring(0, idx));
+            qualified.computeIfAbsent(host, k -> new HashMap<>()).put(key.substring(idx + 1), props.getProperty(key));
+         }
+      }
+
+      Function<String,String> defaultParams = name -> {
+         String value = unqualified.get(name);
+         return (value != null) ? value : initParams.apply(name);
+      };
+
+      FilterSettings.Cache cache = new FilterSettings.Cache();
+      FilterSettings defaults = FilterSettings.parse(defaultParams, revocations, ticketCache, cache);
+
+      Map<String,FilterSettings> tenants = new HashMap<>();
+      for(Map.Entry<String,Map<String,String>> entry : qualified.entrySet()) {
+         Map<String,String> params = entry.getValue();
+         try {
+            tenants.put(entry.getKey(), FilterSettings.parse(name -> {
+               String value = params.get(name);
+               return (value != null) ? value : defaultParams.apply(name);
+            }, revocations, ticketCache, cache));
+         } catch(IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid settings for tenant " + entry.getKey(), e);
+         }
+      }
+      String header = Strings.ifEmpty(defaultParams.apply("TKTAuthTenantHeader"), "Host");
+      return new TenantSettings(defaults, Collections.unmodifiableMap(tenants), header);
+   }
+
+
+   /**
+    * Returns the settings of the tenant the given request is addressed to or the default
+    * settings if it does not match a tenant.
+    */
+   FilterSettings select(HttpServletRequest request)
+   {
+      if(tenants.isEmpty()) return defaults;
+      String host = request.getHeader(header);
+      if(host == null) return defaults;
+      FilterSettings settings = tenants.get(host);
+      if(settings == null) settings = tenants.get(normalize(host));
+      return (settings != null) ? settings : defaults;
+   }
+
+   /**
+    * Returns the default settings.
+    */
+   FilterSettings defaults()
+   {
+      return defaults;
+   }
+
+   /**
+    * Returns the default settings followed by the settings of every tenant.
+    */
+   List<FilterSettings> all()
+   {
+      List<FilterSettings> result = new ArrayList<>(tenants.size() + 1);
+      result.add(defaults);
+      result.addAll(tenants.values());
+      return result;
+   }
+
+   /**
+    * Returns the number of tenants.
+    */
+   int size()
+   {
+      return tenants.size();
+   }
+
+
+   static String normalize(String host)
+   {
+      int end = host.length();
+      if(host.startsWith("[")) {
+         int idx = host.indexOf(']');
+         if(idx > 0) end = idx + 1;
+      } else {
+         int idx = host.indexOf(':');
+         if(idx >= 0) end = idx;
+      }
+      while(end > 0 && host.charAt(end - 1) == '.') end--;
+      return Strings.toLower(host.substring(0, end).trim());
+   }
+
+}
@@ -0,0 +1,436 @@
+package xpertss.auth.tkt;
+
+import xpertss.lang.Objects;
+import xpertss.lang.Strings;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Issues tickets by writing complete {@code Set-Cookie} header values.
+ * <p>
+ * Encoding a ticket and wrapping it in a {@link javax.servlet.http.Cookie} builds the
+ * ticket's string form, hex and URL encodes it, and then has the container render the
+ * cookie's attributes for every ticket. A writer instead signs the ticket and writes the
+ * cookie name, the encoded ticket, and its attributes straight into the given output in
+ * a single pass. The attributes are rendered once when the writer is built. e.g.
+ * <p>
+ * <pre>
+ *    {@code
+ *       TicketCookieWriter writer = new TicketCookieWriter.Builder(config)
+ *                                        .domain(".example.com").secure(true).httpOnly(true)
+ *                                        .sameSite(TicketCookieWriter.SameSite.LAX).build();
+ *
+ *       MutableAuthTicket ticket = new MutableAuthTicket("jblow");
+ *       ticket.addToken("admin");
+ *       ticket.setUserData("Joe Blow");
+ *       response.addHeader("Set-Cookie", writer.toHeader(null, ticket));
+ *    }
+ * </pre>
+ * The written ticket is identical to the value returned by {@link AuthTicket#getEncoded()}
+ * for the ticket returned by {@link AuthTicketEncoder#encode(String, AuthTicket)} given
+ * the same config, in either ticket format and with or without a {@link UserDataCodec}.
+ * <p>
+ * A writer is immutable and may be shared between threads.
+ */
+public final class TicketCookieWriter {
+
+   private static final char[] HEX = "0123456789abcdef".toCharArray();
+   private static final char[] URL_HEX = "0123456789ABCDEF".toCharArray();
+   private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+   /**
+    * The values of the SameSite cookie attribute.
+    */
+   public enum SameSite {
+      STRICT("Strict"), LAX("Lax"), NONE("None");
+
+      private final String value;
+
+      SameSite(String value)
+      {
+         this.value = value;
+      }
+   }
+
+
+   private final AuthTicketConfig config;
+   private final AuthTicketEncoder encoder;
+   private final String prefix;
+   private final String suffix;
+
+   private TicketCookieWriter(Builder builder)
+   {
+      this.config = builder.config;
+      this.encoder = new AuthTicketEncoder(builder.config);
+      this.prefix = builder.config.getCookieName() + "=";
+      this.suffix = builder.render();
+   }
+
+
+   /**
+    * Sign the given ticket with the optional remote IP and write the complete value of
+    * a {@code Set-Cookie} header carrying it to the given output.
+    *
+    * @param remoteIp - optional remote IP to encode into the auth ticket
+    * @param ticket - the ticket data to encode
+    * @param out - the output to write the header value to
+    * @throws IOException if the output throws an I/O error
+    */
+   public void write(String remoteIp, AuthTicket ticket, Appendable out)
+      throws IOException
+   {
+      Objects.notNull(ticket, "ticket");
+      Objects.notNull(out, "out");
+      UserDataCodec codec = config.getUserDataCodec();
+      String userData = (codec != null) ? codec.encode(ticket.getUserData()) : ticket.getUserData();
+      byte[] checksum = encoder.sign(remoteIp, ticket, userData);
+
+      out.append(prefix);
+      if(config.isCompactFormat()) {
+         out.append(EncodedAuthTicket.V2_PREFIX);
+         writeCompact(checksum, ticket, userData, out);
+      } else {
+         writeHex(checksum, out);
+         long ts = ticket.getTimestamp();
+         for(int shift = 28; shift >= 0; shift -= 4) {
+            out.append(HEX[(int) (ts >>> shift) & 0x0F]);
+         }
+         writeUrlEncoded(ticket.getUsername(), out);
+         Iterator<String> tokens = ticket.getTokens().iterator();
+         if(tokens.hasNext()) {
+            out.append("%21");
+            writeUrlEncoded(tokens.next(), out);
+            while(tokens.hasNext()) {
+               out.append("%2C");
+               writeUrlEncoded(tokens.next(), out);
+            }
+         }
+         out.append("%21");
+         if(userData != null) writeUrlEncoded(userData, out);
+      }
+      out.append(suffix);
+   }
+
+   /**
+    * Sign the given ticket with the optional remote IP and write the complete value of
+    * a {@code Set-Cookie} header carrying it to the given buffer as US-ASCII.
+    *
+    * @param remoteIp - optional remote IP to encode into the auth ticket
+    * @param ticket - the ticket data to encode
+    * @param out - the buffer to write the header value to
+    * @throws java.nio.BufferOverflowException if the buffer does not have enough space
+    */
+   public void write(String remoteIp, AuthTicket ticket, ByteBuffer out)
+   {
+      try {
+         write(remoteIp, ticket, new ByteBufferAppender(Objects.notNull(out, "out")));
+      } catch(IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /**
+    * Sign the given ticket with the optional remote IP and return the complete value of
+    * a {@code Set-Cookie} header carrying it.
+    *
+    * @param remoteIp - optional remote IP to encode into the auth ticket
+    * @param ticket - the ticket data to encode
+    * @return the Set-Cookie header value
+    */
+   public String toHeader(String remoteIp, AuthTicket ticket)
+   {
+      StringBuilder builder = new StringBuilder(256);
+      try {
+         write(remoteIp, ticket, builder);
+      } catch(IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      return builder.toString();
+   }
+
+   /**
+    * Returns the pre-rendered attributes written after each ticket, starting with the
+    * separator that follows the ticket.
+    */
+   public String getAttributes()
+   {
+      return suffix;
+   }
+
+
+
+
+   private static void writeHex(byte[] bytes, Appendable out)
+      throws IOException
+   {
+      for(byte b : bytes) {
+         out.append(HEX[(b >> 4) & 0x0F]).append(HEX[b & 0x0F]);
+      }
+   }
+
+   /**
+    * Writes the given string in the form {@link java.net.URLEncoder} produces using the
+    * UTF-8 charset.
+    */
+   private static void writeUrlEncoded(String str, Appendable out)
+      throws IOException
+   {
+      for(int i = 0; i < str.length(); i++) {
+         char c = str.charAt(i);
+         if((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+               || c == '.' || c == '-' || c == '*' || c == '_') {
+            out.append(c);
+         } else if(c == ' ') {
+            out.append('+');
+         } else if(c < 0x80) {
+            writeEscaped(c, out);
+         } else if(c < 0x800) {
+            writeEscaped(0xC0 | (c >> 6), out);
+            writeEscaped(0x80 | (c & 0x3F), out);
+         } else if(Character.isHighSurrogate(c) && i + 1 < str.length() && Character.isLowSurrogate(str.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, str.charAt(++i));
+            writeEscaped(0xF0 | (cp >> 18), out);
+            writeEscaped(0x80 | ((cp >> 12) & 0x3F), out);
+            writeEscaped(0x80 | ((cp >> 6) & 0x3F), out);
+            writeEscaped(0x80 | (cp & 0x3F), out);
+         } else if(Character.isSurrogate(c)) {
+            writeEscaped('?', out);
+         } else {
+            writeEscaped(0xE0 | (c >> 12), out);
+            writeEscaped(0x80 | ((c >> 6) & 0x3F), out);
+            writeEscaped(0x80 | (c & 0x3F), out);
+         }
+      }
+   }
+
+   private static void writeEscaped(int b, Appendable out)
+      throws IOException
+   {
+      out.append('%').append(URL_HEX[(b >> 4) & 0x0F]).append(URL_HEX[b & 0x0F]);
+   }
+
+   private static void writeCompact(byte[] checksum, AuthTicket ticket, String userData, Appendable out)
+      throws IOException
+   {
+      ByteArrayOutputStream payload = new ByteArrayOutputStream(128);
+      payload.write(checksum, 0, checksum.length);
+      writeVarint(payload, ticket.getTimestamp());
+      writeField(payload, ticket.getUsername());
+      writeField(payload, Strings.join(",", ticket.getTokens()));
+      writeField(payload, Strings.emptyIfNull(userData));
+      byte[] bytes = payload.toByteArray();
+
+      int i = 0;
+      for(; i + 3 <= bytes.length; i += 3) {
+         int bits = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+         out.append(BASE64[bits >>> 18]).append(BASE64[(bits >>> 12) & 0x3F])
+            .append(BASE64[(bits >>> 6) & 0x3F]).append(BASE64[bits & 0x3F]);
+      }
+      if(bytes.length - i == 1) {
+         int bits = (bytes[i] & 0xFF) << 16;
+         out.append(BASE64[bits >>> 18]).append(BASE64[(bits >>> 12) & 0x3F]);
+      } else if(bytes.length - i == 2) {
+         int bits = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8;
+         out.append(BASE64[bits >>> 18]).append(BASE64[(bits >>> 12) & 0x3F]).append(BASE64[(bits >>> 6) & 0x3F]);
+      }
+   }
+
+   private static void writeField(ByteArrayOutputStream out, String field)
+   {
+      byte[] bytes = field.getBytes(UTF_8);
+      for(byte b : bytes) {
+         if(b == 0) throw new IllegalArgumentException("compact tickets may not contain NUL");
+      }
+      writeVarint(out, bytes.length);
+      out.write(bytes, 0, bytes.length);
+   }
+
+   private static void writeVarint(ByteArrayOutputStream out, long value)
+   {
+      while((value & ~0x7FL) != 0) {
+         out.write((int) ((value & 0x7F) | 0x80));
+         value >>>= 7;
+      }
+      out.write((int) value);
+   }
+
+
+
+   private static final class ByteBufferAppender implements Appendable {
+
+      private final ByteBuffer buffer;
+
+      private ByteBufferAppender(ByteBuffer buffer)
+      {
+         this.buffer = buffer;
+      }
+
+      @Override
+      public Appendable append(CharSequence csq)
+      {
+         return append(csq, 0, csq.length());
+      }
+
+      @Override
+      public Appendable append(CharSequence csq, int start, int end)
+      {
+         for(int i = start; i < end; i++) buffer.put((byte) csq.charAt(i));
+         return this;
+      }
+
+      @Override
+      public Appendable append(char c)
+      {
+         buffer.put((byte) c);
+         return this;
+      }
+   }
+
+
+   /**
+    * Builds a {@link TicketCookieWriter} rendering the given cookie attributes. The cookie
+    * name, ticket format, digest, and user data codec are taken from the config.
+    */
+   public static final class Builder {
+
+      private final AuthTicketConfig config;
+
+      private String domain;
+      private String path = "/";
+      private boolean secure;
+      private boolean httpOnly;
+      private SameSite sameSite;
+      private long maxAge = -1;
+
+      /**
+       * Create a builder for writers issuing tickets using the given config.
+       *
+       * @param config The configuration to use for encoding
+       */
+      public Builder(AuthTicketConfig config)
+      {
+         this.config = Objects.notNull(config, "config").freeze();
+      }
+
+      /**
+       * Set the Domain attribute. By default none is written and browsers return the
+       * cookie only to the host that set it.
+       *
+       * @param domain The cookie's domain or {@code null}
+       * @return this builder
+       */
+      public Builder domain(String domain)
+      {
+         this.domain = checkValue(Strings.nullIfEmpty(domain), "domain");
+         return this;
+      }
+
+      /**
+       * Set the Path attribute. Default: /
+       *
+       * @param path The cookie's path or {@code null} to omit it
+       * @return this builder
+       */
+      public Builder path(String path)
+      {
+         this.path = checkValue(Strings.nullIfEmpty(path), "path");
+         return this;
+      }
+
+      /**
+       * Set whether the Secure attribute is written. Default: off
+       *
+       * @param secure whether the cookie is only sent over secure connections
+       * @return this builder
+       */
+      public Builder secure(boolean secure)
+      {
+         this.secure = secure;
+         return this;
+      }
+
+      /**
+       * Set whether the HttpOnly attribute is written. Default: off
+       *
+       * @param httpOnly whether the cookie is hidden from scripts
+       * @return this builder
+       */
+      public Builder httpOnly(boolean httpOnly)
+      {
+         this.httpOnly = httpOnly;
+         return this;
+      }
+
+      /**
+       * Set the SameSite attribute. By default none is written.
+       *
+       * @param sameSite The cookie's same site policy or {@code null}
+       * @return this builder
+       */
+      public Builder sameSite(SameSite sameSite)
+      {
+         this.sameSite = sameSite;
+         return this;
+      }
+
+      /**
+       * Set the Max-Age attribute in seconds. A negative value, the default, omits it
+       * making the cookie a session cookie.
+       *
+       * @param maxAge The number of seconds until the cookie expires
+       * @return this builder
+       */
+      public Builder maxAge(long maxAge)
+      {
+         this.maxAge = maxAge;
+         return this;
+      }
+
+      /**
+       * Render the attributes and create the writer.
+       *
+       * @return a new writer
+       * @throws IllegalArgumentException if SameSite=None is used without Secure
+       */
+      public TicketCookieWriter build()
+      {
+         if(sameSite == SameSite.NONE && !secure) {
+            throw new IllegalArgumentException("SameSite=None requires Secure");
+         }
+         return new TicketCookieWriter(this);
+      }
+
+
+      private String render()
+      {
+         StringBuilder builder = new StringBuilder();
+         if(domain != null) builder.append("; Domain=").append(domain);
+         if(path != null) builder.append("; Path=").append(path);
+         if(maxAge >= 0) builder.append("; Max-Age=").append(maxAge);
+         if(secure) builder.append("; Secure");
+         if(httpOnly) builder.append("; HttpOnly");
+         if(sameSite != null) builder.append("; SameSite=").append(sameSite.value);
+         return builder.toString();
+      }
+
+      private static String checkValue(String value, String name)
+      {
+         if(value != null) {
+            for(int i = 0; i < value.length(); i++) {
+               char c = value.charAt(i);
+               if(c <= 0x20 || c >= 0x7F || c == ';' || c == ',') {
+                  throw new IllegalArgumentException(name + " contains invalid character");
+               }
+            }
+         }
+         return value;
+      }
+   }
+
+}
@@ -0,0 +1,91 @@
+package xpertss.auth.tkt;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+/**
+ * Tracks whether a Java Flight Recorder recording is running so that the authenticator
+ * and filter only create their {@link AuthenticationEvent}s and {@link FilterEvent}s while
+ * one is. When no recording is running the cost of the events is a single volatile read.
+ * <p>
+ * The events require the {@code jdk.jfr} API found in JDK 8u262 and later. On runtimes
+ * without it no events are ever emitted and none of the event classes are loaded.
+ */
+final class TicketEvents {
+
+   static final String VALID = "VALID";
+
+   private static volatile boolean recording;
+
+   static {
+      try {
+         Class.forName("jdk.jfr.FlightRecorder");
+         Monitor.install();
+      } catch(ClassNotFoundException | LinkageError | SecurityException e) {
+         // no flight recorder
+      }
+   }
+
+   private TicketEvents() { }
+
+
+   /**
+    * Returns {@code true} if a flight recording is running.
+    */
+   static boolean isRecording()
+   {
+      return recording;
+   }
+
+   /**
+    * Returns the outcome recorded for an authentication that failed with the given
+    * exception.
+    */
+   static String outcome(Throwable t)
+   {
+      if(t instanceof ExpiredTicketException) return "EXPIRED";
+      if(t instanceof MalformedTicketException) return "MALFORMED";
+      if(t instanceof TicketNotFoundException) return "NOT_FOUND";
+      if(t instanceof RevokedTicketException) return "REVOKED";
+      if(t instanceof SharedTicketException) return "SHARED";
+      if(t instanceof TokenMissingException) return "TOKEN_MISSING";
+      if(t instanceof InvalidTicketException) return "INVALID";
+      return "ERROR";
+   }
+
+
+
+   private static final class Monitor implements FlightRecorderListener {
+
+      private static void install()
+      {
+         Monitor monitor = new Monitor();
+         FlightRecorder.addListener(monitor);
+         if(FlightRecorder.isInitialized()) monitor.update();
+      }
+
+      @Override
+      public void recorderInitialized(FlightRecorder recorder)
+      {
+         update();
+      }
+
+      @Override
+      public void recordingStateChanged(Recording changed)
+      {
+         update();
+      }
+
+      private void update()
+      {
+         boolean running = false;
+         for(Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+            if(recording.getState() == RecordingState.RUNNING) running = true;
+         }
+         recording = running;
+      }
+   }
+
+}
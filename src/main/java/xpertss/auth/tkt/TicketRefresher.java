@@ -0,0 +1,160 @@
+package xpertss.auth.tkt;
+
+import xpertss.lang.Numbers;
+import xpertss.lang.Objects;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Re-mints tickets that are approaching their timeout implementing the semantics of the
+ * mod_auth_tkt TKTAuthTimeoutRefresh directive.
+ * <p>
+ * The refresh value is a number between 0 and 1 that indicates whether and how often a
+ * ticket's timestamp should be refreshed. 0 means never refresh (hard timeouts), 1 means
+ * always refresh, and 0.33 means only refresh if less than a third of the timeout period
+ * remains.
+ * <p>
+ * Browsers frequently issue bursts of parallel requests carrying the same ticket. To avoid
+ * computing a digest for each of them the refreshed encoding is cached briefly, keyed by
+ * the ticket's user, tokens, user data, and (when IP checking is enabled) remote IP. All
+ * of the requests in a burst are thus answered with a single digest and identical cookie
+ * values.
+ */
+final class TicketRefresher {
+
+   private static final int MAX_ENTRIES = 10000;
+
+   private final ConcurrentMap<Key,Refreshed> cache = new ConcurrentHashMap<>();
+
+   private final AuthTicketEncoder encoder;
+   private final AuthTicketConfig config;
+   private final long windowMillis;
+   private final double refresh;
+
+
+   TicketRefresher(AuthTicketConfig config, double refresh, long windowMillis)
+   {
+      this.config = Objects.notNull(config, "config").freeze();
+      this.encoder = new AuthTicketEncoder(this.config);
+      this.refresh = Numbers.within(0D, 1D, refresh, "refresh must be between 0 and 1");
+      this.windowMillis = Numbers.gte(0L, windowMillis, "windowMillis must be positive");
+   }
+
+
+   /**
+    * Returns {@code true} if the given ticket should be refreshed at the given time
+    * measured in milliseconds since EPOCH.
+    */
+   boolean isDue(AuthTicket ticket, long nowMillis)
+   {
+      long timeout = config.getTimeout();
+      if(timeout <= 0 || refresh <= 0) return false;
+      long remaining = (ticket.getTimestamp() + timeout) * 1000 - nowMillis;
+      return remaining < timeout * 1000 * refresh;
+   }
+
+   /**
+    * Returns the encoded value of a ticket carrying the same user, tokens, and user
+    * data as the given ticket but with a current timestamp. Requests for the same
+    * ticket within the coalescing window share one encoding.
+    */
+   String refresh(String remoteIp, AuthTicket ticket, long nowMillis)
+   {
+      final String ip = config.ignoreIP() ? null : remoteIp;
+      Key key = new Key(ticket.getUsername(), ticket.getTokens(), ticket.getUserData(), ip);
+      Refreshed refreshed = cache.get(key);
+      if(refreshed == null || refreshed.isStale(nowMillis, windowMillis)) {
+         if(cache.size() >= MAX_ENTRIES) purge(nowMillis);
+         refreshed = cache.compute(key, (k, current) ->
+            (current == null || current.isStale(nowMillis, windowMillis)) ? new Refreshed(encode(ip, k), nowMillis) : current);
+      }
+      return refreshed.encoded;
+   }
+
+
+   /**
+    * Returns {@code true} if a refresh of the given ticket would currently be served
+    * from the coalescing cache.
+    */
+   boolean isCached(String remoteIp, AuthTicket ticket, long nowMillis)
+   {
+      final String ip = config.ignoreIP() ? null : remoteIp;
+      Refreshed refreshed = cache.get(new Key(ticket.getUsername(), ticket.getTokens(), ticket.getUserData(), ip));
+      return refreshed != null && !refreshed.isStale(nowMillis, windowMillis);
+   }
+
+
+   private String encode(String remoteIp, Key key)
+   {
+      MutableAuthTicket ticket = new MutableAuthTicket(key.username);
+      for(String token : key.tokens) ticket.addToken(token);
+      ticket.setUserData(key.userData);
+      return encoder.encode(remoteIp, ticket).getEncoded();
+   }
+
+   private void purge(long nowMillis)
+   {
+      for(Iterator<Refreshed> it = cache.values().iterator(); it.hasNext(); ) {
+         if(it.next().isStale(nowMillis, windowMillis)) it.remove();
+      }
+      if(cache.size() >= MAX_ENTRIES) cache.clear();
+   }
+
+
+
+   private static final class Refreshed {
+      private final String encoded;
+      private final long created;
+
+      private Refreshed(String encoded, long created)
+      {
+         this.encoded = encoded;
+         this.created = created;
+      }
+
+      private boolean isStale(long nowMillis, long windowMillis)
+      {
+         return nowMillis - created >= windowMillis || nowMillis < created;
+      }
+   }
+
+   private static final class Key {
+      private final String username;
+      private final Set<String> tokens;
+      private final String userData;
+      private final String remoteIp;
+      private final int hash;
+
+      private Key(String username, Set<String> tokens, String userData, String remoteIp)
+      {
+         this.username = username;
+         this.tokens = tokens;
+         this.userData = userData;
+         this.remoteIp = remoteIp;
+         this.hash = Objects.hash(username, tokens, userData, remoteIp);
+      }
+
+      @Override
+      public boolean equals(Object obj)
+      {
+         if(obj instanceof Key) {
+            Key o = (Key) obj;
+            return Objects.equal(username, o.username) &&
+                     Objects.equal(tokens, o.tokens) &&
+                     Objects.equal(userData, o.userData) &&
+                     Objects.equal(remoteIp, o.remoteIp);
+         }
+         return false;
+      }
+
+      @Override
+      public int hashCode()
+      {
+         return hash;
+      }
+   }
+
+}
@@ -0,0 +1,67 @@
+package xpertss.auth.tkt;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import java.security.Principal;
+
+/**
+ * A request wrapper exposing the user identified by a verified ticket, or the guest user,
+ * to the rest of the filter chain.
+ * <p>
+ * This behaves exactly like the dynamic proxies the filter builds by default but is an
+ * ordinary class, so no proxy classes are generated at runtime and the ticket's user
+ * data is only decoded if the application asks for it.
+ */
+final class TicketRequest extends HttpServletRequestWrapper {
+
+   private final AuthTicket ticket;
+   private Principal principal;
+
+   /**
+    * Wrap the given request for the user identified by the given ticket, or for the
+    * guest user if the ticket is {@code null}.
+    */
+   TicketRequest(HttpServletRequest request, AuthTicket ticket)
+   {
+      super(request);
+      this.ticket = ticket;
+   }
+
+
+   @Override
+   public String getAuthType()
+   {
+      return "AUTH_TKT"; // Apache module returns Basic
+   }
+
+   @Override
+   public String getRemoteUser()
+   {
+      return (ticket == null) ? "guest" : ticket.getUsername();
+   }
+
+   @Override
+   public boolean isUserInRole(String role)
+   {
+      return ticket != null && ticket.contains(role);
+   }
+
+   @Override
+   public Principal getUserPrincipal()
+   {
+      if(ticket == null) return super.getUserPrincipal();
+      if(principal == null) principal = new AuthTicketPrincipal(ticket);
+      return principal;
+   }
+
+   @Override
+   public Object getAttribute(String name)
+   {
+      if(ticket != null) {
+         if(AuthTicketFilter.USER_DATA_ATTRIBUTE.equals(name)) return ticket.getUserData();
+         if(AuthTicketFilter.TICKET_ATTRIBUTE.equals(name)) return ticket;
+      }
+      return super.getAttribute(name);
+   }
+
+}
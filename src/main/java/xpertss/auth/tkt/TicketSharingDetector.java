@@ -0,0 +1,239 @@
+package xpertss.auth.tkt;
+
+import xpertss.lang.Numbers;
+import xpertss.lang.Objects;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Estimates for each recently used ticket the number of distinct client addresses it
+ * has been presented from, and reports the tickets that go over a limit as shared.
+ * <p>
+ * Each ticket is identified by a hash of its checksum and given a 32 byte slot in a
+ * fixed size table holding that fingerprint, the time the ticket was last seen, and a
+ * HyperLogLog sketch of its client addresses: 32 registers of four bits packed into
+ * two longs. A ticket is looked up in a few neighbouring slots. When none holds it the
+ * ticket takes an empty slot, one not used within the window, or else the one used
+ * least recently, so memory is fixed however many tickets are active. All slots are
+ * updated without locking and an update that races with a slot changing hands may be
+ * lost, which errs on the side of undercounting.
+ * <p>
+ * A request from an address already counted for its ticket costs a hash of the leading
+ * bytes of the ticket's checksum, a seeded hash of the whole address, and a few reads.
+ * The estimate is only computed when an address moves one of the ticket's registers,
+ * which for small counts means when a new address appears. Estimates are exact more
+ * often than not for a handful of addresses but may over or undercount by one or two,
+ * so the limit should leave room for the addresses a legitimate user moves between. A
+ * ticket over the limit is reported to the listener once per slot lifetime and keeps
+ * being reported as shared by {@link #observe} until its slot is recycled.
+ * <p>
+ * Refreshed tickets carry a new checksum and so start out with a fresh sketch.
+ */
+final class TicketSharingDetector {
+
+   /**
+    * Receives the tickets found to be shared.
+    */
+   interface Listener {
+      /**
+       * Called once when the given ticket is first estimated to have been used from
+       * more addresses than allowed.
+       *
+       * @param ticket The shared ticket
+       * @param remoteIp The address that took the ticket over the limit
+       * @param addresses The estimated number of distinct addresses
+       */
+      void shared(AuthTicket ticket, String remoteIp, int addresses);
+   }
+
+
+   private static final int MIN_SLOTS = 16;
+   private static final int MAX_SLOTS = 1 << 24;
+   private static final int PROBES = 4;
+   private static final int WORDS = 4;
+
+   private static final int FINGERPRINT = 0;
+   private static final int SEEN = 1;
+   private static final int REGISTERS = 2;
+
+   private static final int M = 32;
+   private static final double ALPHA = 0.697 * M * M;
+
+   private final AtomicLongArray table;
+   private final int mask;
+   private final int limit;
+   private final long windowSeconds;
+   private final long seed;
+   private final Listener listener;
+
+
+   /**
+    * Create a detector.
+    *
+    * @param limit The number of distinct addresses a ticket may be used from
+    * @param windowSeconds How long a ticket's addresses are remembered after its last use
+    * @param slots The number of tickets tracked, rounded up to a power of two
+    * @param listener Receives the tickets found to be shared
+    */
+   TicketSharingDetector(int limit, long windowSeconds, int slots, Listener listener)
+   {
+      this(limit, windowSeconds, slots, listener, new SecureRandom().nextLong());
+   }
+
+   TicketSharingDetector(int limit, long windowSeconds, int slots, Listener listener, long seed)
+   {
+      this.limit = Numbers.gt(0, limit, "limit must be positive");
+      this.windowSeconds = Numbers.gt(0L, windowSeconds, "window must be positive");
+      Numbers.within(MIN_SLOTS, MAX_SLOTS, slots, "slots out of range");
+      int size = Integer.highestOneBit(slots - 1) << 1;
+      this.table = new AtomicLongArray(size * WORDS);
+      this.mask = size - 1;
+      this.listener = Objects.notNull(listener, "listener");
+      this.seed = seed;
+   }
+
+
+   /**
+    * Record that the given ticket was presented from the given address and return
+    * {@code true} if the ticket is estimated to have been used from more addresses
+    * than allowed.
+    */
+   boolean observe(AuthTicket ticket, String remoteIp, long nowMillis)
+   {
+      if(remoteIp == null) return false;
+      long now = nowMillis / 1000;
+      int slot = slot(fingerprint(ticket), now);
+      if(slot < 0) return false;
+
+      long seen = table.get(slot + SEEN);
+      if((seen & 1) != 0) return true;
+      if(seen >>> 1 != now) table.compareAndSet(slot + SEEN, seen, now << 1);
+
+      long hash = hash(remoteIp);
+      int register = (int) (hash >>> 59);
+      long rank = Math.min(15, Long.numberOfLeadingZeros(hash << 5) + 1);
+      int word = slot + REGISTERS + (register >>> 4);
+      int shift = (register & 15) << 2;
+      while(true) {
+         long current = table.get(word);
+         if(((current >>> shift) & 0xF) >= rank) return false;
+         if(table.compareAndSet(word, current, (current & ~(0xFL << shift)) | (rank << shift))) break;
+      }
+
+      int addresses = estimate(table.get(slot + REGISTERS), table.get(slot + REGISTERS + 1));
+      if(addresses <= limit) return false;
+      seen = table.get(slot + SEEN);
+      if((seen & 1) == 0 && table.compareAndSet(slot + SEEN, seen, seen | 1)) {
+         listener.shared(ticket, remoteIp, addresses);
+      }
+      return true;
+   }
+
+   /**
+    * Returns the estimated number of distinct addresses the given ticket has been used
+    * from or zero if it is not tracked.
+    */
+   int estimate(AuthTicket ticket, long nowMillis)
+   {
+      long fingerprint = fingerprint(ticket);
+      int index = (int) mix(fingerprint) & mask;
+      for(int p = 0; p < PROBES; p++) {
+         int slot = ((index + p) & mask) * WORDS;
+         if(table.get(slot + FINGERPRINT) == fingerprint
+               && (table.get(slot + SEEN) >>> 1) + windowSeconds > nowMillis / 1000) {
+            return estimate(table.get(slot + REGISTERS), table.get(slot + REGISTERS + 1));
+         }
+      }
+      return 0;
+   }
+
+   /**
+    * Returns the number of tickets this detector can track.
+    */
+   int capacity()
+   {
+      return mask + 1;
+   }
+
+
+
+   /**
+    * Returns the offset of the slot holding the given fingerprint, claiming one if it is
+    * not held, or -1 if a racing thread claimed the chosen slot first.
+    */
+   private int slot(long fingerprint, long now)
+   {
+      int index = (int) mix(fingerprint) & mask;
+      int victim = -1;
+      long oldest = Long.MAX_VALUE;
+      for(int p = 0; p < PROBES; p++) {
+         int slot = ((index + p) & mask) * WORDS;
+         long held = table.get(slot + FINGERPRINT);
+         long seen = table.get(slot + SEEN) >>> 1;
+         boolean expired = held == 0 || seen + windowSeconds <= now;
+         if(held == fingerprint) {
+            if(!expired) return slot;
+            victim = slot;
+            break;
+         } else if(expired) {
+            if(oldest > Long.MIN_VALUE) victim = slot;
+            oldest = Long.MIN_VALUE;
+         } else if(seen < oldest) {
+            victim = slot;
+            oldest = seen;
+         }
+      }
+      // reset before taking over so a racing reader never sees the previous ticket's flag
+      long held = table.get(victim + FINGERPRINT);
+      table.set(victim + SEEN, now << 1);
+      table.set(victim + REGISTERS, 0);
+      table.set(victim + REGISTERS + 1, 0);
+      return table.compareAndSet(victim + FINGERPRINT, held, fingerprint) ? victim : -1;
+   }
+
+   private long fingerprint(AuthTicket ticket)
+   {
+      long h;
+      if(ticket instanceof EncodedAuthTicket) {
+         h = ((EncodedAuthTicket) ticket).fingerprint(seed);
+      } else {
+         h = hash(ticket.getUsername()) ^ ticket.getTimestamp();
+      }
+      h = mix(h);
+      return (h == 0) ? 1 : h;
+   }
+
+   private long hash(String address)
+   {
+      long h = seed;
+      for(int i = 0; i < address.length(); i++) {
+         h = (h ^ address.charAt(i)) * 0x100000001B3L;
+      }
+      return mix(h);
+   }
+
+   private static long mix(long h)
+   {
+      h ^= h >>> 33;
+      h *= 0xFF51AFD7ED558CCDL;
+      h ^= h >>> 33;
+      h *= 0xC4CEB9FE1A85EC53L;
+      return h ^ (h >>> 33);
+   }
+
+   private static int estimate(long low, long high)
+   {
+      double sum = 0;
+      int zeros = 0;
+      for(int i = 0; i < M; i++) {
+         int rank = (int) ((((i < 16) ? low : high) >>> ((i & 15) << 2)) & 0xF);
+         if(rank == 0) zeros++;
+         sum += 1.0 / (1L << rank);
+      }
+      double estimate = ALPHA / sum;
+      if(estimate <= 2.5 * M && zeros > 0) estimate = M * Math.log((double) M / zeros);
+      return (int) Math.round(estimate);
+   }
+
+}
@@ -0,0 +1,223 @@
+package xpertss.auth.tkt;
+
+import xpertss.lang.Numbers;
+import xpertss.lang.Objects;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static java.lang.String.format;
+
+/**
+ * Runs synthetic tickets through the encoder and authenticator so that their hot methods
+ * are compiled before real traffic arrives.
+ * <p>
+ * Only the ticket paths are warmed: encoding, parsing, digesting and verifying tickets,
+ * which is where most of a request's time goes. The filter's own request wrapping,
+ * refresh and redirect code is not driven by the warm-up and is compiled as real requests
+ * arrive.
+ * <p>
+ * Each iteration encodes a ticket and authenticates valid, expired, forged, malformed,
+ * token-less, and missing tickets for every accepted digest algorithm in both the legacy
+ * and the compact format of every given config. The synthetic tickets are signed with a
+ * random secret and authenticated by copies of the configs which have neither revocation
+ * list, ticket cache nor token policy, so warming up never produces a ticket the real
+ * configs accept nor touches any shared state. A token policy is instead evaluated
+ * against the valid ticket directly.
+ * <p>
+ * The warm-up stops after the given number of iterations or once its time budget is
+ * spent, whichever comes first, and reports how many iterations it ran and how long it
+ * took.
+ */
+final class TicketWarmup implements Runnable {
+
+   private static final String USERNAME = "warmup";
+   private static final String REMOTE_IP = "10.0.0.1";
+
+   private final List<Exercise> exercises = new ArrayList<>();
+   private final int iterations;
+   private final long budgetNanos;
+   private final Consumer<String> reporter;
+
+   private volatile boolean cancelled;
+   private volatile int completed;
+   private volatile long elapsedNanos = -1;
+
+
+   /**
+    * Create a warm-up for the given configs.
+    *
+    * @param configs The configs whose code paths should be warmed
+    * @param iterations The maximum number of iterations to run
+    * @param budgetMillis The maximum time to run for
+    * @param reporter Receives a one line summary once the warm-up completes
+    */
+   TicketWarmup(Collection<AuthTicketConfig> configs, int iterations, long budgetMillis, Consumer<String> reporter)
+   {
+      this.iterations = Numbers.gt(0, iterations, "iterations must be positive");
+      this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(Numbers.gt(0L, budgetMillis, "budget must be positive"));
+      this.reporter = Objects.notNull(reporter, "reporter");
+      String secret = UUID.randomUUID().toString();
+      for(AuthTicketConfig config : Objects.notNull(configs, "configs")) {
+         AuthTicketAuthenticator authenticator = new AuthTicketAuthenticator(copy(config, secret, config.getDigestAlgorithm(), false));
+         for(DigestAlgorithm digest : config.getAcceptedDigestAlgorithms()) {
+            for(boolean compact : new boolean[] { false, true }) {
+               exercises.add(new Exercise(config, authenticator, copy(config, secret, digest, compact)));
+            }
+         }
+      }
+   }
+
+
+   @Override
+   public void run()
+   {
+      long start = System.nanoTime();
+      int count = 0;
+      while(count < iterations && !cancelled && System.nanoTime() - start < budgetNanos) {
+         for(Exercise exercise : exercises) exercise.run();
+         count++;
+      }
+      completed = count;
+      elapsedNanos = System.nanoTime() - start;
+      reporter.accept(format("auth-tkt warm-up ran %d iterations over %d paths in %d ms%s", count,
+                              exercises.size(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                              cancelled ? " (cancelled)" : ""));
+   }
+
+   /**
+    * Stop the warm-up at the end of the current iteration.
+    */
+   void cancel()
+   {
+      cancelled = true;
+   }
+
+   /**
+    * Returns the number of iterations run or zero if the warm-up has not completed.
+    */
+   int getIterations()
+   {
+      return completed;
+   }
+
+   /**
+    * Returns the time the warm-up took in nanoseconds or -1 if it has not completed.
+    */
+   long getElapsedNanos()
+   {
+      return elapsedNanos;
+   }
+
+
+
+   /**
+    * Returns the given ticket encoded as the given issuer would but with a checksum that
+    * issuer never produces, computed with a different random secret. Unlike editing the
+    * encoded text this always yields a well formed ticket that fails verification.
+    */
+   static String forge(AuthTicketConfig issuer, AuthTicket ticket)
+   {
+      AuthTicketConfig forger = copy(issuer, UUID.randomUUID().toString(), issuer.getDigestAlgorithm(), issuer.isCompactFormat());
+      return new AuthTicketEncoder(forger).encode(REMOTE_IP, ticket).getEncoded();
+   }
+
+   private static AuthTicketConfig copy(AuthTicketConfig source, String secret, DigestAlgorithm digest, boolean compact)
+   {
+      AuthTicketConfig config = new AuthTicketConfig(secret);
+      config.setDigestAlgorithm(digest);
+      config.setAcceptedDigestAlgorithms(source.getAcceptedDigestAlgorithms());
+      config.setCompactFormat(compact);
+      config.setCookieName(source.getCookieName());
+      config.setIgnoreIP(source.ignoreIP());
+      config.setTimeout(source.getTimeout());
+      config.setTokens(source.getTokens());
+      config.setRoleHierarchy(source.getRoleHierarchy());
+      config.setUserDataCodec(source.getUserDataCodec());
+      return config.freeze();
+   }
+
+
+   /**
+    * The tickets of one digest algorithm and format along with the authenticator that
+    * checks them.
+    */
+   private static final class Exercise {
+
+      private final AuthTicketAuthenticator authenticator;
+      private final AuthTicketEncoder encoder;
+      private final AuthTicketConfig issuer;
+      private final TokenPolicy policy;
+      private final String cookie;
+
+      private final String valid;
+      private final String forged;
+      private final String malformed;
+      private final String tokenless;
+      private final Clock now;
+      private final Clock later;
+
+      private Exercise(AuthTicketConfig config, AuthTicketAuthenticator authenticator, AuthTicketConfig issuer)
+      {
+         this.authenticator = authenticator;
+         this.issuer = issuer;
+         this.policy = config.getTokenPolicy();
+         this.encoder = new AuthTicketEncoder(issuer);
+         this.cookie = config.getCookieName() + "=";
+
+         String encoded = encoder.encode(REMOTE_IP, ticket(true)).getEncoded();
+         this.valid = cookie + encoded;
+         this.forged = cookie + forge(issuer, ticket(true));
+         this.malformed = cookie + encoded.substring(0, encoded.length() / 2);
+         this.tokenless = config.getTokens().isEmpty() ? null : cookie + encoder.encode(REMOTE_IP, ticket(false)).getEncoded();
+
+         Instant instant = Instant.now();
+         this.now = Clock.fixed(instant, ZoneOffset.UTC);
+         this.later = (config.getTimeout() > 0) ? Clock.fixed(instant.plusSeconds(config.getTimeout() + 60), ZoneOffset.UTC) : null;
+      }
+
+      private void run()
+      {
+         encoder.encode(REMOTE_IP, ticket(true)).getEncoded();
+
+         AuthTicket ticket = authenticator.authenticate(valid, REMOTE_IP, now);
+         ticket.getUsername();
+         ticket.getTokens();
+         ticket.getUserData();
+         if(policy != null) policy.test(ticket);
+
+         if(later != null) authenticate(valid, later);
+         authenticate(forged, now);
+         authenticate(malformed, now);
+         if(tokenless != null) authenticate(tokenless, now);
+         authenticate("other=" + USERNAME, now);
+      }
+
+      private void authenticate(String header, Clock clock)
+      {
+         try {
+            authenticator.authenticate(header, REMOTE_IP, clock);
+         } catch(TicketNotFoundException | InvalidTicketException e) {
+            // expected
+         }
+      }
+
+      private MutableAuthTicket ticket(boolean tokens)
+      {
+         MutableAuthTicket ticket = new MutableAuthTicket(USERNAME);
+         if(tokens) {
+            for(String token : issuer.getTokens()) ticket.addToken(token);
+         }
+         ticket.setUserData("{\"name\":\"Warm Up\",\"roles\":[\"reader\",\"writer\"]}");
+         return ticket;
+      }
+   }
+
+}
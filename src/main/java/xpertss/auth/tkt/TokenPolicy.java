@@ -0,0 +1,246 @@
+package xpertss.auth.tkt;
+
+import xpertss.lang.Strings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static java.lang.String.format;
+
+/**
+ * A compiled boolean expression over the tokens of a ticket, such as
+ * <pre>
+ *    finance AND (admin OR auditor) AND NOT suspended
+ * </pre>
+ * Expressions combine token names with {@code AND}, {@code OR}, {@code NOT} and
+ * parentheses. The operators are case insensitive and may also be written {@code &&},
+ * {@code ||} and {@code !} or {@code &} and {@code |}. {@code NOT} binds tighter than {@code AND} which binds
+ * tighter than {@code OR}. Token names are compared exactly and may contain any
+ * character other than whitespace, parentheses, commas, and the operator symbols.
+ * <p>
+ * An expression is compiled once into a flat postfix program over the distinct tokens
+ * it names. Testing a ticket looks each of those tokens up once, then runs the program
+ * over the resulting bits on a stack held in a single {@code long}, so no objects are
+ * allocated per test. An expression may name at most 64 distinct tokens and nest at
+ * most 64 operands deep.
+ * <p>
+ * Instances are immutable and thread safe.
+ */
+public final class TokenPolicy implements Predicate<AuthTicket> {
+
+   private static final int MAX_TOKENS = Long.SIZE;
+   private static final int MAX_DEPTH = Long.SIZE;
+
+   private static final int NOT = -1;
+   private static final int AND = -2;
+   private static final int OR = -3;
+
+   private final String expression;
+   private final String[] tokens;
+   private final int[] program;
+
+   private TokenPolicy(String expression, String[] tokens, int[] program)
+   {
+      this.expression = expression;
+      this.tokens = tokens;
+      this.program = program;
+   }
+
+
+   /**
+    * Compile the given policy expression.
+    *
+    * @param expression The policy expression
+    * @return the compiled policy
+    * @throws IllegalArgumentException if the expression is empty or invalid
+    */
+   public static TokenPolicy compile(String expression)
+   {
+      Parser parser = new Parser(Strings.notEmpty(expression, "expression").trim());
+      parser.or();
+      if(parser.peek() != Parser.END) throw parser.error();
+      int[] program = new int[parser.program.size()];
+      int depth = 0;
+      for(int i = 0; i < program.length; i++) {
+         program[i] = parser.program.get(i);
+         depth += (program[i] >= 0) ? 1 : (program[i] == NOT) ? 0 : -1;
+         if(depth > MAX_DEPTH) throw new IllegalArgumentException("policy nests too deeply: " + expression);
+      }
+      return new TokenPolicy(parser.input, parser.tokens.toArray(new String[0]), program);
+   }
+
+
+   /**
+    * Returns {@code true} if the given ticket's tokens satisfy this policy.
+    *
+    * @param ticket The ticket to test
+    * @return whether the ticket satisfies the policy
+    */
+   @Override
+   public boolean test(AuthTicket ticket)
+   {
+      long present = 0;
+      for(int i = 0; i < tokens.length; i++) {
+         if(ticket.contains(tokens[i])) present |= 1L << i;
+      }
+      long stack = 0;
+      for(int op : program) {
+         if(op >= 0) {
+            stack = (stack << 1) | ((present >>> op) & 1L);
+         } else if(op == NOT) {
+            stack ^= 1L;
+         } else {
+            long top = stack & 1L;
+            stack >>>= 1;
+            stack = (op == AND) ? stack & (~1L | top) : stack | top;
+         }
+      }
+      return (stack & 1L) != 0;
+   }
+
+   /**
+    * Returns the distinct tokens this policy names.
+    */
+   public String[] getTokens()
+   {
+      return tokens.clone();
+   }
+
+
+   @Override
+   public boolean equals(Object o)
+   {
+      return o instanceof TokenPolicy && expression.equals(((TokenPolicy) o).expression);
+   }
+
+   @Override
+   public int hashCode()
+   {
+      return expression.hashCode();
+   }
+
+   @Override
+   public String toString()
+   {
+      return expression;
+   }
+
+
+
+   /**
+    * A recursive descent parser emitting the postfix program.
+    */
+   private static final class Parser {
+
+      private static final int END = -1;
+
+      private final String input;
+      private final List<String> tokens = new ArrayList<>();
+      private final List<Integer> program = new ArrayList<>();
+      private int pos;
+
+      private Parser(String input)
+      {
+         this.input = input;
+      }
+
+      private void or()
+      {
+         and();
+         while(operator('|', "OR")) {
+            and();
+            program.add(OR);
+         }
+      }
+
+      private void and()
+      {
+         not();
+         while(operator('&', "AND")) {
+            not();
+            program.add(AND);
+         }
+      }
+
+      private void not()
+      {
+         if(operator('!', "NOT")) {
+            not();
+            program.add(NOT);
+         } else if(peek() == '(') {
+            pos++;
+            or();
+            if(peek() != ')') throw error();
+            pos++;
+         } else {
+            program.add(token());
+         }
+      }
+
+      private int token()
+      {
+         int start = skipWhitespace();
+         while(pos < input.length() && isTokenChar(input.charAt(pos))) pos++;
+         if(start == pos) throw error();
+         String token = input.substring(start, pos);
+         if(isKeyword(token)) {
+            pos = start;
+            throw error();
+         }
+         int index = tokens.indexOf(token);
+         if(index < 0) {
+            if(tokens.size() == MAX_TOKENS) throw new IllegalArgumentException("policy names too many tokens: " + input);
+            index = tokens.size();
+            tokens.add(token);
+         }
+         return index;
+      }
+
+      private boolean operator(char symbol, String keyword)
+      {
+         int start = skipWhitespace();
+         if(pos < input.length() && input.charAt(pos) == symbol) {
+            pos++;
+            if(symbol != '!' && pos < input.length() && input.charAt(pos) == symbol) pos++;
+            return true;
+         }
+         int end = start + keyword.length();
+         if(input.regionMatches(true, start, keyword, 0, keyword.length())
+               && (end == input.length() || !isTokenChar(input.charAt(end)))) {
+            pos = end;
+            return true;
+         }
+         return false;
+      }
+
+      private int peek()
+      {
+         skipWhitespace();
+         return (pos < input.length()) ? input.charAt(pos) : END;
+      }
+
+      private int skipWhitespace()
+      {
+         while(pos < input.length() && Character.isWhitespace(input.charAt(pos))) pos++;
+         return pos;
+      }
+
+      private IllegalArgumentException error()
+      {
+         String found = (pos < input.length()) ? format("'%s'", input.charAt(pos)) : "end";
+         return new IllegalArgumentException(format("unexpected %s at %d in policy: %s", found, pos, input));
+      }
+
+      private static boolean isKeyword(String token)
+      {
+         return "AND".equalsIgnoreCase(token) || "OR".equalsIgnoreCase(token) || "NOT".equalsIgnoreCase(token);
+      }
+
+      private static boolean isTokenChar(char c)
+      {
+         return !Character.isWhitespace(c) && c != '(' && c != ')' && c != ',' && c != '!' && c != '&' && c != '|';
+      }
+   }
+
+}
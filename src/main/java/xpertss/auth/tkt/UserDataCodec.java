@@ -0,0 +1,160 @@
+package xpertss.auth.tkt;
+
+import xpertss.lang.Objects;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compresses large user data payloads carried in tickets.
+ * <p>
+ * When a ticket is encoded its user data is deflated and encoded using URL safe Base64
+ * behind a {@code *z} marker. The ticket is signed over the compressed form so verifying
+ * it never requires the data to be inflated. Parsed tickets only inflate their user data
+ * the first time {@link AuthTicket#getUserData()} is called so requests which never read
+ * it never pay for decompression.
+ * <p>
+ * User data that would not get any smaller is left as is, as is user data without the
+ * marker when decoding, which allows tickets issued before compression was enabled to
+ * continue to work. User data that itself begins with the marker is always compressed
+ * so that it can not be mistaken for compressed data.
+ * <p>
+ * A preset dictionary holding strings that commonly appear in the user data, such as the
+ * keys of a JSON document, allows even small payloads to compress well. The dictionary
+ * is not carried in the ticket so every party that encodes or decodes tickets must use
+ * the same dictionary.
+ * <p>
+ * Deflaters and inflaters are expensive to create and hold native memory until they are
+ * ended, so every codec shares one of each per thread. Codecs can therefore be created
+ * freely, as they are on each config reload, without leaking native memory.
+ */
+public final class UserDataCodec {
+
+   static final String PREFIX = "*z";
+
+   private static final int MAX_INFLATED = 64 * 1024;
+
+   private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_COMPRESSION, true));
+   private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(() -> new Inflater(true));
+
+   private final byte[] dictionary;
+
+   /**
+    * Create a codec that compresses user data without a preset dictionary.
+    */
+   public UserDataCodec()
+   {
+      this.dictionary = null;
+   }
+
+   /**
+    * Create a codec that compresses user data using the given preset dictionary. The
+    * strings most likely to appear in the user data should be placed at the end of the
+    * dictionary. e.g.
+    * <p>
+    * <pre>
+    *    new UserDataCodec("{\"email\":\"\",\"name\":\"\",\"roles\":[\"\"],\"id\":");
+    * </pre>
+    *
+    * @param dictionary the preset dictionary
+    */
+   public UserDataCodec(String dictionary)
+   {
+      this.dictionary = Objects.notNull(dictionary, "dictionary").getBytes(UTF_8);
+   }
+
+
+   /**
+    * Returns the compressed form of the given user data or the user data itself if it
+    * does not get any smaller when compressed and does not begin with the marker.
+    *
+    * @param userData the user data to compress
+    * @return the user data in the form it should be carried in a ticket
+    */
+   public String encode(String userData)
+   {
+      if(userData == null || userData.isEmpty()) return userData;
+      byte[] input = userData.getBytes(UTF_8);
+      Deflater deflater = DEFLATERS.get();
+      try {
+         if(dictionary != null) deflater.setDictionary(dictionary);
+         deflater.setInput(input);
+         deflater.finish();
+         ByteArrayOutputStream out = new ByteArrayOutputStream(input.length);
+         byte[] buf = new byte[Math.min(input.length + 64, 4096)];
+         while(!deflater.finished()) {
+            out.write(buf, 0, deflater.deflate(buf));
+         }
+         String encoded = PREFIX + Base64.getUrlEncoder().withoutPadding().encodeToString(out.toByteArray());
+         return (encoded.length() < userData.length() || userData.startsWith(PREFIX)) ? encoded : userData;
+      } finally {
+         deflater.reset();
+      }
+   }
+
+   /**
+    * Returns the original form of the given user data. User data which was not
+    * compressed is returned as is.
+    *
+    * @param userData the user data as it was carried in a ticket
+    * @return the original user data
+    * @throws MalformedTicketException if the compressed data is corrupt or was
+    *          compressed with a different dictionary
+    */
+   public String decode(String userData)
+   {
+      if(userData == null || !userData.startsWith(PREFIX)) return userData;
+      byte[] input;
+      try {
+         input = Base64.getUrlDecoder().decode(userData.substring(PREFIX.length()));
+      } catch(IllegalArgumentException e) {
+         throw new MalformedTicketException("invalid compressed user data", e);
+      }
+      Inflater inflater = INFLATERS.get();
+      try {
+         if(dictionary != null) inflater.setDictionary(dictionary);
+         inflater.setInput(input);
+         byte[] output = new byte[Math.max(256, input.length * 4)];
+         int len = 0;
+         while(!inflater.finished()) {
+            if(len == output.length) {
+               if(len >= MAX_INFLATED) throw new MalformedTicketException("compressed user data too large");
+               output = Arrays.copyOf(output, Math.min(len * 2, MAX_INFLATED));
+            }
+            int n = inflater.inflate(output, len, output.length - len);
+            if(n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+               throw new MalformedTicketException("truncated compressed user data");
+            }
+            len += n;
+         }
+         return new String(output, 0, len, UTF_8);
+      } catch(DataFormatException | IllegalArgumentException e) {
+         throw new MalformedTicketException("invalid compressed user data", e);
+      } finally {
+         inflater.reset();
+      }
+   }
+
+
+   @Override
+   public boolean equals(Object obj)
+   {
+      if(obj instanceof UserDataCodec) {
+         return Arrays.equals(dictionary, ((UserDataCodec) obj).dictionary);
+      }
+      return false;
+   }
+
+   @Override
+   public int hashCode()
+   {
+      return Arrays.hashCode(dictionary);
+   }
+
+}
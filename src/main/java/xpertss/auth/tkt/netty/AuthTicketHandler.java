@@ -0,0 +1,188 @@
+package xpertss.auth.tkt.netty;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+import xpertss.auth.tkt.AuthTicket;
+import xpertss.auth.tkt.AuthTicketAuthenticator;
+import xpertss.auth.tkt.AuthTicketConfig;
+import xpertss.auth.tkt.Cookies;
+import xpertss.auth.tkt.ExpiredTicketException;
+import xpertss.auth.tkt.InvalidTicketException;
+import xpertss.auth.tkt.TicketNotFoundException;
+import xpertss.auth.tkt.TokenMissingException;
+import xpertss.lang.Objects;
+import xpertss.lang.Strings;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.time.Clock;
+import java.util.Iterator;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.FOUND;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
+/**
+ * AuthTicketHandler is a Netty inbound handler that verifies the auth ticket of each
+ * {@link HttpRequest} before it is passed further down the pipeline.
+ * <p>
+ * It is intended for edge proxies that want to reject unauthenticated traffic before it
+ * ever reaches the servlet tier. The ticket is read from the configured ticket header, if
+ * the request carries one, or else directly from the request's Cookie header(s) without
+ * parsing the other cookies they carry. Either way it is verified using the same
+ * {@link AuthTicketAuthenticator} the {@link xpertss.auth.tkt.AuthTicketFilter} uses.
+ * <p>
+ * Upon success the verified {@link AuthTicket} is attached to the channel using the
+ * {@link #TICKET} attribute and the request is forwarded unmodified. Upon failure the
+ * request (and any content that follows it) is released and a pre-built redirect is
+ * written back to the client. Unlike the servlet filter no back argument is appended
+ * to the redirect as the responses are built once at construction.
+ * <p>
+ * This handler maintains per request state and as such is NOT sharable. It must be
+ * placed after the {@link io.netty.handler.codec.http.HttpServerCodec} in the pipeline.
+ */
+public class AuthTicketHandler extends ChannelInboundHandlerAdapter {
+
+   /**
+    * The channel attribute holding the ticket of the most recently verified request.
+    */
+   public static final AttributeKey<AuthTicket> TICKET = AttributeKey.valueOf(AuthTicketHandler.class, "TICKET");
+
+   private final AuthTicketAuthenticator authenticator;
+   private final AuthTicketConfig config;
+   private final Clock clock;
+
+   private final FullHttpResponse authResponse;
+   private final FullHttpResponse timeoutResponse;
+   private final FullHttpResponse unauthResponse;
+
+   private boolean discarding;
+
+   /**
+    * Create an AuthTicketHandler that redirects all failures to the given login url.
+    *
+    * @param config The configuration used to verify tickets
+    * @param loginUrl The url unauthenticated users are redirected to
+    */
+   public AuthTicketHandler(AuthTicketConfig config, String loginUrl)
+   {
+      this(config, loginUrl, null, null, Clock.systemUTC());
+   }
+
+   /**
+    * Create an AuthTicketHandler that redirects expired tickets to the timeout url and
+    * tickets missing a required token to the unauth url. Either may be {@code null} in
+    * which case the login url is used.
+    *
+    * @param config The configuration used to verify tickets
+    * @param loginUrl The url unauthenticated users are redirected to
+    * @param timeoutUrl Optional url users with expired tickets are redirected to
+    * @param unauthUrl Optional url users missing a required token are redirected to
+    */
+   public AuthTicketHandler(AuthTicketConfig config, String loginUrl, String timeoutUrl, String unauthUrl)
+   {
+      this(config, loginUrl, timeoutUrl, unauthUrl, Clock.systemUTC());
+   }
+
+   AuthTicketHandler(AuthTicketConfig config, String loginUrl, String timeoutUrl, String unauthUrl, Clock clock)
+   {
+      this.config = Objects.notNull(config, "config").freeze();
+      this.clock = Objects.notNull(clock, "clock");
+      this.authenticator = new AuthTicketAuthenticator(this.config);
+      this.authResponse = redirect(Strings.notEmpty(loginUrl, "loginUrl"));
+      this.timeoutResponse = redirect(Strings.ifEmpty(timeoutUrl, loginUrl));
+      this.unauthResponse = redirect(Strings.ifEmpty(unauthUrl, loginUrl));
+   }
+
+
+   @Override
+   public void channelRead(ChannelHandlerContext ctx, Object msg)
+      throws Exception
+   {
+      if(msg instanceof HttpRequest) {
+         HttpRequest request = (HttpRequest) msg;
+         FullHttpResponse failure;
+         try {
+            ctx.channel().attr(TICKET).set(authenticate(ctx, request));
+            discarding = false;
+            ctx.fireChannelRead(msg);
+            return;
+         } catch(ExpiredTicketException e) {
+            failure = timeoutResponse;
+         } catch(TokenMissingException e) {
+            failure = unauthResponse;
+         } catch(Exception e) {
+            failure = authResponse;
+         }
+         ctx.channel().attr(TICKET).set(null);
+         boolean keepAlive = HttpUtil.isKeepAlive(request);
+         discarding = !(msg instanceof LastHttpContent);
+         ReferenceCountUtil.release(msg);
+         if(keepAlive) {
+            ctx.writeAndFlush(failure.retainedDuplicate());
+         } else {
+            ctx.writeAndFlush(failure.retainedDuplicate()).addListener(ChannelFutureListener.CLOSE);
+         }
+      } else if(discarding && msg instanceof HttpContent) {
+         discarding = !(msg instanceof LastHttpContent);
+         ReferenceCountUtil.release(msg);
+      } else {
+         ctx.fireChannelRead(msg);
+      }
+   }
+
+
+   private AuthTicket authenticate(ChannelHandlerContext ctx, HttpRequest request)
+   {
+      String ticketHeader = (config.getTicketHeader() == null) ? null : request.headers().get(config.getTicketHeader());
+      if(authenticator.hasHeaderTicket(ticketHeader)) {
+         return authenticator.authenticate(ticketHeader, null, remoteIp(ctx, request), clock);
+      }
+      CharSequence cookieHeader = cookieHeader(request);
+      if(cookieHeader == null) throw new TicketNotFoundException();
+      return authenticator.authenticate(null, cookieHeader, remoteIp(ctx, request), clock);
+   }
+
+   private CharSequence cookieHeader(HttpRequest request)
+   {
+      Iterator<? extends CharSequence> headers = request.headers().valueCharSequenceIterator(HttpHeaderNames.COOKIE);
+      if(!headers.hasNext()) return null;
+      CharSequence header = headers.next();
+      while(headers.hasNext() && Cookies.getCookieValue(header, config.getCookieName()) == null) {
+         header = headers.next();
+      }
+      return header;
+   }
+
+   private String remoteIp(ChannelHandlerContext ctx, HttpRequest request)
+   {
+      if(config.ignoreIP()) return null;
+      String forwarded = request.headers().get("X-Forward-For");
+      if(!Strings.isEmpty(forwarded)) return forwarded;
+      SocketAddress address = ctx.channel().remoteAddress();
+      if(address instanceof InetSocketAddress) {
+         return ((InetSocketAddress) address).getAddress().getHostAddress();
+      }
+      throw new InvalidTicketException("unknown remote address");
+   }
+
+
+   private static FullHttpResponse redirect(String location)
+   {
+      FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, FOUND, Unpooled.EMPTY_BUFFER);
+      response.headers().set(HttpHeaderNames.LOCATION, location);
+      response.headers().setInt(HttpHeaderNames.CONTENT_LENGTH, 0);
+      return response;
+   }
+
+}
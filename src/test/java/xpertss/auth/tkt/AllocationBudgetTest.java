@@ -0,0 +1,373 @@
+package xpertss.auth.tkt;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.Clock;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the bytes allocated per call on the request path and fails when a call goes
+ * over the budget checked into {@code allocation-budgets.properties}.
+ * <p>
+ * Each operation is warmed up so that it is measured in its compiled form and is then
+ * measured over several rounds, keeping the lowest per call average to filter out noise
+ * from the JIT and the measurement itself. Outcomes that throw are measured net of filling
+ * in the exception's stack trace, whose cost depends on the depth of the caller's stack and
+ * on the JDK rather than on this library. Budgets carry some headroom over the measured
+ * values. When a change legitimately moves a number, update the budget in the same commit
+ * so the reason is recorded alongside it.
+ * <p>
+ * Measuring takes a while so the test only runs in the {@code allocation} profile:
+ * <pre>
+ *    mvn -P allocation test
+ * </pre>
+ */
+public class AllocationBudgetTest {
+
+   private static final String SECRET = "some_random_secret_key";
+
+   private static final int WARMUP = 10000;
+   private static final int MEASURE = 2000;
+   private static final int ROUNDS = 5;
+
+   private static com.sun.management.ThreadMXBean threads;
+   private static Properties budgets;
+
+   private static volatile Object sink;
+
+   @BeforeClass
+   public static void setUpClass() throws IOException
+   {
+      Assume.assumeTrue(Boolean.getBoolean("auth.tkt.allocation"));
+      java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+      threads = (com.sun.management.ThreadMXBean) bean;
+      Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+      threads.setThreadAllocatedMemoryEnabled(true);
+
+      budgets = new Properties();
+      try(InputStream in = AllocationBudgetTest.class.getResourceAsStream("/allocation-budgets.properties")) {
+         assertNotNull("allocation-budgets.properties missing", in);
+         budgets.load(in);
+      }
+   }
+
+
+
+   @Test
+   public void testParse() throws Exception
+   {
+      for(DigestAlgorithm digest : DigestAlgorithm.values()) {
+         final String ticket = Tickets.valid(digest);
+         check("parse." + digest, () -> sink = digest.parse(ticket));
+         check("parse.materialized." + digest, () -> {
+            AuthTicket parsed = digest.parse(ticket);
+            sink = parsed.getUsername();
+            sink = parsed.getTokens();
+            sink = parsed.getUserData();
+         });
+         final String compact = Tickets.compact(digest);
+         check("parse.v2." + digest, () -> sink = digest.parse(compact));
+      }
+   }
+
+   @Test
+   public void testEncode() throws Exception
+   {
+      for(DigestAlgorithm digest : DigestAlgorithm.values()) {
+         AuthTicketEncoder encoder = new AuthTicketEncoder(Tickets.config(digest));
+         MutableAuthTicket ticket = Tickets.mutable();
+         check("encode." + digest, () -> sink = encoder.encode(null, ticket));
+         TicketCookieWriter writer = new TicketCookieWriter.Builder(Tickets.config(digest)).secure(true).httpOnly(true).build();
+         StringBuilder header = new StringBuilder(512);
+         check("issue." + digest, () -> {
+            header.setLength(0);
+            writer.write(null, ticket, header);
+         });
+      }
+   }
+
+   @Test
+   public void testAuthenticate() throws Exception
+   {
+      for(DigestAlgorithm digest : DigestAlgorithm.values()) {
+         AuthTicketConfig config = Tickets.config(digest);
+         config.setTokens(Tickets.REQUIRED);
+         AuthTicketAuthenticator authenticator = new AuthTicketAuthenticator(config);
+         Clock clock = Clock.systemUTC();
+         for(Outcome outcome : Outcome.values()) {
+            if(outcome == Outcome.GUEST) continue;
+            String header = outcome.header(digest);
+            check("authenticate." + outcome.key + "." + digest, outcome.throwing, () -> {
+               try {
+                  sink = authenticator.authenticate(header, null, clock);
+               } catch(TicketNotFoundException | InvalidTicketException e) {
+                  sink = e;
+               }
+            });
+         }
+      }
+   }
+
+   @Test
+   public void testTokenPolicy() throws Exception
+   {
+      TokenPolicy policy = TokenPolicy.compile("finance AND (admin OR reader) AND NOT suspended");
+      AuthTicket ticket = DigestAlgorithm.MD5.parse(Tickets.valid(DigestAlgorithm.MD5));
+      assertTrue(policy.test(ticket));
+      check("policy", () -> sink = policy.test(ticket));
+   }
+
+   @Test
+   public void testTicketSharing() throws Exception
+   {
+      TicketSharingDetector detector = new TicketSharingDetector(4, 3600, 1024, (ticket, ip, n) -> { });
+      AuthTicket ticket = DigestAlgorithm.MD5.parse(Tickets.valid(DigestAlgorithm.MD5));
+      long now = System.currentTimeMillis();
+      detector.observe(ticket, "10.1.2.3", now);
+      check("sharing", () -> sink = detector.observe(ticket, "10.1.2.3", now));
+   }
+
+   @Test
+   public void testRevocation() throws Exception
+   {
+      MappedRevocationList.Builder builder = new MappedRevocationList.Builder();
+      for(int i = 0; i < 100; i++) builder.revokeUser("user" + i, 2000).revokeTicket(new byte[] { 1, 2, 3, (byte) i });
+      java.nio.file.Path file = java.nio.file.Files.createTempFile("revoked", ".bin");
+      try {
+         builder.write(file);
+         MappedRevocationList list = MappedRevocationList.load(file);
+         AuthTicket ticket = DigestAlgorithm.MD5.parse(Tickets.valid(DigestAlgorithm.MD5));
+         AuthTicket compact = DigestAlgorithm.MD5.parse(Tickets.compact(DigestAlgorithm.MD5));
+         check("revocation", () -> sink = list.isRevoked(ticket));
+         check("revocation.v2", () -> sink = list.isRevoked(compact));
+      } finally {
+         java.nio.file.Files.deleteIfExists(file);
+      }
+   }
+
+   @Test
+   public void testDoFilter() throws Exception
+   {
+      for(DigestAlgorithm digest : DigestAlgorithm.values()) {
+         AuthTicketFilter filter = new AuthTicketFilter();
+         filter.init(new StubFilterConfig().set("TKTAuthSecret", SECRET)
+                                             .set("TKTAuthDigestType", digest.name())
+                                             .set("TKTAuthToken", String.join(",", Tickets.REQUIRED))
+                                             .set("TKTAuthLoginURL", "https://www.example.com/login"));
+         AuthTicketFilter guests = new AuthTicketFilter();
+         guests.init(new StubFilterConfig().set("TKTAuthSecret", SECRET)
+                                             .set("TKTAuthDigestType", digest.name())
+                                             .set("TKTAuthGuestLogin", "on")
+                                             .set("TKTAuthLoginURL", "https://www.example.com/login"));
+         StubHttpServletResponse response = new StubHttpServletResponse();
+         FilterChain chain = (req, resp) -> sink = ((HttpServletRequest) req).getRemoteUser();
+         for(Outcome outcome : Outcome.values()) {
+            StubHttpServletRequest request = new StubHttpServletRequest("GET", "/app/page.do");
+            request.setQueryString("id=1").setHeader("Host", "www.example.com");
+            String header = outcome.header(digest);
+            if(header != null) request.setHeader("Cookie", header);
+            AuthTicketFilter target = (outcome == Outcome.GUEST) ? guests : filter;
+            check("doFilter." + outcome.key + "." + digest, outcome.throwing, () -> {
+               response.reset();
+               target.doFilter(request, response, chain);
+            });
+         }
+      }
+   }
+
+
+   /**
+    * Reports the heap retained by parsed tickets, both as returned from parse and once
+    * every field has been materialized, which is the cost of caching verified tickets.
+    */
+   @Test
+   public void testRetainedTicketSize() throws Exception
+   {
+      for(DigestAlgorithm digest : DigestAlgorithm.values()) {
+         String ticket = Tickets.valid(digest);
+         long lazy = retained(() -> digest.parse(ticket));
+         long full = retained(() -> {
+            AuthTicket parsed = digest.parse(ticket);
+            parsed.getUsername();
+            parsed.getTokens();
+            parsed.getUserData();
+            parsed.getChecksum();
+            return parsed;
+         });
+         assertBudget("retained.parsed." + digest, lazy);
+         assertBudget("retained.materialized." + digest, full);
+      }
+   }
+
+
+
+
+   private static void check(String key, Op op) throws Exception
+   {
+      check(key, false, op);
+   }
+
+   private static void check(String key, boolean throwing, Op op) throws Exception
+   {
+      long allocated = measure(op);
+      if(throwing) allocated = Math.max(0, allocated - measure(() -> sink = new RuntimeException()));
+      assertBudget(key, allocated);
+   }
+
+   private static long measure(Op op) throws Exception
+   {
+      for(int i = 0; i < WARMUP; i++) op.run();
+      long thread = Thread.currentThread().getId();
+      long best = Long.MAX_VALUE;
+      for(int round = 0; round < ROUNDS; round++) {
+         long before = threads.getThreadAllocatedBytes(thread);
+         for(int i = 0; i < MEASURE; i++) op.run();
+         long after = threads.getThreadAllocatedBytes(thread);
+         best = Math.min(best, (after - before) / MEASURE);
+      }
+      return best;
+   }
+
+   private static void assertBudget(String key, long measured)
+   {
+      String budget = budgets.getProperty(key);
+      assertNotNull(String.format("no budget for %s (measured %d bytes)", key, measured), budget);
+      long limit = Long.parseLong(budget.trim());
+      assertTrue(String.format("%s allocated %d bytes, over its budget of %d bytes", key, measured, limit),
+                  measured <= limit);
+   }
+
+   private static long retained(TicketFactory factory)
+   {
+      final int count = 20000;
+      MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+      Object[] holder = new Object[count];
+      for(int i = 0; i < 1000; i++) sink = factory.create();
+      sink = null;
+      long before = usedAfterGc(memory);
+      for(int i = 0; i < count; i++) holder[i] = factory.create();
+      long after = usedAfterGc(memory);
+      sink = holder;
+      return Math.max(0, (after - before) / count);
+   }
+
+   private static long usedAfterGc(MemoryMXBean memory)
+   {
+      for(int i = 0; i < 3; i++) System.gc();
+      return memory.getHeapMemoryUsage().getUsed();
+   }
+
+
+
+   private enum Outcome {
+      VALID("valid", false) {
+         String header(DigestAlgorithm digest) { return Tickets.cookies(Tickets.valid(digest)); }
+      },
+      EXPIRED("expired", true) {
+         String header(DigestAlgorithm digest) { return Tickets.cookies(Tickets.expired(digest)); }
+      },
+      FORGED("forged", true) {
+         String header(DigestAlgorithm digest) { return Tickets.cookies(Tickets.valid(digest).replace("Floersch", "Fleersch")); }
+      },
+      TOKEN_MISSING("tokenMissing", true) {
+         String header(DigestAlgorithm digest) { return Tickets.cookies(Tickets.unauthorized(digest)); }
+      },
+      MALFORMED("malformed", true) {
+         String header(DigestAlgorithm digest) { return Tickets.cookies("0011223344cfloersch"); }
+      },
+      GUEST("guest", true) {
+         String header(DigestAlgorithm digest) { return Tickets.cookies(null); }
+      },
+      NOT_FOUND("notFound", true) {
+         String header(DigestAlgorithm digest) { return Tickets.cookies(null); }
+      };
+
+      private final String key;
+      private final boolean throwing;
+
+      Outcome(String key, boolean throwing)
+      {
+         this.key = key;
+         this.throwing = throwing;
+      }
+
+      abstract String header(DigestAlgorithm digest);
+   }
+
+
+   private static final class Tickets {
+
+      private static final java.util.Set<String> REQUIRED = xpertss.util.Sets.of("finance");
+
+      static AuthTicketConfig config(DigestAlgorithm digest)
+      {
+         AuthTicketConfig config = new AuthTicketConfig(SECRET);
+         config.setDigestAlgorithm(digest);
+         return config;
+      }
+
+      static MutableAuthTicket mutable()
+      {
+         MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+         ticket.addToken("reader");
+         ticket.addToken("finance");
+         ticket.setUserData("Chris+Floersch");
+         return ticket;
+      }
+
+      static String valid(DigestAlgorithm digest)
+      {
+         return new AuthTicketEncoder(config(digest)).encode(null, mutable()).getEncoded();
+      }
+
+      static String compact(DigestAlgorithm digest)
+      {
+         AuthTicketConfig config = config(digest);
+         config.setCompactFormat(true);
+         return new AuthTicketEncoder(config).encode(null, mutable()).getEncoded();
+      }
+
+      static String unauthorized(DigestAlgorithm digest)
+      {
+         MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+         ticket.addToken("reader");
+         ticket.setUserData("Chris+Floersch");
+         return new AuthTicketEncoder(config(digest)).encode(null, ticket).getEncoded();
+      }
+
+      static String expired(DigestAlgorithm digest)
+      {
+         long stale = System.currentTimeMillis() / 1000 - 3 * 3600;
+         AuthTicket ticket = EncodedAuthTicket.create(new byte[1], stale, "cfloersch", "reader,finance", "Chris+Floersch");
+         return new AuthTicketEncoder(config(digest)).encode(null, ticket).getEncoded();
+      }
+
+      static String cookies(String ticket)
+      {
+         StringBuilder builder = new StringBuilder();
+         for(int i = 0; i < 30; i++) builder.append("_an").append(i).append("=GA1.2.123456789.").append(i).append("; ");
+         if(ticket != null) builder.append("auth_tkt=").append(ticket).append("; ");
+         return builder.append("_tail=1").toString();
+      }
+   }
+
+   private interface Op {
+      void run() throws Exception;
+   }
+
+   private interface TicketFactory {
+      Object create();
+   }
+
+}
@@ -0,0 +1,163 @@
+package xpertss.auth.tkt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class AuditLogTest {
+
+   private static final String SECRET = "some_random_secret_key";
+
+   private Path dir;
+   private Path file;
+
+   @Before
+   public void setUp() throws IOException
+   {
+      dir = Files.createTempDirectory("audit");
+      file = dir.resolve("audit.log");
+   }
+
+   @After
+   public void tearDown() throws IOException
+   {
+      try(DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+         for(Path path : files) Files.delete(path);
+      }
+      Files.delete(dir);
+   }
+
+
+   @Test
+   public void testWritesRecords() throws Exception
+   {
+      AuditLog audit = new AuditLog(file);
+      assertTrue(audit.publish("INVALID", "10.1.2.3", "GET", "/app/page.do"));
+      assertTrue(audit.publish("MALFORMED", null, "POST", "/app/save.do"));
+      audit.close();
+
+      List<String> lines = Files.readAllLines(file, UTF_8);
+      assertEquals(2, lines.size());
+      assertTrue(lines.get(0).matches("\\d{4}-\\d\\d-\\d\\dT\\S+Z INVALID 10\\.1\\.2\\.3 GET /app/page\\.do"));
+      assertTrue(lines.get(1).endsWith(" MALFORMED - POST /app/save.do"));
+      assertEquals(2, audit.getWritten());
+      assertEquals(0, audit.getDropped());
+   }
+
+   @Test
+   public void testSanitizesValues() throws Exception
+   {
+      AuditLog audit = new AuditLog(file);
+      audit.publish("INVALID", "10.1.2.3", "GET", "/app/page.do\r\n2018-10-25T14:02:11Z VALID x GET /é");
+      audit.close();
+
+      List<String> lines = Files.readAllLines(file, UTF_8);
+      assertEquals(1, lines.size());
+      assertTrue(lines.get(0).endsWith(" GET /app/page.do??2018-10-25T14:02:11Z?VALID?x?GET?/?"));
+   }
+
+   @Test
+   public void testDropsWhenFull() throws Exception
+   {
+      AuditLog audit = new AuditLog(file, 4, 1024 * 1024, 1, false);
+      for(int i = 0; i < 4; i++) assertTrue(audit.publish("INVALID", "10.1.2.3", "GET", "/" + i));
+      assertFalse(audit.publish("INVALID", "10.1.2.3", "GET", "/4"));
+      assertFalse(audit.publish("INVALID", "10.1.2.3", "GET", "/5"));
+      assertEquals(2, audit.getDropped());
+
+      assertEquals(4, audit.drain());
+      assertTrue(audit.publish("INVALID", "10.1.2.3", "GET", "/6"));
+      audit.close();
+
+      List<String> lines = Files.readAllLines(file, UTF_8);
+      assertEquals(6, lines.size());
+      assertTrue(lines.get(3).endsWith(" GET /3"));
+      assertTrue(lines.get(4).endsWith(" DROPPED 2"));
+      assertTrue(lines.get(5).endsWith(" GET /6"));
+   }
+
+   @Test
+   public void testRolls() throws Exception
+   {
+      AuditLog audit = new AuditLog(file, 1024, 200, 2, false);
+      for(int i = 0; i < 20; i++) audit.publish("INVALID", "10.1.2.3", "GET", "/app/page.do");
+      audit.close();
+
+      assertTrue(Files.size(file) <= 200);
+      assertTrue(Files.size(dir.resolve("audit.log.1")) <= 200);
+      assertTrue(Files.exists(dir.resolve("audit.log.2")));
+      assertFalse(Files.exists(dir.resolve("audit.log.3")));
+   }
+
+   @Test
+   public void testClosedDropsRecords() throws Exception
+   {
+      AuditLog audit = new AuditLog(file);
+      audit.close();
+      assertFalse(audit.publish("INVALID", "10.1.2.3", "GET", "/"));
+   }
+
+   @Test
+   public void testFilterAuditsFailures() throws Exception
+   {
+      AuthTicketFilter filter = new AuthTicketFilter();
+      filter.init(new StubFilterConfig().set("TKTAuthSecret", SECRET)
+                                          .set("TKTAuthToken", "finance")
+                                          .set("TKTAuthAuditFile", file.toString())
+                                          .set("TKTAuthLoginURL", "https://www.example.com/login"));
+
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.addToken("reader");
+      ticket.setUserData("");
+      String valid = new AuthTicketEncoder(new AuthTicketConfig(SECRET)).encode(null, ticket).getEncoded();
+
+      filter.doFilter(request("auth_tkt=" + valid), new StubHttpServletResponse(), (req, resp) -> { });
+      filter.doFilter(request("auth_tkt=" + valid.replace("cfloersch", "jblow")), new StubHttpServletResponse(), (req, resp) -> { });
+      filter.doFilter(request("auth_tkt=0011garbage"), new StubHttpServletResponse(), (req, resp) -> { });
+      filter.doFilter(request(null), new StubHttpServletResponse(), (req, resp) -> { });
+      filter.destroy();
+
+      List<String> lines = Files.readAllLines(file, UTF_8);
+      assertEquals(3, lines.size());
+      assertTrue(lines.get(0).contains(" TOKEN_MISSING "));
+      assertTrue(lines.get(1).contains(" INVALID "));
+      assertTrue(lines.get(2).contains(" MALFORMED "));
+   }
+
+   @Test
+   public void testFilterAuditsConnectionAddress() throws Exception
+   {
+      AuthTicketFilter filter = new AuthTicketFilter();
+      filter.init(new StubFilterConfig().set("TKTAuthSecret", SECRET)
+                                          .set("TKTAuthAuditFile", file.toString())
+                                          .set("TKTAuthLoginURL", "https://www.example.com/login"));
+
+      StubHttpServletRequest request = request("auth_tkt=0011garbage");
+      request.setRemoteAddr("10.9.8.7").setHeader("X-Forward-For", "192.168.1.1");
+      filter.doFilter(request, new StubHttpServletResponse(), (req, resp) -> { });
+      filter.destroy();
+
+      List<String> lines = Files.readAllLines(file, UTF_8);
+      assertEquals(1, lines.size());
+      assertTrue(lines.get(0), lines.get(0).contains(" MALFORMED 10.9.8.7 GET "));
+   }
+
+
+   private static StubHttpServletRequest request(String cookie)
+   {
+      StubHttpServletRequest request = new StubHttpServletRequest("GET", "/app/page.do");
+      request.setHeader("Host", "www.example.com");
+      if(cookie != null) request.setHeader("Cookie", cookie);
+      return request;
+   }
+
+}
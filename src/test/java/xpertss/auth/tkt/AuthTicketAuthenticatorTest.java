@@ -8,10 +8,17 @@ import xpertss.util.Sets;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.EnumSet;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 
@@ -214,5 +221,285 @@ public class AuthTicketAuthenticatorTest {
    }
 
 
+   @Test(expected = TicketNotFoundException.class)
+   public void testRawHeaderNoCookie()
+   {
+      objectUnderTest = new AuthTicketAuthenticator("some_random_secret_key");
+      objectUnderTest.authenticate("_ga=GA1.2.3; _gid=GA1.2.4", null, Clock.systemUTC());
+   }
+
+   @Test(expected = TicketNotFoundException.class)
+   public void testRawHeaderNull()
+   {
+      objectUnderTest = new AuthTicketAuthenticator("some_random_secret_key");
+      objectUnderTest.authenticate(null, null, Clock.systemUTC());
+   }
+
+   @Test
+   public void testRawHeaderValidTicket()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setTimeout(0);
+      config.setIgnoreIP(true);
+
+      objectUnderTest = new AuthTicketAuthenticator(config);
+      AuthTicket ticket = objectUnderTest.authenticate("_ga=GA1.2.3; auth_tkt=e400af8d8448df14b22193dfdcebe22b55ce64a9cfloersch%21Workbook%2BOVE%21Chris%2BFloersch; _gid=GA1.2.4",
+                                                         null, Clock.systemUTC());
+      assertEquals("cfloersch", ticket.getUsername());
+      assertEquals("Chris+Floersch", ticket.getUserData());
+      assertTrue(ticket.contains("Workbook+OVE"));
+   }
+
+   @Test
+   public void testRawHeaderClock()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setTimeout(60);
+      config.setIgnoreIP(true);
+
+      objectUnderTest = new AuthTicketAuthenticator(config);
+      String header = "auth_tkt=e400af8d8448df14b22193dfdcebe22b55ce64a9cfloersch%21Workbook%2BOVE%21Chris%2BFloersch";
+
+      Clock valid = Clock.fixed(Instant.ofEpochSecond(0x55ce64a9L + 59), ZoneOffset.UTC);
+      assertEquals("cfloersch", objectUnderTest.authenticate(header, null, valid).getUsername());
+
+      Clock expired = Clock.fixed(Instant.ofEpochSecond(0x55ce64a9L + 60), ZoneOffset.UTC);
+      try {
+         objectUnderTest.authenticate(header, null, expired);
+         fail("expected ExpiredTicketException");
+      } catch(ExpiredTicketException e) {
+         // expected
+      }
+   }
+
+   @Test
+   public void testRawHeaderFromRequest()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setTimeout(0);
+      config.setIgnoreIP(true);
+
+      when(request.getHeaders("Cookie")).thenReturn(Collections.enumeration(Collections.singletonList(
+         "_ga=GA1.2.3; auth_tkt=e400af8d8448df14b22193dfdcebe22b55ce64a9cfloersch%21Workbook%2BOVE%21Chris%2BFloersch")));
+      objectUnderTest = new AuthTicketAuthenticator(config);
+      AuthTicket ticket = objectUnderTest.authenticate(request);
+      assertEquals("cfloersch", ticket.getUsername());
+      assertTrue(ticket.contains("Workbook+OVE"));
+   }
+
+   @Test(expected = TicketNotFoundException.class)
+   public void testRawHeaderFromRequestNoCookie()
+   {
+      when(request.getHeaders("Cookie")).thenReturn(Collections.enumeration(Collections.singletonList("_ga=GA1.2.3")));
+      objectUnderTest = new AuthTicketAuthenticator("some_random_secret_key");
+      objectUnderTest.authenticate(request);
+   }
+
+
+   @Test(expected = ExpiredTicketException.class)
+   public void testExpiredBeforeChecksumDecoded()
+   {
+      when(cookie.getName()).thenReturn("auth_tkt");
+      when(cookie.getValue()).thenReturn("zz112233445566778899aabbccddeeff00000220cfloersch!data");
+      when(request.getCookies()).thenReturn(new Cookie[] { cookie });
+      objectUnderTest = new AuthTicketAuthenticator("some_random_secret_key");
+      objectUnderTest.authenticate(request);
+   }
+
+   @Test
+   public void testUpperCaseChecksum()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setTimeout(0);
+      config.setIgnoreIP(true);
+
+      when(cookie.getName()).thenReturn("auth_tkt");
+      when(cookie.getValue()).thenReturn("E400AF8D8448DF14B22193DFDCEBE22B55ce64a9cfloersch%21Workbook%2BOVE%21Chris%2BFloersch");
+      when(request.getCookies()).thenReturn(new Cookie[] { cookie });
+      objectUnderTest = new AuthTicketAuthenticator(config);
+      assertEquals("cfloersch", objectUnderTest.authenticate(request).getUsername());
+   }
+
+   @Test
+   public void testVerifyEncodedRoundTrip()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setDigestAlgorithm(DigestAlgorithm.SHA256);
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.addToken("admin");
+      ticket.addToken("finance");
+      ticket.setUserData("Chris Floersch");
+
+      AuthTicket encoded = new AuthTicketEncoder(config).encode(null, ticket);
+      objectUnderTest = new AuthTicketAuthenticator(config);
+      assertTrue(objectUnderTest.verify(null, encoded));
+      assertTrue(objectUnderTest.verify(null, DigestAlgorithm.SHA256.parse(encoded.getEncoded())));
+   }
+
+   @Test(expected = RevokedTicketException.class)
+   public void testRevokedTicket()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setRevocationList(revoked -> "cfloersch".equals(revoked.getUsername()));
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.setUserData("Chris Floersch");
+      String encoded = new AuthTicketEncoder(config).encode(null, ticket).getEncoded();
+
+      objectUnderTest = new AuthTicketAuthenticator(config);
+      objectUnderTest.authenticate("auth_tkt=" + encoded, null, Clock.systemUTC());
+   }
+
+   @Test(expected = InvalidTicketException.class)
+   public void testForgedTicketNotCheckedForRevocation()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setRevocationList(revoked -> { throw new AssertionError("revocation checked before verification"); });
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.setUserData("Chris Floersch");
+      String encoded = new AuthTicketEncoder(config).encode(null, ticket).getEncoded();
+
+      objectUnderTest = new AuthTicketAuthenticator(config);
+      objectUnderTest.authenticate("auth_tkt=" + encoded.replace("cfloersch", "jblow"), null, Clock.systemUTC());
+   }
+
+   @Test
+   public void testMixedDigests()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setDigestAlgorithm(DigestAlgorithm.SHA512);
+      config.setAcceptedDigestAlgorithms(EnumSet.of(DigestAlgorithm.MD5, DigestAlgorithm.SHA256));
+      objectUnderTest = new AuthTicketAuthenticator(config);
+
+      for(DigestAlgorithm digest : DigestAlgorithm.values()) {
+         for(boolean compact : new boolean[] { false, true }) {
+            AuthTicketConfig issuer = new AuthTicketConfig("some_random_secret_key");
+            issuer.setDigestAlgorithm(digest);
+            issuer.setCompactFormat(compact);
+            MutableAuthTicket ticket = new MutableAuthTicket("deadbeef");
+            ticket.addToken("admin");
+            ticket.setUserData("Chris Floersch");
+            String encoded = new AuthTicketEncoder(issuer).encode(null, ticket).getEncoded();
+
+            AuthTicket result = objectUnderTest.authenticate("auth_tkt=" + encoded, null, Clock.systemUTC());
+            assertEquals("deadbeef", result.getUsername());
+            assertEquals(digest, DigestAlgorithm.of(result));
+         }
+         assertEquals(2, objectUnderTest.getAcceptedCount(digest));
+      }
+   }
+
+   @Test(expected = MalformedTicketException.class)
+   public void testMixedDigestsRejectsUnaccepted()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setDigestAlgorithm(DigestAlgorithm.SHA512);
+      config.setAcceptedDigestAlgorithms(EnumSet.of(DigestAlgorithm.MD5));
+      AuthTicketConfig issuer = new AuthTicketConfig("some_random_secret_key");
+      issuer.setDigestAlgorithm(DigestAlgorithm.SHA256);
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.setUserData("Chris Floersch");
+      String encoded = new AuthTicketEncoder(issuer).encode(null, ticket).getEncoded();
+
+      objectUnderTest = new AuthTicketAuthenticator(config);
+      objectUnderTest.authenticate("auth_tkt=" + encoded, null, Clock.systemUTC());
+   }
+
+   @Test(expected = MalformedTicketException.class)
+   public void testMixedDigestsTooShort()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setDigestAlgorithm(DigestAlgorithm.SHA512);
+      config.setAcceptedDigestAlgorithms(EnumSet.of(DigestAlgorithm.SHA256));
+      AuthTicketConfig issuer = new AuthTicketConfig("some_random_secret_key");
+      MutableAuthTicket ticket = new MutableAuthTicket("jblow");
+      ticket.setUserData("Joe Blow");
+      String encoded = new AuthTicketEncoder(issuer).encode(null, ticket).getEncoded();
+
+      objectUnderTest = new AuthTicketAuthenticator(config);
+      objectUnderTest.authenticate("auth_tkt=" + encoded, null, Clock.systemUTC());
+   }
+
+   @Test
+   public void testTicketHeader()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setTimeout(0);
+      config.setTicketHeader("Authorization");
+      config.setTicketHeaderScheme("AuthTkt");
+      when(request.getHeader("Authorization")).thenReturn("authtkt  e400af8d8448df14b22193dfdcebe22b55ce64a9cfloersch%21Workbook%2BOVE%21Chris%2BFloersch ");
+
+      objectUnderTest = new AuthTicketAuthenticator(config);
+      assertEquals("cfloersch", objectUnderTest.authenticate(request).getUsername());
+      verify(request, never()).getHeaders("Cookie");
+      verify(request, never()).getCookies();
+   }
+
+   @Test
+   public void testTicketHeaderOtherScheme()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setTimeout(0);
+      config.setTicketHeader("Authorization");
+      config.setTicketHeaderScheme("AuthTkt");
+      when(request.getHeader("Authorization")).thenReturn("Bearer e400af8d8448df14b22193dfdcebe22b55ce64a9cfloersch");
+      when(cookie.getName()).thenReturn("auth_tkt");
+      when(cookie.getValue()).thenReturn("e400af8d8448df14b22193dfdcebe22b55ce64a9cfloersch%21Workbook%2BOVE%21Chris%2BFloersch");
+      when(request.getCookies()).thenReturn(new Cookie[] { cookie });
+
+      objectUnderTest = new AuthTicketAuthenticator(config);
+      assertEquals("cfloersch", objectUnderTest.authenticate(request).getUsername());
+   }
+
+   @Test
+   public void testRawTicketHeader()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setTimeout(0);
+      config.setTicketHeader("X-Auth-Ticket");
+      String valid = "e400af8d8448df14b22193dfdcebe22b55ce64a9cfloersch%21Workbook%2BOVE%21Chris%2BFloersch";
+
+      objectUnderTest = new AuthTicketAuthenticator(config);
+      assertEquals("cfloersch", objectUnderTest.authenticate(valid, null, null, Clock.systemUTC()).getUsername());
+      assertEquals("cfloersch", objectUnderTest.authenticate(null, "auth_tkt=" + valid, null, Clock.systemUTC()).getUsername());
+      try {
+         objectUnderTest.authenticate(valid.substring(0, 20), "auth_tkt=" + valid, null, Clock.systemUTC());
+         fail("header ticket should take precedence over the cookie");
+      } catch(MalformedTicketException e) {
+         // expected
+      }
+   }
+
+   @Test
+   public void testHasHeaderTicket()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setTicketHeader("Authorization");
+      config.setTicketHeaderScheme("AuthTkt");
+      objectUnderTest = new AuthTicketAuthenticator(config);
+      assertTrue(objectUnderTest.hasHeaderTicket("authtkt  abc123 "));
+      assertFalse(objectUnderTest.hasHeaderTicket("Basic abc123"));
+      assertFalse(objectUnderTest.hasHeaderTicket("AuthTkt   "));
+      assertFalse(objectUnderTest.hasHeaderTicket(null));
+   }
+
+   @Test
+   public void testTokenPolicy()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setTimeout(0);
+      config.setTokenPolicy(TokenPolicy.compile("Workbook+OVE AND NOT suspended"));
+      objectUnderTest = new AuthTicketAuthenticator(config);
+      String valid = "auth_tkt=e400af8d8448df14b22193dfdcebe22b55ce64a9cfloersch%21Workbook%2BOVE%21Chris%2BFloersch";
+      assertEquals("cfloersch", objectUnderTest.authenticate(valid, null, Clock.systemUTC()).getUsername());
+
+      config.setTokenPolicy(TokenPolicy.compile("Workbook+OVE AND admin"));
+      objectUnderTest = new AuthTicketAuthenticator(config);
+      try {
+         objectUnderTest.authenticate(valid, null, Clock.systemUTC());
+         fail("policy should not be satisfied");
+      } catch(TokenMissingException e) {
+         // expected
+      }
+   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,94 @@
+package xpertss.auth.tkt;
+
+import org.junit.Test;
+import xpertss.util.Sets;
+
+import java.util.EnumSet;
+
+import static org.junit.Assert.*;
+
+public class AuthTicketConfigTest {
+
+   @Test
+   public void testFreezeCopies()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setTimeout(60);
+      config.setTokens(Sets.newHashSet("admin", "finance"));
+      config.setDigestAlgorithm(DigestAlgorithm.SHA256);
+
+      AuthTicketConfig frozen = config.freeze();
+      assertTrue(frozen.isFrozen());
+      assertFalse(config.isFrozen());
+      assertEquals(config, frozen);
+
+      config.setTimeout(120);
+      config.getTokens().add("reader");
+      assertEquals(60, frozen.getTimeout());
+      assertEquals(Sets.of("admin", "finance"), frozen.getTokens());
+   }
+
+   @Test
+   public void testFreezeFrozen()
+   {
+      AuthTicketConfig frozen = new AuthTicketConfig("some_random_secret_key").freeze();
+      assertSame(frozen, frozen.freeze());
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void testFrozenSetter()
+   {
+      new AuthTicketConfig("some_random_secret_key").freeze().setTimeout(60);
+   }
+
+   @Test(expected = UnsupportedOperationException.class)
+   public void testFrozenTokens()
+   {
+      new AuthTicketConfig("some_random_secret_key").freeze().getTokens().add("admin");
+   }
+
+   @Test
+   public void testAcceptedDigestAlgorithms()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      assertEquals(EnumSet.of(DigestAlgorithm.MD5), config.getAcceptedDigestAlgorithms());
+      config.setDigestAlgorithm(DigestAlgorithm.SHA512);
+      config.setAcceptedDigestAlgorithms(EnumSet.of(DigestAlgorithm.MD5));
+      AuthTicketConfig frozen = config.freeze();
+      assertEquals(EnumSet.of(DigestAlgorithm.MD5, DigestAlgorithm.SHA512), frozen.getAcceptedDigestAlgorithms());
+      assertEquals(config, frozen);
+      config.setAcceptedDigestAlgorithms(EnumSet.noneOf(DigestAlgorithm.class));
+      assertFalse(config.equals(frozen));
+   }
+
+   @Test
+   public void testTicketHeader()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      assertNull(config.getTicketHeader());
+      config.setTicketHeader("Authorization");
+      config.setTicketHeaderScheme("AuthTkt");
+      AuthTicketConfig frozen = config.freeze();
+      assertEquals("Authorization", frozen.getTicketHeader());
+      assertEquals("AuthTkt", frozen.getTicketHeaderScheme());
+      assertEquals(config, frozen);
+      config.setTicketHeaderScheme("");
+      assertNull(config.getTicketHeaderScheme());
+      assertFalse(config.equals(frozen));
+   }
+
+   @Test
+   public void testAuthenticatorUsesSnapshot()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.setUserData("Chris");
+      String encoded = new AuthTicketEncoder(config).encode(null, ticket).getEncoded();
+
+      AuthTicketAuthenticator authenticator = new AuthTicketAuthenticator(config);
+      config.getTokens().add("admin");
+      config.setCookieName("other_tkt");
+      assertEquals("cfloersch", authenticator.authenticate("auth_tkt=" + encoded, null, java.time.Clock.systemUTC()).getUsername());
+   }
+
+}
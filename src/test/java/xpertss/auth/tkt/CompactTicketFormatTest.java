@@ -0,0 +1,192 @@
+package xpertss.auth.tkt;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.util.Base64;
+
+import static org.junit.Assert.*;
+
+public class CompactTicketFormatTest {
+
+   private static final String SECRET = "some_random_secret_key";
+
+
+   @Test
+   public void testRoundTrip()
+   {
+      for(DigestAlgorithm digest : DigestAlgorithm.values()) {
+         AuthTicket encoded = new AuthTicketEncoder(config(digest, true)).encode(null, ticket());
+         assertTrue(encoded.getEncoded().startsWith("v2."));
+
+         AuthTicket parsed = digest.parse(encoded.getEncoded());
+         assertEquals("cfloersch", parsed.getUsername());
+         assertEquals(encoded.getTimestamp(), parsed.getTimestamp());
+         assertEquals(encoded.getTokens(), parsed.getTokens());
+         assertEquals("Chris Floersch", parsed.getUserData());
+         assertArrayEquals(encoded.getChecksum(), parsed.getChecksum());
+         assertEquals(encoded, parsed);
+         assertEquals(encoded.getEncoded(), parsed.getEncoded());
+      }
+   }
+
+   @Test
+   public void testAuthenticate()
+   {
+      for(DigestAlgorithm digest : DigestAlgorithm.values()) {
+         AuthTicketConfig config = config(digest, true);
+         String encoded = new AuthTicketEncoder(config).encode(null, ticket()).getEncoded();
+         AuthTicketAuthenticator authenticator = new AuthTicketAuthenticator(config);
+         AuthTicket ticket = authenticator.authenticate("auth_tkt=" + encoded, null, Clock.systemUTC());
+         assertEquals("cfloersch", ticket.getUsername());
+      }
+   }
+
+   @Test
+   public void testAuthenticateEitherFormat()
+   {
+      AuthTicketConfig legacy = config(DigestAlgorithm.SHA256, false);
+      AuthTicketConfig compact = config(DigestAlgorithm.SHA256, true);
+      AuthTicketAuthenticator authenticator = new AuthTicketAuthenticator(legacy);
+
+      String v1 = new AuthTicketEncoder(legacy).encode(null, ticket()).getEncoded();
+      String v2 = new AuthTicketEncoder(compact).encode(null, ticket()).getEncoded();
+      assertEquals("cfloersch", authenticator.authenticate("auth_tkt=" + v1, null, Clock.systemUTC()).getUsername());
+      assertEquals("cfloersch", authenticator.authenticate("auth_tkt=" + v2, null, Clock.systemUTC()).getUsername());
+   }
+
+   @Test
+   public void testSameChecksumAsLegacy()
+   {
+      MutableAuthTicket ticket = ticket();
+      AuthTicket v1 = new AuthTicketEncoder(config(DigestAlgorithm.MD5, false)).encode(null, ticket);
+      AuthTicket v2 = new AuthTicketEncoder(config(DigestAlgorithm.MD5, true)).encode(null, ticket);
+      assertArrayEquals(v1.getChecksum(), v2.getChecksum());
+   }
+
+   @Test(expected = InvalidTicketException.class)
+   public void testForged()
+   {
+      AuthTicketConfig config = config(DigestAlgorithm.SHA256, true);
+      byte[] payload = payload(new AuthTicketEncoder(config).encode(null, ticket()).getEncoded());
+      payload[payload.length - 1] = 'X';
+      new AuthTicketAuthenticator(config).authenticate("auth_tkt=" + encode(payload), null, Clock.systemUTC());
+   }
+
+   @Test
+   public void testSmallerThanLegacy()
+   {
+      for(DigestAlgorithm digest : DigestAlgorithm.values()) {
+         String v1 = new AuthTicketEncoder(config(digest, false)).encode(null, ticket()).getEncoded();
+         String v2 = new AuthTicketEncoder(config(digest, true)).encode(null, ticket()).getEncoded();
+         System.out.printf("%-6s legacy %3d chars, v2 %3d chars%n", digest, v1.length(), v2.length());
+         assertTrue(v2.length() < v1.length());
+      }
+   }
+
+   @Test
+   public void testQuoted()
+   {
+      String encoded = new AuthTicketEncoder(config(DigestAlgorithm.MD5, true)).encode(null, ticket()).getEncoded();
+      assertEquals("cfloersch", DigestAlgorithm.MD5.parse("\"" + encoded + "\"").getUsername());
+   }
+
+
+
+   @Test(expected = MalformedTicketException.class)
+   public void testInvalidBase64()
+   {
+      DigestAlgorithm.MD5.parse("v2.abc$def");
+   }
+
+   @Test(expected = MalformedTicketException.class)
+   public void testTruncatedChecksum()
+   {
+      DigestAlgorithm.MD5.parse(encode(new byte[16]));
+   }
+
+   @Test(expected = MalformedTicketException.class)
+   public void testTruncatedTimestamp()
+   {
+      byte[] payload = new byte[17];
+      payload[16] = (byte) 0x80;
+      DigestAlgorithm.MD5.parse(encode(payload));
+   }
+
+   @Test(expected = MalformedTicketException.class)
+   public void testOversizedTimestamp()
+   {
+      byte[] payload = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+                         (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0x7F, 1, 'a', 0, 0 };
+      DigestAlgorithm.MD5.parse(encode(payload));
+   }
+
+   @Test(expected = MalformedTicketException.class)
+   public void testFieldOverrun()
+   {
+      byte[] payload = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 9, 'a', 0, 0 };
+      DigestAlgorithm.MD5.parse(encode(payload));
+   }
+
+   @Test(expected = MalformedTicketException.class)
+   public void testTrailingBytes()
+   {
+      byte[] payload = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 'a', 0, 0, 'x' };
+      DigestAlgorithm.MD5.parse(encode(payload));
+   }
+
+   @Test(expected = MalformedTicketException.class)
+   public void testMissingUsername()
+   {
+      byte[] payload = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 0, 0, 0 };
+      DigestAlgorithm.MD5.parse(encode(payload));
+   }
+
+   @Test(expected = MalformedTicketException.class)
+   public void testNulInField()
+   {
+      byte[] payload = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 3, 'a', 0, 'b', 0, 0 };
+      DigestAlgorithm.MD5.parse(encode(payload));
+   }
+
+   @Test
+   public void testMinimal()
+   {
+      byte[] payload = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xAC, 0x02, 1, 'a', 0, 0 };
+      AuthTicket ticket = DigestAlgorithm.MD5.parse(encode(payload));
+      assertEquals("a", ticket.getUsername());
+      assertEquals(300, ticket.getTimestamp());
+      assertTrue(ticket.getTokens().isEmpty());
+      assertEquals("", ticket.getUserData());
+   }
+
+
+
+   private static AuthTicketConfig config(DigestAlgorithm digest, boolean compact)
+   {
+      AuthTicketConfig config = new AuthTicketConfig(SECRET);
+      config.setDigestAlgorithm(digest);
+      config.setCompactFormat(compact);
+      return config;
+   }
+
+   private static MutableAuthTicket ticket()
+   {
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.addToken("admin");
+      ticket.addToken("finance");
+      ticket.setUserData("Chris Floersch");
+      return ticket;
+   }
+
+   private static byte[] payload(String encoded)
+   {
+      return Base64.getUrlDecoder().decode(encoded.substring(3));
+   }
+
+   private static String encode(byte[] payload)
+   {
+      return "v2." + Base64.getUrlEncoder().withoutPadding().encodeToString(payload);
+   }
+
+}
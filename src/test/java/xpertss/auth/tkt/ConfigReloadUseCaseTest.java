@@ -0,0 +1,166 @@
+package xpertss.auth.tkt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Reload use case configures the secret and required tokens in a properties file which
+ * is changed while the filter is running.
+ *
+ * This tests the TKTAuthConfigFile config item
+ */
+public class ConfigReloadUseCaseTest {
+
+   private AuthTicketFilter objectUnderTest;
+   private StubHttpServletResponse response;
+   private FilterChain chain;
+   private int calls;
+   private List<String> logged;
+
+   private Path dir;
+   private Path file;
+
+   @Before
+   public void setUp()
+      throws ServletException, IOException
+   {
+      dir = Files.createTempDirectory("config");
+      file = dir.resolve("filter.properties");
+      write("TKTAuthSecret=first_secret_key\n");
+
+      logged = new CopyOnWriteArrayList<>();
+      ServletContext context = mock(ServletContext.class);
+      doAnswer(invocation -> logged.add((String) invocation.getArguments()[0]))
+            .when(context).log(anyString(), any(Throwable.class));
+
+      objectUnderTest = new AuthTicketFilter();
+      objectUnderTest.init(new StubFilterConfig().context(context)
+                                                  .set("TKTAuthSecret", "init_secret_key")
+                                                  .set("TKTAuthConfigFile", file.toString())
+                                                  .set("TKTAuthLoginURL", "https://www.manheim.com/login"));
+      response = new StubHttpServletResponse();
+      chain = (req, resp) -> calls++;
+   }
+
+   @After
+   public void tearDown() throws IOException
+   {
+      objectUnderTest.destroy();
+      Files.deleteIfExists(file);
+      Files.deleteIfExists(dir);
+   }
+
+
+   @Test
+   public void testFileOverridesInitParams() throws ServletException, IOException
+   {
+      objectUnderTest.doFilter(request("first_secret_key"), response, chain);
+      assertEquals(1, calls);
+
+      objectUnderTest.doFilter(request("init_secret_key"), response, chain);
+      assertEquals(1, calls);
+      assertEquals(302, response.getStatus());
+   }
+
+   @Test
+   public void testSecretRotated() throws Exception
+   {
+      write("TKTAuthSecret=second_secret_key\n");
+      awaitAccepted("second_secret_key");
+
+      response.reset();
+      objectUnderTest.doFilter(request("first_secret_key"), response, chain);
+      assertEquals(302, response.getStatus());
+   }
+
+   @Test
+   public void testInvalidFileIgnored() throws Exception
+   {
+      write("TKTAuthSecret=second_secret_key\nTKTAuthTimeout=hello\n");
+      write("TKTAuthSecret=third_secret_key\n");
+      awaitAccepted("third_secret_key");
+
+      write("TKTAuthSecret=fourth_secret_key\nTKTAuthLoginURL=ftp://ftp.manheim.com/\n");
+      Thread.sleep(500);
+      calls = 0;
+      objectUnderTest.doFilter(request("third_secret_key"), response, chain);
+      assertEquals(1, calls);
+   }
+
+
+   @Test
+   public void testRejectedReloadLogged() throws Exception
+   {
+      write("TKTAuthSecret=second_secret_key\nTKTAuthTimeout=hello\n");
+      long deadline = System.currentTimeMillis() + 30000;
+      while(logged.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(20);
+      assertFalse(logged.isEmpty());
+      assertTrue(logged.get(0), logged.get(0).contains(file.toString()));
+
+      calls = 0;
+      objectUnderTest.doFilter(request("first_secret_key"), response, chain);
+      assertEquals(1, calls);
+   }
+
+   @Test
+   public void testWrittenInPlace() throws Exception
+   {
+      // the first half on its own is an invalid login url
+      try(OutputStream out = Files.newOutputStream(file)) {
+         out.write("TKTAuthSecret=second_secret_key\nTKTAuthLoginURL=htt".getBytes());
+         out.flush();
+         Thread.sleep(50);
+         out.write("ps://www.manheim.com/login\n".getBytes());
+      }
+      awaitAccepted("second_secret_key");
+      assertTrue(logged.toString(), logged.isEmpty());
+   }
+
+
+   private void awaitAccepted(String secret) throws Exception
+   {
+      long deadline = System.currentTimeMillis() + 30000;
+      do {
+         calls = 0;
+         objectUnderTest.doFilter(request(secret), response, chain);
+         if(calls == 1) return;
+         Thread.sleep(20);
+      } while(System.currentTimeMillis() < deadline);
+      fail("settings were not reloaded");
+   }
+
+   private void write(String content) throws IOException
+   {
+      Path temp = Files.write(dir.resolve("filter.tmp"), content.getBytes());
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+   }
+
+   private static StubHttpServletRequest request(String secret)
+   {
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.setUserData("Chris");
+      String encoded = new AuthTicketEncoder(new AuthTicketConfig(secret)).encode(null, ticket).getEncoded();
+      return new StubHttpServletRequest("GET", "/simulcast/showBuyerSales.do")
+                  .setHeader("Host", "simulcast.manheim.com")
+                  .setHeader("Cookie", "auth_tkt=" + encoded);
+   }
+
+}
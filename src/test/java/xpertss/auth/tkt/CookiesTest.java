@@ -0,0 +1,88 @@
+package xpertss.auth.tkt;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CookiesTest {
+
+   @Test
+   public void testNullHeader()
+   {
+      assertNull(Cookies.getCookieValue(null, "auth_tkt"));
+   }
+
+   @Test
+   public void testNullName()
+   {
+      assertNull(Cookies.getCookieValue("auth_tkt=abc", null));
+   }
+
+   @Test
+   public void testEmptyHeader()
+   {
+      assertNull(Cookies.getCookieValue("", "auth_tkt"));
+   }
+
+   @Test
+   public void testSingleCookie()
+   {
+      assertEquals("abc", Cookies.getCookieValue("auth_tkt=abc", "auth_tkt"));
+   }
+
+   @Test
+   public void testFirstCookie()
+   {
+      assertEquals("abc", Cookies.getCookieValue("auth_tkt=abc; _ga=GA1.2.3; _gid=GA1.2.4", "auth_tkt"));
+   }
+
+   @Test
+   public void testMiddleCookie()
+   {
+      assertEquals("abc", Cookies.getCookieValue("_ga=GA1.2.3; auth_tkt=abc; _gid=GA1.2.4", "auth_tkt"));
+   }
+
+   @Test
+   public void testLastCookie()
+   {
+      assertEquals("abc", Cookies.getCookieValue("_ga=GA1.2.3;_gid=GA1.2.4;auth_tkt=abc ", "auth_tkt"));
+   }
+
+   @Test
+   public void testMissingCookie()
+   {
+      assertNull(Cookies.getCookieValue("_ga=GA1.2.3; _gid=GA1.2.4", "auth_tkt"));
+   }
+
+   @Test
+   public void testPrefixedName()
+   {
+      assertNull(Cookies.getCookieValue("my_auth_tkt=abc; auth_tkt_old=def", "auth_tkt"));
+      assertEquals("ghi", Cookies.getCookieValue("my_auth_tkt=abc; auth_tkt_old=def; auth_tkt=ghi", "auth_tkt"));
+   }
+
+   @Test
+   public void testNameInValue()
+   {
+      assertEquals("xyz", Cookies.getCookieValue("other=auth_tkt=abc; auth_tkt=xyz", "auth_tkt"));
+   }
+
+   @Test
+   public void testEmptyValue()
+   {
+      assertEquals("", Cookies.getCookieValue("_ga=GA1.2.3; auth_tkt=; _gid=GA1.2.4", "auth_tkt"));
+   }
+
+   @Test
+   public void testQuotedValue()
+   {
+      assertEquals("\"abc!def\"", Cookies.getCookieValue("auth_tkt=\"abc!def\"; _ga=GA1.2.3", "auth_tkt"));
+   }
+
+   @Test
+   public void testStringBuilderHeader()
+   {
+      assertEquals("abc", Cookies.getCookieValue(new StringBuilder("_ga=GA1.2.3; auth_tkt=abc"), "auth_tkt"));
+   }
+
+}
@@ -141,4 +141,71 @@ public class DigestAlgorithmTest {
    {
       DigestAlgorithm.MD5.parse("ZGU2NWUxMTcxY2ZkMTdhNWMyY2NiNWI4YTQwMjUwNjc1ZGY5MTUzOWhqYWJhcnVsbGFoMSFMYW5lK05vdGlmaWNhdGlvbnMsU29uYXIrU2VhcmNoLFdvcmtib29rK09WRSFIYXNzYW4rSmFiYXJ1bGxha$");
    }
-}
\ No newline at end of file
+
+
+   @Test(expected = MalformedTicketException.class)
+   public void testMD5ParseInvalidTimestamp()
+   {
+      DigestAlgorithm.MD5.parse("00112233445566778899aabbccddeeffaabbccxxcfloersch!admin!Chris");
+   }
+
+   @Test(expected = MalformedTicketException.class)
+   public void testMD5ParseEmptyUsername()
+   {
+      DigestAlgorithm.MD5.parse("00112233445566778899aabbccddeeffaabbccdd!admin!Chris");
+   }
+
+   @Test(expected = MalformedTicketException.class)
+   public void testMD5ParseTooManySeparators()
+   {
+      DigestAlgorithm.MD5.parse("00112233445566778899aabbccddeeffaabbccddcfloersch!admin!Chris!Floersch");
+   }
+
+   @Test(expected = MalformedTicketException.class)
+   public void testMD5ParseInvalidUrlEncoding()
+   {
+      DigestAlgorithm.MD5.parse("00112233445566778899aabbccddeeffaabbccddcfloersch%21admin%2");
+   }
+
+   @Test
+   public void testMD5ParseDefersChecksumDecoding()
+   {
+      AuthTicket ticket = DigestAlgorithm.MD5.parse("zz112233445566778899aabbccddeeffaabbccddcfloersch!admin!Chris");
+      assertEquals(Long.valueOf("aabbccdd", 16).longValue(), ticket.getTimestamp());
+      assertEquals("cfloersch", ticket.getUsername());
+      try {
+         ticket.getChecksum();
+         fail("expected MalformedTicketException");
+      } catch(MalformedTicketException e) {
+         // expected
+      }
+   }
+
+   @Test
+   public void testMD5ParseUrlEncodedUtf8()
+   {
+      AuthTicket ticket = DigestAlgorithm.MD5.parse("00112233445566778899aabbccddeeffaabbccddcfloersch%21admin%21Andr%C3%A9+Floersch");
+      assertEquals("André Floersch", ticket.getUserData());
+   }
+
+   @Test
+   public void testMD5ParseMemoizesStrings()
+   {
+      AuthTicket ticket = DigestAlgorithm.MD5.parse("00112233445566778899aabbccddeeffaabbccddcfloersch!admin,engineer!Chris");
+      assertSame(ticket.getUsername(), ticket.getUsername());
+      assertSame(ticket.getUserData(), ticket.getUserData());
+      assertSame(ticket.toString(), ticket.toString());
+      assertEquals("00112233445566778899aabbccddeeffaabbccddcfloersch!admin,engineer!Chris", ticket.toString());
+   }
+
+   @Test
+   public void testMD5ParseEqualsCreated()
+   {
+      AuthTicket parsed = DigestAlgorithm.MD5.parse("00112233445566778899aabbccddeeffaabbccddcfloersch!admin,engineer!Chris");
+      byte[] checksum = { 0x00, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66, 0x77, (byte) 0x88, (byte) 0x99, (byte) 0xaa, (byte) 0xbb, (byte) 0xcc, (byte) 0xdd, (byte) 0xee, (byte) 0xff };
+      AuthTicket created = EncodedAuthTicket.create(checksum, 0xaabbccddL, "cfloersch", "admin,engineer", "Chris");
+      assertEquals(created, parsed);
+      assertEquals(parsed, created);
+      assertEquals(created.hashCode(), parsed.hashCode());
+   }
+}
@@ -0,0 +1,174 @@
+package xpertss.auth.tkt;
+
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+
+import static org.junit.Assert.*;
+
+public class FailureThrottleTest {
+
+   private static final String SECRET = "some_random_secret_key";
+
+
+   @Test
+   public void testBlocksAtLimit()
+   {
+      FailureThrottle throttle = new FailureThrottle(3, 60000);
+      long now = 1000000;
+      throttle.failed("10.1.2.3", now);
+      throttle.failed("10.1.2.3", now + 1);
+      assertFalse(throttle.isBlocked("10.1.2.3", now + 2));
+      assertEquals(2, throttle.estimate("10.1.2.3", now + 2));
+      throttle.failed("10.1.2.3", now + 2);
+      assertTrue(throttle.isBlocked("10.1.2.3", now + 3));
+      assertFalse(throttle.isBlocked("10.1.2.4", now + 3));
+      assertEquals(1, throttle.blocked());
+   }
+
+   @Test
+   public void testCoolsOff()
+   {
+      FailureThrottle throttle = new FailureThrottle(2, 60000);
+      long now = 1000000;
+      throttle.failed("10.1.2.3", now);
+      throttle.failed("10.1.2.3", now);
+      assertTrue(throttle.isBlocked("10.1.2.3", now + 59999));
+      assertFalse(throttle.isBlocked("10.1.2.3", now + 60000));
+      assertEquals(0, throttle.blocked());
+      assertEquals(0, throttle.estimate("10.1.2.3", now + 60000));
+   }
+
+   @Test
+   public void testSlidingWindow()
+   {
+      FailureThrottle throttle = new FailureThrottle(100, 60000);
+      long now = 1000000;
+      for(int i = 0; i < 6; i++) throttle.failed("10.1.2.3", now + i * 10000);
+      assertEquals(6, throttle.estimate("10.1.2.3", now + 50000));
+      assertEquals(5, throttle.estimate("10.1.2.3", now + 60000));
+      assertEquals(1, throttle.estimate("10.1.2.3", now + 100000));
+      assertEquals(0, throttle.estimate("10.1.2.3", now + 120000));
+   }
+
+   @Test
+   public void testManyClients()
+   {
+      FailureThrottle throttle = new FailureThrottle(10, 60000);
+      long now = 1000000;
+      for(int i = 0; i < 500; i++) {
+         for(int j = 0; j < 3; j++) throttle.failed("10.0." + (i / 256) + "." + (i % 256), now);
+      }
+      assertEquals(0, throttle.blocked());
+   }
+
+   @Test
+   public void testCounts()
+   {
+      assertTrue(FailureThrottle.counts(new InvalidTicketException()));
+      assertTrue(FailureThrottle.counts(new MalformedTicketException()));
+      assertTrue(FailureThrottle.counts(new RevokedTicketException()));
+      assertFalse(FailureThrottle.counts(new TokenMissingException()));
+      assertFalse(FailureThrottle.counts(new ExpiredTicketException()));
+      assertFalse(FailureThrottle.counts(new TicketNotFoundException()));
+   }
+
+   @Test
+   public void testFilterRejectsBlockedClient() throws Exception
+   {
+      AuthTicketFilter filter = new AuthTicketFilter();
+      filter.init(new StubFilterConfig().set("TKTAuthSecret", SECRET)
+                                          .set("TKTAuthFailureLimit", "3")
+                                          .set("TKTAuthFailureWindow", "2m")
+                                          .set("TKTAuthLoginURL", "https://www.example.com/login"));
+      String valid = valid();
+      String forged = valid.replace("cfloersch", "jblow");
+      int[] calls = new int[1];
+      FilterChain chain = (req, resp) -> calls[0]++;
+
+      for(int i = 0; i < 3; i++) {
+         StubHttpServletResponse response = new StubHttpServletResponse();
+         filter.doFilter(request("10.1.2.3", forged), response, chain);
+         assertEquals(302, response.getStatus());
+      }
+
+      StubHttpServletResponse response = new StubHttpServletResponse();
+      filter.doFilter(request("10.1.2.3", valid), response, chain);
+      assertEquals(429, response.getStatus());
+      assertEquals("120", response.getHeader("Retry-After"));
+      assertEquals(0, calls[0]);
+
+      filter.doFilter(request("10.1.2.4", valid), new StubHttpServletResponse(), chain);
+      assertEquals(1, calls[0]);
+      filter.destroy();
+   }
+
+   @Test
+   public void testSpoofedHeaderIgnored() throws Exception
+   {
+      AuthTicketFilter filter = new AuthTicketFilter();
+      filter.init(new StubFilterConfig().set("TKTAuthSecret", SECRET)
+                                          .set("TKTAuthFailureLimit", "3")
+                                          .set("TKTAuthLoginURL", "https://www.example.com/login"));
+      String valid = valid();
+      String forged = valid.replace("cfloersch", "jblow");
+      int[] calls = new int[1];
+      FilterChain chain = (req, resp) -> calls[0]++;
+
+      // rotating the header does not evade the throttle, pinning it to a victim does not block them
+      for(int i = 0; i < 3; i++) {
+         StubHttpServletRequest request = request("10.1.2.3", forged).setHeader("X-Forward-For", (i == 0) ? "10.9.9.9" : "172.16.0." + i);
+         filter.doFilter(request, new StubHttpServletResponse(), chain);
+      }
+      StubHttpServletResponse response = new StubHttpServletResponse();
+      filter.doFilter(request("10.1.2.3", valid).setHeader("X-Forward-For", "192.168.7.7"), response, chain);
+      assertEquals(429, response.getStatus());
+
+      filter.doFilter(request("10.9.9.9", valid), new StubHttpServletResponse(), chain);
+      assertEquals(1, calls[0]);
+      filter.destroy();
+   }
+
+   @Test
+   public void testTrustedProxyHeader() throws Exception
+   {
+      AuthTicketFilter filter = new AuthTicketFilter();
+      filter.init(new StubFilterConfig().set("TKTAuthSecret", SECRET)
+                                          .set("TKTAuthFailureLimit", "3")
+                                          .set("TKTAuthClientIPHeader", "X-Forwarded-For")
+                                          .set("TKTAuthLoginURL", "https://www.example.com/login"));
+      String valid = valid();
+      String forged = valid.replace("cfloersch", "jblow");
+      int[] calls = new int[1];
+      FilterChain chain = (req, resp) -> calls[0]++;
+
+      // the proxy appends the address it saw, whatever the client put in front of it
+      for(int i = 0; i < 3; i++) {
+         StubHttpServletRequest request = request("10.0.0.1", forged).setHeader("X-Forwarded-For", "172.16.0." + i + ", 10.1.2.3");
+         filter.doFilter(request, new StubHttpServletResponse(), chain);
+      }
+      StubHttpServletResponse response = new StubHttpServletResponse();
+      filter.doFilter(request("10.0.0.1", valid).setHeader("X-Forwarded-For", "10.1.2.3"), response, chain);
+      assertEquals(429, response.getStatus());
+
+      filter.doFilter(request("10.0.0.1", valid).setHeader("X-Forwarded-For", "10.1.2.4"), new StubHttpServletResponse(), chain);
+      assertEquals(1, calls[0]);
+      filter.destroy();
+   }
+
+
+   private static String valid()
+   {
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.setUserData("");
+      return new AuthTicketEncoder(new AuthTicketConfig(SECRET)).encode(null, ticket).getEncoded();
+   }
+
+   private static StubHttpServletRequest request(String ip, String ticket)
+   {
+      StubHttpServletRequest request = new StubHttpServletRequest("GET", "/app/page.do");
+      request.setRemoteAddr(ip).setHeader("Host", "www.example.com").setHeader("Cookie", "auth_tkt=" + ticket);
+      return request;
+   }
+
+}
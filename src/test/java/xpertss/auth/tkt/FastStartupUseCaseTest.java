@@ -0,0 +1,90 @@
+package xpertss.auth.tkt;
+
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fast startup passes requests down the chain in a plain wrapper instead of a dynamic
+ * proxy. The application must see the same request either way.
+ */
+public class FastStartupUseCaseTest {
+
+   private static final String SECRET = "some_random_secret_key";
+
+
+   @Test
+   public void testAuthenticatedRequest() throws Exception
+   {
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.addToken("admin");
+      ticket.setUserData("Chris Floersch");
+      String encoded = new AuthTicketEncoder(new AuthTicketConfig(SECRET)).encode(null, ticket).getEncoded();
+
+      for(boolean fast : new boolean[] { false, true }) {
+         HttpServletRequest seen = filter(fast, false, "auth_tkt=" + encoded);
+         assertEquals(fast, seen instanceof TicketRequest);
+         assertEquals(!fast, Proxy.isProxyClass(seen.getClass()));
+         assertEquals("AUTH_TKT", seen.getAuthType());
+         assertEquals("cfloersch", seen.getRemoteUser());
+         assertTrue(seen.isUserInRole("admin"));
+         assertFalse(seen.isUserInRole("finance"));
+         assertEquals("Chris Floersch", seen.getAttribute(AuthTicketFilter.USER_DATA_ATTRIBUTE));
+         assertEquals("cfloersch", ((AuthTicket) seen.getAttribute(AuthTicketFilter.TICKET_ATTRIBUTE)).getUsername());
+         assertNull(seen.getAttribute("other"));
+         assertEquals("cfloersch", seen.getUserPrincipal().getName());
+         assertEquals("/app/page.do", seen.getRequestURI());
+      }
+   }
+
+   @Test
+   public void testGuestRequest() throws Exception
+   {
+      for(boolean fast : new boolean[] { false, true }) {
+         HttpServletRequest seen = filter(fast, true, null);
+         assertEquals("AUTH_TKT", seen.getAuthType());
+         assertEquals("guest", seen.getRemoteUser());
+         assertFalse(seen.isUserInRole("admin"));
+         assertNull(seen.getUserPrincipal());
+         assertNull(seen.getAttribute(AuthTicketFilter.TICKET_ATTRIBUTE));
+      }
+   }
+
+   @Test
+   public void testStartupBenchmark() throws Exception
+   {
+      StartupBenchmark.Result result = StartupBenchmark.run(true);
+      assertTrue(result.getTotalNanos() > 0);
+      assertTrue(result.getClassesLoaded() >= 0);
+   }
+
+
+
+   private static HttpServletRequest filter(boolean fast, boolean guests, String cookie)
+      throws ServletException, IOException
+   {
+      StubFilterConfig config = new StubFilterConfig()
+                                    .set("TKTAuthSecret", SECRET)
+                                    .set("TKTAuthLoginURL", "https://www.example.com/login")
+                                    .set("TKTAuthGuestLogin", Boolean.toString(guests))
+                                    .set("TKTAuthFastStartup", Boolean.toString(fast));
+      AuthTicketFilter filter = new AuthTicketFilter();
+      filter.init(config);
+      StubHttpServletRequest request = new StubHttpServletRequest("GET", "/app/page.do").setHeader("Host", "www.example.com");
+      if(cookie != null) request.setHeader("Cookie", cookie);
+      AtomicReference<HttpServletRequest> seen = new AtomicReference<>();
+      FilterChain chain = (req, res) -> seen.set((HttpServletRequest) req);
+      filter.doFilter(request, new StubHttpServletResponse(), chain);
+      filter.destroy();
+      assertNotNull(seen.get());
+      return seen.get();
+   }
+
+}
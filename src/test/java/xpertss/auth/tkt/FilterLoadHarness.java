@@ -0,0 +1,423 @@
+package xpertss.auth.tkt;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An in-process, end to end load harness for {@link AuthTicketFilter}.
+ * <p>
+ * It drives {@link AuthTicketFilter#doFilter} from a configurable number of platform or
+ * virtual threads using lightweight request and response stand-ins and replays a mix of
+ * valid, expired, forged, guest, and cookie-less requests. Each thread records into its
+ * own {@link LatencyHistogram} so the harness itself adds no contention. The results
+ * report throughput along with p50/p99/p99.9 latency for each thread count so scaling
+ * can be compared across releases.
+ * <p>
+ * Run it with {@code mvn -Pload test-compile exec:java -Dexec.args="threads=1,2,4,8"}
+ * or directly from the test classpath. Supported arguments:
+ * <dl>
+ *    <dt>threads=1,2,4,8</dt><dd>comma delimited thread counts to run in sequence</dd>
+ *    <dt>virtual=false</dt><dd>use virtual threads (requires a Java 21+ runtime)</dd>
+ *    <dt>warmup=5s</dt><dd>warm up period per run, discarded from the results</dd>
+ *    <dt>duration=10s</dt><dd>measured period per run</dd>
+ *    <dt>digest=MD5</dt><dd>the TKTAuthDigestType to use</dd>
+ *    <dt>mix=valid:70,expired:10,forged:5,guest:10,none:5</dt><dd>relative request weights</dd>
+ * </dl>
+ */
+public class FilterLoadHarness {
+
+   public enum Kind { VALID, EXPIRED, FORGED, GUEST, NONE }
+
+   private static final int POOL_SIZE = 1024;
+   private static final int ANALYTICS_COOKIES = 30;
+
+
+   private final AuthTicketFilter protectedFilter;
+   private final AuthTicketFilter guestFilter;
+   private final List<Sample> samples;
+
+   public FilterLoadHarness(DigestAlgorithm digest, Map<Kind,Integer> mix)
+      throws ServletException
+   {
+      this.protectedFilter = filter(digest, false);
+      this.guestFilter = filter(digest, true);
+      this.samples = samples(digest, mix);
+   }
+
+
+   /**
+    * Run the configured mix from the given number of threads. The warm up period is
+    * executed but not recorded.
+    */
+   public Result run(int threads, boolean virtual, long warmupMillis, long durationMillis)
+      throws InterruptedException
+   {
+      ThreadFactory factory = threadFactory(virtual);
+      CountDownLatch start = new CountDownLatch(1);
+      List<Worker> workers = new ArrayList<>();
+      List<Thread> running = new ArrayList<>();
+      for(int i = 0; i < threads; i++) {
+         Worker worker = new Worker(i, start);
+         workers.add(worker);
+         running.add(factory.newThread(worker));
+      }
+      for(Thread thread : running) thread.start();
+
+      long begin = System.nanoTime();
+      long measure = begin + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+      long end = measure + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+      for(Worker worker : workers) worker.schedule(measure, end);
+      start.countDown();
+      for(Thread thread : running) thread.join();
+
+      Result result = new Result(threads, virtual, durationMillis);
+      for(Worker worker : workers) {
+         if(worker.failure.get() != null) throw new IllegalStateException(worker.failure.get());
+         result.add(worker);
+      }
+      return result;
+   }
+
+
+   private final class Worker implements Runnable {
+
+      private final Map<Kind,LatencyHistogram> histograms = new EnumMap<>(Kind.class);
+      private final AtomicReference<Throwable> failure = new AtomicReference<>();
+      private final StubHttpServletResponse response = new StubHttpServletResponse();
+      private final RecordingChain chain = new RecordingChain();
+      private final CountDownLatch start;
+      private final Sample[] local;
+      private long errors;
+
+      private volatile long measure;
+      private volatile long end;
+
+      private Worker(int id, CountDownLatch start)
+      {
+         this.start = start;
+         this.local = new Sample[samples.size()];
+         for(int i = 0; i < local.length; i++) {
+            // rotate so threads do not march through identical tickets in lock step
+            Sample sample = samples.get((i + id * 31) % local.length);
+            local[i] = new Sample(sample.kind, sample.request.copy());
+         }
+         for(Kind kind : Kind.values()) histograms.put(kind, new LatencyHistogram());
+      }
+
+      private void schedule(long measure, long end)
+      {
+         this.measure = measure;
+         this.end = end;
+      }
+
+      @Override
+      public void run()
+      {
+         try {
+            start.await();
+            final long measure = this.measure, end = this.end;
+            int idx = 0;
+            for(long now = System.nanoTime(); now < end; ) {
+               Sample sample = local[idx];
+               if(++idx == local.length) idx = 0;
+
+               AuthTicketFilter filter = (sample.kind == Kind.GUEST) ? guestFilter : protectedFilter;
+               response.reset();
+               chain.reset();
+               long started = now;
+               filter.doFilter(sample.request, response, chain);
+               now = System.nanoTime();
+               if(started >= measure) {
+                  histograms.get(sample.kind).record(now - started);
+                  if(!expected(sample.kind, chain, response)) errors++;
+               }
+            }
+         } catch(Throwable t) {
+            failure.set(t);
+         }
+      }
+   }
+
+
+   public static final class Result {
+
+      private final Map<Kind,LatencyHistogram> histograms = new EnumMap<>(Kind.class);
+      private final LatencyHistogram overall = new LatencyHistogram();
+      private final long durationMillis;
+      private final boolean virtual;
+      private final int threads;
+      private long errors;
+
+      private Result(int threads, boolean virtual, long durationMillis)
+      {
+         this.threads = threads;
+         this.virtual = virtual;
+         this.durationMillis = durationMillis;
+         for(Kind kind : Kind.values()) histograms.put(kind, new LatencyHistogram());
+      }
+
+      private void add(Worker worker)
+      {
+         for(Map.Entry<Kind,LatencyHistogram> entry : worker.histograms.entrySet()) {
+            histograms.get(entry.getKey()).add(entry.getValue());
+            overall.add(entry.getValue());
+         }
+         errors += worker.errors;
+      }
+
+      public int getThreads() { return threads; }
+
+      public long getErrors() { return errors; }
+
+      public LatencyHistogram getHistogram() { return overall; }
+
+      public LatencyHistogram getHistogram(Kind kind) { return histograms.get(kind); }
+
+      public double getThroughput()
+      {
+         return overall.getCount() / (durationMillis / 1000d);
+      }
+
+      public void print(PrintStream out)
+      {
+         out.printf("%3d %-8s %12.0f ops/s  p50 %8.2fus  p99 %8.2fus  p99.9 %8.2fus  max %9.2fus  errors %d%n",
+                     threads, virtual ? "virtual" : "platform", getThroughput(),
+                     micros(overall.getValueAtPercentile(50)), micros(overall.getValueAtPercentile(99)),
+                     micros(overall.getValueAtPercentile(99.9)), micros(overall.getMax()), errors);
+         for(Kind kind : Kind.values()) {
+            LatencyHistogram histogram = histograms.get(kind);
+            if(histogram.getCount() == 0) continue;
+            out.printf("      %-8s %12d ops    p50 %8.2fus  p99 %8.2fus  p99.9 %8.2fus%n",
+                        kind.name().toLowerCase(), histogram.getCount(),
+                        micros(histogram.getValueAtPercentile(50)), micros(histogram.getValueAtPercentile(99)),
+                        micros(histogram.getValueAtPercentile(99.9)));
+         }
+      }
+
+      private static double micros(long nanos)
+      {
+         return nanos / 1000d;
+      }
+   }
+
+
+
+
+   public static void main(String[] args)
+      throws Exception
+   {
+      String threads = "1,2,4,8";
+      boolean virtual = false;
+      long warmup = 5000, duration = 10000;
+      DigestAlgorithm digest = DigestAlgorithm.MD5;
+      Map<Kind,Integer> mix = parseMix("valid:70,expired:10,forged:5,guest:10,none:5");
+
+      for(String arg : args) {
+         int idx = arg.indexOf('=');
+         if(idx < 0) throw new IllegalArgumentException("expected key=value: " + arg);
+         String key = arg.substring(0, idx), value = arg.substring(idx + 1);
+         switch(key) {
+            case "threads": threads = value; break;
+            case "virtual": virtual = Boolean.parseBoolean(value); break;
+            case "warmup": warmup = parseMillis(value); break;
+            case "duration": duration = parseMillis(value); break;
+            case "digest": digest = DigestAlgorithm.valueOf(value.toUpperCase()); break;
+            case "mix": mix = parseMix(value); break;
+            default: throw new IllegalArgumentException("unknown argument: " + key);
+         }
+      }
+
+      FilterLoadHarness harness = new FilterLoadHarness(digest, mix);
+      System.out.printf("AuthTicketFilter load: digest=%s mix=%s warmup=%dms duration=%dms java=%s cpus=%d%n",
+                        digest, mix, warmup, duration, System.getProperty("java.version"),
+                        Runtime.getRuntime().availableProcessors());
+      for(String count : threads.split("\\s*,\\s*")) {
+         harness.run(Integer.parseInt(count), virtual, warmup, duration).print(System.out);
+      }
+   }
+
+
+
+
+   private static AuthTicketFilter filter(DigestAlgorithm digest, boolean guests)
+      throws ServletException
+   {
+      StubFilterConfig config = new StubFilterConfig();
+      config.set("TKTAuthSecret", "some_random_secret_key");
+      config.set("TKTAuthDigestType", digest.name());
+      config.set("TKTAuthTimeout", "2h");
+      config.set("TKTAuthLoginURL", "https://www.example.com/login");
+      config.set("TKTAuthTimeoutURL", "https://www.example.com/login?timeout=1");
+      if(guests) config.set("TKTAuthGuestLogin", "on");
+      AuthTicketFilter filter = new AuthTicketFilter();
+      filter.init(config);
+      return filter;
+   }
+
+   private static List<Sample> samples(DigestAlgorithm digest, Map<Kind,Integer> mix)
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setDigestAlgorithm(digest);
+      AuthTicketEncoder encoder = new AuthTicketEncoder(config);
+
+      int weight = 0;
+      for(int w : mix.values()) weight += w;
+      if(weight <= 0) throw new IllegalArgumentException("mix must have a positive weight");
+
+      Random random = new Random(42);
+      String analytics = analyticsCookies(random);
+      List<Sample> samples = new ArrayList<>(POOL_SIZE);
+      for(int i = 0; i < POOL_SIZE; i++) {
+         Kind kind = pick(mix, weight, random.nextInt(weight));
+         String user = "user" + i;
+         StubHttpServletRequest request = new StubHttpServletRequest("GET", "/app/page" + (i % 16) + ".do");
+         request.setQueryString("id=" + i).setRemoteAddr("10.0.0." + (i % 250)).setHeader("Host", "www.example.com");
+         String ticket = null;
+         switch(kind) {
+            case VALID:
+               ticket = valid(encoder, user);
+               break;
+            case EXPIRED:
+               long stale = System.currentTimeMillis() / 1000 - 3 * 3600;
+               ticket = encoder.encode(null, EncodedAuthTicket.create(new byte[1], stale, user, "reader,finance", "Some User")).getEncoded();
+               break;
+            case FORGED:
+               ticket = valid(encoder, user).replace("Some", "Evil");
+               break;
+            case GUEST:
+               ticket = (i % 2 == 0) ? null : valid(encoder, user).replace("Some", "Evil");
+               break;
+            case NONE:
+               break;
+         }
+         request.setHeader("Cookie", (ticket == null) ? analytics : analytics + "; auth_tkt=" + ticket + "; _tail=1");
+         samples.add(new Sample(kind, request));
+      }
+      return samples;
+   }
+
+   private static boolean expected(Kind kind, RecordingChain chain, StubHttpServletResponse response)
+   {
+      switch(kind) {
+         case VALID:
+            return chain.invoked && chain.remoteUser != null && !"guest".equals(chain.remoteUser);
+         case GUEST:
+            return chain.invoked && "guest".equals(chain.remoteUser);
+         default:
+            return !chain.invoked && response.getStatus() == HttpServletResponse.SC_FOUND;
+      }
+   }
+
+   private static String valid(AuthTicketEncoder encoder, String user)
+   {
+      MutableAuthTicket ticket = new MutableAuthTicket(user);
+      ticket.addToken("reader");
+      ticket.addToken("finance");
+      ticket.setUserData("Some User");
+      return encoder.encode(null, ticket).getEncoded();
+   }
+
+   private static String analyticsCookies(Random random)
+   {
+      StringBuilder builder = new StringBuilder();
+      for(int i = 0; i < ANALYTICS_COOKIES; i++) {
+         if(i > 0) builder.append("; ");
+         builder.append("_an").append(i).append("=GA1.2.").append(Math.abs(random.nextLong()));
+      }
+      return builder.toString();
+   }
+
+   private static Kind pick(Map<Kind,Integer> mix, int weight, int roll)
+   {
+      for(Map.Entry<Kind,Integer> entry : mix.entrySet()) {
+         roll -= entry.getValue();
+         if(roll < 0) return entry.getKey();
+      }
+      throw new IllegalStateException("roll exceeded weight " + weight);
+   }
+
+   static Map<Kind,Integer> parseMix(String value)
+   {
+      Map<Kind,Integer> mix = new EnumMap<>(Kind.class);
+      for(String part : value.split("\\s*,\\s*")) {
+         String[] kv = part.split(":");
+         mix.put(Kind.valueOf(kv[0].trim().toUpperCase()), Integer.parseInt(kv[1].trim()));
+      }
+      return mix;
+   }
+
+   private static long parseMillis(String value)
+   {
+      if(value.endsWith("ms")) return Long.parseLong(value.substring(0, value.length() - 2));
+      if(value.endsWith("s")) return Long.parseLong(value.substring(0, value.length() - 1)) * 1000;
+      return Long.parseLong(value);
+   }
+
+   private static ThreadFactory threadFactory(boolean virtual)
+   {
+      if(!virtual) {
+         return runnable -> {
+            Thread thread = new Thread(runnable, "load-worker");
+            thread.setDaemon(true);
+            return thread;
+         };
+      }
+      try {
+         // Reflective so the harness compiles against the project's Java 8 target
+         Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+         return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+      } catch(ReflectiveOperationException e) {
+         throw new IllegalStateException("virtual threads require a Java 21+ runtime", e);
+      }
+   }
+
+
+
+   private static final class Sample {
+      private final Kind kind;
+      private final StubHttpServletRequest request;
+
+      private Sample(Kind kind, StubHttpServletRequest request)
+      {
+         this.kind = kind;
+         this.request = request;
+      }
+   }
+
+   private static final class RecordingChain implements FilterChain {
+
+      private String remoteUser;
+      private boolean invoked;
+
+      private void reset()
+      {
+         remoteUser = null;
+         invoked = false;
+      }
+
+      @Override
+      public void doFilter(ServletRequest request, ServletResponse response)
+         throws IOException, ServletException
+      {
+         // touch the request the way downstream code would
+         remoteUser = ((HttpServletRequest) request).getRemoteUser();
+         invoked = true;
+      }
+   }
+
+}
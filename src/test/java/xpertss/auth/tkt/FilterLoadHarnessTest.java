@@ -0,0 +1,67 @@
+package xpertss.auth.tkt;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Smoke test ensuring the load harness runs and that each request kind in the mix
+ * produces its expected outcome. It does not assert on performance.
+ */
+public class FilterLoadHarnessTest {
+
+   @Test
+   public void testMixedLoad() throws Exception
+   {
+      FilterLoadHarness harness = new FilterLoadHarness(DigestAlgorithm.MD5,
+                                    FilterLoadHarness.parseMix("valid:70,expired:10,forged:5,guest:10,none:5"));
+      FilterLoadHarness.Result result = harness.run(2, false, 100, 200);
+      assertEquals(0, result.getErrors());
+      for(FilterLoadHarness.Kind kind : FilterLoadHarness.Kind.values()) {
+         assertTrue(kind.name(), result.getHistogram(kind).getCount() > 0);
+      }
+      assertTrue(result.getThroughput() > 0);
+   }
+
+   @Test
+   public void testSha512Load() throws Exception
+   {
+      FilterLoadHarness harness = new FilterLoadHarness(DigestAlgorithm.SHA512,
+                                    FilterLoadHarness.parseMix("valid:1,forged:1"));
+      FilterLoadHarness.Result result = harness.run(1, false, 0, 100);
+      assertEquals(0, result.getErrors());
+      assertTrue(result.getHistogram().getCount() > 0);
+   }
+
+   @Test
+   public void testHistogramPercentiles()
+   {
+      LatencyHistogram histogram = new LatencyHistogram();
+      for(long i = 1; i <= 100000; i++) histogram.record(i);
+      assertEquals(100000, histogram.getCount());
+      assertEquals(100000, histogram.getMax());
+      assertEquals(50000, histogram.getValueAtPercentile(50), 50000 * 0.016);
+      assertEquals(99000, histogram.getValueAtPercentile(99), 99000 * 0.016);
+      assertEquals(99900, histogram.getValueAtPercentile(99.9), 99900 * 0.016);
+      assertEquals(100000, histogram.getValueAtPercentile(100));
+   }
+
+   @Test
+   public void testHistogramExactBelowLinearRange()
+   {
+      LatencyHistogram histogram = new LatencyHistogram();
+      histogram.record(5);
+      histogram.record(7);
+      assertEquals(5, histogram.getValueAtPercentile(50));
+      assertEquals(7, histogram.getValueAtPercentile(100));
+   }
+
+   @Test
+   public void testHistogramLargeValues()
+   {
+      LatencyHistogram histogram = new LatencyHistogram();
+      histogram.record(Long.MAX_VALUE);
+      assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+   }
+
+}
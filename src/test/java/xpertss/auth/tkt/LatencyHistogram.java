@@ -0,0 +1,92 @@
+package xpertss.auth.tkt;
+
+/**
+ * A minimal HDR style log-linear latency histogram.
+ * <p>
+ * Values below 128 are recorded exactly. Larger values are recorded into one of 64
+ * linear sub-buckets per power of two which bounds the relative error of any reported
+ * percentile to under 1.6%. Recording is a handful of arithmetic operations with no
+ * allocation.
+ * <p>
+ * Instances are not thread safe. Give each recording thread its own histogram and
+ * {@link #add(LatencyHistogram) merge} them once recording is complete.
+ */
+public final class LatencyHistogram {
+
+   private static final int SUB_BITS = 6;
+   private static final int SUB_COUNT = 1 << SUB_BITS;
+   private static final int LINEAR = SUB_COUNT * 2;
+
+   private final long[] counts = new long[LINEAR + (64 - SUB_BITS) * SUB_COUNT];
+   private long total;
+   private long max;
+   private long sum;
+
+
+   public void record(long value)
+   {
+      if(value < 0) value = 0;
+      counts[indexOf(value)]++;
+      total++;
+      sum += value;
+      if(value > max) max = value;
+   }
+
+   public void add(LatencyHistogram other)
+   {
+      for(int i = 0; i < counts.length; i++) counts[i] += other.counts[i];
+      total += other.total;
+      sum += other.sum;
+      max = Math.max(max, other.max);
+   }
+
+   public long getCount()
+   {
+      return total;
+   }
+
+   public long getMax()
+   {
+      return max;
+   }
+
+   public double getMean()
+   {
+      return (total == 0) ? 0 : (double) sum / total;
+   }
+
+   /**
+    * Returns the value at the given percentile (0 - 100). The returned value is the
+    * highest value equivalent to the bucket the percentile falls within, capped at
+    * the maximum recorded value.
+    */
+   public long getValueAtPercentile(double percentile)
+   {
+      if(total == 0) return 0;
+      long target = Math.max(1, (long) Math.ceil(percentile / 100d * total));
+      long seen = 0;
+      for(int i = 0; i < counts.length; i++) {
+         seen += counts[i];
+         if(seen >= target) return Math.min(max, highestEquivalent(i));
+      }
+      return max;
+   }
+
+
+
+   static int indexOf(long value)
+   {
+      if(value < LINEAR) return (int) value;
+      int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BITS;
+      return LINEAR + (shift - 1) * SUB_COUNT + (int) ((value >>> shift) - SUB_COUNT);
+   }
+
+   static long highestEquivalent(int index)
+   {
+      if(index < LINEAR) return index;
+      int shift = (index - LINEAR) / SUB_COUNT + 1;
+      long sub = (index - LINEAR) % SUB_COUNT + SUB_COUNT;
+      return ((sub + 1) << shift) - 1;
+   }
+
+}
@@ -0,0 +1,198 @@
+package xpertss.auth.tkt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class MappedRevocationListTest {
+
+   private Path dir;
+   private Path file;
+
+   @Before
+   public void setUp() throws IOException
+   {
+      dir = Files.createTempDirectory("revocations");
+      file = dir.resolve("revoked.bin");
+   }
+
+   @After
+   public void tearDown() throws IOException
+   {
+      Files.deleteIfExists(file);
+      Files.deleteIfExists(dir);
+   }
+
+
+   @Test
+   public void testEmpty() throws IOException
+   {
+      new MappedRevocationList.Builder().write(file);
+      MappedRevocationList list = MappedRevocationList.load(file);
+      assertEquals(0, list.size());
+      assertFalse(list.isRevoked(ticket("cfloersch", 1000, 1)));
+   }
+
+   @Test
+   public void testRevokedUser() throws IOException
+   {
+      new MappedRevocationList.Builder().revokeUser("cfloersch", 2000).write(file);
+      MappedRevocationList list = MappedRevocationList.load(file);
+      assertEquals(1, list.size());
+      assertTrue(list.isRevoked(ticket("cfloersch", 1999, 1)));
+      assertFalse(list.isRevoked(ticket("cfloersch", 2000, 1)));
+      assertFalse(list.isRevoked(ticket("jblow", 1000, 1)));
+      assertFalse(list.isRevoked(ticket("cfloersc", 1000, 1)));
+   }
+
+   @Test
+   public void testRevokedUserKeepsLatest() throws IOException
+   {
+      new MappedRevocationList.Builder().revokeUser("cfloersch", 3000)
+                                          .revokeUser("cfloersch", 2000).write(file);
+      MappedRevocationList list = MappedRevocationList.load(file);
+      assertEquals(1, list.size());
+      assertTrue(list.isRevoked(ticket("cfloersch", 2500, 1)));
+   }
+
+   @Test
+   public void testRevokedTicket() throws IOException
+   {
+      AuthTicket revoked = ticket("cfloersch", 1000, 1);
+      new MappedRevocationList.Builder().revokeTicket(revoked).write(file);
+      MappedRevocationList list = MappedRevocationList.load(file);
+      assertTrue(list.isRevoked(revoked));
+      assertTrue(list.isRevoked(ticket("jblow", 5000, 1)));
+      assertFalse(list.isRevoked(ticket("cfloersch", 1000, 2)));
+   }
+
+   @Test
+   public void testRevokedParsedTicket() throws IOException
+   {
+      for(boolean compact : new boolean[] { false, true }) {
+         AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+         config.setCompactFormat(compact);
+         AuthTicketEncoder encoder = new AuthTicketEncoder(config);
+         String revoked = encoder.encode(null, mutable("cfloersch")).getEncoded();
+         String other = encoder.encode(null, mutable("jblow")).getEncoded();
+         new MappedRevocationList.Builder().revokeTicket(DigestAlgorithm.MD5.parse(revoked)).write(file);
+
+         // parsed tickets are matched against their checksum in place
+         MappedRevocationList list = MappedRevocationList.load(file);
+         assertTrue(list.isRevoked(DigestAlgorithm.MD5.parse(revoked)));
+         assertFalse(list.isRevoked(DigestAlgorithm.MD5.parse(other)));
+      }
+   }
+
+   @Test
+   public void testManyEntries() throws IOException
+   {
+      MappedRevocationList.Builder builder = new MappedRevocationList.Builder();
+      for(int i = 0; i < 50000; i++) builder.revokeUser("user" + i, 2000);
+      for(int i = 0; i < 50000; i++) builder.revokeTicket(checksum(i));
+      builder.write(file);
+
+      MappedRevocationList list = MappedRevocationList.load(file);
+      assertEquals(100000, list.size());
+      for(int i = 0; i < 50000; i++) {
+         assertTrue(list.isRevoked(ticket("user" + i, 1000, -1)));
+         assertTrue(list.isRevoked(ticket("other", 1000, i)));
+      }
+      for(int i = 50000; i < 60000; i++) {
+         assertFalse(list.isRevoked(ticket("user" + i, 1000, i)));
+      }
+   }
+
+   @Test
+   public void testReplaceWhileMapped() throws IOException
+   {
+      new MappedRevocationList.Builder().revokeUser("cfloersch", 2000).write(file);
+      MappedRevocationList first = MappedRevocationList.load(file);
+      new MappedRevocationList.Builder().revokeUser("jblow", 2000).write(file);
+      MappedRevocationList second = MappedRevocationList.load(file);
+
+      assertTrue(first.isRevoked(ticket("cfloersch", 1000, 1)));
+      assertFalse(first.isRevoked(ticket("jblow", 1000, 1)));
+      assertFalse(second.isRevoked(ticket("cfloersch", 1000, 1)));
+      assertTrue(second.isRevoked(ticket("jblow", 1000, 1)));
+   }
+
+   @Test(expected = IOException.class)
+   public void testNotARevocationList() throws IOException
+   {
+      Files.write(file, "cfloersch 2000".getBytes());
+      MappedRevocationList.load(file);
+   }
+
+   @Test(expected = IOException.class)
+   public void testTruncated() throws IOException
+   {
+      new MappedRevocationList.Builder().revokeUser("cfloersch", 2000).write(file);
+      byte[] bytes = Files.readAllBytes(file);
+      Files.write(file, Arrays.copyOf(bytes, 64));
+      MappedRevocationList.load(file);
+   }
+
+   @Test(expected = IOException.class)
+   public void testTruncatedKeys() throws IOException
+   {
+      new MappedRevocationList.Builder().revokeUser("cfloersch", 2000).write(file);
+      byte[] bytes = Files.readAllBytes(file);
+      Files.write(file, Arrays.copyOf(bytes, bytes.length - 2));
+      MappedRevocationList.load(file);
+   }
+
+   @Test
+   public void testCorruptKeyOffset() throws IOException
+   {
+      new MappedRevocationList.Builder().revokeUser("cfloersch", 2000).revokeTicket(checksum(1)).write(file);
+      byte[] bytes = Files.readAllBytes(file);
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      int tableStart = 24 + buffer.getInt(16) * 8;
+      for(int i = 0; i < buffer.getInt(20); i++) {
+         int slot = tableStart + i * 24;
+         if(buffer.getInt(slot + 20) != 0) buffer.putInt(slot + 16, bytes.length - 1);
+      }
+      Files.write(file, bytes);
+      try {
+         MappedRevocationList.load(file);
+         fail("loaded a list with keys outside the file");
+      } catch(IOException e) {
+         assertTrue(e.getMessage(), e.getMessage().contains("slot"));
+      }
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testEmptyChecksum()
+   {
+      new MappedRevocationList.Builder().revokeTicket(new byte[0]);
+   }
+
+
+
+   private static byte[] checksum(int id)
+   {
+      return new byte[] { 0x0A, 0x0B, (byte) (id >>> 24), (byte) (id >>> 16), (byte) (id >>> 8), (byte) id };
+   }
+
+   private static MutableAuthTicket mutable(String username)
+   {
+      MutableAuthTicket ticket = new MutableAuthTicket(username);
+      ticket.setUserData("");
+      return ticket;
+   }
+
+   private static AuthTicket ticket(String username, long timestamp, int id)
+   {
+      return EncodedAuthTicket.create(checksum(id), timestamp, username, null, "");
+   }
+
+}
@@ -0,0 +1,189 @@
+package xpertss.auth.tkt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.junit.Assert.*;
+
+public class MappedTicketCacheTest {
+
+   private static final String SECRET = "some_random_secret_key";
+
+   private Path dir;
+   private Path file;
+
+   @Before
+   public void setUp() throws IOException
+   {
+      dir = Files.createTempDirectory("ticketcache");
+      file = dir.resolve("verified.bin");
+   }
+
+   @After
+   public void tearDown() throws IOException
+   {
+      Files.deleteIfExists(file);
+      Files.deleteIfExists(dir);
+   }
+
+
+   @Test
+   public void testAuthenticateCaches() throws IOException
+   {
+      MappedTicketCache cache = MappedTicketCache.open(file, 64);
+      AuthTicketConfig config = config(SECRET, cache);
+      String value = encode(config, "cfloersch");
+      long now = Clock.systemUTC().millis() / 1000;
+      long[] key = MappedTicketCache.key(config);
+      assertFalse(contains(cache, key, null, value, now));
+
+      new AuthTicketAuthenticator(config).authenticate("auth_tkt=" + value, null, Clock.systemUTC());
+      assertTrue(contains(cache, key, null, value, now));
+      assertFalse(contains(cache, key, null, value, now + 7200));
+
+      AuthTicket ticket = new AuthTicketAuthenticator(config).authenticate("auth_tkt=" + value, null, Clock.systemUTC());
+      assertEquals("cfloersch", ticket.getUsername());
+   }
+
+   @Test
+   public void testSurvivesReopen() throws IOException
+   {
+      MappedTicketCache cache = MappedTicketCache.open(file, 64);
+      AuthTicketConfig config = config(SECRET, cache);
+      String value = encode(config, "cfloersch");
+      new AuthTicketAuthenticator(config).authenticate("auth_tkt=" + value, null, Clock.systemUTC());
+      cache.close();
+
+      MappedTicketCache reopened = MappedTicketCache.open(file, 1024);
+      assertEquals(64, reopened.getSlots());
+      long now = Clock.systemUTC().millis() / 1000;
+      assertTrue(contains(reopened, MappedTicketCache.key(config(SECRET, reopened)), null, value, now));
+   }
+
+   @Test
+   public void testKeyedBySecretAndIp() throws IOException
+   {
+      MappedTicketCache cache = MappedTicketCache.open(file, 64);
+      AuthTicketConfig config = config(SECRET, cache);
+      config.setIgnoreIP(false);
+      String value = new AuthTicketEncoder(config).encode("10.0.0.1", ticket("cfloersch")).getEncoded();
+      new AuthTicketAuthenticator(config).authenticate("auth_tkt=" + value, "10.0.0.1", Clock.systemUTC());
+
+      long now = Clock.systemUTC().millis() / 1000;
+      long[] key = MappedTicketCache.key(config);
+      assertTrue(contains(cache, key, "10.0.0.1", value, now));
+      assertFalse(contains(cache, key, "10.0.0.2", value, now));
+      AuthTicketConfig other = config("another_secret_key", cache);
+      other.setIgnoreIP(false);
+      assertFalse(contains(cache, MappedTicketCache.key(other), "10.0.0.1", value, now));
+   }
+
+   @Test(expected = InvalidTicketException.class)
+   public void testForgedNotAccepted() throws IOException
+   {
+      MappedTicketCache cache = MappedTicketCache.open(file, 64);
+      AuthTicketConfig config = config(SECRET, cache);
+      String value = encode(config, "cfloersch");
+      AuthTicketAuthenticator authenticator = new AuthTicketAuthenticator(config);
+      authenticator.authenticate("auth_tkt=" + value, null, Clock.systemUTC());
+      authenticator.authenticate("auth_tkt=" + value.replace("cfloersch", "jblow"), null, Clock.systemUTC());
+   }
+
+   @Test
+   public void testCorruptSlotIsMiss() throws IOException
+   {
+      MappedTicketCache cache = MappedTicketCache.open(file, 64);
+      AuthTicketConfig config = config(SECRET, cache);
+      String value = encode(config, "cfloersch");
+      long now = Clock.systemUTC().millis() / 1000;
+      long[] key = MappedTicketCache.key(config);
+      cache.put(MappedTicketCache.fingerprint(key, null, value), now + 60, now);
+      assertTrue(contains(cache, key, null, value, now));
+
+      // push the expiry of every occupied slot out without updating its check word
+      try(FileChannel channel = FileChannel.open(file, READ, WRITE)) {
+         ByteBuffer slot = ByteBuffer.allocate(32);
+         for(long pos = 64; pos < channel.size(); pos += 32) {
+            slot.clear();
+            channel.read(slot, pos);
+            if(slot.getLong(0) != 0) {
+               slot.putLong(16, now + 86400).flip();
+               channel.write(slot, pos);
+            }
+         }
+      }
+      assertFalse(contains(cache, key, null, value, now));
+   }
+
+   @Test
+   public void testFingerprint()
+   {
+      long[] key = MappedTicketCache.key(config(SECRET, null));
+      long[] fingerprint = MappedTicketCache.fingerprint(key, "10.0.0.1", "ticket").clone();
+      assertArrayEquals(fingerprint, MappedTicketCache.fingerprint(key, "10.0.0.1", "ticket"));
+      assertFalse(fingerprint[0] == MappedTicketCache.fingerprint(key, "10.0.0.", "1ticket")[0]);
+      assertFalse(fingerprint[0] == MappedTicketCache.fingerprint(key, null, "ticket")[0]);
+      assertFalse(fingerprint[0] == MappedTicketCache.fingerprint(key, "10.0.0.1", "ticket\0")[0]);
+      long[] other = MappedTicketCache.key(config("another_secret_key", null));
+      assertFalse(fingerprint[0] == MappedTicketCache.fingerprint(other, "10.0.0.1", "ticket")[0]);
+   }
+
+   @Test
+   public void testInvalidFileReplaced() throws IOException
+   {
+      Files.write(file, new byte[] { 'A', 'T', 'K', 'C', 0, 0, 0, 1 });
+      MappedTicketCache cache = MappedTicketCache.open(file, 100);
+      assertEquals(128, cache.getSlots());
+      assertEquals(64 + 128 * 32, Files.size(file));
+      assertFalse(contains(cache, MappedTicketCache.key(config(SECRET, cache)), null, "anything", 0));
+   }
+
+   @Test
+   public void testClosedIsMiss() throws IOException
+   {
+      MappedTicketCache cache = MappedTicketCache.open(file, 64);
+      long[] key = MappedTicketCache.key(config(SECRET, cache));
+      cache.put(MappedTicketCache.fingerprint(key, null, "ticket"), 100, 0);
+      assertTrue(contains(cache, key, null, "ticket", 0));
+      cache.close();
+      assertFalse(contains(cache, key, null, "ticket", 0));
+   }
+
+
+
+   private static boolean contains(MappedTicketCache cache, long[] key, String remoteIp, String ticket, long now)
+   {
+      return cache.contains(MappedTicketCache.fingerprint(key, remoteIp, ticket), now);
+   }
+
+   private static AuthTicketConfig config(String secret, MappedTicketCache cache)
+   {
+      AuthTicketConfig config = new AuthTicketConfig(secret);
+      config.setTicketCache(cache);
+      return config;
+   }
+
+   private static String encode(AuthTicketConfig config, String username)
+   {
+      return new AuthTicketEncoder(config).encode(null, ticket(username)).getEncoded();
+   }
+
+   private static MutableAuthTicket ticket(String username)
+   {
+      MutableAuthTicket ticket = new MutableAuthTicket(username);
+      ticket.addToken("admin");
+      ticket.setUserData("Chris Floersch");
+      return ticket;
+   }
+
+}
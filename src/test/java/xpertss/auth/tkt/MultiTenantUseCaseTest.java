@@ -0,0 +1,119 @@
+package xpertss.auth.tkt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static org.junit.Assert.*;
+
+/**
+ * Multi-tenant use case configures two tenants with their own secret, cookie name and
+ * login url in a config file served by a single filter instance.
+ *
+ * This tests the tenant entries of the TKTAuthConfigFile config item
+ */
+public class MultiTenantUseCaseTest {
+
+   private AuthTicketFilter objectUnderTest;
+   private StubHttpServletResponse response;
+   private FilterChain chain;
+   private int calls;
+
+   private Path dir;
+   private Path file;
+
+   @Before
+   public void setUp()
+      throws ServletException, IOException
+   {
+      dir = Files.createTempDirectory("tenants");
+      file = dir.resolve("filter.properties");
+      write("shop.example.com.TKTAuthSecret=shop_secret_key\n" +
+            "shop.example.com.TKTAuthCookieName=shop_tkt\n" +
+            "shop.example.com.TKTAuthLoginURL=https://shop.example.com/login\n" +
+            "blog.example.com.TKTAuthSecret=blog_secret_key\n");
+
+      objectUnderTest = new AuthTicketFilter();
+      objectUnderTest.init(new StubFilterConfig().set("TKTAuthSecret", "default_secret_key")
+                                                  .set("TKTAuthConfigFile", file.toString())
+                                                  .set("TKTAuthLoginURL", "https://login.example.com/"));
+      response = new StubHttpServletResponse();
+      chain = (req, resp) -> calls++;
+   }
+
+   @After
+   public void tearDown() throws IOException
+   {
+      objectUnderTest.destroy();
+      Files.deleteIfExists(file);
+      Files.deleteIfExists(dir);
+   }
+
+
+   @Test
+   public void testTenantTicket() throws ServletException, IOException
+   {
+      objectUnderTest.doFilter(request("shop.example.com", "shop_tkt", "shop_secret_key"), response, chain);
+      objectUnderTest.doFilter(request("blog.example.com", "auth_tkt", "blog_secret_key"), response, chain);
+      objectUnderTest.doFilter(request("www.example.com", "auth_tkt", "default_secret_key"), response, chain);
+      assertEquals(3, calls);
+   }
+
+   @Test
+   public void testTicketFromOtherTenant() throws ServletException, IOException
+   {
+      objectUnderTest.doFilter(request("blog.example.com", "auth_tkt", "shop_secret_key"), response, chain);
+      assertEquals(0, calls);
+      assertEquals(302, response.getStatus());
+      assertTrue(response.getHeader("Location").startsWith("https://login.example.com/"));
+
+      response.reset();
+      objectUnderTest.doFilter(request("shop.example.com", "auth_tkt", "shop_secret_key"), response, chain);
+      assertEquals(0, calls);
+      assertTrue(response.getHeader("Location").startsWith("https://shop.example.com/login"));
+   }
+
+   @Test
+   public void testTenantAddedAtRuntime() throws Exception
+   {
+      write("shop.example.com.TKTAuthSecret=shop_secret_key\n" +
+            "shop.example.com.TKTAuthCookieName=shop_tkt\n" +
+            "news.example.com.TKTAuthSecret=news_secret_key\n");
+
+      long deadline = System.currentTimeMillis() + 30000;
+      while(calls == 0 && System.currentTimeMillis() < deadline) {
+         objectUnderTest.doFilter(request("news.example.com", "auth_tkt", "news_secret_key"), response, chain);
+         if(calls == 0) Thread.sleep(20);
+      }
+      assertEquals(1, calls);
+
+      objectUnderTest.doFilter(request("blog.example.com", "auth_tkt", "blog_secret_key"), response, chain);
+      assertEquals(1, calls);
+   }
+
+
+
+   private void write(String content) throws IOException
+   {
+      Path temp = Files.write(dir.resolve("filter.tmp"), content.getBytes());
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+   }
+
+   private static StubHttpServletRequest request(String host, String cookieName, String secret)
+   {
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.setUserData("Chris");
+      String encoded = new AuthTicketEncoder(new AuthTicketConfig(secret)).encode(null, ticket).getEncoded();
+      return new StubHttpServletRequest("GET", "/index.html")
+                  .setHeader("Host", host)
+                  .setHeader("Cookie", cookieName + "=" + encoded);
+   }
+
+}
@@ -0,0 +1,86 @@
+package xpertss.auth.tkt;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Builds {@link NativeTicketVerifier} into a native executable with GraalVM's
+ * native-image tool and runs it.
+ * <p>
+ * Building an image takes a minute or more so the test only runs in the {@code native}
+ * profile, which requires native-image on the PATH or under GRAALVM_HOME:
+ * <pre>
+ *    mvn -P native test
+ * </pre>
+ */
+public class NativeImageTest {
+
+   @Test
+   public void testNativeVerifier() throws Exception
+   {
+      Assume.assumeTrue(Boolean.getBoolean("auth.tkt.native"));
+
+      File output = new File("target/native");
+      assertTrue(output.isDirectory() || output.mkdirs());
+      File executable = new File(output, "verifier");
+      String classpath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+
+      run(600, nativeImage(), "--no-fallback", "-cp", classpath,
+          "-o", executable.getPath(), NativeTicketVerifier.class.getName());
+      assertEquals("OK cfloersch", run(60, executable.getAbsolutePath()).trim());
+   }
+
+   @Test
+   public void testVerifierOnJvm() throws Exception
+   {
+      assertEquals("cfloersch", NativeTicketVerifier.run());
+   }
+
+
+
+   private static String nativeImage()
+   {
+      String name = System.getProperty("os.name").startsWith("Windows") ? "native-image.cmd" : "native-image";
+      String home = System.getenv("GRAALVM_HOME");
+      if(home != null) {
+         File tool = new File(new File(home, "bin"), name);
+         if(tool.canExecute()) return tool.getPath();
+      }
+      for(String dir : System.getenv("PATH").split(File.pathSeparator)) {
+         File tool = new File(dir, name);
+         if(tool.canExecute()) return tool.getPath();
+      }
+      throw new AssertionError("native-image not found on the PATH or under GRAALVM_HOME");
+   }
+
+   private static String run(long timeoutSeconds, String ... command)
+      throws IOException, InterruptedException
+   {
+      List<String> args = Arrays.asList(command);
+      // output goes to a file so nothing blocks reading it before the timeout applies
+      File log = File.createTempFile("native", ".log");
+      try {
+         Process process = new ProcessBuilder(args).redirectErrorStream(true).redirectOutput(log).start();
+         if(!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+            fail(args.get(0) + " timed out");
+         }
+         String text = new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8);
+         assertEquals(text, 0, process.exitValue());
+         return text;
+      } finally {
+         log.delete();
+      }
+   }
+
+}
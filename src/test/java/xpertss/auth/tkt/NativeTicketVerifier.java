@@ -0,0 +1,105 @@
+package xpertss.auth.tkt;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import java.lang.reflect.Proxy;
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A minimal program that verifies tickets of every digest algorithm with the
+ * authenticator and runs one authenticated request through the filter. It is compiled
+ * into a native executable by {@link NativeImageTest} but runs just as well on a JVM:
+ * <pre>
+ *    java -cp target/classes:target/test-classes:$(cat cp.txt) xpertss.auth.tkt.NativeTicketVerifier
+ * </pre>
+ * Prints {@code OK} followed by the authenticated user and exits with zero if every check
+ * passes, otherwise prints the failure and exits with one.
+ */
+public class NativeTicketVerifier {
+
+   private static final String SECRET = "some_random_secret_key";
+
+   /**
+    * Run every check and return the user the filter authenticated.
+    */
+   public static String run()
+      throws Exception
+   {
+      for(DigestAlgorithm digest : DigestAlgorithm.values()) {
+         for(boolean compact : new boolean[] { false, true }) {
+            verify(digest, compact);
+         }
+      }
+      return filter();
+   }
+
+   public static void main(String[] args)
+   {
+      try {
+         System.out.println("OK " + run());
+      } catch(Throwable t) {
+         System.out.println("FAILED " + t);
+         System.exit(1);
+      }
+   }
+
+
+   private static void verify(DigestAlgorithm digest, boolean compact)
+   {
+      AuthTicketConfig config = new AuthTicketConfig(SECRET);
+      config.setDigestAlgorithm(digest);
+      config.setCompactFormat(compact);
+      String encoded = new AuthTicketEncoder(config).encode(null, ticket()).getEncoded();
+      AuthTicket ticket = new AuthTicketAuthenticator(config).authenticate("auth_tkt=" + encoded, null, Clock.systemUTC());
+      check("cfloersch".equals(ticket.getUsername()), digest + " ticket authenticated the wrong user");
+      check(ticket.contains("admin"), digest + " ticket lost its tokens");
+
+      try {
+         new AuthTicketAuthenticator(SECRET + "x").authenticate("auth_tkt=" + encoded, null, Clock.systemUTC());
+         throw new IllegalStateException(digest + " ticket verified with the wrong secret");
+      } catch(TicketNotFoundException | InvalidTicketException e) {
+         // expected
+      }
+   }
+
+   private static String filter()
+      throws Exception
+   {
+      AuthTicketFilter filter = new AuthTicketFilter();
+      filter.init(new StubFilterConfig()
+                     .set("TKTAuthSecret", SECRET)
+                     .set("TKTAuthLoginURL", "https://www.example.com/login"));
+      String encoded = new AuthTicketEncoder(new AuthTicketConfig(SECRET)).encode(null, ticket()).getEncoded();
+      StubHttpServletRequest request = new StubHttpServletRequest("GET", "/app/page.do")
+                                             .setHeader("Host", "www.example.com")
+                                             .setHeader("Cookie", "auth_tkt=" + encoded);
+      AtomicReference<HttpServletRequest> seen = new AtomicReference<>();
+      FilterChain chain = (req, res) -> seen.set((HttpServletRequest) req);
+      filter.doFilter(request, new StubHttpServletResponse(), chain);
+      filter.destroy();
+
+      HttpServletRequest http = seen.get();
+      check(http != null, "request was not passed down the chain");
+      check(http.isUserInRole("admin"), "request lost the ticket's tokens");
+      check(http.getAttribute(AuthTicketFilter.TICKET_ATTRIBUTE) != null, "request lost the ticket");
+      if(System.getProperty("org.graalvm.nativeimage.imagecode") != null) {
+         check(!Proxy.isProxyClass(http.getClass()), "native image built a dynamic proxy");
+      }
+      return http.getRemoteUser();
+   }
+
+   private static MutableAuthTicket ticket()
+   {
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.addToken("admin");
+      ticket.setUserData("Chris Floersch");
+      return ticket;
+   }
+
+   private static void check(boolean condition, String message)
+   {
+      if(!condition) throw new IllegalStateException(message);
+   }
+
+}
@@ -0,0 +1,88 @@
+package xpertss.auth.tkt;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class RevocationListMonitorTest {
+
+   private static final byte[] checksum = { (byte) 0x00, (byte) 0x01, (byte) 0x02, (byte) 0x03 };
+
+   private Path dir;
+   private Path file;
+   private List<String> rejected;
+   private RevocationListMonitor objectUnderTest;
+
+   @Before
+   public void setUp() throws IOException
+   {
+      dir = Files.createTempDirectory("revocations");
+      file = dir.resolve("revoked.bin");
+      new MappedRevocationList.Builder().revokeUser("cfloersch", 2000).write(file);
+      rejected = new CopyOnWriteArrayList<>();
+      objectUnderTest = new RevocationListMonitor(file, rejected::add);
+   }
+
+   @After
+   public void tearDown() throws IOException
+   {
+      objectUnderTest.close();
+      Files.deleteIfExists(file);
+      Files.deleteIfExists(dir);
+   }
+
+
+   @Test
+   public void testInitialSnapshot()
+   {
+      assertEquals(1, objectUnderTest.size());
+      assertTrue(objectUnderTest.isRevoked(ticket("cfloersch")));
+      assertFalse(objectUnderTest.isRevoked(ticket("jblow")));
+   }
+
+   @Test
+   public void testReloadedOnReplace() throws Exception
+   {
+      new MappedRevocationList.Builder().revokeUser("jblow", 2000).revokeUser("sjones", 2000).write(file);
+      long deadline = System.currentTimeMillis() + 30000;
+      while(objectUnderTest.size() != 2 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+      assertEquals(2, objectUnderTest.size());
+      assertFalse(objectUnderTest.isRevoked(ticket("cfloersch")));
+      assertTrue(objectUnderTest.isRevoked(ticket("jblow")));
+   }
+
+   @Test
+   public void testInvalidSnapshotIgnored() throws IOException
+   {
+      Path temp = Files.write(dir.resolve("garbage.tmp"), "garbage".getBytes());
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+      objectUnderTest.reload();
+      assertEquals(1, objectUnderTest.size());
+      assertTrue(objectUnderTest.isRevoked(ticket("cfloersch")));
+      assertFalse(rejected.isEmpty());
+      assertTrue(rejected.get(0), rejected.get(0).contains(file.toString()));
+   }
+
+   @Test(expected = IOException.class)
+   public void testMissingFile() throws IOException
+   {
+      new RevocationListMonitor(dir.resolve("missing.bin"));
+   }
+
+
+
+   private static AuthTicket ticket(String username)
+   {
+      return EncodedAuthTicket.create(checksum, 1000, username, null, "");
+   }
+
+}
@@ -0,0 +1,127 @@
+package xpertss.auth.tkt;
+
+import org.junit.Test;
+import xpertss.util.Sets;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import java.time.Clock;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class RoleHierarchyTest {
+
+   private static final String SECRET = "some_random_secret_key";
+
+
+   @Test
+   public void testTransitiveClosure()
+   {
+      RoleHierarchy roles = RoleHierarchy.parse("admin > finance > reader, auditor > reader, finance > billing");
+      assertEquals(Sets.of("finance", "reader", "billing"), roles.getImpliedRoles("admin"));
+      assertEquals(Sets.of("reader", "billing"), roles.getImpliedRoles("finance"));
+      assertEquals(Sets.of("reader"), roles.getImpliedRoles("auditor"));
+      assertTrue(roles.getImpliedRoles("reader").isEmpty());
+      assertTrue(roles.getImpliedRoles("unknown").isEmpty());
+   }
+
+   @Test
+   public void testCycle()
+   {
+      RoleHierarchy roles = RoleHierarchy.parse("a > b > c > a");
+      assertEquals(Sets.of("b", "c"), roles.getImpliedRoles("a"));
+      assertEquals(Sets.of("a", "b"), roles.getImpliedRoles("c"));
+   }
+
+   @Test
+   public void testOf()
+   {
+      Map<String, List<String>> implies = new HashMap<>();
+      implies.put("admin", Arrays.asList("finance", "auditor"));
+      implies.put("finance", Collections.singletonList("reader"));
+      RoleHierarchy roles = RoleHierarchy.of(implies);
+      assertEquals(Sets.of("finance", "auditor", "reader"), roles.getImpliedRoles("admin"));
+      assertEquals(RoleHierarchy.parse("admin > finance > reader, admin > auditor"), roles);
+   }
+
+   @Test
+   public void testExpand()
+   {
+      RoleHierarchy roles = RoleHierarchy.parse("admin > finance > reader");
+      Set<String> plain = Sets.of("guest", "reader");
+      assertSame(plain, roles.expand(plain));
+      assertEquals(Sets.of("guest", "admin", "finance", "reader"), roles.expand(Sets.of("guest", "admin")));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testEmptyRole()
+   {
+      RoleHierarchy.parse("admin > > reader");
+   }
+
+   @Test
+   public void testAuthenticator()
+   {
+      AuthTicketConfig config = new AuthTicketConfig(SECRET);
+      config.setTokens(Sets.of("reader"));
+      config.setTokenPolicy(TokenPolicy.compile("finance AND NOT auditor"));
+      config.setRoleHierarchy(RoleHierarchy.parse("admin > finance > reader"));
+      AuthTicketAuthenticator authenticator = new AuthTicketAuthenticator(config);
+
+      AuthTicket ticket = authenticator.authenticate("auth_tkt=" + encode("admin"), null, Clock.systemUTC());
+      assertTrue(ticket.contains("admin"));
+      assertTrue(ticket.contains("finance"));
+      assertTrue(ticket.contains("reader"));
+      assertEquals(Sets.of("admin"), ticket.getTokens());
+
+      try {
+         authenticator.authenticate("auth_tkt=" + encode("reader"), null, Clock.systemUTC());
+         fail("reader does not imply finance");
+      } catch(TokenMissingException e) {
+         // expected
+      }
+   }
+
+   @Test
+   public void testIsUserInRole() throws Exception
+   {
+      String encoded = encode("admin");
+      for(boolean fast : new boolean[] { false, true }) {
+         AuthTicketFilter filter = new AuthTicketFilter();
+         filter.init(new StubFilterConfig()
+                        .set("TKTAuthSecret", SECRET)
+                        .set("TKTAuthLoginURL", "https://www.example.com/login")
+                        .set("TKTAuthFastStartup", Boolean.toString(fast))
+                        .set("TKTAuthRoleHierarchy", "admin > finance > reader"));
+         StubHttpServletRequest request = new StubHttpServletRequest("GET", "/app/page.do")
+                                                .setHeader("Host", "www.example.com")
+                                                .setHeader("Cookie", "auth_tkt=" + encoded);
+         AtomicReference<HttpServletRequest> seen = new AtomicReference<>();
+         FilterChain chain = (req, res) -> seen.set((HttpServletRequest) req);
+         filter.doFilter(request, new StubHttpServletResponse(), chain);
+         filter.destroy();
+
+         assertTrue(seen.get().isUserInRole("admin"));
+         assertTrue(seen.get().isUserInRole("reader"));
+         assertFalse(seen.get().isUserInRole("auditor"));
+      }
+   }
+
+
+
+   private static String encode(String token)
+   {
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.addToken(token);
+      ticket.setUserData("Chris Floersch");
+      return new AuthTicketEncoder(new AuthTicketConfig(SECRET)).encode(null, ticket).getEncoded();
+   }
+
+}
@@ -15,9 +15,11 @@ import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.security.Principal;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
@@ -192,6 +194,40 @@ public class SixthBasicUseCaseTest {
       verify(chain, times(1)).doFilter(any(ServletRequest.class), any(ServletResponse.class));
    }
 
+   @Test
+   public void testTicketAndPrincipal() throws ServletException, IOException
+   {
+      when(cookie.getName()).thenReturn("my_auth_tkt");
+      when(cookie.getValue()).thenReturn("e400af8d8448df14b22193dfdcebe22b55ce64a9cfloersch%21Workbook%2BOVE%21Chris%2BFloersch");
+
+      when(request.getCookies()).thenReturn(new Cookie[] { cookie });
+      when(request.getScheme()).thenReturn("https");
+      when(request.getHeader(eq("Host"))).thenReturn("simulcast.manheim.com");
+
+      doAnswer(new Answer() {
+         @Override
+         public Object answer(InvocationOnMock invocation)
+            throws Throwable
+         {
+            HttpServletRequest httpRequest = (HttpServletRequest) invocation.getArguments()[0];
+            AuthTicket ticket = (AuthTicket) httpRequest.getAttribute(AuthTicketFilter.TICKET_ATTRIBUTE);
+            assertEquals("cfloersch", ticket.getUsername());
+            assertEquals(0x55ce64a9L, ticket.getTimestamp());
+            assertTrue(ticket.contains("Workbook+OVE"));
+
+            Principal principal = httpRequest.getUserPrincipal();
+            assertEquals("cfloersch", principal.getName());
+            assertSame(principal, httpRequest.getUserPrincipal());
+            assertSame(ticket, ((AuthTicketPrincipal) principal).getTicket());
+            return null;
+         }
+      }).when(chain).doFilter(any(HttpServletRequest.class), any(HttpServletResponse.class));
+
+      objectUnderTest.doFilter(request, response, chain);
+
+      verify(chain, times(1)).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+   }
+
    @Test
    public void testModifiedCase() throws ServletException, IOException
    {
@@ -0,0 +1,113 @@
+package xpertss.auth.tkt;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Measures the time from {@link AuthTicketFilter#init} to the completion of the first
+ * authenticated request along with the number of classes loaded on the way.
+ * <p>
+ * Only the first run in a JVM measures a cold start so the benchmark is meant to be run
+ * in a fresh JVM for each configuration:
+ * <pre>
+ *    mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ *    java -cp target/classes:target/test-classes:$(cat cp.txt) xpertss.auth.tkt.StartupBenchmark fast=true
+ * </pre>
+ * Supported arguments:
+ * <dl>
+ *    <dt>fast=false</dt><dd>the TKTAuthFastStartup setting</dd>
+ * </dl>
+ * The ticket is a fixed vector so that nothing in the library is touched before the
+ * clock starts.
+ */
+public class StartupBenchmark {
+
+   private static final String TICKET = "df612274bbd2b88a510b8d9fe9796af655ce6444cfloersch%21Workbook%2BOVE%21Chris%2BFloersch";
+
+   /**
+    * Initialize a filter and run one authenticated request through it.
+    */
+   public static Result run(boolean fast)
+      throws ServletException, IOException
+   {
+      ClassLoadingMXBean classes = ManagementFactory.getClassLoadingMXBean();
+      StubFilterConfig config = new StubFilterConfig()
+                                    .set("TKTAuthSecret", "some_random_secret_key")
+                                    .set("TKTAuthTimeout", "0")
+                                    .set("TKTAuthLoginURL", "https://www.example.com/login")
+                                    .set("TKTAuthFastStartup", Boolean.toString(fast));
+      StubHttpServletRequest request = new StubHttpServletRequest("GET", "/app/page.do")
+                                             .setHeader("Host", "www.example.com")
+                                             .setHeader("Cookie", "auth_tkt=" + TICKET);
+      StubHttpServletResponse response = new StubHttpServletResponse();
+      AtomicReference<String> user = new AtomicReference<>();
+      FilterChain chain = (req, res) -> {
+         HttpServletRequest http = (HttpServletRequest) req;
+         if(http.isUserInRole("Workbook+OVE") && http.getAttribute(AuthTicketFilter.TICKET_ATTRIBUTE) != null) {
+            user.set(http.getRemoteUser());
+         }
+      };
+
+      long loaded = classes.getTotalLoadedClassCount();
+      long start = System.nanoTime();
+      AuthTicketFilter filter = new AuthTicketFilter();
+      filter.init(config);
+      long initialized = System.nanoTime();
+      filter.doFilter(request, response, chain);
+      long done = System.nanoTime();
+      filter.destroy();
+
+      if(!"cfloersch".equals(user.get())) throw new IllegalStateException("first request was not authenticated");
+      return new Result(initialized - start, done - initialized, classes.getTotalLoadedClassCount() - loaded);
+   }
+
+
+   public static void main(String[] args)
+      throws Exception
+   {
+      boolean fast = false;
+      for(String arg : args) {
+         if(arg.startsWith("fast=")) fast = Boolean.parseBoolean(arg.substring(5));
+         else throw new IllegalArgumentException("unknown argument " + arg);
+      }
+      Result result = run(fast);
+      System.out.printf("fast=%s init=%.2fms first=%.2fms total=%.2fms classes=%d%n", fast,
+                        millis(result.getInitNanos()), millis(result.getFirstRequestNanos()),
+                        millis(result.getTotalNanos()), result.getClassesLoaded());
+   }
+
+   private static double millis(long nanos)
+   {
+      return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+   }
+
+
+
+   public static final class Result {
+      private final long initNanos;
+      private final long firstRequestNanos;
+      private final long classesLoaded;
+
+      private Result(long initNanos, long firstRequestNanos, long classesLoaded)
+      {
+         this.initNanos = initNanos;
+         this.firstRequestNanos = firstRequestNanos;
+         this.classesLoaded = classesLoaded;
+      }
+
+      public long getInitNanos() { return initNanos; }
+
+      public long getFirstRequestNanos() { return firstRequestNanos; }
+
+      public long getTotalNanos() { return initNanos + firstRequestNanos; }
+
+      public long getClassesLoaded() { return classesLoaded; }
+   }
+
+}
@@ -0,0 +1,42 @@
+package xpertss.auth.tkt;
+
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletContext;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A simple map backed FilterConfig stand-in.
+ */
+public class StubFilterConfig implements FilterConfig {
+
+   private final Map<String,String> params = new HashMap<>();
+   private ServletContext context;
+
+   public StubFilterConfig set(String name, String value)
+   {
+      params.put(name, value);
+      return this;
+   }
+
+   public StubFilterConfig context(ServletContext context)
+   {
+      this.context = context;
+      return this;
+   }
+
+   @Override
+   public String getFilterName() { return "AuthTicket"; }
+
+   @Override
+   public ServletContext getServletContext() { return context; }
+
+   @Override
+   public String getInitParameter(String name) { return params.get(name); }
+
+   @Override
+   public Enumeration getInitParameterNames() { return Collections.enumeration(params.keySet()); }
+
+}
@@ -0,0 +1,265 @@
+package xpertss.auth.tkt;
+
+import javax.servlet.RequestDispatcher;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.io.BufferedReader;
+import java.security.Principal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A lightweight, allocation friendly HttpServletRequest stand-in for load and allocation
+ * tests where mock frameworks would dominate the measurements.
+ * <p>
+ * Instances are not thread safe. Use {@link #copy()} to give each thread its own.
+ */
+public class StubHttpServletRequest implements HttpServletRequest {
+
+   private final Map<String,String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+   private final Map<String,Object> attributes = new HashMap<>();
+
+   private String method = "GET";
+   private String scheme = "https";
+   private String requestUri = "/";
+   private String queryString;
+   private String remoteAddr = "127.0.0.1";
+   private Cookie[] cookies;
+
+
+   public StubHttpServletRequest(String method, String requestUri)
+   {
+      this.method = method;
+      this.requestUri = requestUri;
+   }
+
+   public StubHttpServletRequest copy()
+   {
+      StubHttpServletRequest copy = new StubHttpServletRequest(method, requestUri);
+      copy.headers.putAll(headers);
+      copy.scheme = scheme;
+      copy.queryString = queryString;
+      copy.remoteAddr = remoteAddr;
+      copy.cookies = cookies;
+      return copy;
+   }
+
+
+   public StubHttpServletRequest setHeader(String name, String value)
+   {
+      headers.put(name, value);
+      if("Cookie".equalsIgnoreCase(name)) cookies = parseCookies(value);
+      return this;
+   }
+
+   public StubHttpServletRequest setQueryString(String queryString)
+   {
+      this.queryString = queryString;
+      return this;
+   }
+
+   public StubHttpServletRequest setRemoteAddr(String remoteAddr)
+   {
+      this.remoteAddr = remoteAddr;
+      return this;
+   }
+
+   public StubHttpServletRequest setScheme(String scheme)
+   {
+      this.scheme = scheme;
+      return this;
+   }
+
+
+
+   @Override
+   public String getAuthType() { return null; }
+
+   @Override
+   public Cookie[] getCookies() { return cookies; }
+
+   @Override
+   public long getDateHeader(String name) { return -1; }
+
+   @Override
+   public String getHeader(String name) { return headers.get(name); }
+
+   @Override
+   public Enumeration getHeaders(String name)
+   {
+      String value = headers.get(name);
+      return (value == null) ? Collections.emptyEnumeration() : Collections.enumeration(Collections.singletonList(value));
+   }
+
+   @Override
+   public Enumeration getHeaderNames() { return Collections.enumeration(headers.keySet()); }
+
+   @Override
+   public int getIntHeader(String name)
+   {
+      String value = headers.get(name);
+      return (value == null) ? -1 : Integer.parseInt(value);
+   }
+
+   @Override
+   public String getMethod() { return method; }
+
+   @Override
+   public String getPathInfo() { return null; }
+
+   @Override
+   public String getPathTranslated() { return null; }
+
+   @Override
+   public String getContextPath() { return ""; }
+
+   @Override
+   public String getQueryString() { return queryString; }
+
+   @Override
+   public String getRemoteUser() { return null; }
+
+   @Override
+   public boolean isUserInRole(String role) { return false; }
+
+   @Override
+   public Principal getUserPrincipal() { return null; }
+
+   @Override
+   public String getRequestedSessionId() { return null; }
+
+   @Override
+   public String getRequestURI() { return requestUri; }
+
+   @Override
+   public StringBuffer getRequestURL() { return new StringBuffer(scheme).append("://").append(getHeader("Host")).append(requestUri); }
+
+   @Override
+   public String getServletPath() { return requestUri; }
+
+   @Override
+   public HttpSession getSession(boolean create) { return null; }
+
+   @Override
+   public HttpSession getSession() { return null; }
+
+   @Override
+   public boolean isRequestedSessionIdValid() { return false; }
+
+   @Override
+   public boolean isRequestedSessionIdFromCookie() { return false; }
+
+   @Override
+   public boolean isRequestedSessionIdFromURL() { return false; }
+
+   @Override
+   public boolean isRequestedSessionIdFromUrl() { return false; }
+
+   @Override
+   public Object getAttribute(String name) { return attributes.get(name); }
+
+   @Override
+   public Enumeration getAttributeNames() { return Collections.enumeration(attributes.keySet()); }
+
+   @Override
+   public String getCharacterEncoding() { return null; }
+
+   @Override
+   public void setCharacterEncoding(String env) { }
+
+   @Override
+   public int getContentLength() { return -1; }
+
+   @Override
+   public String getContentType() { return null; }
+
+   @Override
+   public ServletInputStream getInputStream() { throw new UnsupportedOperationException(); }
+
+   @Override
+   public String getParameter(String name) { return null; }
+
+   @Override
+   public Enumeration getParameterNames() { return Collections.emptyEnumeration(); }
+
+   @Override
+   public String[] getParameterValues(String name) { return null; }
+
+   @Override
+   public Map getParameterMap() { return Collections.emptyMap(); }
+
+   @Override
+   public String getProtocol() { return "HTTP/1.1"; }
+
+   @Override
+   public String getScheme() { return scheme; }
+
+   @Override
+   public String getServerName() { return getHeader("Host"); }
+
+   @Override
+   public int getServerPort() { return "https".equals(scheme) ? 443 : 80; }
+
+   @Override
+   public BufferedReader getReader() { throw new UnsupportedOperationException(); }
+
+   @Override
+   public String getRemoteAddr() { return remoteAddr; }
+
+   @Override
+   public String getRemoteHost() { return remoteAddr; }
+
+   @Override
+   public void setAttribute(String name, Object o) { attributes.put(name, o); }
+
+   @Override
+   public void removeAttribute(String name) { attributes.remove(name); }
+
+   @Override
+   public Locale getLocale() { return Locale.US; }
+
+   @Override
+   public Enumeration getLocales() { return Collections.enumeration(Collections.singletonList(Locale.US)); }
+
+   @Override
+   public boolean isSecure() { return "https".equals(scheme); }
+
+   @Override
+   public RequestDispatcher getRequestDispatcher(String path) { return null; }
+
+   @Override
+   public String getRealPath(String path) { return null; }
+
+   @Override
+   public int getRemotePort() { return 0; }
+
+   @Override
+   public String getLocalName() { return "localhost"; }
+
+   @Override
+   public String getLocalAddr() { return "127.0.0.1"; }
+
+   @Override
+   public int getLocalPort() { return getServerPort(); }
+
+
+
+   private static Cookie[] parseCookies(String header)
+   {
+      List<Cookie> result = new ArrayList<>();
+      for(String pair : header.split("\\s*;\\s*")) {
+         int idx = pair.indexOf('=');
+         if(idx > 0) result.add(new Cookie(pair.substring(0, idx).trim(), pair.substring(idx + 1).trim()));
+      }
+      return result.toArray(new Cookie[result.size()]);
+   }
+
+}
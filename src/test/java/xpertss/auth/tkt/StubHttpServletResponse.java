@@ -0,0 +1,139 @@
+package xpertss.auth.tkt;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A lightweight HttpServletResponse stand-in for load and allocation tests which simply
+ * records the status, headers, and cookies set on it.
+ * <p>
+ * Instances are not thread safe and are intended to be {@link #reset()} and reused by a
+ * single thread.
+ */
+public class StubHttpServletResponse implements HttpServletResponse {
+
+   private final Map<String,String> headers = new HashMap<>();
+   private final List<Cookie> cookies = new ArrayList<>();
+   private int status = SC_OK;
+
+
+   public int getStatus() { return status; }
+
+   public String getHeader(String name) { return headers.get(name); }
+
+   public List<Cookie> getCookies() { return cookies; }
+
+
+   @Override
+   public void addCookie(Cookie cookie) { cookies.add(cookie); }
+
+   @Override
+   public boolean containsHeader(String name) { return headers.containsKey(name); }
+
+   @Override
+   public String encodeURL(String url) { return url; }
+
+   @Override
+   public String encodeRedirectURL(String url) { return url; }
+
+   @Override
+   public String encodeUrl(String url) { return url; }
+
+   @Override
+   public String encodeRedirectUrl(String url) { return url; }
+
+   @Override
+   public void sendError(int sc, String msg) { status = sc; }
+
+   @Override
+   public void sendError(int sc) { status = sc; }
+
+   @Override
+   public void sendRedirect(String location)
+   {
+      status = SC_FOUND;
+      headers.put("Location", location);
+   }
+
+   @Override
+   public void setDateHeader(String name, long date) { headers.put(name, Long.toString(date)); }
+
+   @Override
+   public void addDateHeader(String name, long date) { headers.put(name, Long.toString(date)); }
+
+   @Override
+   public void setHeader(String name, String value) { headers.put(name, value); }
+
+   @Override
+   public void addHeader(String name, String value) { headers.put(name, value); }
+
+   @Override
+   public void setIntHeader(String name, int value) { headers.put(name, Integer.toString(value)); }
+
+   @Override
+   public void addIntHeader(String name, int value) { headers.put(name, Integer.toString(value)); }
+
+   @Override
+   public void setStatus(int sc) { status = sc; }
+
+   @Override
+   public void setStatus(int sc, String sm) { status = sc; }
+
+   @Override
+   public String getCharacterEncoding() { return "UTF-8"; }
+
+   @Override
+   public String getContentType() { return null; }
+
+   @Override
+   public ServletOutputStream getOutputStream() { throw new UnsupportedOperationException(); }
+
+   @Override
+   public PrintWriter getWriter() { throw new UnsupportedOperationException(); }
+
+   @Override
+   public void setCharacterEncoding(String charset) { }
+
+   @Override
+   public void setContentLength(int len) { }
+
+   @Override
+   public void setContentType(String type) { }
+
+   @Override
+   public void setBufferSize(int size) { }
+
+   @Override
+   public int getBufferSize() { return 0; }
+
+   @Override
+   public void flushBuffer() { }
+
+   @Override
+   public void resetBuffer() { }
+
+   @Override
+   public boolean isCommitted() { return false; }
+
+   @Override
+   public void reset()
+   {
+      headers.clear();
+      cookies.clear();
+      status = SC_OK;
+   }
+
+   @Override
+   public void setLocale(Locale loc) { }
+
+   @Override
+   public Locale getLocale() { return Locale.US; }
+
+}
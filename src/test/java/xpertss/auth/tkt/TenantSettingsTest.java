@@ -0,0 +1,102 @@
+package xpertss.auth.tkt;
+
+import org.junit.Test;
+
+import java.util.Properties;
+import java.util.function.Function;
+
+import static org.junit.Assert.*;
+
+public class TenantSettingsTest {
+
+   private static final Function<String,String> initParams = name -> {
+      if("TKTAuthSecret".equals(name)) return "init_secret_key";
+      if("TKTAuthLoginURL".equals(name)) return "https://login.example.com/";
+      return null;
+   };
+
+
+   @Test
+   public void testNoTenants()
+   {
+      TenantSettings settings = TenantSettings.parse(initParams, null);
+      assertEquals(0, settings.size());
+      assertSame(settings.defaults(), settings.select(request("shop.example.com")));
+   }
+
+   @Test
+   public void testTenantLookup()
+   {
+      Properties props = new Properties();
+      props.setProperty("shop.example.com.TKTAuthSecret", "shop_secret_key");
+      props.setProperty("blog.example.com.TKTAuthSecret", "blog_secret_key");
+      TenantSettings settings = TenantSettings.parse(initParams, props, null);
+
+      assertEquals(2, settings.size());
+      assertEquals("shop_secret_key", settings.select(request("shop.example.com")).config.getSecret());
+      assertEquals("shop_secret_key", settings.select(request("Shop.Example.com:8443")).config.getSecret());
+      assertEquals("blog_secret_key", settings.select(request("blog.example.com.")).config.getSecret());
+      assertSame(settings.defaults(), settings.select(request("www.example.com")));
+      assertSame(settings.defaults(), settings.select(request(null)));
+   }
+
+   @Test
+   public void testTenantInheritance()
+   {
+      Properties props = new Properties();
+      props.setProperty("TKTAuthCookieName", "shared_tkt");
+      props.setProperty("shop.example.com.TKTAuthSecret", "shop_secret_key");
+      props.setProperty("blog.example.com.TKTAuthSecret", "blog_secret_key");
+      props.setProperty("blog.example.com.TKTAuthLoginURL", "https://blog.example.com/login");
+      TenantSettings settings = TenantSettings.parse(initParams, props, null);
+
+      FilterSettings shop = settings.select(request("shop.example.com"));
+      FilterSettings blog = settings.select(request("blog.example.com"));
+      assertEquals("init_secret_key", settings.defaults().config.getSecret());
+      assertEquals("shared_tkt", shop.config.getCookieName());
+      assertEquals("shared_tkt", blog.config.getCookieName());
+      assertEquals("https://blog.example.com/login", blog.authUri.toString());
+
+      assertSame(settings.defaults().authUri, shop.authUri);
+      assertSame(settings.defaults().pattern, shop.pattern);
+      assertSame(shop.pattern, blog.pattern);
+   }
+
+   @Test
+   public void testTenantHeader()
+   {
+      Properties props = new Properties();
+      props.setProperty("TKTAuthTenantHeader", "X-Tenant");
+      props.setProperty("shop.TKTAuthSecret", "shop_secret_key");
+      TenantSettings settings = TenantSettings.parse(initParams, props, null);
+
+      StubHttpServletRequest request = request("www.example.com").setHeader("X-Tenant", "shop");
+      assertEquals("shop_secret_key", settings.select(request).config.getSecret());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testInvalidTenant()
+   {
+      Properties props = new Properties();
+      props.setProperty("shop.example.com.TKTAuthLoginURL", "ftp://ftp.example.com/");
+      TenantSettings.parse(initParams, props, null);
+   }
+
+   @Test
+   public void testNormalize()
+   {
+      assertEquals("shop.example.com", TenantSettings.normalize("Shop.Example.COM"));
+      assertEquals("shop.example.com", TenantSettings.normalize("shop.example.com:8080"));
+      assertEquals("shop.example.com", TenantSettings.normalize("shop.example.com."));
+      assertEquals("[::1]", TenantSettings.normalize("[::1]:8080"));
+   }
+
+
+
+   private static StubHttpServletRequest request(String host)
+   {
+      StubHttpServletRequest request = new StubHttpServletRequest("GET", "/index.html");
+      return (host == null) ? request : request.setHeader("Host", host);
+   }
+
+}
@@ -0,0 +1,152 @@
+package xpertss.auth.tkt;
+
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.time.Clock;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.*;
+
+public class TicketCookieWriterTest {
+
+   private static final String SECRET = "some_random_secret_key";
+
+
+   @Test
+   public void testMatchesEncoder()
+   {
+      for(DigestAlgorithm digest : DigestAlgorithm.values()) {
+         for(boolean compact : new boolean[] { false, true }) {
+            AuthTicketConfig config = config(digest, compact);
+            TicketCookieWriter writer = new TicketCookieWriter.Builder(config).path(null).build();
+            MutableAuthTicket ticket = ticket("Chris Floersch");
+            String expected = new AuthTicketEncoder(config).encode(null, ticket).getEncoded();
+            assertEquals("auth_tkt=" + expected, writer.toHeader(null, ticket));
+         }
+      }
+   }
+
+   @Test
+   public void testMatchesEncoderUrlEncoding()
+   {
+      AuthTicketConfig config = config(DigestAlgorithm.MD5, false);
+      TicketCookieWriter writer = new TicketCookieWriter.Builder(config).path(null).build();
+      MutableAuthTicket ticket = new MutableAuthTicket("andré@example.com");
+      ticket.addToken("read write");
+      ticket.addToken("ops/admin");
+      ticket.setUserData("{\"name\":\"André 中文 😀\",\"q\":\"a+b=c&d~e*f\"}");
+      String expected = new AuthTicketEncoder(config).encode(null, ticket).getEncoded();
+      assertEquals("auth_tkt=" + expected, writer.toHeader(null, ticket));
+   }
+
+   @Test
+   public void testMatchesEncoderNoTokens()
+   {
+      AuthTicketConfig config = config(DigestAlgorithm.SHA256, false);
+      TicketCookieWriter writer = new TicketCookieWriter.Builder(config).path(null).build();
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.setUserData("");
+      String expected = new AuthTicketEncoder(config).encode(null, ticket).getEncoded();
+      assertEquals("auth_tkt=" + expected, writer.toHeader(null, ticket));
+   }
+
+   @Test
+   public void testMatchesEncoderWithCodec()
+   {
+      AuthTicketConfig config = config(DigestAlgorithm.SHA256, true);
+      config.setUserDataCodec(new UserDataCodec());
+      TicketCookieWriter writer = new TicketCookieWriter.Builder(config).path(null).build();
+      StringBuilder json = new StringBuilder("{\"groups\":[");
+      for(int i = 0; i < 20; i++) json.append("\"group-").append(i).append("\",");
+      MutableAuthTicket ticket = ticket(json.append("\"end\"]}").toString());
+      String expected = new AuthTicketEncoder(config).encode(null, ticket).getEncoded();
+      assertEquals("auth_tkt=" + expected, writer.toHeader(null, ticket));
+   }
+
+   @Test
+   public void testAuthenticates()
+   {
+      AuthTicketConfig config = config(DigestAlgorithm.SHA512, false);
+      config.setIgnoreIP(false);
+      String header = new TicketCookieWriter.Builder(config).build().toHeader("10.0.0.1", ticket("Chris"));
+      String cookie = header.substring(0, header.indexOf(';'));
+      AuthTicket ticket = new AuthTicketAuthenticator(config).authenticate(cookie, "10.0.0.1", Clock.systemUTC());
+      assertEquals("cfloersch", ticket.getUsername());
+      assertEquals("Chris", ticket.getUserData());
+   }
+
+   @Test
+   public void testAttributes()
+   {
+      AuthTicketConfig config = config(DigestAlgorithm.MD5, false);
+      config.setCookieName("tkt");
+      TicketCookieWriter writer = new TicketCookieWriter.Builder(config)
+                                       .domain(".example.com").path("/app").maxAge(3600)
+                                       .secure(true).httpOnly(true)
+                                       .sameSite(TicketCookieWriter.SameSite.LAX).build();
+      String attrs = "; Domain=.example.com; Path=/app; Max-Age=3600; Secure; HttpOnly; SameSite=Lax";
+      assertEquals(attrs, writer.getAttributes());
+      String header = writer.toHeader(null, ticket("Chris"));
+      assertTrue(header.startsWith("tkt="));
+      assertTrue(header.endsWith(attrs));
+   }
+
+   @Test
+   public void testDefaultAttributes()
+   {
+      TicketCookieWriter writer = new TicketCookieWriter.Builder(config(DigestAlgorithm.MD5, false)).build();
+      assertEquals("; Path=/", writer.getAttributes());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testSameSiteNoneRequiresSecure()
+   {
+      new TicketCookieWriter.Builder(config(DigestAlgorithm.MD5, false)).sameSite(TicketCookieWriter.SameSite.NONE).build();
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testInvalidDomain()
+   {
+      new TicketCookieWriter.Builder(config(DigestAlgorithm.MD5, false)).domain("example.com; Secure");
+   }
+
+   @Test
+   public void testByteBuffer()
+   {
+      TicketCookieWriter writer = new TicketCookieWriter.Builder(config(DigestAlgorithm.SHA256, false)).secure(true).build();
+      MutableAuthTicket ticket = ticket("Chris Floersch");
+      ByteBuffer buffer = ByteBuffer.allocate(512);
+      writer.write(null, ticket, buffer);
+      buffer.flip();
+      assertEquals(writer.toHeader(null, ticket), US_ASCII.decode(buffer).toString());
+   }
+
+   @Test(expected = BufferOverflowException.class)
+   public void testByteBufferOverflow()
+   {
+      TicketCookieWriter writer = new TicketCookieWriter.Builder(config(DigestAlgorithm.SHA256, false)).build();
+      writer.write(null, ticket("Chris Floersch"), ByteBuffer.allocate(32));
+   }
+
+
+
+   private static AuthTicketConfig config(DigestAlgorithm digest, boolean compact)
+   {
+      AuthTicketConfig config = new AuthTicketConfig(SECRET);
+      config.setDigestAlgorithm(digest);
+      config.setCompactFormat(compact);
+      return config;
+   }
+
+   private static MutableAuthTicket ticket(String userData)
+   {
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.addToken("reader");
+      ticket.addToken("finance");
+      ticket.setUserData(userData);
+      return ticket;
+   }
+
+}
@@ -0,0 +1,159 @@
+package xpertss.auth.tkt;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TicketEventsTest {
+
+   private static final String SECRET = "some_random_secret_key";
+
+
+   @Test
+   public void testNotRecording()
+   {
+      assertFalse(TicketEvents.isRecording());
+   }
+
+   @Test
+   public void testAuthenticationEvents() throws Exception
+   {
+      AuthTicketConfig config = new AuthTicketConfig(SECRET);
+      config.setDigestAlgorithm(DigestAlgorithm.SHA256);
+      AuthTicketAuthenticator authenticator = new AuthTicketAuthenticator(config);
+      String valid = new AuthTicketEncoder(config).encode(null, ticket()).getEncoded();
+
+      List<RecordedEvent> events = record(AuthenticationEvent.NAME, () -> {
+         assertTrue(TicketEvents.isRecording());
+         authenticator.authenticate("auth_tkt=" + valid, null, Clock.systemUTC());
+         try {
+            authenticator.authenticate("auth_tkt=" + valid.replace("cfloersch", "jblow"), null, Clock.systemUTC());
+            fail();
+         } catch(InvalidTicketException e) {
+            // expected
+         }
+         try {
+            authenticator.authenticate("other=1", null, Clock.systemUTC());
+            fail();
+         } catch(TicketNotFoundException e) {
+            // expected
+         }
+      });
+
+      assertEquals(3, events.size());
+      assertEquals("VALID", events.get(0).getString("outcome"));
+      assertEquals("SHA256", events.get(0).getString("digest"));
+      assertEquals("legacy", events.get(0).getString("format"));
+      assertEquals(1, events.get(0).getInt("decodeLayers"));
+      assertEquals(valid.length(), events.get(0).getInt("ticketLength"));
+      assertEquals("INVALID", events.get(1).getString("outcome"));
+      assertEquals("NOT_FOUND", events.get(2).getString("outcome"));
+   }
+
+   @Test
+   public void testFilterEvents() throws Exception
+   {
+      AuthTicketFilter filter = new AuthTicketFilter();
+      filter.init(new StubFilterConfig().set("TKTAuthSecret", SECRET)
+                                          .set("TKTAuthTimeoutRefresh", "1")
+                                          .set("TKTAuthLoginURL", "https://www.example.com/login"));
+      String valid = new AuthTicketEncoder(new AuthTicketConfig(SECRET)).encode(null, ticket()).getEncoded();
+
+      List<RecordedEvent> events = record(FilterEvent.NAME, () -> {
+         for(int i = 0; i < 2; i++) {
+            StubHttpServletRequest request = new StubHttpServletRequest("GET", "/app/page.do");
+            request.setHeader("Host", "www.example.com").setHeader("Cookie", "auth_tkt=" + valid);
+            filter.doFilter(request, new StubHttpServletResponse(), (req, resp) -> { });
+         }
+         StubHttpServletRequest request = new StubHttpServletRequest("GET", "/app/page.do");
+         request.setHeader("Host", "www.example.com");
+         filter.doFilter(request, new StubHttpServletResponse(), (req, resp) -> { });
+      });
+
+      assertEquals(3, events.size());
+      assertEquals("VALID", events.get(0).getString("outcome"));
+      assertEquals("MD5", events.get(0).getString("digest"));
+      assertTrue(events.get(0).getBoolean("refreshed"));
+      assertFalse(events.get(0).getBoolean("cacheHit"));
+      assertTrue(events.get(1).getBoolean("refreshed"));
+      assertTrue(events.get(1).getBoolean("cacheHit"));
+      assertEquals("NOT_FOUND", events.get(2).getString("outcome"));
+      filter.destroy();
+   }
+
+   @Test
+   public void testFilterEventWithThrowingChain() throws Exception
+   {
+      AuthTicketFilter filter = new AuthTicketFilter();
+      filter.init(new StubFilterConfig().set("TKTAuthSecret", SECRET)
+                                          .set("TKTAuthLoginURL", "https://www.example.com/login"));
+      String valid = new AuthTicketEncoder(new AuthTicketConfig(SECRET)).encode(null, ticket()).getEncoded();
+
+      List<RecordedEvent> events = record(FilterEvent.NAME, () -> {
+         StubHttpServletRequest request = new StubHttpServletRequest("GET", "/app/page.do");
+         request.setHeader("Host", "www.example.com").setHeader("Cookie", "auth_tkt=" + valid);
+         filter.doFilter(request, new StubHttpServletResponse(), (req, resp) -> {
+            throw new IllegalStateException("application failure");
+         });
+      });
+
+      assertEquals(1, events.size());
+      assertEquals("VALID", events.get(0).getString("outcome"));
+      filter.destroy();
+   }
+
+   @Test
+   public void testDecodeLayers()
+   {
+      assertEquals(0, DigestAlgorithm.decodeLayers("00112233445566778899aabbccddeeffaabbccddcfloersch!admin!Chris"));
+      assertEquals(1, DigestAlgorithm.decodeLayers("00112233445566778899aabbccddeeffaabbccddcfloersch%21admin%21Chris"));
+      assertEquals(1, DigestAlgorithm.decodeLayers("v2.AAAA"));
+      assertEquals(-1, DigestAlgorithm.decodeLayers("0011$$"));
+   }
+
+
+
+   private static List<RecordedEvent> record(String name, Action action) throws Exception
+   {
+      File file = File.createTempFile("auth-tkt", ".jfr");
+      try {
+         try(Recording recording = new Recording()) {
+            recording.enable(name).withoutThreshold();
+            recording.start();
+            action.run();
+            recording.stop();
+            recording.dump(file.toPath());
+         }
+         List<RecordedEvent> events = new ArrayList<>();
+         for(RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+            if(event.getEventType().getName().equals(name)) events.add(event);
+         }
+         events.sort((a, b) -> a.getStartTime().compareTo(b.getStartTime()));
+         return events;
+      } finally {
+         file.delete();
+      }
+   }
+
+   private static MutableAuthTicket ticket()
+   {
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.addToken("admin");
+      ticket.setUserData("Chris Floersch");
+      return ticket;
+   }
+
+   private interface Action {
+      void run() throws Exception;
+   }
+
+}
@@ -0,0 +1,114 @@
+package xpertss.auth.tkt;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TicketRefresherTest {
+
+   private static final byte[] checksum = { (byte) 0x00, (byte) 0x01, (byte) 0x02, (byte) 0x03 };
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testRefreshAboveOne()
+   {
+      new TicketRefresher(new AuthTicketConfig("some_random_secret_key"), 1.5, 5000);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void testRefreshBelowZero()
+   {
+      new TicketRefresher(new AuthTicketConfig("some_random_secret_key"), -0.5, 5000);
+   }
+
+   @Test
+   public void testIsDue()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setTimeout(3600);
+      TicketRefresher refresher = new TicketRefresher(config, 0.5, 5000);
+      AuthTicket ticket = EncodedAuthTicket.create(checksum, 1000, "cfloersch", null, "Chris");
+      assertFalse(refresher.isDue(ticket, 1000 * 1000));
+      assertFalse(refresher.isDue(ticket, (1000 + 1800) * 1000));
+      assertTrue(refresher.isDue(ticket, (1000 + 1800) * 1000 + 1));
+      assertTrue(refresher.isDue(ticket, (1000 + 3599) * 1000));
+   }
+
+   @Test
+   public void testAlwaysRefresh()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setTimeout(3600);
+      TicketRefresher refresher = new TicketRefresher(config, 1, 5000);
+      AuthTicket ticket = EncodedAuthTicket.create(checksum, 1000, "cfloersch", null, "Chris");
+      assertTrue(refresher.isDue(ticket, 1000 * 1000 + 1));
+   }
+
+   @Test
+   public void testNeverRefreshWithoutTimeout()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setTimeout(0);
+      TicketRefresher refresher = new TicketRefresher(config, 1, 5000);
+      AuthTicket ticket = EncodedAuthTicket.create(checksum, 1000, "cfloersch", null, "Chris");
+      assertFalse(refresher.isDue(ticket, Long.MAX_VALUE / 2));
+   }
+
+   @Test
+   public void testRefreshedTicketVerifies()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      TicketRefresher refresher = new TicketRefresher(config, 0.5, 5000);
+      AuthTicket ticket = EncodedAuthTicket.create(checksum, 1000, "cfloersch", "admin,finance", "Chris");
+
+      long now = System.currentTimeMillis();
+      AuthTicket refreshed = config.getDigestAlgorithm().parse(refresher.refresh(null, ticket, now));
+      assertEquals("cfloersch", refreshed.getUsername());
+      assertEquals("Chris", refreshed.getUserData());
+      assertEquals(ticket.getTokens(), refreshed.getTokens());
+      assertTrue(refreshed.getTimestamp() >= now / 1000);
+      assertTrue(new AuthTicketAuthenticator(config).verify(null, refreshed));
+   }
+
+   @Test
+   public void testRefreshCoalesced()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      TicketRefresher refresher = new TicketRefresher(config, 0.5, 5000);
+      AuthTicket one = EncodedAuthTicket.create(checksum, 1000, "cfloersch", "admin,finance", "Chris");
+      AuthTicket two = EncodedAuthTicket.create(checksum, 1005, "cfloersch", "admin,finance", "Chris");
+
+      String first = refresher.refresh(null, one, 10000);
+      assertSame(first, refresher.refresh(null, two, 14999));
+      assertNotSame(first, refresher.refresh(null, two, 15000));
+   }
+
+   @Test
+   public void testRefreshKeyedByTicketData()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      TicketRefresher refresher = new TicketRefresher(config, 0.5, 5000);
+      AuthTicket one = EncodedAuthTicket.create(checksum, 1000, "cfloersch", "admin,finance", "Chris");
+      AuthTicket two = EncodedAuthTicket.create(checksum, 1000, "cfloersch", "admin", "Chris");
+      AuthTicket three = EncodedAuthTicket.create(checksum, 1000, "cfloersch", "admin,finance", "Chris F");
+      AuthTicket four = EncodedAuthTicket.create(checksum, 1000, "jblow", "admin,finance", "Chris");
+
+      String first = refresher.refresh(null, one, 10000);
+      assertFalse(first.equals(refresher.refresh(null, two, 10000)));
+      assertFalse(first.equals(refresher.refresh(null, three, 10000)));
+      assertFalse(first.equals(refresher.refresh(null, four, 10000)));
+   }
+
+   @Test
+   public void testRefreshKeyedByRemoteIp()
+   {
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      config.setIgnoreIP(false);
+      TicketRefresher refresher = new TicketRefresher(config, 0.5, 5000);
+      AuthTicket ticket = EncodedAuthTicket.create(checksum, 1000, "cfloersch", "admin,finance", "Chris");
+
+      String first = refresher.refresh("192.168.1.12", ticket, 10000);
+      assertSame(first, refresher.refresh("192.168.1.12", ticket, 10000));
+      assertFalse(first.equals(refresher.refresh("192.168.1.13", ticket, 10000)));
+   }
+
+}
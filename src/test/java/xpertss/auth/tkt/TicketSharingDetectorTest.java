@@ -0,0 +1,157 @@
+package xpertss.auth.tkt;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TicketSharingDetectorTest {
+
+   private static final String SECRET = "some_random_secret_key";
+   private static final long NOW = 1_500_000_000_000L;
+
+
+   @Test
+   public void testSingleAddress()
+   {
+      List<String> shared = new ArrayList<>();
+      TicketSharingDetector detector = detector(2, shared);
+      AuthTicket ticket = ticket("cfloersch");
+      for(int i = 0; i < 1000; i++) assertFalse(detector.observe(ticket, "10.0.0.1", NOW + i));
+      assertEquals(1, detector.estimate(ticket, NOW));
+      assertTrue(shared.isEmpty());
+   }
+
+   @Test
+   public void testSharedTicket()
+   {
+      List<String> shared = new ArrayList<>();
+      TicketSharingDetector detector = detector(4, shared);
+      AuthTicket ticket = ticket("cfloersch");
+      boolean flagged = false;
+      for(int i = 1; i <= 50; i++) flagged = detector.observe(ticket, "10.0.0." + i, NOW);
+      assertTrue(flagged);
+      assertTrue(detector.observe(ticket, "10.0.0.1", NOW));
+      assertEquals(1, shared.size());
+      assertTrue(shared.get(0), shared.get(0).startsWith("cfloersch "));
+
+      // the sketch stops counting once the ticket is flagged
+      int estimate = detector.estimate(ticket, NOW);
+      assertTrue("estimate " + estimate, estimate > 4 && estimate < 10);
+      assertFalse(detector.observe(ticket("jblow"), "10.0.0.1", NOW));
+   }
+
+   @Test
+   public void testSmallCounts()
+   {
+      // over many seeds a few addresses are nearly always counted within one of the truth
+      int close = 0;
+      for(long seed = 0; seed < 200; seed++) {
+         TicketSharingDetector detector = new TicketSharingDetector(10, 3600, 16, (t, ip, n) -> { }, seed);
+         AuthTicket ticket = ticket("cfloersch");
+         for(int i = 1; i <= 3; i++) detector.observe(ticket, "192.168.1." + i, NOW);
+         int estimate = detector.estimate(ticket, NOW);
+         assertTrue("seed " + seed + " estimate " + estimate, estimate >= 1 && estimate <= 5);
+         if(estimate >= 2 && estimate <= 4) close++;
+      }
+      assertTrue("close " + close, close >= 190);
+   }
+
+   @Test
+   public void testWindow()
+   {
+      List<String> shared = new ArrayList<>();
+      TicketSharingDetector detector = detector(4, shared);
+      AuthTicket ticket = ticket("cfloersch");
+      for(int i = 1; i <= 3; i++) detector.observe(ticket, "10.0.0." + i, NOW);
+      assertTrue(detector.estimate(ticket, NOW + 3599_000) > 0);
+      assertEquals(0, detector.estimate(ticket, NOW + 3600_000));
+      assertFalse(detector.observe(ticket, "10.0.0.9", NOW + 3600_000));
+      assertEquals(1, detector.estimate(ticket, NOW + 3600_000));
+   }
+
+   @Test
+   public void testBoundedTable()
+   {
+      TicketSharingDetector detector = new TicketSharingDetector(4, 3600, 20, (t, ip, n) -> { });
+      assertEquals(32, detector.capacity());
+      AuthTicket last = null;
+      for(int i = 0; i < 1000; i++) {
+         last = ticket("user" + i);
+         detector.observe(last, "10.0.0.1", NOW + i * 1000);
+      }
+      assertEquals(1, detector.estimate(last, NOW + 1000_000));
+      assertEquals(0, detector.estimate(ticket("user0"), NOW + 1000_000));
+   }
+
+   @Test
+   public void testFilterRejects() throws Exception
+   {
+      AuthTicketFilter filter = new AuthTicketFilter();
+      filter.init(new StubFilterConfig()
+                     .set("TKTAuthSecret", SECRET)
+                     .set("TKTAuthLoginURL", "https://www.example.com/login")
+                     .set("TKTAuthSharingLimit", "2")
+                     .set("TKTAuthSharingTickets", "1024")
+                     .set("TKTAuthSharingReject", "on"));
+      String encoded = ticket("cfloersch").getEncoded();
+      int passed = 0;
+      for(int i = 1; i <= 40; i++) {
+         StubHttpServletRequest request = new StubHttpServletRequest("GET", "/app/page.do")
+                                                .setHeader("Host", "www.example.com")
+                                                .setRemoteAddr("10.0.0." + i)
+                                                .setHeader("Cookie", "auth_tkt=" + encoded);
+         StubHttpServletResponse response = new StubHttpServletResponse();
+         boolean[] chained = new boolean[1];
+         filter.doFilter(request, response, (req, res) -> chained[0] = true);
+         if(chained[0]) passed++;
+         else assertTrue(response.getHeader("Location").startsWith("https://www.example.com/login"));
+      }
+      filter.destroy();
+      assertTrue("passed " + passed, passed >= 1 && passed < 10);
+   }
+
+   @Test
+   public void testSpoofedHeaderIgnored() throws Exception
+   {
+      AuthTicketFilter filter = new AuthTicketFilter();
+      filter.init(new StubFilterConfig()
+                     .set("TKTAuthSecret", SECRET)
+                     .set("TKTAuthLoginURL", "https://www.example.com/login")
+                     .set("TKTAuthSharingLimit", "2")
+                     .set("TKTAuthSharingTickets", "1024")
+                     .set("TKTAuthSharingReject", "on"));
+      String encoded = ticket("cfloersch").getEncoded();
+      int passed = 0;
+      for(int i = 1; i <= 40; i++) {
+         // a stolen ticket pinned to its owner's forwarded address is still counted by connection
+         StubHttpServletRequest request = new StubHttpServletRequest("GET", "/app/page.do")
+                                                .setRemoteAddr("10.0.0." + i)
+                                                .setHeader("Host", "www.example.com")
+                                                .setHeader("X-Forward-For", "192.168.1.1")
+                                                .setHeader("Cookie", "auth_tkt=" + encoded);
+         boolean[] chained = new boolean[1];
+         filter.doFilter(request, new StubHttpServletResponse(), (req, res) -> chained[0] = true);
+         if(chained[0]) passed++;
+      }
+      filter.destroy();
+      assertTrue("passed " + passed, passed >= 1 && passed < 10);
+   }
+
+
+
+   private static TicketSharingDetector detector(int limit, List<String> shared)
+   {
+      return new TicketSharingDetector(limit, 3600, 1024, (ticket, ip, n) -> shared.add(ticket.getUsername() + " " + ip + " " + n));
+   }
+
+   private static AuthTicket ticket(String username)
+   {
+      MutableAuthTicket ticket = new MutableAuthTicket(username);
+      ticket.setUserData("Chris Floersch");
+      return DigestAlgorithm.MD5.parse(new AuthTicketEncoder(new AuthTicketConfig(SECRET)).encode(null, ticket).getEncoded());
+   }
+
+}
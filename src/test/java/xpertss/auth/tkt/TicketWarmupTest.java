@@ -0,0 +1,117 @@
+package xpertss.auth.tkt;
+
+import org.junit.Test;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TicketWarmupTest {
+
+   private static final String SECRET = "some_random_secret_key";
+
+
+   @Test
+   public void testIterationBudget()
+   {
+      List<String> reports = new ArrayList<>();
+      AuthTicketConfig config = new AuthTicketConfig(SECRET);
+      TicketWarmup warmup = new TicketWarmup(Collections.singletonList(config), 50, 60000, reports::add);
+      assertEquals(-1, warmup.getElapsedNanos());
+      warmup.run();
+      assertEquals(50, warmup.getIterations());
+      assertTrue(warmup.getElapsedNanos() > 0);
+      assertEquals(1, reports.size());
+      assertTrue(reports.get(0), reports.get(0).contains("ran 50 iterations over 2 paths"));
+   }
+
+   @Test
+   public void testTimeBudget()
+   {
+      TicketWarmup warmup = new TicketWarmup(Collections.singletonList(new AuthTicketConfig(SECRET)),
+                                             Integer.MAX_VALUE, 50, message -> { });
+      warmup.run();
+      assertTrue(warmup.getIterations() > 0);
+      assertTrue(warmup.getIterations() < Integer.MAX_VALUE);
+   }
+
+   @Test
+   public void testEveryPath()
+   {
+      AuthTicketConfig config = new AuthTicketConfig(SECRET);
+      config.setDigestAlgorithm(DigestAlgorithm.SHA512);
+      config.setAcceptedDigestAlgorithms(EnumSet.of(DigestAlgorithm.MD5, DigestAlgorithm.SHA256));
+      config.setTokens(Collections.singleton("admin"));
+      config.setIgnoreIP(false);
+      config.setUserDataCodec(new UserDataCodec());
+      List<String> reports = new ArrayList<>();
+      TicketWarmup warmup = new TicketWarmup(Collections.singletonList(config), 10, 60000, reports::add);
+      warmup.run();
+      assertEquals(10, warmup.getIterations());
+      assertTrue(reports.get(0), reports.get(0).contains("over 6 paths"));
+   }
+
+   @Test
+   public void testForgedRejected()
+   {
+      // payloads of every length modulo three, so some v2 tickets end in padding bits
+      for(DigestAlgorithm digest : DigestAlgorithm.values()) {
+         for(boolean compact : new boolean[] { false, true }) {
+            AuthTicketConfig issuer = new AuthTicketConfig(SECRET);
+            issuer.setDigestAlgorithm(digest);
+            issuer.setCompactFormat(compact);
+            AuthTicketAuthenticator authenticator = new AuthTicketAuthenticator(issuer);
+            for(String userData : new String[] { "a", "ab", "abc" }) {
+               MutableAuthTicket ticket = new MutableAuthTicket("warmup");
+               ticket.setUserData(userData);
+               try {
+                  authenticator.authenticate("auth_tkt=" + TicketWarmup.forge(issuer, ticket), null, Clock.systemUTC());
+                  fail(digest + " compact=" + compact + " forged ticket accepted");
+               } catch(InvalidTicketException e) {
+                  // expected
+               }
+            }
+         }
+      }
+   }
+
+   @Test
+   public void testCancel()
+   {
+      TicketWarmup warmup = new TicketWarmup(Collections.singletonList(new AuthTicketConfig(SECRET)),
+                                             Integer.MAX_VALUE, 60000, message -> { });
+      warmup.cancel();
+      warmup.run();
+      assertEquals(0, warmup.getIterations());
+   }
+
+   @Test
+   public void testRealConfigUntouched() throws Exception
+   {
+      AuthTicketConfig config = new AuthTicketConfig(SECRET);
+      config.setRevocationList(ticket -> { throw new AssertionError("warm-up consulted the revocation list"); });
+      new TicketWarmup(Collections.singletonList(config.freeze()), 5, 60000, message -> { }).run();
+
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.setUserData("Chris");
+      String encoded = new AuthTicketEncoder(new AuthTicketConfig(SECRET)).encode(null, ticket).getEncoded();
+      assertEquals("cfloersch", new AuthTicketAuthenticator(SECRET).authenticate("auth_tkt=" + encoded, null, Clock.systemUTC()).getUsername());
+   }
+
+   @Test
+   public void testFilterWarmup() throws Exception
+   {
+      AuthTicketFilter filter = new AuthTicketFilter();
+      filter.init(new StubFilterConfig()
+                     .set("TKTAuthSecret", SECRET)
+                     .set("TKTAuthLoginURL", "https://www.example.com/login")
+                     .set("TKTAuthWarmup", "20")
+                     .set("TKTAuthWarmupBackground", "on"));
+      filter.destroy();
+   }
+
+}
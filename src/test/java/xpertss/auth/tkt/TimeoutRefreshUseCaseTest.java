@@ -0,0 +1,113 @@
+package xpertss.auth.tkt;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/**
+ * Refresh use case configures a one hour timeout which is refreshed once half of it has
+ * elapsed, a cookie domain, and secure cookies.
+ *
+ * This tests the TKTAuthTimeoutRefresh, TKTAuthDomain and TKTAuthCookieSecure config items
+ */
+public class TimeoutRefreshUseCaseTest {
+
+   private static final byte[] checksum = { (byte) 0x00 };
+
+   private AuthTicketFilter objectUnderTest;
+   private AuthTicketEncoder encoder;
+   private StubHttpServletResponse response;
+   private FilterChain chain;
+   private int calls;
+
+   @Before
+   public void setUp()
+      throws ServletException
+   {
+      objectUnderTest = new AuthTicketFilter();
+      objectUnderTest.init(new StubFilterConfig().set("TKTAuthSecret", "some_random_secret_key")
+                                                  .set("TKTAuthIgnoreIP", "on")
+                                                  .set("TKTAuthTimeout", "1h")
+                                                  .set("TKTAuthTimeoutRefresh", "0.5")
+                                                  .set("TKTAuthDomain", ".manheim.com")
+                                                  .set("TKTAuthCookieSecure", "on")
+                                                  .set("TKTAuthLoginURL", "https://www.manheim.com/login"));
+
+      AuthTicketConfig config = new AuthTicketConfig("some_random_secret_key");
+      encoder = new AuthTicketEncoder(config);
+      response = new StubHttpServletResponse();
+      chain = (req, resp) -> calls++;
+   }
+
+
+   @Test
+   public void testFreshTicketNotRefreshed() throws ServletException, IOException
+   {
+      objectUnderTest.doFilter(request(ticket(60)), response, chain);
+      assertEquals(1, calls);
+      assertTrue(response.getCookies().isEmpty());
+   }
+
+   @Test
+   public void testAgedTicketRefreshed() throws ServletException, IOException
+   {
+      long before = System.currentTimeMillis() / 1000;
+      objectUnderTest.doFilter(request(ticket(2000)), response, chain);
+      assertEquals(1, calls);
+      assertEquals(1, response.getCookies().size());
+
+      Cookie cookie = response.getCookies().get(0);
+      assertEquals("auth_tkt", cookie.getName());
+      assertEquals(".manheim.com", cookie.getDomain());
+      assertEquals("/", cookie.getPath());
+      assertTrue(cookie.getSecure());
+
+      AuthTicket refreshed = DigestAlgorithm.MD5.parse(cookie.getValue());
+      assertEquals("cfloersch", refreshed.getUsername());
+      assertEquals("Chris", refreshed.getUserData());
+      assertTrue(refreshed.getTimestamp() >= before);
+   }
+
+   @Test
+   public void testBurstSharesRefreshedTicket() throws ServletException, IOException
+   {
+      String ticket = ticket(2000);
+      objectUnderTest.doFilter(request(ticket), response, chain);
+      objectUnderTest.doFilter(request(ticket), response, chain);
+      assertEquals(2, calls);
+      assertEquals(2, response.getCookies().size());
+      assertSame(response.getCookies().get(0).getValue(), response.getCookies().get(1).getValue());
+   }
+
+   @Test
+   public void testExpiredTicketNotRefreshed() throws ServletException, IOException
+   {
+      objectUnderTest.doFilter(request(ticket(4000)), response, chain);
+      assertEquals(0, calls);
+      assertEquals(302, response.getStatus());
+      assertTrue(response.getCookies().isEmpty());
+   }
+
+
+
+   private String ticket(long age)
+   {
+      long timestamp = System.currentTimeMillis() / 1000 - age;
+      AuthTicket ticket = EncodedAuthTicket.create(checksum, timestamp, "cfloersch", null, "Chris");
+      return encoder.encode(null, ticket).getEncoded();
+   }
+
+   private static StubHttpServletRequest request(String ticket)
+   {
+      return new StubHttpServletRequest("GET", "/simulcast/showBuyerSales.do")
+                  .setHeader("Host", "simulcast.manheim.com")
+                  .setHeader("Cookie", "auth_tkt=" + ticket);
+   }
+
+}
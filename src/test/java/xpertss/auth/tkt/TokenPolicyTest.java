@@ -0,0 +1,144 @@
+package xpertss.auth.tkt;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class TokenPolicyTest {
+
+   private static final String SECRET = "some_random_secret_key";
+
+
+   @Test
+   public void testPrecedence()
+   {
+      TokenPolicy policy = TokenPolicy.compile("finance AND (admin OR auditor) AND NOT suspended");
+      assertTrue(policy.test(ticket("finance", "admin")));
+      assertTrue(policy.test(ticket("finance", "auditor", "reader")));
+      assertFalse(policy.test(ticket("finance")));
+      assertFalse(policy.test(ticket("admin", "auditor")));
+      assertFalse(policy.test(ticket("finance", "admin", "suspended")));
+
+      TokenPolicy unbracketed = TokenPolicy.compile("finance and admin or auditor");
+      assertTrue(unbracketed.test(ticket("auditor")));
+      assertTrue(unbracketed.test(ticket("finance", "admin")));
+      assertFalse(unbracketed.test(ticket("finance")));
+   }
+
+   @Test
+   public void testSymbols()
+   {
+      TokenPolicy policy = TokenPolicy.compile("Workbook+OVE && !(guest || locked)");
+      assertTrue(policy.test(ticket("Workbook+OVE")));
+      assertFalse(policy.test(ticket("Workbook+OVE", "locked")));
+      assertTrue(TokenPolicy.compile("!!admin").test(ticket("admin")));
+      assertTrue(TokenPolicy.compile("a&b|c").test(ticket("c")));
+      assertFalse(TokenPolicy.compile("a&b|c").test(ticket("a")));
+   }
+
+   @Test
+   public void testKeywordPrefixedTokens()
+   {
+      TokenPolicy policy = TokenPolicy.compile("ORACLE or NOTARY or ANDROID");
+      assertEquals(Arrays.asList("ORACLE", "NOTARY", "ANDROID"), Arrays.asList(policy.getTokens()));
+      assertTrue(policy.test(ticket("NOTARY")));
+      assertFalse(policy.test(ticket("OR")));
+   }
+
+   @Test
+   public void testDistinctTokens()
+   {
+      TokenPolicy policy = TokenPolicy.compile("(a AND b) OR (a AND NOT b)");
+      assertEquals(2, policy.getTokens().length);
+      assertTrue(policy.test(ticket("a")));
+      assertFalse(policy.test(ticket("b")));
+   }
+
+   @Test
+   public void testInvalid()
+   {
+      for(String expression : new String[] { "a AND", "(a OR b", "a OR b)", "a b", "AND", "NOT", "a,b", "a OR OR b", "()" }) {
+         try {
+            TokenPolicy.compile(expression);
+            fail("compiled " + expression);
+         } catch(IllegalArgumentException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(expression));
+         }
+      }
+   }
+
+   @Test
+   public void testLimits()
+   {
+      StringBuilder wide = new StringBuilder("t0");
+      for(int i = 1; i < 64; i++) wide.append(" OR t").append(i);
+      assertTrue(TokenPolicy.compile(wide.toString()).test(ticket("t63")));
+      try {
+         TokenPolicy.compile(wide.append(" OR t64").toString());
+         fail("compiled 65 tokens");
+      } catch(IllegalArgumentException e) {
+         // expected
+      }
+
+      StringBuilder deep = new StringBuilder();
+      for(int i = 0; i < 64; i++) deep.append("a OR (");
+      deep.append('a');
+      for(int i = 0; i < 64; i++) deep.append(')');
+      try {
+         TokenPolicy.compile(deep.toString());
+         fail("compiled 65 deep");
+      } catch(IllegalArgumentException e) {
+         // expected
+      }
+   }
+
+   @Test
+   public void testEquality()
+   {
+      assertEquals(TokenPolicy.compile(" a OR b "), TokenPolicy.compile("a OR b"));
+      assertEquals("a OR b", TokenPolicy.compile(" a OR b ").toString());
+      assertFalse(TokenPolicy.compile("a OR b").equals(TokenPolicy.compile("a AND b")));
+   }
+
+   @Test
+   public void testFilterRedirectsToUnauth() throws Exception
+   {
+      AuthTicketFilter filter = new AuthTicketFilter();
+      filter.init(new StubFilterConfig()
+                     .set("TKTAuthSecret", SECRET)
+                     .set("TKTAuthLoginURL", "https://www.example.com/login")
+                     .set("TKTAuthUnauthURL", "https://www.example.com/unauth")
+                     .set("TKTAuthTokenPolicy", "finance AND (admin OR auditor)"));
+
+      StubHttpServletResponse response = new StubHttpServletResponse();
+      filter.doFilter(request("finance", "reader"), response, (req, res) -> fail("unauthorized request passed"));
+      assertTrue(response.getHeader("Location"), response.getHeader("Location").startsWith("https://www.example.com/unauth"));
+
+      boolean[] passed = new boolean[1];
+      filter.doFilter(request("finance", "auditor"), new StubHttpServletResponse(), (req, res) -> passed[0] = true);
+      assertTrue(passed[0]);
+      filter.destroy();
+   }
+
+
+
+   private static AuthTicket ticket(String ... tokens)
+   {
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      for(String token : tokens) ticket.addToken(token);
+      return ticket;
+   }
+
+   private static StubHttpServletRequest request(String ... tokens)
+   {
+      MutableAuthTicket ticket = (MutableAuthTicket) ticket(tokens);
+      ticket.setUserData("Chris Floersch");
+      String encoded = new AuthTicketEncoder(new AuthTicketConfig(SECRET)).encode(null, ticket).getEncoded();
+      return new StubHttpServletRequest("GET", "/app/page.do")
+                  .setHeader("Host", "www.example.com")
+                  .setHeader("Cookie", "auth_tkt=" + encoded);
+   }
+
+}
@@ -0,0 +1,226 @@
+package xpertss.auth.tkt;
+
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class UserDataCodecTest {
+
+   private static final String SECRET = "some_random_secret_key";
+
+   private static final String DICTIONARY = "{\"id\":,\"email\":\"\",\"name\":\"\",\"department\":\"\",\"roles\":[\"\"],\"groups\":[\"\"]}";
+
+
+   @Test
+   public void testRoundTrip()
+   {
+      UserDataCodec codec = new UserDataCodec();
+      String json = json(20);
+      String encoded = codec.encode(json);
+      assertTrue(encoded.startsWith("*z"));
+      assertTrue(encoded.length() < json.length() / 2);
+      assertEquals(json, codec.decode(encoded));
+   }
+
+   @Test
+   public void testSmallDataLeftAsIs()
+   {
+      UserDataCodec codec = new UserDataCodec();
+      assertEquals("Chris Floersch", codec.encode("Chris Floersch"));
+      assertEquals("", codec.encode(""));
+      assertNull(codec.encode(null));
+   }
+
+   @Test
+   public void testUncompressedDecodedAsIs()
+   {
+      UserDataCodec codec = new UserDataCodec();
+      assertEquals("Chris Floersch", codec.decode("Chris Floersch"));
+      assertNull(codec.decode(null));
+   }
+
+   @Test
+   public void testDictionary()
+   {
+      UserDataCodec plain = new UserDataCodec();
+      UserDataCodec codec = new UserDataCodec(DICTIONARY);
+      String json = json(1);
+      String encoded = codec.encode(json);
+      assertTrue(encoded.startsWith("*z"));
+      assertTrue(encoded.length() < plain.encode(json).length());
+      assertEquals(json, codec.decode(encoded));
+   }
+
+   @Test
+   public void testMarkerInPlainData()
+   {
+      UserDataCodec codec = new UserDataCodec();
+      for(String data : new String[] { "*z", "*zAAAA", "*zChris" }) {
+         String encoded = codec.encode(data);
+         assertTrue(encoded.startsWith("*z"));
+         assertEquals(data, codec.decode(encoded));
+      }
+   }
+
+   @Test
+   public void testCodecsShareThreadResources()
+   {
+      UserDataCodec plain = new UserDataCodec();
+      UserDataCodec codec = new UserDataCodec(DICTIONARY);
+      String json = json(3);
+      String encoded = codec.encode(json);
+      String other = plain.encode(json);
+      assertEquals(json, codec.decode(encoded));
+      assertEquals(json, plain.decode(other));
+      assertEquals(encoded, codec.encode(json));
+   }
+
+   @Test(expected = MalformedTicketException.class)
+   public void testCorrupt()
+   {
+      new UserDataCodec().decode("*zAAAA");
+   }
+
+   @Test(expected = MalformedTicketException.class)
+   public void testInvalidBase64()
+   {
+      new UserDataCodec().decode("*z$$$$");
+   }
+
+   @Test
+   public void testEquality()
+   {
+      assertEquals(new UserDataCodec(), new UserDataCodec());
+      assertEquals(new UserDataCodec(DICTIONARY), new UserDataCodec(DICTIONARY));
+      assertFalse(new UserDataCodec().equals(new UserDataCodec(DICTIONARY)));
+   }
+
+
+   @Test
+   public void testAuthenticate()
+   {
+      for(boolean compact : new boolean[] { false, true }) {
+         AuthTicketConfig config = config(compact);
+         String json = json(20);
+         String encoded = new AuthTicketEncoder(config).encode(null, ticket(json)).getEncoded();
+         assertFalse(encoded.contains("email"));
+
+         AuthTicket ticket = new AuthTicketAuthenticator(config).authenticate("auth_tkt=" + encoded, null, Clock.systemUTC());
+         assertTrue(((EncodedAuthTicket) ticket).getSignedUserData().startsWith("*z"));
+         assertEquals(json, ticket.getUserData());
+         assertEquals("cfloersch", ticket.getUsername());
+      }
+   }
+
+   @Test
+   public void testEncodedTicketKeepsUserData()
+   {
+      String json = json(20);
+      AuthTicket encoded = new AuthTicketEncoder(config(false)).encode(null, ticket(json));
+      assertEquals(json, encoded.getUserData());
+      assertTrue(new AuthTicketAuthenticator(config(false)).verify(null, encoded));
+   }
+
+   @Test
+   public void testChecksumCoversCompressedData()
+   {
+      AuthTicketConfig config = config(false);
+      String encoded = new AuthTicketEncoder(config).encode(null, ticket(json(20))).getEncoded();
+      AuthTicket parsed = DigestAlgorithm.MD5.parse(encoded);
+      assertTrue(parsed.getUserData().startsWith("*z"));
+      assertTrue(new AuthTicketAuthenticator(new AuthTicketConfig(SECRET)).verify(null, parsed));
+   }
+
+   @Test
+   public void testUncompressedTicketAccepted()
+   {
+      String encoded = new AuthTicketEncoder(new AuthTicketConfig(SECRET)).encode(null, ticket("Chris Floersch")).getEncoded();
+      AuthTicket ticket = new AuthTicketAuthenticator(config(false)).authenticate("auth_tkt=" + encoded, null, Clock.systemUTC());
+      assertEquals("Chris Floersch", ticket.getUserData());
+   }
+
+   @Test
+   public void testMarkerInPlainTicketData()
+   {
+      for(boolean compact : new boolean[] { false, true }) {
+         AuthTicketConfig config = config(compact);
+         String encoded = new AuthTicketEncoder(config).encode(null, ticket("*zAAAA")).getEncoded();
+         AuthTicket ticket = new AuthTicketAuthenticator(config).authenticate("auth_tkt=" + encoded, null, Clock.systemUTC());
+         assertEquals("*zAAAA", ticket.getUserData());
+      }
+   }
+
+   @Test(expected = InvalidTicketException.class)
+   public void testForged()
+   {
+      AuthTicketConfig config = config(false);
+      AuthTicket signed = new AuthTicketEncoder(config).encode(null, ticket(json(20)));
+      String data = ((EncodedAuthTicket) signed).getSignedUserData();
+      String forged = signed.getEncoded().replace(data, new UserDataCodec().encode(json(21)));
+      new AuthTicketAuthenticator(config).authenticate("auth_tkt=" + forged, null, Clock.systemUTC());
+   }
+
+   @Test
+   public void testFilterDecodesOnlyWhenRead() throws Exception
+   {
+      // the signed user data cannot be inflated, so any eager decode fails the request
+      String encoded = new AuthTicketEncoder(new AuthTicketConfig(SECRET)).encode(null, ticket("*zAAAA")).getEncoded();
+      for(boolean fast : new boolean[] { false, true }) {
+         AuthTicketFilter filter = new AuthTicketFilter();
+         filter.init(new StubFilterConfig()
+                        .set("TKTAuthSecret", SECRET)
+                        .set("TKTAuthLoginURL", "https://www.example.com/login")
+                        .set("TKTAuthFastStartup", Boolean.toString(fast))
+                        .set("TKTAuthUserDataCompression", "on"));
+         StubHttpServletRequest request = new StubHttpServletRequest("GET", "/app/page.do")
+                                                .setHeader("Host", "www.example.com")
+                                                .setHeader("Cookie", "auth_tkt=" + encoded);
+         AtomicReference<HttpServletRequest> seen = new AtomicReference<>();
+         filter.doFilter(request, new StubHttpServletResponse(), (req, res) -> seen.set((HttpServletRequest) req));
+         filter.destroy();
+
+         assertEquals("cfloersch", seen.get().getRemoteUser());
+         try {
+            seen.get().getAttribute(AuthTicketFilter.USER_DATA_ATTRIBUTE);
+            fail("user data decoded");
+         } catch(MalformedTicketException e) {
+            // decoded only now that it was read
+         }
+      }
+   }
+
+
+
+   private static AuthTicketConfig config(boolean compact)
+   {
+      AuthTicketConfig config = new AuthTicketConfig(SECRET);
+      config.setCompactFormat(compact);
+      config.setUserDataCodec(new UserDataCodec());
+      return config;
+   }
+
+   private static MutableAuthTicket ticket(String userData)
+   {
+      MutableAuthTicket ticket = new MutableAuthTicket("cfloersch");
+      ticket.addToken("admin");
+      ticket.setUserData(userData);
+      return ticket;
+   }
+
+   private static String json(int groups)
+   {
+      StringBuilder builder = new StringBuilder();
+      builder.append("{\"id\":1234,\"email\":\"chris@example.com\",\"name\":\"Chris Floersch\",");
+      builder.append("\"department\":\"Engineering\",\"roles\":[\"admin\",\"reader\"],\"groups\":[");
+      for(int i = 0; i < groups; i++) {
+         if(i > 0) builder.append(",");
+         builder.append("\"engineering-group-").append(i).append("\"");
+      }
+      return builder.append("]}").toString();
+   }
+
+}